@@ -22,6 +22,13 @@ public interface IOFConnectionBackend extends IOFConnection {
 
     /** set the message/closing listener for this connection */
     void setListener(IOFConnectionListener listener);
+
+    /**
+     * Run a task on the thread that handles this connection's I/O, which
+     * delivers its messages and its closing to the listener
+     * @param task the task to run
+     */
+    void executeOnEventLoop(Runnable task);
     
     /**
      * Update the present latency between the switch and
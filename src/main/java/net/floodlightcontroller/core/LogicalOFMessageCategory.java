@@ -14,6 +14,13 @@ public class LogicalOFMessageCategory {
 
     public static final LogicalOFMessageCategory MAIN =  new LogicalOFMessageCategory("MAIN", OFAuxId.MAIN);
 
+    /**
+     * Packet-ins and packet-outs, on the first aux connection, so bursts of
+     * them do not delay flow programming and echoes on the main connection.
+     * Registered by the switch manager when auxiliary connections are enabled.
+     */
+    public static final LogicalOFMessageCategory PACKET_IN =  new LogicalOFMessageCategory("PACKET_IN", 1);
+
     final private String name;
     final private OFAuxId auxId;
 
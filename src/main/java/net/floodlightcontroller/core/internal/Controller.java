@@ -406,15 +406,23 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
                     }
                     pktinProcTimeService.recordStartTimePktIn();
                     Command cmd;
+                    // The latency histograms are always on, and share one
+                    // clock read between consecutive listeners
+                    long chainStartNs = System.nanoTime();
+                    long startNs = chainStartNs;
                     for (IOFMessageListener listener : listeners) {
                         pktinProcTimeService.recordStartTimeComp(listener);
                         cmd = listener.receive(sw, m, bc);
                         pktinProcTimeService.recordEndTimeComp(listener);
+                        long endNs = System.nanoTime();
+                        pktinProcTimeService.recordListenerTime(listener, m.getType(), endNs - startNs);
+                        startNs = endNs;
 
                         if (Command.STOP.equals(cmd)) {
                             break;
                         }
                     }
+                    pktinProcTimeService.recordMessageTime(m.getType(), startNs - chainStartNs);
                     pktinProcTimeService.recordEndTimePktIn(sw, m, bc);
                 }
                 // paag
@@ -756,7 +764,7 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
     }
 
     @Override
-    public void addInfoProvider(String type, IInfoProvider provider) {
+    public synchronized void addInfoProvider(String type, IInfoProvider provider) {
         if (!providerMap.containsKey(type)) {
             providerMap.put(type, new ArrayList<IInfoProvider>());
         }
@@ -764,7 +772,7 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
     }
 
     @Override
-    public void removeInfoProvider(String type, IInfoProvider provider) {
+    public synchronized void removeInfoProvider(String type, IInfoProvider provider) {
         if (!providerMap.containsKey(type)) {
             log.debug("Provider type {} doesn't exist.", type);
             return;
@@ -0,0 +1,57 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFAuxId;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Chooses the worker event loop that serves a switch connection.  Netty
+ * hands accepted connections to the worker loops in turn, before anyone
+ * knows which switch is connecting, so busy and idle switches can end up
+ * sharing a loop while others sit empty.  Once the features reply tells
+ * us the DPID and auxiliary ID, the connection is moved to the loop chosen
+ * here.
+ *
+ * The DPID picks a switch's home loop and each auxiliary connection uses
+ * the loop after the previous one, so a switch's main and auxiliary
+ * connections are served by different loops and a switch always lands on
+ * the same loops when it reconnects.
+ */
+public class EventLoopAffinity {
+    private final List<EventLoop> loops;
+
+    /**
+     * @param group the worker event loop group
+     */
+    public EventLoopAffinity(EventLoopGroup group) {
+        List<EventLoop> l = new ArrayList<EventLoop>();
+        for (EventExecutor e : group) {
+            l.add((EventLoop) e);
+        }
+        this.loops = ImmutableList.copyOf(l);
+    }
+
+    /**
+     * @param dpid the switch DPID
+     * @param auxId the auxiliary ID of the connection
+     * @return the event loop that should serve the connection
+     */
+    public EventLoop getEventLoop(DatapathId dpid, OFAuxId auxId) {
+        return loops.get(getIndex(dpid, auxId, loops.size()));
+    }
+
+    static int getIndex(DatapathId dpid, OFAuxId auxId, int nLoops) {
+        /* DPIDs often differ only in their low bytes, so mix all the bits */
+        long h = dpid.getLong() * 0x9E3779B97F4A7C15L;
+        int home = (int) ((h ^ (h >>> 32)) & 0x7fffffff) % nLoops;
+        return (home + auxId.getValue()) % nLoops;
+    }
+}
@@ -0,0 +1,166 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the load on each worker event loop, so the number of worker
+ * threads can be sized from what the loops are actually doing.  For every
+ * loop it keeps debug counters with the number of switch connections it
+ * serves, the number of tasks waiting to run and how long a task waited
+ * before the loop ran it.  The counters are gauges that are refreshed
+ * every sampling interval.
+ *
+ * A loop whose task latency keeps growing while its neighbours are idle is
+ * overloaded by its switches; latency that is high on every loop means
+ * there are too few worker threads.
+ */
+public class EventLoopLoadMonitor {
+    private static final Logger log =
+            LoggerFactory.getLogger(EventLoopLoadMonitor.class);
+
+    private final Timer timer;
+    private final int intervalSeconds;
+    private final List<LoopCounters> loops = new ArrayList<LoopCounters>();
+    private final ChannelGroup channels =
+            new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private volatile boolean stopped = false;
+
+    /**
+     * @param group the worker event loop group
+     * @param debugCounters the debug counter service
+     * @param timer the timer used to take samples
+     * @param intervalSeconds the sampling interval
+     */
+    public EventLoopLoadMonitor(EventLoopGroup group,
+                                IDebugCounterService debugCounters,
+                                Timer timer,
+                                int intervalSeconds) {
+        this.timer = timer;
+        this.intervalSeconds = intervalSeconds;
+        String prefix = OFSwitchManager.class.getSimpleName();
+        debugCounters.registerModule(prefix);
+        int i = 0;
+        for (EventExecutor e : group) {
+            loops.add(new LoopCounters(e, debugCounters, prefix, i++));
+        }
+    }
+
+    /**
+     * Count a switch connection against the loop that serves it, until it
+     * closes
+     * @param channel the connection's channel
+     */
+    public void track(Channel channel) {
+        channels.add(channel);
+    }
+
+    public void start() {
+        schedule();
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Refresh the connection and pending task counts, and send a probe
+     * task to each loop that records how long it waited to run
+     */
+    void sample() {
+        Map<EventExecutor, Integer> connections =
+                new HashMap<EventExecutor, Integer>();
+        for (Channel ch : channels) {
+            if (!ch.isRegistered()) continue;
+            Integer n = connections.get(ch.eventLoop());
+            connections.put(ch.eventLoop(), n == null ? 1 : n + 1);
+        }
+        for (final LoopCounters lc : loops) {
+            Integer n = connections.get(lc.loop);
+            lc.connections.set(n == null ? 0 : n);
+            if (lc.loop instanceof SingleThreadEventExecutor) {
+                lc.pendingTasks.set(
+                        ((SingleThreadEventExecutor) lc.loop).pendingTasks());
+            }
+            final long queued = System.nanoTime();
+            lc.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    lc.taskLatency.set(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - queued));
+                }
+            });
+        }
+        if (log.isDebugEnabled()) {
+            StringBuilder sb = new StringBuilder();
+            for (LoopCounters lc : loops) {
+                sb.append(' ').append(lc.name).append('=')
+                  .append(lc.connections.getCounterValue()).append('/')
+                  .append(lc.pendingTasks.getCounterValue()).append('/')
+                  .append(lc.taskLatency.getCounterValue());
+            }
+            log.debug("Event loop connections/pending tasks/task latency (us):{}", sb);
+        }
+    }
+
+    private void schedule() {
+        if (stopped) return;
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (stopped) return;
+                try {
+                    sample();
+                } catch (Exception e) {
+                    log.warn("Failed to sample event loop load", e);
+                }
+                schedule();
+            }
+        }, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static class LoopCounters {
+        final EventExecutor loop;
+        final String name;
+        final IDebugCounter connections;
+        final IDebugCounter pendingTasks;
+        final IDebugCounter taskLatency;
+
+        LoopCounters(EventExecutor loop, IDebugCounterService debugCounters,
+                     String prefix, int index) {
+            this.loop = loop;
+            this.name = "event-loop-" + index;
+            debugCounters.registerCounter(prefix, name,
+                    "Load on worker event loop " + index);
+            connections = debugCounters.registerCounter(prefix,
+                    name + "/connections",
+                    "Switch connections served by the event loop");
+            pendingTasks = debugCounters.registerCounter(prefix,
+                    name + "/pending-tasks",
+                    "Tasks waiting to run on the event loop when last sampled");
+            taskLatency = debugCounters.registerCounter(prefix,
+                    name + "/task-latency-us",
+                    "Microseconds the last probe task waited before the " +
+                    "event loop ran it");
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of switch handshakes that run at once.  When many
+ * switches connect at the same time, for example after a controller
+ * restart, running every handshake concurrently makes all of them slow
+ * enough to time out, and the switches reconnect and start over.  Instead,
+ * handshakes beyond the limit wait in a queue and are started in order as
+ * earlier handshakes complete or their connections close.
+ *
+ * A handshake admitted right away is started by the caller, on the I/O
+ * thread of its connection.  A queued handshake is handed off to the I/O
+ * thread of its own connection by whichever thread frees its slot, so it
+ * never runs concurrently with the messages or the closing of its
+ * connection.  If the connection closed while the handshake waited for
+ * that thread, the handshake has given up its slot and is not started.
+ */
+public class HandshakeAdmissionController {
+    private static final Logger log =
+            LoggerFactory.getLogger(HandshakeAdmissionController.class);
+
+    private final int maxConcurrent;
+    private final SwitchManagerCounters counters;
+
+    private final Set<OFSwitchHandshakeHandler> active =
+            Collections.newSetFromMap(
+                    new IdentityHashMap<OFSwitchHandshakeHandler, Boolean>());
+    private final ArrayDeque<OFSwitchHandshakeHandler> queued =
+            new ArrayDeque<OFSwitchHandshakeHandler>();
+
+    /**
+     * @param maxConcurrent the number of handshakes allowed to run at once,
+     * or 0 for no limit
+     * @param counters the switch manager counters, or null
+     */
+    public HandshakeAdmissionController(int maxConcurrent,
+                                        SwitchManagerCounters counters) {
+        this.maxConcurrent = maxConcurrent;
+        this.counters = counters;
+    }
+
+    /**
+     * Start the handshake now if there is room, or queue it
+     * @param handler the handshake handler for a new main connection
+     */
+    public void admit(OFSwitchHandshakeHandler handler) {
+        synchronized (this) {
+            if (maxConcurrent > 0 && active.size() >= maxConcurrent) {
+                queued.add(handler);
+                if (counters != null)
+                    counters.handshakeQueued.increment();
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Switch handshake queued; {} running, {} waiting",
+                              new Object[] { handler.getDpid(),
+                                             active.size(), queued.size() });
+                }
+                return;
+            }
+            active.add(handler);
+        }
+        handler.beginHandshake();
+    }
+
+    /**
+     * Release the handshake's slot, or remove it from the queue, and start
+     * the handshakes that can now run.  Calling this for a handler that
+     * holds no slot has no effect.
+     * @param handler the handshake handler that completed or closed
+     */
+    public void release(OFSwitchHandshakeHandler handler) {
+        synchronized (this) {
+            if (!active.remove(handler)) {
+                queued.remove(handler);
+                return;
+            }
+        }
+        startQueued();
+    }
+
+    /**
+     * @param handler a handshake handler
+     * @return true if the handshake is waiting for a slot
+     */
+    public synchronized boolean isQueued(OFSwitchHandshakeHandler handler) {
+        return queued.contains(handler);
+    }
+
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued.size();
+    }
+
+    private void startQueued() {
+        while (true) {
+            final OFSwitchHandshakeHandler next;
+            synchronized (this) {
+                if (queued.isEmpty() ||
+                    (maxConcurrent > 0 && active.size() >= maxConcurrent))
+                    return;
+                next = queued.poll();
+                active.add(next);
+            }
+            log.debug("[{}] Starting queued switch handshake", next.getDpid());
+            try {
+                next.executeOnConnection(new Runnable() {
+                    @Override
+                    public void run() {
+                        start(next);
+                    }
+                });
+            } catch (RuntimeException e) {
+                failed(next, e);
+            }
+        }
+    }
+
+    /* Runs on the I/O thread of the handshake's connection */
+    private void start(OFSwitchHandshakeHandler handler) {
+        synchronized (this) {
+            if (!active.contains(handler))
+                return; /* closed while waiting for its thread */
+        }
+        try {
+            handler.beginHandshake();
+        } catch (RuntimeException e) {
+            failed(handler, e);
+        }
+    }
+
+    private void failed(OFSwitchHandshakeHandler handler, RuntimeException e) {
+        log.error("[{}] Failed to start queued switch handshake",
+                  handler.getDpid(), e);
+        /* Free the slot here rather than rely on the handler */
+        release(handler);
+        handler.cleanup();
+    }
+}
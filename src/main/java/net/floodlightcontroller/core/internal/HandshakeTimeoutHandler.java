@@ -81,6 +81,13 @@ public class HandshakeTimeoutHandler extends ChannelInboundHandlerAdapter {
             if (!ctx.channel().isOpen()) {
                 return;
             }
+            if (handshakeHandler.isSwitchHandshakeQueued()) {
+                // The handshake has not started yet, so start the
+                // timeout over
+                HandshakeTimeoutHandler.this.timeout =
+                        timer.newTimeout(this, timeoutNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
             if (!handshakeHandler.isSwitchHandshakeComplete())
                 ctx.fireExceptionCaught(EXCEPTION);
         }
@@ -21,4 +21,12 @@ public interface IOFConnectionListener {
     void messageWritten(IOFConnectionBackend connection, OFMessage m);
 	
     boolean isSwitchHandshakeComplete(IOFConnectionBackend connection);
+
+    /**
+     * Whether the switch handshake for this connection is waiting for its
+     * turn to start, in which case the handshake timeout should not run yet
+     *
+     * @param connection
+     */
+    boolean isSwitchHandshakeQueued(IOFConnectionBackend connection);
 }
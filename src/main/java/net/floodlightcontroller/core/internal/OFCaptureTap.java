@@ -0,0 +1,39 @@
+package net.floodlightcontroller.core.internal;
+
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import net.floodlightcontroller.cpanalyzer.IOFCaptureService;
+
+/**
+ * Hands the messages of one connection, as read and written by the
+ * {@link OFMessageDecoder} and {@link OFMessageEncoder}, to the capture
+ * service. The features reply read during the handshake tells it the
+ * switch of the connection, for capture filters.
+ */
+class OFCaptureTap {
+	private final IOFCaptureService captureService;
+	private volatile DatapathId dpid;
+
+	OFCaptureTap(IOFCaptureService captureService) {
+		this.captureService = captureService;
+	}
+
+	/**
+	 * @param buf the buffer the message was read from or written to
+	 * @param start the index of the first byte of the message in buf
+	 * @param end the index after the last byte of the message in buf
+	 */
+	void onMessage(Channel channel, boolean fromSwitch, OFMessage m, ByteBuf buf, int start, int end) {
+		if (fromSwitch && m.getType() == OFType.FEATURES_REPLY) {
+			dpid = ((OFFeaturesReply) m).getDatapathId();
+		}
+		if (captureService.isCapturing()) {
+			captureService.capture(channel, dpid, fromSwitch, m.getType(), buf.slice(start, end - start));
+		}
+	}
+}
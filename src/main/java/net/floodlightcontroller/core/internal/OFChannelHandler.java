@@ -11,11 +11,15 @@ import java.util.concurrent.RejectedExecutionException;
 import javax.annotation.Nonnull;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.util.AttributeKey;
 import io.netty.util.Timer;
 import net.floodlightcontroller.core.IOFConnectionBackend;
@@ -23,6 +27,7 @@ import net.floodlightcontroller.core.internal.OFChannelInitializer.PipelineHandl
 import net.floodlightcontroller.core.internal.OFChannelInitializer.PipelineHandshakeTimeout;
 import net.floodlightcontroller.core.internal.OFChannelInitializer.PipelineIdleReadTimeout;
 import net.floodlightcontroller.core.internal.OFChannelInitializer.PipelineIdleWriteTimeout;
+import net.floodlightcontroller.core.internal.OFChannelInitializer.PipelineReadTimeout;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 
 import org.projectfloodlight.openflow.exceptions.OFParseError;
@@ -71,6 +76,7 @@ class OFChannelHandler extends SimpleChannelInboundHandler<Iterable<OFMessage>>
 	private volatile OFConnection connection;
 	private final IDebugCounterService debugCounters;
 	private final List<U32> ofBitmaps;
+	private final EventLoopAffinity affinity;
 
 	/** transaction Ids to use during handshake. Since only one thread
 	 * calls into the OFChannelHandler we don't need atomic.
@@ -377,8 +383,14 @@ class OFChannelHandler extends SimpleChannelInboundHandler<Iterable<OFMessage>>
 
 			featuresLatency = (System.nanoTime()/1000000 - featuresLatency) / 2;
 
-			// Mark handshake as completed
-			setState(new CompleteState());
+			// Move to the switch's own event loop, if it has one, then mark
+			// handshake as completed
+			EventLoop target = getAffinityEventLoop();
+			if (target != null && target != channel.eventLoop()) {
+				setState(new WaitEventLoopState(target));
+			} else {
+				setState(new CompleteState());
+			}
 
 		}
 
@@ -428,6 +440,89 @@ class OFChannelHandler extends SimpleChannelInboundHandler<Iterable<OFMessage>>
 		}
 	};
 
+	/**
+	 * We have the features reply and are moving the channel to the worker
+	 * event loop chosen for the switch. Reads stop while the channel is
+	 * between loops, and the handshake completes on the new loop.
+	 */
+	class WaitEventLoopState extends OFChannelState {
+		private final EventLoop target;
+
+		WaitEventLoopState(EventLoop target) {
+			super(false);
+			this.target = target;
+		}
+
+		@Override
+		void processOFPortStatus(OFPortStatus m) {
+			log.warn("Ignoring PORT_STATUS message from {} during OpenFlow channel establishment. Ports will be explicitly queried in a later state.", channel.remoteAddress());
+		}
+
+		@Override
+		void processOFMessage(OFMessage m) throws IOException {
+			if (m.getType().equals(OFType.PACKET_IN)) {
+				log.warn("Ignoring PACKET_IN message from {} during OpenFlow channel establishment.", channel.remoteAddress());
+			} else {
+				super.processOFMessage(m);
+			}
+		}
+
+		@Override
+		void enterState() throws IOException {
+			log.debug("[{}] Moving connection to its event loop", getConnectionInfoString());
+			/*
+			 * The timeout handlers schedule their checks on the loop they
+			 * were added on, so they are added again once the channel is
+			 * registered on its new loop
+			 */
+			pipeline.remove(PipelineHandler.MAIN_IDLE);
+			pipeline.remove(PipelineHandler.READ_TIMEOUT);
+			channel.deregister().addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					if (!future.isSuccess()) {
+						moveFailed(future.cause());
+						return;
+					}
+					target.register(channel).addListener(new ChannelFutureListener() {
+						@Override
+						public void operationComplete(ChannelFuture future) throws Exception {
+							if (!future.isSuccess()) {
+								moveFailed(future.cause());
+								return;
+							}
+							addTimeoutHandlers();
+							try {
+								setState(new CompleteState());
+							} catch (IOException e) {
+								pipeline.fireExceptionCaught(e);
+							}
+							/* Resume reading in case registering did not */
+							channel.read();
+						}
+					});
+				}
+			});
+		}
+
+		private void addTimeoutHandlers() {
+			pipeline.addBefore(PipelineHandler.CHANNEL_HANDSHAKE_TIMEOUT,
+					PipelineHandler.MAIN_IDLE,
+					new IdleStateHandler(PipelineIdleReadTimeout.MAIN,
+							PipelineIdleWriteTimeout.MAIN,
+							0));
+			pipeline.addBefore(PipelineHandler.CHANNEL_HANDSHAKE_TIMEOUT,
+					PipelineHandler.READ_TIMEOUT,
+					new ReadTimeoutHandler(PipelineReadTimeout.MAIN));
+		}
+
+		private void moveFailed(Throwable cause) {
+			log.error("Disconnecting switch {}: failed to move connection to its event loop",
+					getConnectionInfoString(), cause);
+			channel.close();
+		}
+	}
+
 	/**
 	 * This state denotes that the channel handshaking is complete.
 	 * An OF connection is generated and passed to the switch manager
@@ -489,6 +584,27 @@ class OFChannelHandler extends SimpleChannelInboundHandler<Iterable<OFMessage>>
 			@Nonnull Timer timer,
 			@Nonnull List<U32> ofBitmaps,
 			@Nonnull OFFactory defaultFactory) {
+		this(switchManager, newConnectionListener, pipeline, debugCounters,
+				timer, ofBitmaps, defaultFactory, null);
+	}
+
+	/**
+	 * Creates a handler for interacting with the switch channel that moves
+	 * the channel to the switch's own worker event loop once the switch
+	 * has identified itself.
+	 *
+	 * @param affinity
+	 *            chooses the event loop for the switch, or null to keep
+	 *            the event loop the connection was accepted on
+	 */
+	OFChannelHandler(@Nonnull IOFSwitchManager switchManager,
+			@Nonnull INewOFConnectionListener newConnectionListener,
+			@Nonnull ChannelPipeline pipeline,
+			@Nonnull IDebugCounterService debugCounters,
+			@Nonnull Timer timer,
+			@Nonnull List<U32> ofBitmaps,
+			@Nonnull OFFactory defaultFactory,
+			EventLoopAffinity affinity) {
 
 		Preconditions.checkNotNull(switchManager, "switchManager");
 		Preconditions.checkNotNull(newConnectionListener, "connectionOpenedListener");
@@ -504,6 +620,7 @@ class OFChannelHandler extends SimpleChannelInboundHandler<Iterable<OFMessage>>
 		this.timer = timer;
 		this.ofBitmaps = ofBitmaps;
 		this.factory = defaultFactory;
+		this.affinity = affinity;
 
 		log.debug("constructor on OFChannelHandler {}", String.format("%08x", System.identityHashCode(this)));
 	}
@@ -557,6 +674,32 @@ class OFChannelHandler extends SimpleChannelInboundHandler<Iterable<OFMessage>>
 		}
 	}
 
+	/**
+	 * Is the switch handshake waiting for its turn to start? This is the
+	 * case when too many other switches are in their handshakes.
+	 * @return true if the switch handshake has not started yet
+	 */
+	public boolean isSwitchHandshakeQueued() {
+		if (this.state.channelHandshakeComplete) {
+			return connection.getListener().isSwitchHandshakeQueued(connection);
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the event loop chosen for the switch's connection, or null if
+	 * connections stay on the event loop they were accepted on
+	 */
+	private EventLoop getAffinityEventLoop() {
+		if (affinity == null) {
+			return null;
+		}
+		OFAuxId auxId = featuresReply.getVersion().compareTo(OFVersion.OF_13) < 0
+				? OFAuxId.MAIN : featuresReply.getAuxiliaryId();
+		return affinity.getEventLoop(featuresReply.getDatapathId(), auxId);
+	}
+
 	/**
 	 * Notifies the channel listener that we have a valid baseline connection
 	 */
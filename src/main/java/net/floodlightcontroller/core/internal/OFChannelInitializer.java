@@ -37,6 +37,7 @@ import net.floodlightcontroller.core.internal.IOFSwitchManager;
 import net.floodlightcontroller.core.internal.HandshakeTimeoutHandler;
 import net.floodlightcontroller.core.internal.INewOFConnectionListener;
 import net.floodlightcontroller.core.internal.OFChannelHandler;
+import net.floodlightcontroller.cpanalyzer.IOFCaptureService;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
@@ -61,6 +62,9 @@ public class OFChannelInitializer extends ChannelInitializer<Channel> {
 	private String keyStorePassword;
 	private OFFactory defaultFactory;
 	private List<U32> ofBitmaps;
+	private IOFCaptureService captureService;
+	private EventLoopAffinity affinity;
+	private EventLoopLoadMonitor loadMonitor;
 
 	public OFChannelInitializer(IOFSwitchManager switchManager,
 			INewOFConnectionListener connectionListener,
@@ -69,7 +73,28 @@ public class OFChannelInitializer extends ChannelInitializer<Channel> {
 			List<U32> ofBitmaps,
 			OFFactory defaultFactory,
 			String keyStore, 
-			String keyStorePassword) {
+			String keyStorePassword,
+			IOFCaptureService captureService) {
+		this(switchManager, connectionListener, debugCounters, timer, ofBitmaps,
+				defaultFactory, keyStore, keyStorePassword, captureService, null, null);
+	}
+
+	/**
+	 * @param affinity chooses the worker event loop for each switch
+	 * connection, or null to keep the loop it was accepted on
+	 * @param loadMonitor counts connections per worker event loop, or null
+	 */
+	public OFChannelInitializer(IOFSwitchManager switchManager,
+			INewOFConnectionListener connectionListener,
+			IDebugCounterService debugCounters,
+			Timer timer,
+			List<U32> ofBitmaps,
+			OFFactory defaultFactory,
+			String keyStore, 
+			String keyStorePassword,
+			IOFCaptureService captureService,
+			EventLoopAffinity affinity,
+			EventLoopLoadMonitor loadMonitor) {
 		super();
 		this.switchManager = switchManager;
 		this.connectionListener = connectionListener;
@@ -79,6 +104,9 @@ public class OFChannelInitializer extends ChannelInitializer<Channel> {
 		this.ofBitmaps = ofBitmaps;
 		this.keyStore = keyStore;
 		this.keyStorePassword = keyStorePassword;
+		this.captureService = captureService;
+		this.affinity = affinity;
+		this.loadMonitor = loadMonitor;
 	}
 
 	@Override
@@ -91,7 +119,12 @@ public class OFChannelInitializer extends ChannelInitializer<Channel> {
 				debugCounters,
 				timer,
 				ofBitmaps,
-				defaultFactory);
+				defaultFactory,
+				affinity);
+
+		if (loadMonitor != null) {
+			loadMonitor.track(ch);
+		}
 
 		if (keyStore != null && keyStorePassword != null) {
 			try {
@@ -132,15 +165,18 @@ public class OFChannelInitializer extends ChannelInitializer<Channel> {
 			}
 		}
 		
+		/* The capture module, if loaded, sees messages as on the wire */
+		OFCaptureTap tap = captureService == null ? null : new OFCaptureTap(captureService);
 		pipeline.addLast(PipelineHandler.OF_MESSAGE_DECODER,
-				new OFMessageDecoder());
+				new OFMessageDecoder(tap));
 		pipeline.addLast(PipelineHandler.OF_MESSAGE_ENCODER,
-				new OFMessageEncoder());
+				new OFMessageEncoder(tap));
 		pipeline.addLast(PipelineHandler.MAIN_IDLE,
 				new IdleStateHandler(PipelineIdleReadTimeout.MAIN,
 						PipelineIdleWriteTimeout.MAIN,
 						0));
-		pipeline.addLast(PipelineHandler.READ_TIMEOUT, new ReadTimeoutHandler(30));
+		pipeline.addLast(PipelineHandler.READ_TIMEOUT,
+				new ReadTimeoutHandler(PipelineReadTimeout.MAIN));
 		pipeline.addLast(PipelineHandler.CHANNEL_HANDSHAKE_TIMEOUT,
 				new HandshakeTimeoutHandler(
 						handler,
@@ -184,4 +220,11 @@ public class OFChannelInitializer extends ChannelInitializer<Channel> {
 		 final static int MAIN = 3 * PipelineIdleWriteTimeout.MAIN;
 		 public final static int AUX = 3 * PipelineIdleWriteTimeout.AUX;
 	 }
+
+	 /**
+	  * Timeouts after which a connection with no reads is closed, in seconds
+	  */
+	 public static class PipelineReadTimeout {
+		 final static int MAIN = 30;
+	 }
 }
\ No newline at end of file
@@ -266,6 +266,11 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
 		this.counters.uninstallCounters();
 	}
 
+	@Override
+	public void executeOnEventLoop(Runnable task) {
+		this.channel.eventLoop().execute(task);
+	}
+
 	@Override
 	public String toString() {
 		String channelString = (channel != null) ? String.valueOf(channel.remoteAddress()): "?";
@@ -459,6 +464,11 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
 			return false;
 		}
 
+		@Override
+		public boolean isSwitchHandshakeQueued(IOFConnectionBackend connection) {
+			return false;
+		}
+
 		@Override
 		public void messageWritten(IOFConnectionBackend connection, OFMessage m) {
 			// TODO Auto-generated method stub
@@ -39,12 +39,19 @@ import org.projectfloodlight.openflow.protocol.OFVersion;
 public class OFMessageDecoder extends ByteToMessageDecoder {
 
 	private OFMessageReader<OFMessage> reader;
+	private final OFCaptureTap tap;
 
 	public OFMessageDecoder() {
+		this((OFCaptureTap) null);
+	}
+
+	OFMessageDecoder(OFCaptureTap tap) {
+		this.tap = tap;
 		setReader();
 	}
 
 	public OFMessageDecoder(OFVersion version) {
+		this.tap = null;
 		setVersion(version);
 		setReader();
 	}
@@ -77,10 +84,14 @@ public class OFMessageDecoder extends ByteToMessageDecoder {
 		List<OFMessage> list = null;
 		boolean first = true;
 		for (;;) {
+			int start = in.readerIndex();
 			OFMessage message = reader.readFrom(in);
 			if (message == null) {
 				break;
 			}
+			if (tap != null) {
+				tap.onMessage(ctx.channel(), true, message, in, start, in.readerIndex());
+			}
 			if (first) {
 				// first message read
 				singleMessage = message;
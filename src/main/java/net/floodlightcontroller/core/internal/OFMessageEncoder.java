@@ -31,10 +31,24 @@ import io.netty.handler.codec.MessageToByteEncoder;
  * @author Andreas Wundsam <andreas.wundsam@bigswitch.com>
  */
 public class OFMessageEncoder extends MessageToByteEncoder<Iterable<OFMessage>> {
+    private final OFCaptureTap tap;
+
+    public OFMessageEncoder() {
+        this(null);
+    }
+
+    OFMessageEncoder(OFCaptureTap tap) {
+        this.tap = tap;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Iterable<OFMessage> msgList, ByteBuf out) throws Exception {
         for (OFMessage ofm :  msgList) {
+            int start = out.writerIndex();
             ofm.writeTo(out);
+            if (tap != null) {
+                tap.onMessage(ctx.channel(), false, ofm, out, start, out.writerIndex());
+            }
         }
     }
 }
\ No newline at end of file
@@ -62,6 +62,7 @@ import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
 import org.projectfloodlight.openflow.protocol.OFFlowWildcards;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
 import org.projectfloodlight.openflow.protocol.OFPortConfig;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFPortDescStatsReply;
@@ -75,6 +76,8 @@ import org.projectfloodlight.openflow.protocol.OFTableFeatures;
 import org.projectfloodlight.openflow.protocol.OFTableFeaturesStatsReply;
 import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFAuxId;
 import org.projectfloodlight.openflow.types.OFPort;
@@ -799,7 +802,8 @@ public class OFSwitch implements IOFSwitchBackend {
 
 	@Override
 	public void removeConnection(IOFConnectionBackend connection) {
-		this.connections.remove(connection.getAuxId());
+		/* Leave a newer connection with the same aux id in place */
+		this.connections.remove(connection.getAuxId(), connection);
 	}
 
 	/**
@@ -815,8 +819,25 @@ public class OFSwitch implements IOFSwitchBackend {
 		return connection;
 	}
 
+	/**
+	 * Gets the connection for a logical message category. If the category's
+	 * aux connection is down, the main connection is used instead.
+	 * @param category a registered category
+	 * @return the connection to write the category's messages to
+	 */
 	public IOFConnection getConnection(LogicalOFMessageCategory category) {
 		if (switchManager.isCategoryRegistered(category)) {
+			if (!category.getAuxId().equals(OFAuxId.MAIN)) {
+				IOFConnection aux = this.connections.get(category.getAuxId());
+				if (aux == null || !aux.isConnected()) {
+					if (log.isDebugEnabled()) {
+						log.debug("No connected aux connection {} for {} on switch {}, using the main connection",
+								new Object[] { category.getAuxId(), category.getName(), this.getId() });
+					}
+					return getConnection(OFAuxId.MAIN);
+				}
+				return aux;
+			}
 			return getConnection(category.getAuxId());
 		}
 		else{
@@ -847,7 +868,58 @@ public class OFSwitch implements IOFSwitchBackend {
 	 */
 	@Override
 	public Collection<OFMessage> write(Iterable<OFMessage> msglist) {
-		return this.write(msglist, LogicalOFMessageCategory.MAIN);
+		if (!hasPacketConnection()) {
+			return this.write(msglist, LogicalOFMessageCategory.MAIN);
+		}
+
+		/*
+		 * Packet-outs go over the packet-in aux connection; everything else, flow-mods and barriers included,
+		 * stays on main. A packet-out stays on main, in order, when it follows another message in the batch
+		 * or when it is sent through the flow or group tables, since it relies on what was written before it.
+		 */
+		List<OFMessage> packetOuts = new ArrayList<OFMessage>();
+		List<OFMessage> others = new ArrayList<OFMessage>();
+		for (OFMessage m : msglist) {
+			if (others.isEmpty() && m.getType() == OFType.PACKET_OUT && !usesTables((OFPacketOut) m)) {
+				packetOuts.add(m);
+			} else {
+				others.add(m);
+			}
+		}
+		if (packetOuts.isEmpty()) {
+			return this.write(others, LogicalOFMessageCategory.MAIN);
+		}
+		if (others.isEmpty()) {
+			return this.write(packetOuts, LogicalOFMessageCategory.PACKET_IN);
+		}
+		Collection<OFMessage> ret = new ArrayList<OFMessage>(this.write(others, LogicalOFMessageCategory.MAIN));
+		ret.addAll(this.write(packetOuts, LogicalOFMessageCategory.PACKET_IN));
+		return ret;
+	}
+
+	/**
+	 * @return true if the packet-out is output to the flow table or through a group
+	 */
+	private static boolean usesTables(OFPacketOut po) {
+		for (OFAction a : po.getActions()) {
+			if (a.getType() == OFActionType.GROUP) {
+				return true;
+			}
+			if (a.getType() == OFActionType.OUTPUT && OFPort.TABLE.equals(((OFActionOutput) a).getPort())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the switch has a connected aux connection for
+	 * packet-in traffic and the controller has that category registered
+	 */
+	private boolean hasPacketConnection() {
+		IOFConnection aux = this.connections.get(LogicalOFMessageCategory.PACKET_IN.getAuxId());
+		return aux != null && aux.isConnected()
+				&& switchManager.isCategoryRegistered(LogicalOFMessageCategory.PACKET_IN);
 	}
 
 	@Override
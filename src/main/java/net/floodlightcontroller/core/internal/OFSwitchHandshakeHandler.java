@@ -99,7 +99,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	private final RoleManager roleManager;
 	private final IOFConnectionBackend mainConnection;
 	private final SwitchManagerCounters switchManagerCounters;
-	private IOFSwitchBackend sw;
+	private volatile IOFSwitchBackend sw;
 	private final Map<OFAuxId, IOFConnectionBackend> auxConnections;
 	private volatile OFSwitchHandshakeState state;
 	private RoleChanger roleChanger;
@@ -107,6 +107,9 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	private OFFactory factory = OFFactories.getFactory(OFVersion.OF_14);
 	private final OFFeaturesReply featuresReply;
 	private final Timer timer;
+	private final HandshakeAdmissionController admission;
+	private final SwitchCapabilityCache capabilityCache;
+	private SwitchDescription switchDescription;
 
 	private volatile OFControllerRole initialRole = null;
 
@@ -1017,6 +1020,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 			OFDescStatsReply descStatsReply = (OFDescStatsReply) m;
 			SwitchDescription description = new SwitchDescription(descStatsReply);
+			switchDescription = description;
 			sw = switchManager.getOFSwitchInstance(mainConnection, description, factory, featuresReply.getDatapathId());
 			
 			// set switch information
@@ -1032,6 +1036,11 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 			 */
 			switchManager.switchAdded(sw);
 
+			// Hand the switch any aux connections that came up during the handshake
+			for (IOFConnectionBackend conn : auxConnections.values()) {
+				sw.registerConnection(conn);
+			}
+
 			// Handle pending messages now that we have a sw object
 			handlePendingPortStatusMessages(description);
 
@@ -1079,6 +1088,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 				replies.add((OFTableFeaturesStatsReply) m);
 				if (!((OFTableFeaturesStatsReply)m).getFlags().contains(OFStatsReplyFlags.REPLY_MORE)) {
 					handleTableFeaturesMessage(replies, false);
+					cacheTableFeatures(replies);
 					nextState();
 				} 
 			} else {
@@ -1095,6 +1105,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 							|| ((OFBadRequestErrorMsg)m).getCode() == OFBadRequestCode.BAD_STAT)) { 
 				log.warn("Switch {} is {} but does not support OFTableFeaturesStats. Assuming all tables can perform any match, action, and instruction in the spec.", 
 						sw.getId().toString(), sw.getOFFactory().getVersion().toString());
+				cacheTableFeatures(Collections.<OFTableFeaturesStatsReply>emptyList());
 			} else {
 				log.error("Received unexpected OFErrorMsg {} on switch {}.", m.toString(), sw.getId().toString());
 			}
@@ -1102,6 +1113,13 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 		}
 
+		private void cacheTableFeatures(List<OFTableFeaturesStatsReply> replies) {
+			if (capabilityCache != null && switchDescription != null) {
+				capabilityCache.putTableFeatures(getDpid(), factory.getVersion(),
+						featuresReply.getNTables(), switchDescription, replies);
+			}
+		}
+
 		private void nextState() {
 			/* move on to the next state */
 			sw.startDriverHandshake();
@@ -1117,6 +1135,22 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 			if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_13) < 0
 					|| sw.getOFFactory().getVersion().compareTo(OFVersion.OF_15) == 0) { //FIXME must skip for OVS
 				nextState();
+				return;
+			}
+
+			/* A switch that reconnects reports the same table features again */
+			List<OFTableFeaturesStatsReply> cached = null;
+			if (capabilityCache != null && switchDescription != null) {
+				cached = capabilityCache.getTableFeatures(getDpid(), factory.getVersion(),
+						featuresReply.getNTables(), switchDescription);
+			}
+			if (cached != null) {
+				log.debug("[{}] - Switch Handshake - using cached table features", getDpid());
+				switchManagerCounters.tableFeaturesCacheHit.increment();
+				if (!cached.isEmpty()) {
+					handleTableFeaturesMessage(cached, false);
+				}
+				nextState();
 			} else {
 				sendHandshakeTableFeaturesRequest();
 			}
@@ -1640,6 +1674,25 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 			@Nonnull IOFSwitchManager switchManager,
 			@Nonnull RoleManager roleManager,
 			@Nonnull Timer timer) {
+		this(connection, featuresReply, switchManager, roleManager, timer, null, null);
+	}
+
+	/**
+	 * Create a new unconnected OFChannelHandler whose handshake is started
+	 * by an admission controller.
+	 * @param admission the admission controller that started the handshake,
+	 * released when the handshake completes or the connection closes; may
+	 * be null
+	 * @param capabilityCache the cache for capability replies from earlier
+	 * handshakes; may be null
+	 */
+	OFSwitchHandshakeHandler(@Nonnull IOFConnectionBackend connection,
+			@Nonnull OFFeaturesReply featuresReply,
+			@Nonnull IOFSwitchManager switchManager,
+			@Nonnull RoleManager roleManager,
+			@Nonnull Timer timer,
+			HandshakeAdmissionController admission,
+			SwitchCapabilityCache capabilityCache) {
 		Preconditions.checkNotNull(connection, "connection");
 		Preconditions.checkNotNull(featuresReply, "featuresReply");
 		Preconditions.checkNotNull(switchManager, "switchManager");
@@ -1654,6 +1707,8 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		this.auxConnections = new ConcurrentHashMap<OFAuxId, IOFConnectionBackend>();
 		this.featuresReply = featuresReply;
 		this.timer = timer;
+		this.admission = admission;
+		this.capabilityCache = capabilityCache;
 		this.switchManagerCounters = switchManager.getCounters();
 		this.factory = OFFactories.getFactory(featuresReply.getVersion());
 		this.roleChanger = new RoleChanger(DEFAULT_ROLE_TIMEOUT_NS);
@@ -1783,6 +1838,9 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	private void setState(OFSwitchHandshakeState state) {
 		this.state = state;
 		state.logState();
+		if (state.isHandshakeComplete()) {
+			releaseAdmission();
+		}
 		state.enterState();
 	}
 
@@ -1859,7 +1917,9 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 	/**
 	 * Called by the switch manager when new aux connections have connected.
-	 * This alerts the state machine of an aux connection.
+	 * The connection is accepted at any point of the main connection's
+	 * handshake and is handed to the switch once there is one. A switch
+	 * that reconnects an aux connection replaces the old one.
 	 *
 	 * @param connection
 	 *            the aux connection
@@ -1868,14 +1928,42 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		if(log.isDebugEnabled())
 			log.debug("[{}] - Switch Handshake - new aux connection {}", this.getDpid(), connection.getAuxId());
 
-		// Handle new Auxiliary connections if the main connection has completed (i.e. in ACTIVE or STANDBY state)
-		if (this.getState().equals("ACTIVE") || this.getState().equals("STANDBY")) {
-			auxConnections.put(connection.getAuxId(), connection);
-			connection.setListener(OFSwitchHandshakeHandler.this);
-			log.info("Auxiliary connection {} added for {}.", connection.getAuxId().getValue(), connection.getDatapathId().toString());
-		} else {
-			log.info("Auxiliary connection {} initiated for {} before main connection handshake complete. Ignorning aux connection attempt.", connection.getAuxId().getValue(), connection.getDatapathId().toString());
+		if (connection.getOFFactory().getVersion() != factory.getVersion()) {
+			log.warn("Auxiliary connection {} for {} uses {} but the main connection uses {}. Closing aux connection.",
+					new Object[] { connection.getAuxId().getValue(), connection.getDatapathId().toString(),
+							connection.getOFFactory().getVersion(), factory.getVersion() });
+			connection.disconnect();
+			return;
+		}
+
+		IOFConnectionBackend old = auxConnections.put(connection.getAuxId(), connection);
+		connection.setListener(OFSwitchHandshakeHandler.this);
+		if (old != null && old != connection) {
+			log.info("Auxiliary connection {} for {} replaced by a new connection.", connection.getAuxId().getValue(), connection.getDatapathId().toString());
+			old.disconnect();
+		}
+		if (sw != null) {
+			sw.registerConnection(connection);
+		}
+		log.info("Auxiliary connection {} added for {}.", connection.getAuxId().getValue(), connection.getDatapathId().toString());
+	}
+
+	/**
+	 * Called when an aux connection closes. Only the aux connection goes
+	 * away; the switch stays connected and traffic that used the aux
+	 * connection is sent over the main connection instead.
+	 *
+	 * @param connection
+	 *            the aux connection
+	 */
+	private synchronized void auxConnectionClosed(IOFConnectionBackend connection) {
+		if (!auxConnections.remove(connection.getAuxId(), connection)) {
+			return; /* already replaced by a newer aux connection */
+		}
+		if (sw != null) {
+			sw.removeConnection(connection);
 		}
+		log.info("Auxiliary connection {} closed for {}. Using the main connection instead.", connection.getAuxId().getValue(), connection.getDatapathId().toString());
 	}
 
 	/**
@@ -1905,6 +1993,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	}
 
 	void cleanup() {
+		releaseAdmission();
 		for (IOFConnectionBackend conn : this.auxConnections.values()) {
 			conn.disconnect();
 		}
@@ -1912,6 +2001,33 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		this.mainConnection.disconnect();
 	}
 
+	/**
+	 * Run a task on the I/O thread of the main connection, which handles
+	 * everything the switch sends and the connection closing
+	 * @param task the task to run
+	 */
+	void executeOnConnection(Runnable task) {
+		this.mainConnection.executeOnEventLoop(task);
+	}
+
+	/**
+	 * Give up this handshake's place with the admission controller so the
+	 * next waiting switch can start its handshake.
+	 */
+	private void releaseAdmission() {
+		if (admission != null) {
+			admission.release(this);
+		}
+	}
+
+	/**
+	 * Is this handshake waiting for the admission controller to start it?
+	 * @return true if the handshake has not started yet
+	 */
+	public boolean isHandshakeQueued() {
+		return admission != null && admission.isQueued(this);
+	}
+
 	public String getState() {
 		return this.state.getClass().getSimpleName();
 	}
@@ -1942,6 +2058,12 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	/** IOFConnectionListener */
 	@Override
 	public void connectionClosed(IOFConnectionBackend connection) {
+		// An aux connection closing leaves the switch connected
+		if (connection != this.mainConnection) {
+			auxConnectionClosed(connection);
+			return;
+		}
+
 		// Disconnect handler's remaining connections
 		cleanup();
 
@@ -1961,6 +2083,13 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 	@Override
 	public void messageReceived(IOFConnectionBackend connection, OFMessage m) {
+		// Aux connections carry packet-ins and replies; until the main
+		// connection's handshake completes there is nobody to hand them to
+		if (connection != this.mainConnection && !state.isHandshakeComplete()) {
+			log.debug("[{}] Ignoring {} on aux connection {} during the switch handshake",
+					new Object[] { getDpid(), m.getType(), connection.getAuxId() });
+			return;
+		}
 		processOFMessage(m);
 	}
 
@@ -1974,6 +2103,11 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		return state.isHandshakeComplete();
 	}
 
+	@Override
+	public boolean isSwitchHandshakeQueued(IOFConnectionBackend connection) {
+		return isHandshakeQueued();
+	}
+
 	public void setSwitchStatus(SwitchStatus status) {
 		if(sw != null) {
 			SwitchStatus oldStatus = sw.getStatus();
@@ -29,6 +29,8 @@ import net.floodlightcontroller.core.IOFSwitch.SwitchStatus;
 import net.floodlightcontroller.core.IOFSwitchBackend;
 import net.floodlightcontroller.core.IOFSwitchDriver;
 import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.IShutdownListener;
+import net.floodlightcontroller.core.IShutdownService;
 import net.floodlightcontroller.core.LogicalOFMessageCategory;
 import net.floodlightcontroller.core.PortChangeType;
 import net.floodlightcontroller.core.SwitchDescription;
@@ -39,6 +41,7 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.cpanalyzer.IOFCaptureService;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 
 import org.projectfloodlight.openflow.protocol.OFControllerRole;
@@ -74,7 +77,15 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -100,6 +111,7 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
     private static SwitchManagerCounters counters;
 
     private static ISyncService syncService;
+    private static IOFCaptureService captureService;
     private static IStoreClient<DatapathId, SwitchSyncRepresentation> storeClient;
     public static final String SWITCH_SYNC_STORE_NAME = OFSwitchManager.class.getCanonicalName() + ".stateStore";
 
@@ -108,6 +120,17 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
     private static int bossThreads = 1; /* just listens and accepts on server socket; workers handle r/w I/O */
     private static int connectionBacklog = 1000; /* pending connections boss thread will queue to accept */
     private static int connectionTimeoutMsec = 60000; /* how long to allow TCP handshake to complete (default is 60ish secs) */
+    private static String transport = "auto"; /* epoll, nio, or auto to use epoll where the platform supports it */
+    private static int tcpReceiveBufferSize = 0; /* 0 leaves the OS default, which autotunes on Linux */
+    private static int writeBufferLowWaterMark = 32 * 1024; /* a connection is writable again once its queued output drops below this */
+    private static int writeBufferHighWaterMark = 64 * 1024; /* a connection is not writable while its queued output is above this */
+    private static boolean pooledDirectAllocator = true; /* pooled direct buffers instead of unpooled heap buffers */
+    private static boolean workerAffinity = false; /* move each connection to a worker chosen from its DPID and aux ID */
+    private static int eventLoopStatsIntervalSec = 10; /* how often to sample per-event-loop load (0 to disable) */
+    private static boolean auxiliaryPacketInConnection = false; /* send packet-outs over aux connection 1 when the switch opens one */
+    private static int maxConcurrentHandshakes = 64; /* switch handshakes run at once; others wait their turn (0 for no limit) */
+    private static int switchActivationsPerSecond = 100; /* switch activations passed on to listeners per second (0 for no limit) */
+    private static final int CAPABILITY_CACHE_SIZE = 4096; /* switches whose table features are remembered across reconnects */
     private static TransportPort openFlowPort = TransportPort.of(6653);
     private static Set<IPv4Address> openFlowAddresses = new HashSet<IPv4Address>();	
 
@@ -142,12 +165,17 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
     private static IFloodlightProviderService floodlightProvider;
     private static IDebugCounterService debugCounterService;
 
-    private static NioEventLoopGroup bossGroup;
-    private static NioEventLoopGroup workerGroup;
+    private static EventLoopGroup bossGroup;
+    private static EventLoopGroup workerGroup;
+    private static EventLoopLoadMonitor loadMonitor;
     private static DefaultChannelGroup cg;
 
     protected static Timer timer;
 
+    private static HandshakeAdmissionController handshakeAdmission;
+    private static SwitchCapabilityCache capabilityCache;
+    private static SwitchUpdateThrottle updateThrottle;
+
     /** IHAListener Implementation **/
     @Override
     public void transitionToActive() {
@@ -166,7 +194,13 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
     }
 
     private void addUpdateToQueue(IUpdate iUpdate) {
-        floodlightProvider.addUpdateToQueue(iUpdate);
+        if (updateThrottle == null) {
+            floodlightProvider.addUpdateToQueue(iUpdate);
+            return;
+        }
+        boolean activation = iUpdate instanceof SwitchUpdate &&
+                ((SwitchUpdate) iUpdate).switchUpdateType == SwitchUpdateType.ACTIVATED;
+        updateThrottle.submit(iUpdate, activation);
     }
 
     @Override
@@ -421,7 +455,8 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
             // Create a new switch handshake handler
             OFSwitchHandshakeHandler handler =
                     new OFSwitchHandshakeHandler(connection, featuresReply, this,
-                            floodlightProvider.getRoleManager(), timer);
+                            floodlightProvider.getRoleManager(), timer,
+                            handshakeAdmission, capabilityCache);
 
             OFSwitchHandshakeHandler oldHandler = switchHandlers.put(dpid, handler);
 
@@ -431,7 +466,7 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
                 oldHandler.cleanup();
             }
 
-            handler.beginHandshake();
+            handshakeAdmission.admit(handler);
 
         } else {
             OFSwitchHandshakeHandler handler = switchHandlers.get(dpid);
@@ -615,6 +650,8 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
         floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
         debugCounterService = context.getServiceImpl(IDebugCounterService.class);
         syncService = context.getServiceImpl(ISyncService.class);
+        // Optional; only present if the capture module is loaded
+        captureService = context.getServiceImpl(IOFCaptureService.class);
 
         // Module variables
         switchHandlers = new ConcurrentHashMap<DatapathId, OFSwitchHandshakeHandler>();
@@ -848,6 +885,70 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
             tcpSendBufferSize = Integer.parseInt(tcpBuffer);
         }
 
+        /* Netty transport, socket and buffer tuning */
+        String transportName = configParams.get("transport");
+        if (!Strings.isNullOrEmpty(transportName)) {
+            transport = transportName.trim().toLowerCase();
+            if (!transport.equals("auto") && !transport.equals("epoll") && !transport.equals("nio")) {
+                throw new FloodlightModuleException("Invalid transport " + transportName
+                        + " in config; use auto, epoll or nio");
+            }
+        }
+        tcpBuffer = configParams.get("tcpReceiveBufferSizeBytes");
+        if (!Strings.isNullOrEmpty(tcpBuffer)) {
+            tcpReceiveBufferSize = Integer.parseInt(tcpBuffer);
+        }
+        String waterMark = configParams.get("writeBufferLowWaterMarkBytes");
+        if (!Strings.isNullOrEmpty(waterMark)) {
+            writeBufferLowWaterMark = Integer.parseInt(waterMark);
+        }
+        waterMark = configParams.get("writeBufferHighWaterMarkBytes");
+        if (!Strings.isNullOrEmpty(waterMark)) {
+            writeBufferHighWaterMark = Integer.parseInt(waterMark);
+        }
+        if (writeBufferLowWaterMark > writeBufferHighWaterMark) {
+            throw new FloodlightModuleException("writeBufferLowWaterMarkBytes must not exceed "
+                    + "writeBufferHighWaterMarkBytes");
+        }
+        String pooled = configParams.get("pooledDirectAllocator");
+        if (!Strings.isNullOrEmpty(pooled)) {
+            pooledDirectAllocator = Boolean.parseBoolean(pooled.trim())
+                    || pooled.trim().equalsIgnoreCase("YES");
+        }
+        String affinity = configParams.get("workerAffinity");
+        if (!Strings.isNullOrEmpty(affinity)) {
+            workerAffinity = Boolean.parseBoolean(affinity.trim())
+                    || affinity.trim().equalsIgnoreCase("YES");
+        }
+        String statsInterval = configParams.get("eventLoopStatsIntervalSec");
+        if (!Strings.isNullOrEmpty(statsInterval)) {
+            eventLoopStatsIntervalSec = Integer.parseInt(statsInterval);
+        }
+
+        /* Packet-in/packet-out traffic on an auxiliary connection */
+        String aux = configParams.get("auxiliaryPacketInConnection");
+        if (!Strings.isNullOrEmpty(aux)) {
+            auxiliaryPacketInConnection = Boolean.parseBoolean(aux.trim())
+                    || aux.trim().equalsIgnoreCase("YES");
+        }
+        if (auxiliaryPacketInConnection) {
+            registerLogicalOFMessageCategory(LogicalOFMessageCategory.PACKET_IN);
+        }
+
+        /* Switch handshake admission and post-handshake listener rate */
+        String handshakes = configParams.get("maxConcurrentHandshakes");
+        if (!Strings.isNullOrEmpty(handshakes)) {
+            maxConcurrentHandshakes = Integer.parseInt(handshakes);
+        }
+        String activations = configParams.get("switchActivationsPerSecond");
+        if (!Strings.isNullOrEmpty(activations)) {
+            switchActivationsPerSecond = Integer.parseInt(activations);
+        }
+        handshakeAdmission = new HandshakeAdmissionController(maxConcurrentHandshakes, counters);
+        capabilityCache = new SwitchCapabilityCache(CAPABILITY_CACHE_SIZE);
+        updateThrottle = new SwitchUpdateThrottle(floodlightProvider, timer,
+                switchActivationsPerSecond, counters);
+
         log.info("Listening for OpenFlow switches on {}:{}", openFlowAddresses, openFlowPort);
         log.info("OpenFlow socket config: "
                 + "{} boss thread(s), "
@@ -862,6 +963,23 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
                         connectionBacklog, 
                         tcpSendBufferSize
                 });
+        log.info("OpenFlow transport config: "
+                + "{} transport, "
+                + "{} byte TCP receive buffer size (0 for OS default), "
+                + "{}/{} byte write buffer low/high water marks, "
+                + "pooled direct allocator {}, "
+                + "worker affinity {}",
+                new Object[] {
+                        transport,
+                        tcpReceiveBufferSize,
+                        writeBufferLowWaterMark,
+                        writeBufferHighWaterMark,
+                        pooledDirectAllocator,
+                        workerAffinity
+                });
+        log.info("Packet-in auxiliary connection {}", auxiliaryPacketInConnection ? "enabled" : "disabled");
+        log.info("Switch handshakes: max {} concurrent, {} activations per second "
+                + "(0 for no limit)", maxConcurrentHandshakes, switchActivationsPerSecond);
     }
 
     /**
@@ -1002,6 +1120,17 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
     public void startUp(FloodlightModuleContext context) throws FloodlightModuleException {
         startUpBase(context);
         bootstrapNetty();
+
+        // Optional; only present if the shutdown module is loaded
+        IShutdownService shutdownService = context.getServiceImpl(IShutdownService.class);
+        if (shutdownService != null) {
+            shutdownService.registerShutdownListener(new IShutdownListener() {
+                @Override
+                public void floodlightIsShuttingDown() {
+                    stopLoadMonitor();
+                }
+            });
+        }
     }
 
     /**
@@ -1025,18 +1154,47 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
      */
     public void bootstrapNetty() {
         try {
-            bossGroup = new NioEventLoopGroup(bossThreads);
-            workerGroup = new NioEventLoopGroup(workerThreads);
+            boolean epoll = useEpoll();
+            Class<? extends ServerChannel> channelClass;
+            if (epoll) {
+                bossGroup = new EpollEventLoopGroup(bossThreads);
+                workerGroup = new EpollEventLoopGroup(workerThreads);
+                channelClass = EpollServerSocketChannel.class;
+            } else {
+                bossGroup = new NioEventLoopGroup(bossThreads);
+                workerGroup = new NioEventLoopGroup(workerThreads);
+                channelClass = NioServerSocketChannel.class;
+            }
+            log.info("Using {} transport for OpenFlow connections", epoll ? "epoll" : "NIO");
+
+            ByteBufAllocator allocator = pooledDirectAllocator
+                    ? new PooledByteBufAllocator(true)
+                    : UnpooledByteBufAllocator.DEFAULT;
 
             ServerBootstrap bootstrap = new ServerBootstrap()
                     .group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(channelClass)
                     .option(ChannelOption.SO_REUSEADDR, true)
                     .option(ChannelOption.SO_KEEPALIVE, true)
                     .option(ChannelOption.TCP_NODELAY, true)
                     .option(ChannelOption.SO_SNDBUF, tcpSendBufferSize)
                     .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectionTimeoutMsec)
-                    .option(ChannelOption.SO_BACKLOG, connectionBacklog);
+                    .option(ChannelOption.SO_BACKLOG, connectionBacklog)
+                    .option(ChannelOption.ALLOCATOR, allocator)
+                    .childOption(ChannelOption.ALLOCATOR, allocator)
+                    .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark)
+                    .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark);
+            /* Set on the listening socket so accepted sockets inherit it before the TCP window is negotiated */
+            if (tcpReceiveBufferSize > 0) {
+                bootstrap.option(ChannelOption.SO_RCVBUF, tcpReceiveBufferSize);
+            }
+
+            stopLoadMonitor();
+            if (eventLoopStatsIntervalSec > 0) {
+                loadMonitor = new EventLoopLoadMonitor(workerGroup, debugCounterService,
+                        timer, eventLoopStatsIntervalSec);
+                loadMonitor.start();
+            }
 
             OFChannelInitializer initializer = new OFChannelInitializer(
                     this, 
@@ -1046,7 +1204,10 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
                     ofBitmaps, 
                     defaultFactory, 
                     keyStore, 
-                    keyStorePassword);
+                    keyStorePassword,
+                    captureService,
+                    workerAffinity ? new EventLoopAffinity(workerGroup) : null,
+                    loadMonitor);
 
             bootstrap.childHandler(initializer);
 
@@ -1071,6 +1232,33 @@ IHAListener, IFloodlightModule, IOFSwitchService, IStoreListener<DatapathId> {
         }
     }
 
+    /**
+     * Stop sampling the worker event loops, if we are
+     */
+    private static void stopLoadMonitor() {
+        if (loadMonitor != null) {
+            loadMonitor.stop();
+            loadMonitor = null;
+        }
+    }
+
+    /**
+     * @return true if the native epoll transport should be used
+     */
+    private static boolean useEpoll() {
+        if (transport.equals("nio")) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        if (transport.equals("epoll")) {
+            log.warn("Epoll transport requested but not available, using NIO: {}",
+                    Epoll.unavailabilityCause().toString());
+        }
+        return false;
+    }
+
     /**
      * Performs startup related actions for logical OF message categories.
      * Setting the categories list to immutable ensures that unsupported operation
@@ -0,0 +1,108 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.core.SwitchDescription;
+
+import org.projectfloodlight.openflow.protocol.OFTableFeaturesStatsReply;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Remembers the table features each switch reported in its handshake, so
+ * a switch that reconnects does not have to send them again.  Table
+ * features are the largest part of an OpenFlow 1.3+ handshake, and they
+ * only change with the switch's hardware or software, so they are keyed by
+ * the switch's DPID, OpenFlow version, number of tables and description.
+ * A switch that was upgraded reports a different description and is asked
+ * again.
+ *
+ * An empty list records that the switch does not support table features.
+ * The least recently used entries are dropped once the cache is full.
+ */
+public class SwitchCapabilityCache {
+    private final Map<Key, List<OFTableFeaturesStatsReply>> tableFeatures;
+
+    /**
+     * @param maxEntries the number of switches to remember
+     */
+    public SwitchCapabilityCache(final int maxEntries) {
+        tableFeatures =
+                new LinkedHashMap<Key, List<OFTableFeaturesStatsReply>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<OFTableFeaturesStatsReply>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the table features reported by the switch in an earlier handshake
+     * @return the replies, an empty list if the switch does not support
+     * table features, or null if the switch is not known
+     */
+    public synchronized List<OFTableFeaturesStatsReply>
+            getTableFeatures(DatapathId dpid, OFVersion version, short nTables,
+                             SwitchDescription description) {
+        return tableFeatures.get(new Key(dpid, version, nTables, description));
+    }
+
+    /**
+     * Remember the table features reported by a switch
+     * @param replies the replies, or an empty list if the switch does not
+     * support table features
+     */
+    public synchronized void putTableFeatures(DatapathId dpid, OFVersion version,
+                                              short nTables,
+                                              SwitchDescription description,
+                                              List<OFTableFeaturesStatsReply> replies) {
+        tableFeatures.put(new Key(dpid, version, nTables, description),
+                          ImmutableList.copyOf(replies));
+    }
+
+    public synchronized void clear() {
+        tableFeatures.clear();
+    }
+
+    public synchronized int size() {
+        return tableFeatures.size();
+    }
+
+    private static class Key {
+        private final DatapathId dpid;
+        private final OFVersion version;
+        private final short nTables;
+        private final SwitchDescription description;
+
+        Key(DatapathId dpid, OFVersion version, short nTables,
+            SwitchDescription description) {
+            this.dpid = dpid;
+            this.version = version;
+            this.nTables = nTables;
+            this.description = description;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(dpid, version, nTables, description);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return nTables == other.nTables &&
+                   version == other.version &&
+                   Objects.equal(dpid, other.dpid) &&
+                   Objects.equal(description, other.description);
+        }
+    }
+}
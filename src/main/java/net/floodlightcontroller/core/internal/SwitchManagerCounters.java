@@ -32,6 +32,9 @@ public class SwitchManagerCounters {
     public final IDebugCounter roleReplyReceived;
     public final IDebugCounter roleReplyErrorUnsupported;
     public final IDebugCounter switchSslConfigurationError;
+    public final IDebugCounter handshakeQueued;
+    public final IDebugCounter tableFeaturesCacheHit;
+    public final IDebugCounter switchUpdateDeferred;
 
     public SwitchManagerCounters(IDebugCounterService debugCounters) {
         debugCounters.registerModule(prefix);
@@ -209,6 +212,27 @@ public class SwitchManagerCounters {
                                         "IllegalArgumentException, which is likely " +
                                         "due to the switch trying to speak SSL whereas " +
                                         "the controller wants to use vanilla TCP.");
+
+                    handshakeQueued =
+                            debugCounters.registerCounter(
+                                        prefix, "handshake-queued",
+                                        "Number of times a switch handshake had to " +
+                                        "wait because the maximum number of " +
+                                        "concurrent handshakes was reached.");
+
+                    tableFeaturesCacheHit =
+                            debugCounters.registerCounter(
+                                        prefix, "table-features-cache-hit",
+                                        "Number of switch handshakes that reused " +
+                                        "the table features of an earlier handshake " +
+                                        "instead of requesting them again.");
+
+                    switchUpdateDeferred =
+                            debugCounters.registerCounter(
+                                        prefix, "switch-update-deferred",
+                                        "Number of switch added or activated " +
+                                        "notifications that were delayed to limit " +
+                                        "the rate of listener work after handshakes.");
     }
 
     public String getPrefix(){
@@ -0,0 +1,145 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.internal.Controller.IUpdate;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Limits the rate at which switch activations are passed to the switch
+ * listeners.  Activating a switch starts a burst of listener work, such as
+ * pushing static flows and table-miss flows and sending LLDPs, so when
+ * hundreds of switches complete their handshakes together that work can
+ * starve the handshakes still running.
+ *
+ * Activations use a token bucket that allows a burst of one second's worth
+ * before they are spaced out.  Other switch updates are never delayed on
+ * their own, but once an activation is waiting every later update waits
+ * behind it, so listeners still see each switch's updates in order.
+ */
+public class SwitchUpdateThrottle {
+    private final IFloodlightProviderService floodlightProvider;
+    private final Timer timer;
+    private final int ratePerSecond;
+    private final SwitchManagerCounters counters;
+    private final Ticker ticker;
+
+    private final ArrayDeque<PendingUpdate> pending =
+            new ArrayDeque<PendingUpdate>();
+    private double tokens;
+    private long lastRefill;
+    private boolean drainScheduled = false;
+
+    /**
+     * @param floodlightProvider the provider whose update queue receives
+     * the updates
+     * @param timer the timer used to release delayed updates
+     * @param ratePerSecond the number of activations passed on per second,
+     * or 0 for no limit
+     * @param counters the switch manager counters, or null
+     */
+    public SwitchUpdateThrottle(IFloodlightProviderService floodlightProvider,
+                                Timer timer,
+                                int ratePerSecond,
+                                SwitchManagerCounters counters) {
+        this(floodlightProvider, timer, ratePerSecond, counters,
+             Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source used to refill the token bucket
+     */
+    SwitchUpdateThrottle(IFloodlightProviderService floodlightProvider,
+                         Timer timer,
+                         int ratePerSecond,
+                         SwitchManagerCounters counters,
+                         Ticker ticker) {
+        this.floodlightProvider = floodlightProvider;
+        this.timer = timer;
+        this.ratePerSecond = ratePerSecond;
+        this.counters = counters;
+        this.ticker = ticker;
+        this.tokens = ratePerSecond;
+        this.lastRefill = ticker.read();
+    }
+
+    /**
+     * Pass an update to the provider's update queue, now or once the rate
+     * allows
+     * @param update the update
+     * @param activation whether the update is subject to the rate limit
+     */
+    public synchronized void submit(IUpdate update, boolean activation) {
+        if (ratePerSecond <= 0) {
+            floodlightProvider.addUpdateToQueue(update);
+            return;
+        }
+        refill();
+        if (pending.isEmpty() && (!activation || tokens >= 1)) {
+            if (activation)
+                tokens -= 1;
+            floodlightProvider.addUpdateToQueue(update);
+            return;
+        }
+        pending.add(new PendingUpdate(update, activation));
+        if (activation && counters != null)
+            counters.switchUpdateDeferred.increment();
+        scheduleDrain();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private synchronized void drain() {
+        drainScheduled = false;
+        refill();
+        while (!pending.isEmpty()) {
+            PendingUpdate next = pending.peek();
+            if (next.activation) {
+                if (tokens < 1) break;
+                tokens -= 1;
+            }
+            pending.poll();
+            floodlightProvider.addUpdateToQueue(next.update);
+        }
+        if (!pending.isEmpty())
+            scheduleDrain();
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(ratePerSecond,
+                          tokens + (now - lastRefill) * ratePerSecond /
+                                   (double) TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled) return;
+        drainScheduled = true;
+        long delayMs = Math.max(1, 1000 / ratePerSecond);
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                drain();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static class PendingUpdate {
+        final IUpdate update;
+        final boolean activation;
+
+        PendingUpdate(IUpdate update, boolean activation) {
+            this.update = update;
+            this.activation = activation;
+        }
+    }
+}
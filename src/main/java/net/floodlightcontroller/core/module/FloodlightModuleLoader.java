@@ -41,6 +41,7 @@ import java.util.ServiceLoader;
 import java.util.Set;
 
 import net.floodlightcontroller.core.module.FloodlightModulePriority.Priority;
+import net.floodlightcontroller.core.module.ModuleStartupScheduler.ModulePhase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,17 +69,30 @@ public class FloodlightModuleLoader {
 
     protected boolean startupModules;
 
+    /**
+     * Whether independent modules are initialized and started concurrently
+     */
+    protected boolean parallelStartup;
+    protected int startupThreads;
+
     private static URI configFile;
 
     public static final String COMPILED_CONF_FILE =
             "floodlightdefault.properties";
     public static final String FLOODLIGHT_MODULES_KEY =
             "floodlight.modules";
+    public static final String FLOODLIGHT_PARALLEL_STARTUP_KEY =
+            "floodlight.parallelStartup";
+    public static final String FLOODLIGHT_STARTUP_THREADS_KEY =
+            "floodlight.startupThreads";
 
     public FloodlightModuleLoader() {
         loadedModuleList = Collections.emptyList();
         floodlightModuleContext = new FloodlightModuleContext(this);
         startupModules = true;
+        parallelStartup = false;
+        startupThreads =
+                Math.max(2, Runtime.getRuntime().availableProcessors());
     }
 
     /**
@@ -288,6 +302,7 @@ public class FloodlightModuleLoader {
                          moduleList, moduleMap, modsVisited);
         }
 
+        parseStartupParameters(prop);
         parseConfigParameters(prop);
 
         loadedModuleList = moduleList;
@@ -451,6 +466,17 @@ public class FloodlightModuleLoader {
             }
         }
 
+        if (parallelStartup) {
+            getScheduler(moduleSet).run("init", new ModulePhase() {
+                @Override
+                public void run(IFloodlightModule module)
+                        throws FloodlightModuleException {
+                    module.init(floodlightModuleContext);
+                }
+            });
+            return;
+        }
+
         for (IFloodlightModule module : moduleSet) {
             // init the module
             if (logger.isDebugEnabled()) {
@@ -468,6 +494,17 @@ public class FloodlightModuleLoader {
      */
     protected void startupModules(Collection<IFloodlightModule> moduleSet)
             throws FloodlightModuleException {
+        if (parallelStartup) {
+            getScheduler(moduleSet).run("startUp", new ModulePhase() {
+                @Override
+                public void run(IFloodlightModule module)
+                        throws FloodlightModuleException {
+                    module.startUp(floodlightModuleContext);
+                }
+            });
+            return;
+        }
+
         for (IFloodlightModule m : moduleSet) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Starting " + m.getClass().getCanonicalName());
@@ -476,6 +513,20 @@ public class FloodlightModuleLoader {
         }
     }
 
+    /**
+     * Get a scheduler running a startup phase over the given modules.  The
+     * modules must be in the order they were loaded in, which puts each
+     * module after the modules it depends on.
+     * @param moduleSet the modules
+     * @return the scheduler
+     */
+    private ModuleStartupScheduler
+            getScheduler(Collection<IFloodlightModule> moduleSet) {
+        return new ModuleStartupScheduler(new ArrayList<IFloodlightModule>(moduleSet),
+                                          moduleServiceMap,
+                                          startupThreads);
+    }
+
     /** Tuple of floodlight module and run method */
     private static class RunMethod {
         private final IFloodlightModule module;
@@ -530,6 +581,43 @@ public class FloodlightModuleLoader {
         }
     }
 
+    /**
+     * Parses the loader's own startup options, removing them from the
+     * properties.  As for module options, a system property with the same
+     * key overrides the configuration file.
+     * @param prop The properties file to use
+     * @throws FloodlightModuleException If an option is not valid
+     */
+    protected void parseStartupParameters(Properties prop)
+            throws FloodlightModuleException {
+        String parallel = System.getProperty(FLOODLIGHT_PARALLEL_STARTUP_KEY);
+        String threads = System.getProperty(FLOODLIGHT_STARTUP_THREADS_KEY);
+        if (prop != null) {
+            if (parallel == null)
+                parallel = prop.getProperty(FLOODLIGHT_PARALLEL_STARTUP_KEY);
+            if (threads == null)
+                threads = prop.getProperty(FLOODLIGHT_STARTUP_THREADS_KEY);
+            prop.remove(FLOODLIGHT_PARALLEL_STARTUP_KEY);
+            prop.remove(FLOODLIGHT_STARTUP_THREADS_KEY);
+        }
+
+        if (parallel != null)
+            parallelStartup = Boolean.parseBoolean(parallel.trim());
+        if (threads != null) {
+            try {
+                startupThreads = Integer.parseInt(threads.trim());
+            } catch (NumberFormatException e) {
+                throw new FloodlightModuleException("Invalid value for " +
+                                                    FLOODLIGHT_STARTUP_THREADS_KEY +
+                                                    ": " + threads);
+            }
+            if (startupThreads < 1)
+                throw new FloodlightModuleException("Invalid value for " +
+                                                    FLOODLIGHT_STARTUP_THREADS_KEY +
+                                                    ": " + threads);
+        }
+    }
+
     /**
      * Parses configuration parameters for each module
      * @param prop The properties file to use
@@ -573,4 +661,20 @@ public class FloodlightModuleLoader {
     public void setStartupModules(boolean startupModules) {
         this.startupModules = startupModules;
     }
+
+    public boolean isParallelStartup() {
+        return parallelStartup;
+    }
+
+    public void setParallelStartup(boolean parallelStartup) {
+        this.parallelStartup = parallelStartup;
+    }
+
+    public int getStartupThreads() {
+        return startupThreads;
+    }
+
+    public void setStartupThreads(int startupThreads) {
+        this.startupThreads = startupThreads;
+    }
 }
@@ -0,0 +1,308 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.core.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs one phase of module startup, such as init or startUp, over the
+ * loaded modules.  A module is called once every module providing a
+ * service it depends on has finished the phase, and modules that don't
+ * depend on each other run concurrently on a thread pool.  The time each
+ * module takes is recorded, and the chain of dependent modules that took
+ * longest, which bounds how quickly the phase can finish, is logged at the
+ * end.
+ */
+public class ModuleStartupScheduler {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(ModuleStartupScheduler.class);
+
+    /**
+     * A phase of module startup
+     */
+    public interface ModulePhase {
+        public void run(IFloodlightModule module)
+                throws FloodlightModuleException;
+    }
+
+    private final List<IFloodlightModule> modules;
+    private final int threads;
+
+    /**
+     * The modules each module depends on
+     */
+    private final Map<IFloodlightModule, List<IFloodlightModule>> dependencies =
+            new IdentityHashMap<IFloodlightModule, List<IFloodlightModule>>();
+
+    /**
+     * The modules that depend on each module
+     */
+    private final Map<IFloodlightModule, List<IFloodlightModule>> dependents =
+            new IdentityHashMap<IFloodlightModule, List<IFloodlightModule>>();
+
+    /**
+     * Time in nanoseconds each module took in the last phase run
+     */
+    private final Map<IFloodlightModule, Long> durations =
+            new IdentityHashMap<IFloodlightModule, Long>();
+
+    /**
+     * @param modules the modules, in an order where each module comes after
+     * the modules it depends on
+     * @param moduleServiceMap the services provided by each module
+     * @param threads the number of modules to run at once
+     */
+    public ModuleStartupScheduler(List<IFloodlightModule> modules,
+                                  Map<IFloodlightModule,
+                                      Collection<Class<? extends
+                                                       IFloodlightService>>> moduleServiceMap,
+                                  int threads) {
+        this.modules = modules;
+        this.threads = threads;
+
+        Map<Class<? extends IFloodlightService>, IFloodlightModule> providers =
+                new HashMap<Class<? extends IFloodlightService>, IFloodlightModule>();
+        for (IFloodlightModule m : modules) {
+            Collection<Class<? extends IFloodlightService>> servs =
+                    moduleServiceMap.get(m);
+            if (servs != null) {
+                for (Class<? extends IFloodlightService> c : servs)
+                    providers.put(c, m);
+            }
+            dependencies.put(m, new ArrayList<IFloodlightModule>());
+            dependents.put(m, new ArrayList<IFloodlightModule>());
+        }
+        // A module only waits for providers that come before it, as it
+        // would when run serially, so dependency cycles can't deadlock
+        Map<IFloodlightModule, Integer> position =
+                new IdentityHashMap<IFloodlightModule, Integer>();
+        for (IFloodlightModule m : modules) {
+            position.put(m, position.size());
+        }
+        for (IFloodlightModule m : modules) {
+            Collection<Class<? extends IFloodlightService>> deps =
+                    m.getModuleDependencies();
+            if (deps == null) continue;
+            for (Class<? extends IFloodlightService> c : deps) {
+                IFloodlightModule provider = providers.get(c);
+                if (provider == null ||
+                    position.get(provider) >= position.get(m) ||
+                    dependencies.get(m).contains(provider))
+                    continue;
+                dependencies.get(m).add(provider);
+                dependents.get(provider).add(m);
+            }
+        }
+    }
+
+    /**
+     * Get the modules the given module waits for
+     * @param module the module
+     * @return the modules providing services it depends on
+     */
+    public List<IFloodlightModule> getDependencies(IFloodlightModule module) {
+        return dependencies.get(module);
+    }
+
+    /**
+     * Run a phase over all the modules, returning once every module has
+     * finished.  If a module fails, no more modules are started and the
+     * first failure is thrown once the modules already running finish.
+     * @param phaseName the name of the phase, for logging
+     * @param phase the phase
+     * @throws FloodlightModuleException
+     */
+    public void run(final String phaseName, final ModulePhase phase)
+            throws FloodlightModuleException {
+        durations.clear();
+        long start = System.nanoTime();
+
+        final AtomicInteger threadId = new AtomicInteger();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "ModuleStartup-" +
+                                threadId.getAndIncrement());
+                    }
+                });
+        CompletionService<IFloodlightModule> completions =
+                new ExecutorCompletionService<IFloodlightModule>(executor);
+
+        Map<IFloodlightModule, Integer> waitingFor =
+                new IdentityHashMap<IFloodlightModule, Integer>();
+        LinkedList<IFloodlightModule> ready = new LinkedList<IFloodlightModule>();
+        for (IFloodlightModule m : modules) {
+            int n = dependencies.get(m).size();
+            waitingFor.put(m, n);
+            if (n == 0) ready.add(m);
+        }
+
+        Throwable failure = null;
+        int running = 0;
+        int finished = 0;
+        try {
+            while (finished < modules.size()) {
+                while (failure == null && !ready.isEmpty()) {
+                    final IFloodlightModule m = ready.removeFirst();
+                    completions.submit(new Callable<IFloodlightModule>() {
+                        @Override
+                        public IFloodlightModule call() throws Exception {
+                            long t = System.nanoTime();
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("{} {}", phaseName,
+                                             m.getClass().getCanonicalName());
+                            }
+                            phase.run(m);
+                            synchronized (durations) {
+                                durations.put(m, System.nanoTime() - t);
+                            }
+                            return m;
+                        }
+                    });
+                    running += 1;
+                }
+                if (running == 0) break;
+
+                IFloodlightModule done;
+                try {
+                    done = completions.take().get();
+                } catch (ExecutionException e) {
+                    running -= 1;
+                    if (failure == null)
+                        failure = e.getCause();
+                    continue;
+                }
+                running -= 1;
+                finished += 1;
+                for (IFloodlightModule d : dependents.get(done)) {
+                    int n = waitingFor.get(d) - 1;
+                    waitingFor.put(d, n);
+                    if (n == 0) ready.add(d);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure instanceof FloodlightModuleException)
+            throw (FloodlightModuleException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw new FloodlightModuleException("Module " + phaseName +
+                                                " failed", failure);
+        if (finished < modules.size())
+            throw new FloodlightModuleException("Module dependencies " +
+                                                "could not be resolved");
+
+        logReport(phaseName, System.nanoTime() - start);
+    }
+
+    /**
+     * Get the time the given module took in the last phase run
+     * @param module the module
+     * @return the time in nanoseconds, or null if the module did not run
+     */
+    public Long getDuration(IFloodlightModule module) {
+        synchronized (durations) {
+            return durations.get(module);
+        }
+    }
+
+    /**
+     * Get the chain of dependent modules with the largest total time in
+     * the last phase run
+     * @return the modules on the critical path, first to last
+     */
+    public List<IFloodlightModule> getCriticalPath() {
+        // Modules are in dependency order, so one pass finds for each the
+        // slowest chain ending with it
+        Map<IFloodlightModule, Long> pathTime =
+                new IdentityHashMap<IFloodlightModule, Long>();
+        Map<IFloodlightModule, IFloodlightModule> previous =
+                new IdentityHashMap<IFloodlightModule, IFloodlightModule>();
+        IFloodlightModule last = null;
+        for (IFloodlightModule m : modules) {
+            long before = 0;
+            for (IFloodlightModule d : dependencies.get(m)) {
+                Long t = pathTime.get(d);
+                if (t != null && t > before) {
+                    before = t;
+                    previous.put(m, d);
+                }
+            }
+            Long duration = getDuration(m);
+            long t = before + (duration == null ? 0 : duration);
+            pathTime.put(m, t);
+            if (last == null || t > pathTime.get(last))
+                last = m;
+        }
+
+        LinkedList<IFloodlightModule> path = new LinkedList<IFloodlightModule>();
+        for (IFloodlightModule m = last; m != null; m = previous.get(m))
+            path.addFirst(m);
+        return path;
+    }
+
+    private void logReport(String phaseName, long elapsed) {
+        if (logger.isDebugEnabled()) {
+            for (IFloodlightModule m : modules) {
+                logger.debug("{} {} took {}ms",
+                             new Object[]{phaseName,
+                                          m.getClass().getCanonicalName(),
+                                          TimeUnit.NANOSECONDS.toMillis(getDuration(m))});
+            }
+        }
+        long total = 0;
+        StringBuilder sb = new StringBuilder();
+        for (IFloodlightModule m : getCriticalPath()) {
+            long ms = TimeUnit.NANOSECONDS.toMillis(getDuration(m));
+            total += ms;
+            if (sb.length() > 0)
+                sb.append(" -> ");
+            sb.append(m.getClass().getSimpleName());
+            sb.append(" (").append(ms).append("ms)");
+        }
+        logger.info("Module {} of {} modules took {}ms on {} threads; " +
+                    "critical path {}ms: {}",
+                    new Object[]{phaseName, modules.size(),
+                                 TimeUnit.NANOSECONDS.toMillis(elapsed),
+                                 threads, total, sb});
+    }
+}
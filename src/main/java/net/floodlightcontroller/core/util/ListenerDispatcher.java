@@ -59,7 +59,7 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
      * Add a listener to the list of listeners
      * @param listener
      */
-    public void addListener(U type, T listener) {
+    public synchronized void addListener(U type, T listener) {
         List<T> newlisteners = new ArrayList<T>();
         if (listeners != null)
             newlisteners.addAll(listeners);
@@ -101,7 +101,7 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
      * Remove the given listener
      * @param listener the listener to remove
      */
-    public void removeListener(T listener) {
+    public synchronized void removeListener(T listener) {
         if (listeners != null) {
             List<T> newlisteners = new ArrayList<T>();
             newlisteners.addAll(listeners);
@@ -1,5 +1,6 @@
 package net.floodlightcontroller.core.util;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,6 +36,17 @@ public abstract class ThriftFrameDecoder<T extends TBase<?,?>> extends LengthFie
 
     protected abstract T allocateMessage();
 
+    /**
+     * Get the stream the message in the given frame is read from.
+     * Subclasses can override this to unwrap frames they encoded
+     * differently.
+     * @param frame the frame, without its length field
+     * @return the stream of the serialized message
+     */
+    protected InputStream openFrame(ByteBuf frame) throws Exception {
+        return new ByteBufInputStream(frame);
+    }
+
     @Override
     protected final Object decode(ChannelHandlerContext ctx,
                             ByteBuf buffer) throws Exception {
@@ -46,7 +58,7 @@ public abstract class ThriftFrameDecoder<T extends TBase<?,?>> extends LengthFie
         ByteBuf frame = null;
         while (null != (frame = (ByteBuf) super.decode(ctx, buffer))) {
             if (ms == null) ms = new ArrayList<T>();
-            ByteBufInputStream is = new ByteBufInputStream(frame);
+            InputStream is = openFrame(frame);
             TCompactProtocol thriftProtocol =
                     new TCompactProtocol(new TIOStreamTransport(is));
             T message = allocateMessage();
@@ -45,16 +45,7 @@ public class CounterResource extends CounterResourceBase {
                 }   
             }   
         } else if (counterTitle.equalsIgnoreCase(CoreWebRoutable.STR_ALL)) { // get all counters for a specifc module
-            List<DebugCounterResource> counters = this.debugCounterService.getModuleCounterValues(counterModule);
-            if (counters != null) {
-                Iterator<DebugCounterResource> it = counters.iterator();
-                while (it.hasNext()) {
-                    DebugCounterResource dcr = it.next();
-                    String counterName = dcr.getCounterHierarchy();
-                    dc = dcr.getCounterValue();
-                    model.put(counterName, dc);
-                }   
-            }   
+            model.putAll(this.debugCounterService.getModuleCounterSnapshot(counterModule));
         } else { // get a specific counter (or subset of counters) for a specific module
             List<DebugCounterResource> counters = this.debugCounterService.getCounterHierarchy(counterModule, counterTitle);
             if (counters != null) {
@@ -13,6 +13,7 @@ public class StatsReply {
     private DatapathId datapath;
     private Object values;
     private OFStatsType statType;
+    private String error;
 
     public StatsReply() {}
 
@@ -39,6 +40,15 @@ public class StatsReply {
     public OFStatsType getStatType(){
         return statType;
     }
+    public void setError(String error){
+        this.error = error;
+    }
+    /**
+     * @return why the switch did not reply, or null if it did
+     */
+    public String getError(){
+        return error;
+    }
     
 }
 
@@ -0,0 +1,338 @@
+package net.floodlightcontroller.core.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
+import org.projectfloodlight.openflow.protocol.OFStatsType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.ver13.OFMeterSerializerVer13;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFGroup;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.primitives.UnsignedLong;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Fetches statistics or features replies from many switches at once, for
+ * the REST API.
+ *
+ * All requests are written before any reply is waited for, so a query
+ * costs the latency of the slowest switch rather than the sum, and needs
+ * no thread per switch. The caller then waits once, up to a deadline
+ * shared by all switches, and gets a reply for every switch: the values,
+ * or an error saying why there are none.
+ *
+ * Identical queries to a switch that are in flight at the same time, from
+ * any number of REST requests, share a single request to the switch. A
+ * query leaves the in-flight table when its reply arrives, or when the
+ * connection fails or times it out, so no reply is ever served stale.
+ */
+public class SwitchStatsFetcher {
+    protected static final Logger log = LoggerFactory.getLogger(SwitchStatsFetcher.class);
+
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    /* Shared by all REST requests */
+    private static final ConcurrentMap<Query, ListenableFuture<?>> inFlight =
+            new ConcurrentHashMap<Query, ListenableFuture<?>>();
+
+    private final IOFSwitchService switchService;
+
+    /* A stats request of one type to one switch; a null type asks for features */
+    private static final class Query {
+        private final DatapathId dpid;
+        private final OFStatsType type;
+
+        private Query(DatapathId dpid, OFStatsType type) {
+            this.dpid = dpid;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * dpid.hashCode() + (type == null ? 0 : type.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Query)) return false;
+            Query other = (Query) obj;
+            return dpid.equals(other.dpid) && type == other.type;
+        }
+    }
+
+    public SwitchStatsFetcher(IOFSwitchService switchService) {
+        this.switchService = switchService;
+    }
+
+    /**
+     * Requests statistics from every switch and waits for the replies.
+     * @param dpids the switches to query
+     * @param type the statistics type, or null for a features reply
+     * @param timeoutMs how long to wait for all replies together
+     * @return a reply per switch, in the order of dpids; replies that failed
+     * or did not arrive in time carry an error instead of values
+     */
+    public Map<DatapathId, StatsReply> fetch(Iterable<DatapathId> dpids, OFStatsType type, long timeoutMs) {
+        return collect(request(dpids, type), type, timeoutMs);
+    }
+
+    /**
+     * Writes the requests to all switches without waiting for any reply.
+     * @param dpids the switches to query
+     * @param type the statistics type, or null for a features reply
+     * @return the pending reply of each switch; it fails with an
+     * IllegalStateException if the switch is gone or does not support the type
+     */
+    public Map<DatapathId, ListenableFuture<?>> request(Iterable<DatapathId> dpids, OFStatsType type) {
+        Map<DatapathId, ListenableFuture<?>> futures = new LinkedHashMap<DatapathId, ListenableFuture<?>>();
+        for (DatapathId dpid : dpids) {
+            futures.put(dpid, request(dpid, type));
+        }
+        return futures;
+    }
+
+    private ListenableFuture<?> request(DatapathId dpid, OFStatsType type) {
+        final Query query = new Query(dpid, type);
+        ListenableFuture<?> future = inFlight.get(query);
+        if (future != null) {
+            return future;
+        }
+
+        final SettableFuture<Object> placeholder = SettableFuture.create();
+        future = inFlight.putIfAbsent(query, placeholder);
+        if (future != null) {
+            return future; /* lost the race to another identical query */
+        }
+        placeholder.addListener(new Runnable() {
+            @Override
+            public void run() {
+                inFlight.remove(query, placeholder);
+            }
+        }, MoreExecutors.directExecutor());
+
+        IOFSwitch sw = switchService.getSwitch(dpid);
+        if (sw == null) {
+            placeholder.setException(new IllegalStateException("Switch is not connected"));
+        } else if (type == null) {
+            placeholder.setFuture(sw.writeRequest(sw.getOFFactory().buildFeaturesRequest().build()));
+        } else {
+            OFStatsRequest<?> req = buildStatsRequest(sw, type);
+            if (req == null) {
+                placeholder.setException(new IllegalStateException("Statistics type " + type
+                        + " is not supported by the switch's OpenFlow version"));
+            } else {
+                placeholder.setFuture(sw.writeStatsRequest(req));
+            }
+        }
+        return placeholder;
+    }
+
+    /**
+     * Waits for pending replies until a deadline shared by all of them.
+     * @param futures the pending reply of each switch
+     * @param type the statistics type, or null for a features reply
+     * @param timeoutMs how long to wait for all replies together
+     * @return a reply per switch, in the order of futures
+     */
+    public Map<DatapathId, StatsReply> collect(Map<DatapathId, ListenableFuture<?>> futures, OFStatsType type, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        boolean interrupted = false;
+        Map<DatapathId, StatsReply> replies = new LinkedHashMap<DatapathId, StatsReply>();
+        for (Map.Entry<DatapathId, ListenableFuture<?>> e : futures.entrySet()) {
+            StatsReply reply = new StatsReply(e.getKey(), null, type);
+            try {
+                /* Once interrupted, only take the replies that are already there */
+                long remaining = interrupted ? 0 : Math.max(0, deadline - System.nanoTime());
+                reply.setValues(e.getValue().get(remaining, TimeUnit.NANOSECONDS));
+            } catch (InterruptedException ie) {
+                interrupted = true;
+                reply.setError("Interrupted while waiting for the reply");
+            } catch (TimeoutException te) {
+                reply.setError("The switch did not reply within " + timeoutMs + "ms");
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause() == null ? ee : ee.getCause();
+                log.debug("Failure retrieving {} from switch {}: {}",
+                        new Object[] { type == null ? "features" : type, e.getKey(), cause.getMessage() });
+                reply.setError(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage());
+            }
+            replies.put(e.getKey(), reply);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return replies;
+    }
+
+    /**
+     * Builds the request for a statistics type, in the switch's OpenFlow version.
+     * @param sw the switch
+     * @param statType the statistics type
+     * @return the request, or null if the switch's version does not support the type
+     */
+    public static OFStatsRequest<?> buildStatsRequest(IOFSwitch sw, OFStatsType statType) {
+        Match match;
+        OFStatsRequest<?> req = null;
+        switch (statType) {
+        case FLOW:
+            match = sw.getOFFactory().buildMatch().build();
+            req = sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) == 0 ? 
+                    sw.getOFFactory().buildFlowStatsRequest()
+                    .setMatch(match)
+                    .setOutPort(OFPort.ANY)
+                    .setTableId(TableId.ALL)
+                    .build() :
+                        sw.getOFFactory().buildFlowStatsRequest()
+                        .setMatch(match)
+                        .setOutPort(OFPort.ANY)
+                        .setTableId(TableId.ALL)
+                        .setOutGroup(OFGroup.ANY)
+                        .build();
+            break;
+        case AGGREGATE:
+            match = sw.getOFFactory().buildMatch().build();
+            req = sw.getOFFactory().buildAggregateStatsRequest()
+                    .setMatch(match)
+                    .setOutPort(OFPort.ANY)
+                    .setTableId(TableId.ALL)
+                    .build();
+            break;
+        case PORT:
+            req = sw.getOFFactory().buildPortStatsRequest()
+            .setPortNo(OFPort.ANY)
+            .build();
+            break;
+        case QUEUE:
+            req = sw.getOFFactory().buildQueueStatsRequest()
+            .setPortNo(OFPort.ANY)
+            .setQueueId(UnsignedLong.MAX_VALUE.longValue())
+            .build();
+            break;
+        case DESC:
+            // pass - nothing todo besides set the type above
+            req = sw.getOFFactory().buildDescStatsRequest()
+            .build();
+            break;
+        case GROUP:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) > 0) {
+                req = sw.getOFFactory().buildGroupStatsRequest()				
+                        .build();
+            }
+            break;
+        case METER:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_13) >= 0) {
+                req = sw.getOFFactory().buildMeterStatsRequest()
+                        .setMeterId(OFMeterSerializerVer13.ALL_VAL)
+                        .build();
+            }
+            break;
+        case GROUP_DESC:			
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) > 0) {
+                req = sw.getOFFactory().buildGroupDescStatsRequest()			
+                        .build();
+            }
+            break;
+        case GROUP_FEATURES:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) > 0) {
+                req = sw.getOFFactory().buildGroupFeaturesStatsRequest()
+                        .build();
+            }
+            break;
+        case METER_CONFIG:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_13) >= 0) {
+                req = sw.getOFFactory().buildMeterConfigStatsRequest()
+                        .setMeterId(0xffFFffFF)
+                        .build();
+            }
+            break;
+        case METER_FEATURES:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_13) >= 0) {
+                req = sw.getOFFactory().buildMeterFeaturesStatsRequest()
+                        .build();
+            }
+            break;
+        case TABLE:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) > 0) {
+                req = sw.getOFFactory().buildTableStatsRequest()
+                        .build();
+            }
+            break;
+        case TABLE_FEATURES:	
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) > 0) {
+                req = sw.getOFFactory().buildTableFeaturesStatsRequest()
+                        .build();		
+            }
+            break;
+        case PORT_DESC:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_13) >= 0) {
+                req = sw.getOFFactory().buildPortDescStatsRequest()
+                        .build();
+            }
+            break;
+        case EXPERIMENTER:		
+            log.error("Stats Request Type {} not implemented yet", statType.name());
+            break;
+        case BUNDLE_FEATURES:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_15) >= 0) {
+                req = sw.getOFFactory().buildBundleFeaturesStatsRequest()
+                        .build();
+            }
+            break;
+        case CONTROLLER_STATUS:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_15) >= 0) {
+                req = sw.getOFFactory().buildControllerStatusStatsRequest()
+                        .build();
+            }
+            break;
+        case FLOW_LIGHTWEIGHT:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_15) >= 0) {	
+                match = sw.getOFFactory().buildMatch().build();
+                req = sw.getOFFactory().buildFlowLightweightStatsRequest()
+                        .setMatch(match)
+                        .setOutPort(OFPort.ANY)
+                        .setTableId(TableId.ALL)
+                        .build();
+            }
+            break;
+        case FLOW_MONITOR:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_14) >= 0) {
+                req = sw.getOFFactory().buildFlowMonitorRequest()
+                        .build();
+            }
+            break;
+        case QUEUE_DESC:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_14) >= 0) {
+                req = sw.getOFFactory().buildQueueDescStatsRequest()
+                        .setPortNo(OFPort.ANY)
+                        .setQueueId(0xffFFffFF) /* all queues */
+                        .build();
+            }
+            break;
+        case TABLE_DESC:
+            if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_14) >= 0) {
+                req = sw.getOFFactory().buildTableDescStatsRequest()
+                        .build();
+            }
+            break;
+            /* omit a default so we will know (via warning) if we miss one in the future */
+        }
+        return req;
+    }
+}
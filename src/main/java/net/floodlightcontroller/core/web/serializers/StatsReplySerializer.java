@@ -64,6 +64,13 @@ public class StatsReplySerializer extends JsonSerializer<StatsReply> {
     @SuppressWarnings("unchecked")
     @Override
     public void serialize(StatsReply reply, JsonGenerator jGen, SerializerProvider serializer) throws IOException, JsonProcessingException {
+        // A switch that failed to reply, in a query to many switches
+        if (reply.getError() != null) {
+            jGen.writeStartObject();
+            jGen.writeStringField("error", reply.getError());
+            jGen.writeEndObject();
+            return;
+        }
         // Return a nice error to user if the request we're about to serialize was bad
         if (reply.getValues() == null) {
             jGen.writeStartObject();
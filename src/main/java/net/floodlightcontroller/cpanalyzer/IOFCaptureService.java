@@ -0,0 +1,53 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+/**
+ * Records the raw OpenFlow messages of switch connections to pcapng files.
+ */
+public interface IOFCaptureService extends IFloodlightService {
+
+    /**
+     * Called on every message, so it must be cheap.
+     * @return true if messages should be passed to capture()
+     */
+    public boolean isCapturing();
+
+    /**
+     * Records one message, if the capture filter selects it. Called from
+     * the I/O thread of the connection.
+     * @param channel the switch connection
+     * @param dpid the switch, or null if not known yet
+     * @param fromSwitch true if the message was read from the switch,
+     * false if it was written to it
+     * @param type the message type
+     * @param frame the message as on the wire, left unchanged
+     */
+    public void capture(Channel channel, DatapathId dpid, boolean fromSwitch, OFType type, ByteBuf frame);
+
+    /**
+     * Starts a new capture, ending the current one, if any.
+     * @param filter the messages to record
+     * @throws IOException if the capture files cannot be created
+     */
+    public void startCapture(OFCaptureFilter filter) throws IOException;
+
+    /**
+     * Ends the current capture, if any, leaving its files on disk.
+     */
+    public void stopCapture();
+
+    /**
+     * @return whether a capture is running, with its filter, files and
+     * counts
+     */
+    public Map<String, Object> getCaptureStatus();
+}
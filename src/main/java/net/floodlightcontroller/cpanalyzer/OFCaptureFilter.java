@@ -0,0 +1,48 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+/**
+ * Selects the OpenFlow messages a capture records, by switch and message
+ * type. An empty set matches everything. Messages of connections whose
+ * switch is not known yet only match when no switch is selected.
+ */
+public class OFCaptureFilter {
+    public static final OFCaptureFilter ALL = new OFCaptureFilter(
+            Collections.<DatapathId>emptySet(), Collections.<OFType>emptySet());
+
+    private final Set<DatapathId> dpids;
+    private final Set<OFType> types;
+
+    public OFCaptureFilter(Set<DatapathId> dpids, Set<OFType> types) {
+        this.dpids = Collections.unmodifiableSet(new HashSet<DatapathId>(dpids));
+        this.types = types.isEmpty() ? Collections.<OFType>emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(types));
+    }
+
+    public boolean matches(DatapathId dpid, OFType type) {
+        if (!dpids.isEmpty() && (dpid == null || !dpids.contains(dpid))) {
+            return false;
+        }
+        return types.isEmpty() || types.contains(type);
+    }
+
+    public Set<DatapathId> getDpids() {
+        return dpids;
+    }
+
+    public Set<OFType> getTypes() {
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        return "OFCaptureFilter [dpids=" + dpids + ", types=" + types + "]";
+    }
+}
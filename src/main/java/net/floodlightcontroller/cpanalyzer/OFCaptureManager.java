@@ -0,0 +1,209 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.module.IFloodlightModule;
+import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.cpanalyzer.web.OFCaptureWebRoutable;
+import net.floodlightcontroller.restserver.IRestApiService;
+
+/**
+ * Captures the OpenFlow messages of all switch connections, as read from
+ * and written to the wire, into a ring of pcapng files that Wireshark can
+ * decode. Meant to be left loaded: while no capture runs, the only cost is
+ * one volatile read per message.
+ *
+ * Configuration:
+ * <ul>
+ * <li>directory: where capture files go, the temporary directory by default</li>
+ * <li>segmentSizeMB: the largest size of one file (64)</li>
+ * <li>segmentSeconds: the longest time one file is written to (60)</li>
+ * <li>maxSegments: the number of files kept, oldest deleted first (16)</li>
+ * </ul>
+ */
+public class OFCaptureManager implements IFloodlightModule, IOFCaptureService {
+    protected static final Logger log = LoggerFactory.getLogger(OFCaptureManager.class);
+
+    private static final AttributeKey<SyntheticTcpStream> ATTR_TCP_STREAM = AttributeKey.valueOf("captureTcpStream");
+
+    private IRestApiService restApi;
+
+    private File directory;
+    private int segmentBytes;
+    private long segmentNs;
+    private int maxSegments;
+
+    /* A running capture; replaced as a whole so the filter and writer always match */
+    private static class Capture {
+        private final OFCaptureFilter filter;
+        private final PcapngRingWriter writer;
+        private final long startedMs = System.currentTimeMillis();
+
+        private Capture(OFCaptureFilter filter, PcapngRingWriter writer) {
+            this.filter = filter;
+            this.writer = writer;
+        }
+    }
+
+    private final AtomicReference<Capture> capture = new AtomicReference<Capture>();
+    private Capture lastCapture;
+
+    @Override
+    public boolean isCapturing() {
+        return capture.get() != null;
+    }
+
+    @Override
+    public void capture(Channel channel, DatapathId dpid, boolean fromSwitch, OFType type, ByteBuf frame) {
+        Capture c = capture.get();
+        if (c == null || !c.filter.matches(dpid, type)) {
+            return;
+        }
+
+        /* Each capture numbers the bytes of a connection from the start */
+        Attribute<SyntheticTcpStream> attr = channel.attr(ATTR_TCP_STREAM);
+        SyntheticTcpStream stream = attr.get();
+        if (stream == null || stream.getOwner() != c) {
+            stream = new SyntheticTcpStream(c, channel.remoteAddress(), channel.localAddress());
+            attr.set(stream);
+        }
+
+        try {
+            c.writer.write(stream, fromSwitch, frame);
+        } catch (IOException e) {
+            /* On an I/O thread: neither take the lock nor wait for the file system */
+            if (capture.compareAndSet(c, null)) {
+                log.error("Stopping OpenFlow capture, cannot write to " + directory, e);
+                c.writer.closeAsync();
+                logStopped(c);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void startCapture(OFCaptureFilter filter) throws IOException {
+        stopCapture();
+        Capture c = new Capture(filter, new PcapngRingWriter(directory, segmentBytes, segmentNs, maxSegments));
+        capture.set(c);
+        lastCapture = c;
+        log.info("Started OpenFlow capture to {} with {}", directory, filter);
+    }
+
+    @Override
+    public synchronized void stopCapture() {
+        Capture c = capture.getAndSet(null);
+        if (c == null) {
+            return;
+        }
+        try {
+            c.writer.close();
+        } catch (IOException e) {
+            log.error("Error closing OpenFlow capture", e);
+        }
+        logStopped(c);
+    }
+
+    private static void logStopped(Capture c) {
+        log.info("Stopped OpenFlow capture: {} packets, {} bytes in {}",
+                new Object[] { c.writer.getPacketCount(), c.writer.getByteCount(), c.writer.getSegments() });
+    }
+
+    @Override
+    public synchronized Map<String, Object> getCaptureStatus() {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("capturing", capture.get() != null);
+        status.put("directory", directory.getPath());
+        if (lastCapture != null) {
+            Map<String, Object> filter = new LinkedHashMap<String, Object>();
+            filter.put("dpids", lastCapture.filter.getDpids());
+            filter.put("types", lastCapture.filter.getTypes());
+            status.put("filter", filter);
+            status.put("started", lastCapture.startedMs);
+            status.put("packets", lastCapture.writer.getPacketCount());
+            status.put("bytes", lastCapture.writer.getByteCount());
+            status.put("files", lastCapture.writer.getSegments());
+        }
+        return status;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IOFCaptureService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>, IFloodlightService>();
+        m.put(IOFCaptureService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IRestApiService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context) throws FloodlightModuleException {
+        restApi = context.getServiceImpl(IRestApiService.class);
+
+        Map<String, String> configParams = context.getConfigParams(this);
+        String dir = configParams.get("directory");
+        directory = dir == null || dir.trim().isEmpty()
+                ? new File(System.getProperty("java.io.tmpdir"), "floodlight-capture")
+                : new File(dir.trim());
+        try {
+            segmentBytes = getIntParam(configParams, "segmentSizeMB", 64, 1, 2047) * 1024 * 1024;
+            segmentNs = TimeUnit.SECONDS.toNanos(getIntParam(configParams, "segmentSeconds", 60, 1, Integer.MAX_VALUE));
+            maxSegments = getIntParam(configParams, "maxSegments", 16, 1, Integer.MAX_VALUE);
+        } catch (IllegalArgumentException e) {
+            throw new FloodlightModuleException(e.getMessage());
+        }
+    }
+
+    private static int getIntParam(Map<String, String> configParams, String name, int defaultValue, int min, int max) {
+        String value = configParams.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value.trim());
+            if (i >= min && i <= max) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw new IllegalArgumentException("Invalid " + name + " '" + value + "': must be an integer in the range " + min + "-" + max);
+    }
+
+    @Override
+    public void startUp(FloodlightModuleContext context) throws FloodlightModuleException {
+        restApi.addRestletRoutable(new OFCaptureWebRoutable());
+    }
+}
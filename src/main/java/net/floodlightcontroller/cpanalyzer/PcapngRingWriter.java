@@ -0,0 +1,275 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes captured OpenFlow messages to a ring of pcapng segments. A new
+ * segment is started when the current one is full or older than the
+ * segment duration, and the oldest segment is deleted once there are more
+ * than maxSegments, so a capture can run indefinitely in bounded space and
+ * always holds the most recent traffic.
+ *
+ * All methods are synchronized; writes from the I/O threads of all
+ * connections are serialized, each holding the lock for a couple of
+ * memory copies. The file system work of a rotation is kept off the
+ * lock: a background thread creates and maps the next segment ahead of
+ * time, and flushes, closes and deletes the segments that are done with.
+ */
+public class PcapngRingWriter {
+    protected static final Logger log = LoggerFactory.getLogger(PcapngRingWriter.class);
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentBytes;
+    private final long segmentNs;
+    private final int maxSegments;
+
+    /* Wall-clock time of a nanoTime reading, to timestamp packets cheaply */
+    private final long baseEpochNs;
+    private final long baseNanoTime;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("OFCapture-io-%d").setDaemon(true).build());
+    private final Deque<File> closedSegments = new ArrayDeque<File>();
+    private final ByteBuffer headers = ByteBuffer.allocate(
+            SyntheticTcpStream.IPV6_HEADER_LENGTH + SyntheticTcpStream.TCP_HEADER_LENGTH);
+    private PcapngSegment segment;
+    private long segmentStartNs;
+    private Future<PcapngSegment> spare;
+    private int segmentIndex;
+    private long packetCount;
+    private long byteCount;
+    private boolean closed;
+
+    /**
+     * @param directory where segments are written, created if needed
+     * @param segmentBytes the largest size of a segment
+     * @param segmentNs the longest time a segment is written to
+     * @param maxSegments the number of segments kept
+     */
+    public PcapngRingWriter(File directory, int segmentBytes, long segmentNs, int maxSegments) throws IOException {
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("At least one segment must be kept");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create capture directory " + directory);
+        }
+        this.directory = directory;
+        this.prefix = "of-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        this.segmentBytes = segmentBytes;
+        this.segmentNs = segmentNs;
+        this.maxSegments = maxSegments;
+        this.baseEpochNs = System.currentTimeMillis() * 1000000L;
+        this.baseNanoTime = System.nanoTime();
+        segment = new PcapngSegment(nextFile(), segmentBytes);
+        segmentStartNs = baseNanoTime;
+        prepareSpare();
+        log.debug("Capturing OpenFlow messages to {}", segment.getFile());
+    }
+
+    /**
+     * Appends one OpenFlow message, as one or more TCP segments of a stream.
+     * @param stream the connection of the message
+     * @param fromSwitch the direction of the message
+     * @param frame the message, between its reader and writer index, left unchanged
+     */
+    public synchronized void write(SyntheticTcpStream stream, boolean fromSwitch, ByteBuf frame) throws IOException {
+        if (closed) {
+            return;
+        }
+        long nowNs = System.nanoTime();
+        long timestampNs = baseEpochNs + (nowNs - baseNanoTime);
+        int index = frame.readerIndex();
+        int remaining = frame.readableBytes();
+        do {
+            int length = Math.min(remaining, SyntheticTcpStream.MAX_PAYLOAD);
+            int packetLength = stream.getHeaderLength() + length;
+            if (!segment.hasRoom(packetLength) || nowNs - segmentStartNs >= segmentNs) {
+                if (segment.getPacketCount() == 0 && !segment.hasRoom(packetLength)) {
+                    throw new IOException("Segment size " + segmentBytes + " cannot hold a packet of " + packetLength + " bytes");
+                }
+                rotate(nowNs);
+            }
+            headers.clear();
+            stream.writeHeaders(headers, fromSwitch, length);
+            headers.flip();
+            segment.append(timestampNs, headers, frame, index, length);
+            byteCount += packetLength;
+            packetCount++;
+            index += length;
+            remaining -= length;
+        } while (remaining > 0);
+    }
+
+    private File nextFile() {
+        return new File(directory, String.format("%s-%04d.pcapng", prefix, segmentIndex++));
+    }
+
+    /* Creates and maps the next segment on the background thread */
+    private void prepareSpare() {
+        final File file = nextFile();
+        spare = io.submit(new Callable<PcapngSegment>() {
+            @Override
+            public PcapngSegment call() throws IOException {
+                return new PcapngSegment(file, segmentBytes);
+            }
+        });
+    }
+
+    private PcapngSegment takeSpare() throws IOException {
+        try {
+            /* Normally ready long before it is needed */
+            return spare.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating a capture segment", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot create a capture segment", e.getCause());
+        }
+    }
+
+    /* Closes a segment and deletes expired ones on the background thread */
+    private void retire(final PcapngSegment done, final List<File> expired) {
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (done != null) {
+                    try {
+                        done.close();
+                    } catch (IOException e) {
+                        log.warn("Could not close capture segment " + done.getFile(), e);
+                    }
+                }
+                for (File f : expired) {
+                    if (!f.delete()) {
+                        log.warn("Could not delete old capture segment {}", f);
+                    }
+                }
+            }
+        });
+    }
+
+    private void rotate(long nowNs) throws IOException {
+        PcapngSegment next = takeSpare();
+        closedSegments.addLast(segment.getFile());
+        List<File> expired = new ArrayList<File>();
+        while (closedSegments.size() >= maxSegments) {
+            expired.add(closedSegments.removeFirst());
+        }
+        retire(segment, expired);
+        segment = next;
+        segmentStartNs = nowNs;
+        prepareSpare();
+        log.debug("Capturing OpenFlow messages to {}", segment.getFile());
+    }
+
+    /**
+     * Closes the current segment. The segments are left on disk. Waits for
+     * the background thread to finish closing and deleting segments.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discardSpare();
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Timed out closing old capture segments");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+        closedSegments.addLast(segment.getFile());
+    }
+
+    /**
+     * Closes the current segment on the background thread and returns at
+     * once; nothing is written from now on. The segments are left on disk.
+     * For threads that must not wait on the file system.
+     */
+    public synchronized void closeAsync() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discardSpare();
+        final PcapngSegment last = segment;
+        closedSegments.addLast(last.getFile());
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    last.close();
+                } catch (IOException e) {
+                    log.warn("Could not close capture segment " + last.getFile(), e);
+                }
+            }
+        });
+        io.shutdown();
+    }
+
+    /* Deletes the segment prepared for the next rotation on the background thread */
+    private void discardSpare() {
+        final Future<PcapngSegment> unused = spare;
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PcapngSegment s = unused.get();
+                    s.close();
+                    if (!s.getFile().delete()) {
+                        log.warn("Could not delete unused capture segment {}", s.getFile());
+                    }
+                } catch (Exception e) {
+                    log.debug("No unused capture segment to delete", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the paths of the segments on disk, oldest first
+     */
+    public synchronized List<String> getSegments() {
+        List<String> segments = new ArrayList<String>();
+        for (File f : closedSegments) {
+            segments.add(f.getPath());
+        }
+        if (!closed) {
+            segments.add(segment.getFile().getPath());
+        }
+        return segments;
+    }
+
+    public synchronized long getPacketCount() {
+        return packetCount;
+    }
+
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+}
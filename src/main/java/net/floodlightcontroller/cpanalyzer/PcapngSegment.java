@@ -0,0 +1,154 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * One pcapng file of a capture, written through a memory mapping of its
+ * full size, so that appending a packet is a copy into memory and the
+ * kernel writes the pages out in the background.
+ *
+ * The file holds a section header, one interface of raw IP packets with
+ * nanosecond timestamps, and enhanced packet blocks. On close, it is cut
+ * down to what was written.
+ *
+ * Not thread-safe; the PcapngRingWriter creates and closes segments on a
+ * background thread but only uses a segment from one thread at a time.
+ */
+public class PcapngSegment implements Closeable {
+    protected static final int SHB_LENGTH = 28;
+    protected static final int IDB_LENGTH = 32;
+    protected static final int EPB_OVERHEAD = 32;
+
+    private static final int BLOCK_SHB = 0x0a0d0d0a;
+    private static final int BLOCK_IDB = 0x00000001;
+    private static final int BLOCK_EPB = 0x00000006;
+    private static final int BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final short LINKTYPE_RAW = 101;
+    private static final short OPT_IF_TSRESOL = 9;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int packets;
+
+    /**
+     * Creates the file, replacing any file of the same name.
+     * @param file the file
+     * @param size the largest size the file may grow to
+     */
+    public PcapngSegment(File file, int size) throws IOException {
+        if (size < SHB_LENGTH + IDB_LENGTH + EPB_OVERHEAD) {
+            throw new IllegalArgumentException("Segment size " + size + " is too small");
+        }
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            this.channel = raf.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        writeHeaders();
+    }
+
+    private void writeHeaders() {
+        buffer.putInt(BLOCK_SHB);
+        buffer.putInt(SHB_LENGTH);
+        buffer.putInt(BYTE_ORDER_MAGIC);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putLong(-1L); /* section length not given */
+        buffer.putInt(SHB_LENGTH);
+
+        buffer.putInt(BLOCK_IDB);
+        buffer.putInt(IDB_LENGTH);
+        buffer.putShort(LINKTYPE_RAW);
+        buffer.putShort((short) 0);
+        buffer.putInt(0); /* no snap length */
+        buffer.putShort(OPT_IF_TSRESOL);
+        buffer.putShort((short) 1);
+        buffer.putInt(9); /* 10^-9 s, padded */
+        buffer.putInt(0); /* end of options */
+        buffer.putInt(IDB_LENGTH);
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * @return true if a packet of length bytes still fits
+     */
+    public boolean hasRoom(int length) {
+        return buffer.remaining() >= EPB_OVERHEAD + padded(length);
+    }
+
+    /**
+     * Appends a packet made of headers followed by a payload. The caller
+     * checks hasRoom() first.
+     * @param timestampNs the capture time, in ns since the epoch
+     * @param headers the headers, between position and limit
+     * @param payload the buffer holding the payload, left unchanged
+     * @param index where the payload starts in the buffer
+     * @param length the length of the payload
+     */
+    public void append(long timestampNs, ByteBuffer headers, ByteBuf payload, int index, int length) {
+        int captured = headers.remaining() + length;
+        int blockLength = EPB_OVERHEAD + padded(captured);
+        buffer.putInt(BLOCK_EPB);
+        buffer.putInt(blockLength);
+        buffer.putInt(0); /* interface */
+        buffer.putInt((int) (timestampNs >>> 32));
+        buffer.putInt((int) timestampNs);
+        buffer.putInt(captured);
+        buffer.putInt(captured);
+        buffer.put(headers);
+        ByteBuffer dst = buffer.slice();
+        dst.limit(length);
+        payload.getBytes(index, dst);
+        buffer.position(buffer.position() + length);
+        for (int pad = padded(captured) - captured; pad > 0; pad--) {
+            buffer.put((byte) 0);
+        }
+        buffer.putInt(blockLength);
+        packets++;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getLength() {
+        return buffer.position();
+    }
+
+    public int getPacketCount() {
+        return packets;
+    }
+
+    /**
+     * Flushes the file and cuts it down to the blocks written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            buffer.force();
+            channel.truncate(buffer.position());
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Made-up IP and TCP headers for one switch connection, so that captured
+ * OpenFlow messages read as an ordinary TCP stream to tools like Wireshark,
+ * which reassemble it and decode OpenFlow on the controller's port.
+ *
+ * Sequence numbers only count captured bytes, so a stream stays contiguous
+ * when messages are filtered out. IPv4 addresses are used when both ends
+ * have one, IPv6 otherwise. Checksums of TCP headers are left at zero,
+ * which Wireshark does not check by default.
+ *
+ * Not thread-safe; the PcapngRingWriter serializes all use.
+ */
+public class SyntheticTcpStream {
+    protected static final int IPV4_HEADER_LENGTH = 20;
+    protected static final int IPV6_HEADER_LENGTH = 40;
+    protected static final int TCP_HEADER_LENGTH = 20;
+    /** The largest payload that fits the IPv4 total length field */
+    protected static final int MAX_PAYLOAD = 0xffff - IPV4_HEADER_LENGTH - TCP_HEADER_LENGTH;
+
+    private static final int IP_PROTO_TCP = 6;
+    private static final int TCP_FLAGS_PSH_ACK = 0x18;
+
+    private final Object owner;
+    private final byte[] switchAddress;
+    private final byte[] controllerAddress;
+    private final int switchPort;
+    private final int controllerPort;
+    private final boolean ipv6;
+    private int switchSeq = 1;
+    private int controllerSeq = 1;
+
+    /**
+     * @param owner the capture the stream belongs to
+     * @param switchAddress the remote end of the connection
+     * @param controllerAddress the local end of the connection
+     */
+    public SyntheticTcpStream(Object owner, SocketAddress switchAddress, SocketAddress controllerAddress) {
+        this.owner = owner;
+        InetAddress sw = addressOf(switchAddress);
+        InetAddress ctl = addressOf(controllerAddress);
+        this.ipv6 = !(sw instanceof Inet4Address) || !(ctl instanceof Inet4Address);
+        this.switchAddress = bytesOf(sw, ipv6);
+        this.controllerAddress = bytesOf(ctl, ipv6);
+        this.switchPort = portOf(switchAddress);
+        this.controllerPort = portOf(controllerAddress);
+    }
+
+    private static InetAddress addressOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null) {
+            return ((InetSocketAddress) address).getAddress();
+        }
+        return null;
+    }
+
+    private static int portOf(SocketAddress address) {
+        return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getPort() : 0;
+    }
+
+    /* Unknown addresses are all zeros; IPv4 addresses in IPv6 headers are mapped */
+    private static byte[] bytesOf(InetAddress address, boolean ipv6) {
+        byte[] bytes = new byte[ipv6 ? 16 : 4];
+        if (address instanceof Inet6Address) {
+            System.arraycopy(address.getAddress(), 0, bytes, 0, 16);
+        } else if (address instanceof Inet4Address) {
+            int offset = 0;
+            if (ipv6) {
+                bytes[10] = (byte) 0xff;
+                bytes[11] = (byte) 0xff;
+                offset = 12;
+            }
+            System.arraycopy(address.getAddress(), 0, bytes, offset, 4);
+        }
+        return bytes;
+    }
+
+    public Object getOwner() {
+        return owner;
+    }
+
+    public int getHeaderLength() {
+        return (ipv6 ? IPV6_HEADER_LENGTH : IPV4_HEADER_LENGTH) + TCP_HEADER_LENGTH;
+    }
+
+    /**
+     * Writes the IP and TCP headers of the next segment in one direction
+     * and advances that direction's sequence number past its payload.
+     * @param out a big-endian buffer with room for getHeaderLength() bytes
+     * @param fromSwitch the direction of the segment
+     * @param payloadLength at most MAX_PAYLOAD
+     */
+    public void writeHeaders(ByteBuffer out, boolean fromSwitch, int payloadLength) {
+        byte[] src = fromSwitch ? switchAddress : controllerAddress;
+        byte[] dst = fromSwitch ? controllerAddress : switchAddress;
+
+        if (ipv6) {
+            out.putInt(0x60000000);
+            out.putShort((short) (TCP_HEADER_LENGTH + payloadLength));
+            out.put((byte) IP_PROTO_TCP);
+            out.put((byte) 64);
+            out.put(src);
+            out.put(dst);
+        } else {
+            int start = out.position();
+            out.put((byte) 0x45);
+            out.put((byte) 0);
+            out.putShort((short) (IPV4_HEADER_LENGTH + TCP_HEADER_LENGTH + payloadLength));
+            out.putInt(0x00004000); /* no id, don't fragment */
+            out.put((byte) 64);
+            out.put((byte) IP_PROTO_TCP);
+            out.putShort((short) 0);
+            out.put(src);
+            out.put(dst);
+            out.putShort(start + 10, ipv4Checksum(out, start));
+        }
+
+        int seq = fromSwitch ? switchSeq : controllerSeq;
+        int ack = fromSwitch ? controllerSeq : switchSeq;
+        out.putShort((short) (fromSwitch ? switchPort : controllerPort));
+        out.putShort((short) (fromSwitch ? controllerPort : switchPort));
+        out.putInt(seq);
+        out.putInt(ack);
+        out.put((byte) ((TCP_HEADER_LENGTH / 4) << 4));
+        out.put((byte) TCP_FLAGS_PSH_ACK);
+        out.putShort((short) 0xffff); /* window */
+        out.putInt(0); /* checksum, urgent pointer */
+
+        if (fromSwitch) {
+            switchSeq += payloadLength;
+        } else {
+            controllerSeq += payloadLength;
+        }
+    }
+
+    private static short ipv4Checksum(ByteBuffer header, int start) {
+        int sum = 0;
+        for (int i = 0; i < IPV4_HEADER_LENGTH; i += 2) {
+            sum += header.getShort(start + i) & 0xffff;
+        }
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return (short) ~sum;
+    }
+}
@@ -0,0 +1,137 @@
+package net.floodlightcontroller.cpanalyzer.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.perfmon.LatencyHistogram;
+
+/**
+ * Counts the packet-ins the emulated switches sent and the flow-mods and
+ * packet-outs they got back, per measurement interval, and the latency of
+ * the answers in latency mode.
+ */
+public class BenchStats {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final List<Double> flowModRates = new ArrayList<Double>();
+    private final List<Double> packetOutRates = new ArrayList<Double>();
+    private long packetIns;
+    private long flowMods;
+    private long packetOuts;
+    private long timeouts;
+    private long intervalFlowMods;
+    private long intervalPacketOuts;
+    private long intervalStartNs = System.nanoTime();
+    private boolean recording;
+    private int switchesReady;
+
+    public synchronized void switchReady() {
+        switchesReady++;
+    }
+
+    public synchronized int getSwitchesReady() {
+        return switchesReady;
+    }
+
+    public synchronized void packetInSent(int count) {
+        if (recording) {
+            packetIns += count;
+        }
+    }
+
+    public synchronized void flowModReceived() {
+        intervalFlowMods++;
+    }
+
+    public synchronized void packetOutReceived() {
+        intervalPacketOuts++;
+    }
+
+    /**
+     * @param latencyNs the time from a packet-in to the first answer to it
+     */
+    public synchronized void answered(long latencyNs) {
+        if (recording) {
+            latency.record(latencyNs);
+        }
+    }
+
+    /**
+     * Counts a packet-in given up on in latency mode.
+     */
+    public synchronized void timedOut() {
+        if (recording) {
+            timeouts++;
+        }
+    }
+
+    /**
+     * Ends the current interval, and starts recording with the next one
+     * if asked to, as at the end of the warmup.
+     * @return the flow-mods per second during the interval that ended
+     */
+    public synchronized double endInterval(boolean record) {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - intervalStartNs, 1) / 1e9;
+        double flowModRate = intervalFlowMods / seconds;
+        if (recording) {
+            flowModRates.add(flowModRate);
+            packetOutRates.add(intervalPacketOuts / seconds);
+            flowMods += intervalFlowMods;
+            packetOuts += intervalPacketOuts;
+        }
+        intervalFlowMods = 0;
+        intervalPacketOuts = 0;
+        intervalStartNs = now;
+        recording = record;
+        return flowModRate;
+    }
+
+    /**
+     * @return the counts, the per-second rates of the recorded intervals,
+     * and the latency percentiles in ms
+     */
+    public synchronized Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("switches", switchesReady);
+        report.put("intervals", flowModRates.size());
+        report.put("packet-ins-sent", packetIns);
+        report.put("flow-mods-received", flowMods);
+        report.put("packet-outs-received", packetOuts);
+        report.put("flow-mods-per-second", rates(flowModRates));
+        report.put("packet-outs-per-second", rates(packetOutRates));
+        if (latency.getTotalCount() > 0 || timeouts > 0) {
+            Map<String, Object> l = new LinkedHashMap<String, Object>();
+            l.put("count", latency.getTotalCount());
+            l.put("timeouts", timeouts);
+            l.put("mean", latency.getMeanNs() / 1e6);
+            l.put("p50", latency.getValueAtPercentile(50) / 1e6);
+            l.put("p99", latency.getValueAtPercentile(99) / 1e6);
+            l.put("p99.9", latency.getValueAtPercentile(99.9) / 1e6);
+            l.put("max", latency.getMaxNs() / 1e6);
+            report.put("latency-ms", l);
+        }
+        return report;
+    }
+
+    private static Map<String, Object> rates(List<Double> samples) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        double min = Double.MAX_VALUE, max = 0, sum = 0;
+        for (double s : samples) {
+            min = Math.min(min, s);
+            max = Math.max(max, s);
+            sum += s;
+        }
+        double avg = samples.isEmpty() ? 0 : sum / samples.size();
+        double var = 0;
+        for (double s : samples) {
+            var += (s - avg) * (s - avg);
+        }
+        m.put("min", samples.isEmpty() ? 0 : min);
+        m.put("max", max);
+        m.put("avg", avg);
+        m.put("stdev", samples.isEmpty() ? 0 : Math.sqrt(var / samples.size()));
+        return m;
+    }
+}
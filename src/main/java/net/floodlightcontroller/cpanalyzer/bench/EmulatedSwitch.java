@@ -0,0 +1,366 @@
+package net.floodlightcontroller.cpanalyzer.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.projectfloodlight.openflow.protocol.OFActionType;
+import org.projectfloodlight.openflow.protocol.OFBadRequestCode;
+import org.projectfloodlight.openflow.protocol.OFCapabilities;
+import org.projectfloodlight.openflow.protocol.OFEchoRequest;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFNiciraControllerRoleRequest;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFRoleRequest;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFAuxId;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import net.floodlightcontroller.cpanalyzer.bench.FrameGenerator.Frame;
+
+/**
+ * One switch of the benchmark: completes the handshake the
+ * OFSwitchHandshakeHandler expects, then sends packet-ins and counts the
+ * flow-mods and packet-outs the controller answers with.
+ *
+ * In latency mode a switch has one packet-in outstanding at a time and
+ * sends the next one when the answer to it arrives, as cbench does. An
+ * answer is the first packet-out with the packet-in's data or flow-mod
+ * whose match agrees with its in port and Ethernet addresses. In
+ * throughput mode a switch sends packet-ins for as long as the connection
+ * takes them.
+ *
+ * All state is confined to the channel's event loop.
+ */
+public class EmulatedSwitch extends SimpleChannelInboundHandler<Iterable<OFMessage>> {
+    protected static final Logger log = LoggerFactory.getLogger(EmulatedSwitch.class);
+
+    public enum Mode { LATENCY, THROUGHPUT }
+
+    /* Packet-ins sent at once in throughput mode */
+    private static final int MAX_BATCH = 64;
+    private static final long TIMEOUT_CHECK_MS = 100;
+
+    private final DatapathId dpid;
+    private final OFFactory factory;
+    private final Mode mode;
+    private final FrameGenerator generator;
+    private final BenchStats stats;
+    private final int ports;
+    private final long startDelayMs;
+    private final long responseTimeoutNs;
+
+    private ChannelHandlerContext ctx;
+    private boolean scheduled;
+    private boolean running;
+    private long nextXid = 1;
+
+    /* The outstanding packet-in of latency mode */
+    private Frame outstanding;
+    private long outstandingSentNs;
+
+    /**
+     * @param switchIndex the switch's index, which its datapath id is one more than
+     * @param startDelayMs how long to wait between the features reply and
+     * the first packet-in, for the controller to finish the handshake
+     * @param responseTimeoutMs how long to wait for an answer in latency
+     * mode before sending the next packet-in
+     */
+    public EmulatedSwitch(int switchIndex, OFVersion version, Mode mode, FrameGenerator generator, int ports,
+            BenchStats stats, long startDelayMs, long responseTimeoutMs) {
+        this.dpid = DatapathId.of(switchIndex + 1);
+        this.factory = OFFactories.getFactory(version);
+        this.mode = mode;
+        this.generator = generator;
+        this.ports = ports;
+        this.stats = stats;
+        this.startDelayMs = startDelayMs;
+        this.responseTimeoutNs = TimeUnit.MILLISECONDS.toNanos(responseTimeoutMs);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        ctx.writeAndFlush(Collections.singletonList(factory.buildHello().setXid(nextXid++).build()));
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (running) {
+            log.warn("Switch {} disconnected by the controller", dpid);
+        }
+        running = false;
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        log.error("Switch {}: {}", dpid, cause.toString());
+        ctx.close();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (running && mode == Mode.THROUGHPUT && ctx.channel().isWritable()) {
+            sendBatch();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Iterable<OFMessage> msgs) throws Exception {
+        List<OFMessage> replies = new ArrayList<OFMessage>();
+        for (OFMessage m : msgs) {
+            answer(m, replies);
+        }
+        if (!replies.isEmpty()) {
+            ctx.writeAndFlush(replies);
+        }
+    }
+
+    private void answer(OFMessage m, List<OFMessage> replies) {
+        switch (m.getType()) {
+        case HELLO:
+        case SET_CONFIG:
+            break;
+        case ECHO_REQUEST:
+            replies.add(factory.buildEchoReply()
+                    .setXid(m.getXid())
+                    .setData(((OFEchoRequest) m).getData())
+                    .build());
+            break;
+        case FEATURES_REQUEST:
+            replies.add(featuresReply(m.getXid()));
+            if (!scheduled) {
+                scheduled = true;
+                ctx.executor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        start();
+                    }
+                }, startDelayMs, TimeUnit.MILLISECONDS);
+            }
+            break;
+        case GET_CONFIG_REQUEST:
+            replies.add(factory.buildGetConfigReply().setXid(m.getXid()).setMissSendLen(0xffff).build());
+            break;
+        case BARRIER_REQUEST:
+            replies.add(factory.buildBarrierReply().setXid(m.getXid()).build());
+            break;
+        case STATS_REQUEST:
+            replies.add(statsReply((OFStatsRequest<?>) m));
+            break;
+        case ROLE_REQUEST:
+            OFRoleRequest role = (OFRoleRequest) m;
+            replies.add(factory.buildRoleReply()
+                    .setXid(m.getXid())
+                    .setRole(role.getRole())
+                    .setGenerationId(role.getGenerationId())
+                    .build());
+            break;
+        case EXPERIMENTER:
+            if (m instanceof OFNiciraControllerRoleRequest) {
+                replies.add(factory.buildNiciraControllerRoleReply()
+                        .setXid(m.getXid())
+                        .setRole(((OFNiciraControllerRoleRequest) m).getRole())
+                        .build());
+            }
+            break;
+        case FLOW_MOD:
+            stats.flowModReceived();
+            if (outstanding != null && fits(((OFFlowMod) m).getMatch(), outstanding)) {
+                answered();
+            }
+            break;
+        case PACKET_OUT:
+            stats.packetOutReceived();
+            OFPacketOut po = (OFPacketOut) m;
+            if (outstanding != null && Arrays.equals(po.getData(), outstanding.getData())) {
+                answered();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private List<OFPortDesc> portDescs() {
+        List<OFPortDesc> descs = new ArrayList<OFPortDesc>(ports);
+        for (int i = 1; i <= ports; i++) {
+            descs.add(factory.buildPortDesc()
+                    .setPortNo(OFPort.of(i))
+                    .setHwAddr(MacAddress.of((dpid.getLong() << 16 | i) & 0xffffffffffffL))
+                    .setName("eth" + i)
+                    .build());
+        }
+        return descs;
+    }
+
+    private OFFeaturesReply featuresReply(long xid) {
+        OFFeaturesReply.Builder b = factory.buildFeaturesReply()
+                .setXid(xid)
+                .setDatapathId(dpid)
+                .setNBuffers(0)
+                .setNTables((short) 1)
+                .setCapabilities(EnumSet.<OFCapabilities>of(OFCapabilities.FLOW_STATS, OFCapabilities.TABLE_STATS));
+        if (factory.getVersion().compareTo(OFVersion.OF_13) < 0) {
+            b.setActions(EnumSet.<OFActionType>of(OFActionType.OUTPUT))
+                .setPorts(portDescs());
+        } else {
+            b.setAuxiliaryId(OFAuxId.MAIN);
+        }
+        return b.build();
+    }
+
+    private OFMessage statsReply(OFStatsRequest<?> request) {
+        switch (request.getStatsType()) {
+        case DESC:
+            return factory.buildDescStatsReply()
+                    .setXid(request.getXid())
+                    .setMfrDesc("Floodlight")
+                    .setHwDesc("OFBench")
+                    .setSwDesc("OFBench")
+                    .setSerialNum(dpid.toString())
+                    .setDpDesc("None")
+                    .build();
+        case PORT_DESC:
+            if (factory.getVersion().compareTo(OFVersion.OF_13) >= 0) {
+                return factory.buildPortDescStatsReply()
+                        .setXid(request.getXid())
+                        .setEntries(portDescs())
+                        .build();
+            }
+            /* fall through */
+        default:
+            /* As a switch without table features does, for the handshake to go on */
+            return factory.errorMsgs().buildBadRequestErrorMsg()
+                    .setXid(request.getXid())
+                    .setCode(OFBadRequestCode.BAD_STAT)
+                    .build();
+        }
+    }
+
+    private static boolean fits(Match match, Frame frame) {
+        byte[] data = frame.getData();
+        if (match.supports(MatchField.IN_PORT) && match.isExact(MatchField.IN_PORT)
+                && !OFPort.of(frame.getInPort()).equals(match.get(MatchField.IN_PORT))) {
+            return false;
+        }
+        if (match.supports(MatchField.ETH_DST) && match.isExact(MatchField.ETH_DST)
+                && !MacAddress.of(Arrays.copyOfRange(data, 0, 6)).equals(match.get(MatchField.ETH_DST))) {
+            return false;
+        }
+        if (match.supports(MatchField.ETH_SRC) && match.isExact(MatchField.ETH_SRC)
+                && !MacAddress.of(Arrays.copyOfRange(data, 6, 12)).equals(match.get(MatchField.ETH_SRC))) {
+            return false;
+        }
+        return true;
+    }
+
+    private void start() {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        running = true;
+        stats.switchReady();
+        if (mode == Mode.LATENCY) {
+            ctx.executor().scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    if (running && outstanding != null && System.nanoTime() - outstandingSentNs > responseTimeoutNs) {
+                        stats.timedOut();
+                        sendOne();
+                    }
+                }
+            }, TIMEOUT_CHECK_MS, TIMEOUT_CHECK_MS, TimeUnit.MILLISECONDS);
+            sendOne();
+        } else {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Stops sending packet-ins.
+     */
+    public void stop() {
+        if (ctx == null) {
+            return;
+        }
+        ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+            }
+        });
+    }
+
+    private void answered() {
+        stats.answered(System.nanoTime() - outstandingSentNs);
+        outstanding = null;
+        if (running) {
+            sendOne();
+        }
+    }
+
+    private void sendOne() {
+        outstanding = generator.next();
+        outstandingSentNs = System.nanoTime();
+        ctx.writeAndFlush(Collections.singletonList(packetIn(outstanding)));
+        stats.packetInSent(1);
+    }
+
+    private void sendBatch() {
+        if (!running || !ctx.channel().isWritable()) {
+            return; /* resumed when writable again */
+        }
+        List<OFMessage> batch = new ArrayList<OFMessage>(MAX_BATCH);
+        for (int i = 0; i < MAX_BATCH; i++) {
+            batch.add(packetIn(generator.next()));
+        }
+        ctx.writeAndFlush(batch);
+        stats.packetInSent(batch.size());
+        /* Let the answers be read before sending more */
+        ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                sendBatch();
+            }
+        });
+    }
+
+    private OFPacketIn packetIn(Frame frame) {
+        OFPacketIn.Builder b = factory.buildPacketIn()
+                .setXid(nextXid++)
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setTotalLen(frame.getData().length)
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setData(frame.getData());
+        if (factory.getVersion().compareTo(OFVersion.OF_12) < 0) {
+            b.setInPort(OFPort.of(frame.getInPort()));
+        } else {
+            b.setMatch(factory.buildMatch().setExact(MatchField.IN_PORT, OFPort.of(frame.getInPort())).build());
+        }
+        return b.build();
+    }
+}
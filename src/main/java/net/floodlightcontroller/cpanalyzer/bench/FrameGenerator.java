@@ -0,0 +1,142 @@
+package net.floodlightcontroller.cpanalyzer.bench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Makes the Ethernet/IPv4/UDP frames an emulated switch sends in its
+ * packet-ins, between hosts picked by a {@link HostPicker}.
+ *
+ * Host h of switch s has the locally administered MAC 02:ss:ss:hh:hh:hh,
+ * the address 10.s.h/256.h%256 (wrapping every 65536 hosts), and sits
+ * behind port h % ports + 1. Frames are patched copies of one template
+ * rather than serialized anew, for the emulator not to be the bottleneck.
+ */
+public class FrameGenerator {
+    public static final int MIN_FRAME_LENGTH = 14 + 20 + 8;
+
+    private static final int ETH_TYPE_IPV4 = 0x0800;
+    private static final int IP_PROTO_UDP = 17;
+    private static final int IP_OFFSET = 14;
+    private static final int UDP_SRC_PORT = 1234;
+    private static final int UDP_DST_PORT = 5678;
+
+    /**
+     * A frame and the port it arrives on.
+     */
+    public static class Frame {
+        private final int inPort;
+        private final byte[] data;
+
+        private Frame(int inPort, byte[] data) {
+            this.inPort = inPort;
+            this.data = data;
+        }
+
+        public int getInPort() {
+            return inPort;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final int switchIndex;
+    private final int ports;
+    private final HostPicker picker;
+    private final byte[] template;
+
+    /**
+     * @param switchIndex the index of the switch, from 0 to 65534
+     * @param ports the number of host-facing ports of the switch
+     * @param frameLength the length of the frames, at least MIN_FRAME_LENGTH
+     */
+    public FrameGenerator(int switchIndex, int ports, HostPicker picker, int frameLength) {
+        if (switchIndex < 0 || switchIndex > 0xfffe) {
+            throw new IllegalArgumentException("Switch index " + switchIndex + " out of range");
+        }
+        if (ports < 1) {
+            throw new IllegalArgumentException("At least one port is needed");
+        }
+        if (frameLength < MIN_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Frames are at least " + MIN_FRAME_LENGTH + " bytes long");
+        }
+        this.switchIndex = switchIndex;
+        this.ports = ports;
+        this.picker = picker;
+
+        ByteBuffer bb = ByteBuffer.allocate(frameLength);
+        bb.position(12);
+        bb.putShort((short) ETH_TYPE_IPV4);
+        bb.put((byte) 0x45).put((byte) 0);
+        bb.putShort((short) (frameLength - IP_OFFSET));
+        bb.putInt(0); /* identification, flags, fragment offset */
+        bb.put((byte) 64).put((byte) IP_PROTO_UDP);
+        bb.position(IP_OFFSET + 20);
+        bb.putShort((short) UDP_SRC_PORT).putShort((short) UDP_DST_PORT);
+        bb.putShort((short) (frameLength - IP_OFFSET - 20));
+        this.template = bb.array();
+    }
+
+    public int getHosts() {
+        return picker.getHosts();
+    }
+
+    /**
+     * @return the MAC address of a host of a switch, as a long
+     */
+    public static long macOf(int switchIndex, int host) {
+        return (0x02L << 40) | ((long) (switchIndex + 1) << 24) | (host & 0xffffff);
+    }
+
+    /**
+     * @return the IPv4 address of a host of a switch, as an int
+     */
+    public static int ipOf(int switchIndex, int host) {
+        return (10 << 24) | (((switchIndex + 1) & 0xff) << 16) | (host & 0xffff);
+    }
+
+    /**
+     * @return a frame from the next picked host to another one
+     */
+    public Frame next() {
+        int src = picker.next();
+        int dst = picker.next();
+        if (dst == src && picker.getHosts() > 1) {
+            dst = (dst + 1) % picker.getHosts();
+        }
+
+        byte[] data = template.clone();
+        putMac(data, 0, macOf(switchIndex, dst));
+        putMac(data, 6, macOf(switchIndex, src));
+        putInt(data, IP_OFFSET + 12, ipOf(switchIndex, src));
+        putInt(data, IP_OFFSET + 16, ipOf(switchIndex, dst));
+        int checksum = ipChecksum(data, IP_OFFSET, 20);
+        data[IP_OFFSET + 10] = (byte) (checksum >> 8);
+        data[IP_OFFSET + 11] = (byte) checksum;
+        return new Frame(src % ports + 1, data);
+    }
+
+    private static void putMac(byte[] data, int offset, long mac) {
+        for (int i = 0; i < 6; i++) {
+            data[offset + i] = (byte) (mac >> (8 * (5 - i)));
+        }
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (byte) (value >> (8 * (3 - i)));
+        }
+    }
+
+    private static int ipChecksum(byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i += 2) {
+            sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+        return ~sum & 0xffff;
+    }
+}
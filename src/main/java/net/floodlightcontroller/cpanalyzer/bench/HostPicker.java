@@ -0,0 +1,71 @@
+package net.floodlightcontroller.cpanalyzer.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks the hosts behind an emulated switch that its packet-ins come from
+ * and go to. Picks are reproducible for a given seed.
+ */
+public class HostPicker {
+    public enum Distribution {
+        /** Every host in turn */
+        SEQUENTIAL,
+        /** Every host equally likely */
+        UNIFORM,
+        /** The n-th host 1/n times as likely as the first, as with a few heavy hitters */
+        ZIPF
+    }
+
+    private final int hosts;
+    private final Distribution distribution;
+    private final Random random;
+    /* Cumulative probabilities of the hosts, for ZIPF */
+    private final double[] cdf;
+    private int next;
+
+    public HostPicker(int hosts, Distribution distribution, long seed) {
+        if (hosts < 1) {
+            throw new IllegalArgumentException("At least one host is needed");
+        }
+        this.hosts = hosts;
+        this.distribution = distribution;
+        this.random = new Random(seed);
+        if (distribution == Distribution.ZIPF) {
+            cdf = new double[hosts];
+            double sum = 0;
+            for (int i = 0; i < hosts; i++) {
+                sum += 1.0 / (i + 1);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < hosts; i++) {
+                cdf[i] /= sum;
+            }
+        } else {
+            cdf = null;
+        }
+    }
+
+    public int getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return the index of the next host, from 0 to getHosts() - 1
+     */
+    public int next() {
+        switch (distribution) {
+        case SEQUENTIAL:
+            int h = next;
+            next = (next + 1) % hosts;
+            return h;
+        case UNIFORM:
+            return random.nextInt(hosts);
+        case ZIPF:
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(i >= 0 ? i : -i - 1, hosts - 1);
+        default:
+            throw new IllegalStateException("Unknown distribution " + distribution);
+        }
+    }
+}
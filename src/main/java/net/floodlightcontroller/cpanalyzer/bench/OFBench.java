@@ -0,0 +1,213 @@
+package net.floodlightcontroller.cpanalyzer.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import net.floodlightcontroller.core.internal.OFMessageDecoder;
+import net.floodlightcontroller.core.internal.OFMessageEncoder;
+
+/**
+ * A cbench-style benchmark: connects emulated switches to a running
+ * controller, has them send packet-ins, and reports how many flow-mods
+ * per second the controller answers with and, in latency mode, how long
+ * each answer takes.
+ *
+ * Runs with the same options and seed send the same packet-ins, so
+ * reports of two controller builds can be compared.
+ */
+public class OFBench {
+    protected static final Logger log = LoggerFactory.getLogger(OFBench.class);
+
+    protected static class OFBenchSettings {
+        @Option(name="--help", aliases="-h",
+                usage="Show help")
+        protected boolean help;
+
+        @Option(name="--controller", aliases="-c",
+                usage="Controller address (default 127.0.0.1)")
+        protected String host = "127.0.0.1";
+
+        @Option(name="--port", aliases="-p",
+                usage="Controller OpenFlow port (default 6653)")
+        protected int port = 6653;
+
+        @Option(name="--switches", aliases="-s",
+                usage="Number of switches (default 16)")
+        protected int switches = 16;
+
+        @Option(name="--ofVersion",
+                usage="OpenFlow version of the switches, 1.0 or 1.3 (default 1.3)")
+        protected String ofVersion = "1.3";
+
+        @Option(name="--mode", aliases="-m",
+                usage="LATENCY or THROUGHPUT (default LATENCY)")
+        protected EmulatedSwitch.Mode mode = EmulatedSwitch.Mode.LATENCY;
+
+        @Option(name="--hosts", aliases="-M",
+                usage="Hosts, and so MAC and IP addresses, per switch (default 100000)")
+        protected int hosts = 100000;
+
+        @Option(name="--hostDistribution", aliases="-d",
+                usage="How source and destination hosts are picked: SEQUENTIAL, " +
+                      "UNIFORM or ZIPF (default SEQUENTIAL)")
+        protected HostPicker.Distribution distribution = HostPicker.Distribution.SEQUENTIAL;
+
+        @Option(name="--ports",
+                usage="Ports per switch the hosts are spread over (default 4)")
+        protected int ports = 4;
+
+        @Option(name="--frameLength",
+                usage="Length of the packet-in frames (default 64)")
+        protected int frameLength = 64;
+
+        @Option(name="--seed",
+                usage="Seed of the host picks (default 1)")
+        protected long seed = 1;
+
+        @Option(name="--warmupSeconds", aliases="-w",
+                usage="Seconds of traffic not recorded (default 1)")
+        protected int warmupSeconds = 1;
+
+        @Option(name="--seconds", aliases="-l",
+                usage="Seconds of traffic recorded (default 10)")
+        protected int seconds = 10;
+
+        @Option(name="--startDelayMs",
+                usage="Time between the handshake and the first packet-in " +
+                      "(default 2000)")
+        protected long startDelayMs = 2000;
+
+        @Option(name="--responseTimeoutMs",
+                usage="Time to wait for an answer in latency mode (default 1000)")
+        protected long responseTimeoutMs = 1000;
+
+        @Option(name="--report", aliases="-r",
+                usage="File to write the report to, as JSON")
+        protected File report;
+
+        CmdLineParser parser = new CmdLineParser(this);
+
+        protected void init(String[] args) {
+            try {
+                parser.parseArgument(args);
+            } catch (CmdLineException e) {
+                System.err.println(e.getMessage());
+                parser.printUsage(System.err);
+                System.exit(1);
+            }
+            if (help) {
+                parser.printUsage(System.err);
+                System.exit(1);
+            }
+            if (getVersion() == null) {
+                System.err.println("Unsupported OpenFlow version " + ofVersion);
+                System.exit(1);
+            }
+        }
+
+        protected OFVersion getVersion() {
+            switch (ofVersion) {
+            case "1.0":
+                return OFVersion.OF_10;
+            case "1.3":
+                return OFVersion.OF_13;
+            default:
+                return null;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        OFBenchSettings settings = new OFBenchSettings();
+        settings.init(args);
+
+        BenchStats stats = new BenchStats();
+        List<EmulatedSwitch> switches = new ArrayList<EmulatedSwitch>();
+        List<Channel> channels = new ArrayList<Channel>();
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            for (int i = 0; i < settings.switches; i++) {
+                FrameGenerator generator = new FrameGenerator(i, settings.ports,
+                        new HostPicker(settings.hosts, settings.distribution, settings.seed + i),
+                        settings.frameLength);
+                final EmulatedSwitch sw = new EmulatedSwitch(i, settings.getVersion(), settings.mode,
+                        generator, settings.ports, stats, settings.startDelayMs, settings.responseTimeoutMs);
+                Bootstrap bootstrap = new Bootstrap()
+                        .group(group)
+                        .channel(NioSocketChannel.class)
+                        .option(ChannelOption.TCP_NODELAY, true)
+                        .handler(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) throws Exception {
+                                ch.pipeline().addLast(new OFMessageDecoder(), new OFMessageEncoder(), sw);
+                            }
+                        });
+                ChannelFuture f = bootstrap.connect(settings.host, settings.port).awaitUninterruptibly();
+                if (!f.isSuccess()) {
+                    System.err.println("Cannot connect switch " + (i + 1) + ": " + f.cause());
+                    System.exit(2);
+                }
+                switches.add(sw);
+                channels.add(f.channel());
+            }
+
+            /* Wait for the handshakes, then measure second by second */
+            long deadline = System.currentTimeMillis() + settings.startDelayMs + TimeUnit.SECONDS.toMillis(30);
+            while (stats.getSwitchesReady() < settings.switches && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            if (stats.getSwitchesReady() < settings.switches) {
+                System.err.println("Only " + stats.getSwitchesReady() + " of " + settings.switches
+                        + " switches completed the handshake");
+            }
+            log.info("Running {} {} switches in {} mode", new Object[] {
+                    stats.getSwitchesReady(), settings.getVersion(), settings.mode });
+            stats.endInterval(settings.warmupSeconds == 0);
+            for (int s = 1; s <= settings.warmupSeconds + settings.seconds; s++) {
+                Thread.sleep(1000);
+                boolean recorded = s > settings.warmupSeconds;
+                double rate = stats.endInterval(s >= settings.warmupSeconds && s < settings.warmupSeconds + settings.seconds);
+                System.out.println(String.format("%d switches: %.0f flow-mods/s%s",
+                        stats.getSwitchesReady(), rate, recorded ? "" : " (warmup)"));
+            }
+            for (EmulatedSwitch sw : switches) {
+                sw.stop();
+            }
+        } finally {
+            for (Channel ch : channels) {
+                ch.close().awaitUninterruptibly();
+            }
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        Map<String, Object> report = stats.getReport();
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        System.out.println(mapper.writeValueAsString(report));
+        if (settings.report != null) {
+            mapper.writeValue(settings.report, report);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,188 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import net.floodlightcontroller.core.internal.OFMessageDecoder;
+import net.floodlightcontroller.core.internal.OFMessageEncoder;
+
+/**
+ * Replays the switches recorded in pcapng captures against a running
+ * controller, one TCP connection per recorded switch connection, and
+ * reports how fast the controller answered their packet-ins.
+ *
+ * Replays of the same captures send the same messages in the same order
+ * and at the same pace, so reports of two controller builds can be
+ * compared.
+ */
+public class OFReplay {
+    protected static final Logger log = LoggerFactory.getLogger(OFReplay.class);
+
+    protected static class OFReplaySettings {
+        @Option(name="--help", aliases="-h",
+                usage="Show help")
+        protected boolean help;
+
+        @Option(name="--controller", aliases="-c",
+                usage="Controller address (default 127.0.0.1)")
+        protected String host = "127.0.0.1";
+
+        @Option(name="--port", aliases="-p",
+                usage="Controller OpenFlow port (default 6653)")
+        protected int port = 6653;
+
+        @Option(name="--speed", aliases="-s",
+                usage="How many times faster than recorded to send events, " +
+                      "or 0 for as fast as possible (default 1)")
+        protected double speed = 1.0;
+
+        @Option(name="--captureControllerPorts",
+                usage="Comma-separated controller ports in the captures " +
+                      "(default 6653,6633)")
+        protected String captureControllerPorts = "6653,6633";
+
+        @Option(name="--startDelayMs",
+                usage="Time between the handshake and the first event " +
+                      "(default 2000)")
+        protected long startDelayMs = 2000;
+
+        @Option(name="--responseTimeoutMs",
+                usage="Time to wait for the answers to a packet-in " +
+                      "(default 5000)")
+        protected long responseTimeoutMs = 5000;
+
+        @Option(name="--report", aliases="-r",
+                usage="File to write the report to, as JSON")
+        protected File report;
+
+        @Argument(metaVar="CAPTURE", usage="pcapng captures, oldest first")
+        protected List<File> captures = new ArrayList<File>();
+
+        CmdLineParser parser = new CmdLineParser(this);
+
+        protected void init(String[] args) {
+            try {
+                parser.parseArgument(args);
+            } catch (CmdLineException e) {
+                System.err.println(e.getMessage());
+                parser.printUsage(System.err);
+                System.exit(1);
+            }
+            if (help || captures.isEmpty()) {
+                parser.printUsage(System.err);
+                System.exit(1);
+            }
+        }
+
+        protected Set<Integer> getCaptureControllerPorts() {
+            Set<Integer> ports = new HashSet<Integer>();
+            for (String p : captureControllerPorts.split(",")) {
+                ports.add(Integer.parseInt(p.trim()));
+            }
+            return ports;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        OFReplaySettings settings = new OFReplaySettings();
+        settings.init(args);
+
+        Collection<RecordedConnection> connections =
+                RecordedConnection.load(settings.captures, settings.getCaptureControllerPorts());
+        List<ReplayScript> scripts = new ArrayList<ReplayScript>();
+        long lastOffsetNs = 0;
+        for (RecordedConnection c : connections) {
+            ReplayScript s = ReplayScript.of(c);
+            if (s != null) {
+                scripts.add(s);
+                if (!s.getEvents().isEmpty()) {
+                    lastOffsetNs = Math.max(lastOffsetNs, s.getEvents().get(s.getEvents().size() - 1).getOffsetNs());
+                }
+            }
+        }
+        if (scripts.isEmpty()) {
+            System.err.println("No switch connections found in the captures");
+            System.exit(1);
+        }
+        log.info("Replaying {} switches to {}:{}", new Object[] { scripts.size(), settings.host, settings.port });
+
+        final ReplayStats stats = new ReplayStats();
+        List<ReplaySwitch> switches = new ArrayList<ReplaySwitch>();
+        List<Channel> channels = new ArrayList<Channel>();
+        EventLoopGroup group = new NioEventLoopGroup();
+        boolean ok = true;
+        try {
+            for (ReplayScript s : scripts) {
+                final ReplaySwitch sw = new ReplaySwitch(s, stats, settings.speed,
+                        settings.startDelayMs, settings.responseTimeoutMs);
+                Bootstrap bootstrap = new Bootstrap()
+                        .group(group)
+                        .channel(NioSocketChannel.class)
+                        .option(ChannelOption.TCP_NODELAY, true)
+                        .handler(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) throws Exception {
+                                ch.pipeline().addLast(new OFMessageDecoder(), new OFMessageEncoder(), sw);
+                            }
+                        });
+                ChannelFuture f = bootstrap.connect(settings.host, settings.port).awaitUninterruptibly();
+                if (!f.isSuccess()) {
+                    System.err.println("Cannot connect " + s.getName() + ": " + f.cause());
+                    ok = false;
+                    break;
+                }
+                switches.add(sw);
+                channels.add(f.channel());
+            }
+
+            /* Long enough for the slowest switch to send everything and time out */
+            long waitMs = settings.startDelayMs + settings.responseTimeoutMs
+                    + (settings.speed > 0 ? (long) (TimeUnit.NANOSECONDS.toMillis(lastOffsetNs) / settings.speed) : 0)
+                    + TimeUnit.MINUTES.toMillis(1);
+            long deadline = System.currentTimeMillis() + waitMs;
+            for (ReplaySwitch sw : switches) {
+                if (!sw.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    ok = false;
+                }
+            }
+        } finally {
+            for (Channel ch : channels) {
+                ch.close().awaitUninterruptibly();
+            }
+            group.shutdownGracefully().awaitUninterruptibly();
+        }
+
+        Map<String, Object> report = stats.getReport();
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        System.out.println(mapper.writeValueAsString(report));
+        if (settings.report != null) {
+            mapper.writeValue(settings.report, report);
+        }
+        System.exit(ok ? 0 : 2);
+    }
+}
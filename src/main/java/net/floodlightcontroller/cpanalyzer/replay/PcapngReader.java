@@ -0,0 +1,149 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the packets of a pcapng file, such as those written by the
+ * OFCaptureManager or by Wireshark, through a read-only memory mapping.
+ *
+ * Only enhanced packet blocks are read; other blocks are skipped. Sections
+ * of either byte order and any timestamp resolution are supported.
+ */
+public class PcapngReader {
+    public static final int LINKTYPE_ETHERNET = 1;
+    public static final int LINKTYPE_RAW = 101;
+
+    private static final int BLOCK_SHB = 0x0a0d0d0a;
+    private static final int BLOCK_IDB = 0x00000001;
+    private static final int BLOCK_EPB = 0x00000006;
+    private static final int BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final int OPT_IF_TSRESOL = 9;
+
+    /**
+     * Receives the packets of a file, in file order.
+     */
+    public interface PacketHandler {
+        /**
+         * @param timestampNs the capture time, in ns since the epoch
+         * @param linkType the link type of the packet's interface
+         * @param data the packet, between position and limit; only valid
+         * during the call
+         */
+        public void onPacket(long timestampNs, int linkType, ByteBuffer data);
+    }
+
+    /* Link type and ns per timestamp unit of each interface of the section */
+    private static class Interface {
+        private final int linkType;
+        private final long unitNs;
+        private final long unitsPerNs;
+
+        private Interface(int linkType, int tsresol) {
+            this.linkType = linkType;
+            long unitsPerSecond = (tsresol & 0x80) != 0 ? 1L << (tsresol & 0x7f) : pow10(tsresol & 0x7f);
+            if (unitsPerSecond <= 1000000000L) {
+                this.unitNs = 1000000000L / unitsPerSecond;
+                this.unitsPerNs = 0;
+            } else {
+                this.unitNs = 0;
+                this.unitsPerNs = unitsPerSecond / 1000000000L;
+            }
+        }
+
+        private static long pow10(int exp) {
+            long v = 1;
+            for (int i = 0; i < exp && v < Long.MAX_VALUE / 10; i++) {
+                v *= 10;
+            }
+            return v;
+        }
+
+        private long toNs(long units) {
+            return unitNs > 0 ? units * unitNs : units / unitsPerNs;
+        }
+    }
+
+    /**
+     * Reads all packets of a file.
+     * @throws IOException if the file cannot be read or is not pcapng
+     */
+    public static void read(File file, PacketHandler handler) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            read(buffer, handler, file.getPath());
+        }
+    }
+
+    protected static void read(ByteBuffer buffer, PacketHandler handler, String name) throws IOException {
+        List<Interface> interfaces = new ArrayList<Interface>();
+        while (buffer.remaining() >= 12) {
+            int start = buffer.position();
+            int type = buffer.getInt(start);
+            if (type == BLOCK_SHB) {
+                /* The magic tells the byte order of the whole section */
+                int magic = buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(start + 8);
+                if (magic != BYTE_ORDER_MAGIC) {
+                    buffer.order(ByteOrder.BIG_ENDIAN);
+                    if (buffer.getInt(start + 8) != BYTE_ORDER_MAGIC) {
+                        throw new IOException(name + " is not a pcapng file");
+                    }
+                }
+                interfaces.clear();
+            } else if (start == 0) {
+                throw new IOException(name + " is not a pcapng file");
+            }
+
+            int length = buffer.getInt(start + 4);
+            if (length < 12 || length % 4 != 0 || length > buffer.limit() - start) {
+                throw new IOException("Truncated or corrupt block at offset " + start + " of " + name);
+            }
+
+            if (type == BLOCK_IDB) {
+                interfaces.add(new Interface(buffer.getShort(start + 8) & 0xffff,
+                        readTsresol(buffer, start + 16, start + length - 4)));
+            } else if (type == BLOCK_EPB) {
+                int id = buffer.getInt(start + 8);
+                if (id < 0 || id >= interfaces.size()) {
+                    throw new IOException("Packet of unknown interface " + id + " at offset " + start + " of " + name);
+                }
+                Interface itf = interfaces.get(id);
+                long units = ((buffer.getInt(start + 12) & 0xffffffffL) << 32) | (buffer.getInt(start + 16) & 0xffffffffL);
+                int captured = buffer.getInt(start + 20);
+                if (captured < 0 || captured > length - 32) {
+                    throw new IOException("Corrupt packet at offset " + start + " of " + name);
+                }
+                ByteBuffer data = buffer.duplicate();
+                data.limit(start + 28 + captured);
+                data.position(start + 28);
+                handler.onPacket(itf.toNs(units), itf.linkType, data.slice());
+            }
+            buffer.position(start + length);
+        }
+    }
+
+    /* The if_tsresol option of an interface, or the default of microseconds */
+    private static int readTsresol(ByteBuffer buffer, int options, int end) {
+        int p = options;
+        while (p + 4 <= end) {
+            int code = buffer.getShort(p) & 0xffff;
+            int length = buffer.getShort(p + 2) & 0xffff;
+            if (code == 0) {
+                break;
+            }
+            if (code == OPT_IF_TSRESOL && length >= 1) {
+                return buffer.get(p + 4) & 0xff;
+            }
+            p += 4 + ((length + 3) & ~3);
+        }
+        return 6;
+    }
+}
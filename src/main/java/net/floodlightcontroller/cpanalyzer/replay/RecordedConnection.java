@@ -0,0 +1,224 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * The OpenFlow messages one switch sent on one connection, as recorded in
+ * pcapng captures, with their capture times.
+ *
+ * Connections are told apart by their TCP addresses and ports, and the
+ * direction of a segment by the controller's port. Each direction is
+ * reassembled in sequence order: retransmitted bytes are dropped, and
+ * after a gap the stream is assumed to resume on a message boundary, which
+ * holds for captures written by the OFCaptureManager.
+ */
+public class RecordedConnection {
+    protected static final Logger log = LoggerFactory.getLogger(RecordedConnection.class);
+
+    private static final int OF_HEADER_LENGTH = 8;
+    private static final int IP_PROTO_TCP = 6;
+    private static final int ETH_TYPE_VLAN = 0x8100;
+    private static final int ETH_TYPE_QINQ = 0x88a8;
+
+    /**
+     * One message, as sent on the wire.
+     */
+    public static class RecordedFrame {
+        private final long timestampNs;
+        private final byte[] data;
+
+        public RecordedFrame(long timestampNs, byte[] data) {
+            this.timestampNs = timestampNs;
+            this.data = data;
+        }
+
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final String name;
+    private final List<RecordedFrame> frames = new ArrayList<RecordedFrame>();
+    private final ByteBuf pending = Unpooled.buffer();
+    private long nextSeq = -1;
+
+    private RecordedConnection(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the switch end of the connection, as address:port
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the messages from the switch, in the order sent
+     */
+    public List<RecordedFrame> getFrames() {
+        return Collections.unmodifiableList(frames);
+    }
+
+    /**
+     * Extracts the switch connections of captures.
+     * @param files the capture files, oldest first
+     * @param controllerPorts the TCP ports the controller listened on
+     * @return a connection per switch connection seen, in order of appearance
+     */
+    public static Collection<RecordedConnection> load(List<File> files, final Set<Integer> controllerPorts) throws IOException {
+        final Map<String, RecordedConnection> connections = new LinkedHashMap<String, RecordedConnection>();
+        for (File f : files) {
+            PcapngReader.read(f, new PcapngReader.PacketHandler() {
+                @Override
+                public void onPacket(long timestampNs, int linkType, ByteBuffer data) {
+                    addPacket(connections, controllerPorts, timestampNs, linkType, data);
+                }
+            });
+        }
+        for (RecordedConnection c : connections.values()) {
+            if (c.pending.isReadable()) {
+                log.warn("Ignoring {} bytes of an incomplete message at the end of {}", c.pending.readableBytes(), c.name);
+            }
+            c.pending.release();
+        }
+        return connections.values();
+    }
+
+    protected static void addPacket(Map<String, RecordedConnection> connections, Set<Integer> controllerPorts,
+            long timestampNs, int linkType, ByteBuffer data) {
+        int ip = 0;
+        if (linkType == PcapngReader.LINKTYPE_ETHERNET) {
+            ip = 12;
+            while (ip + 2 <= data.limit()
+                    && ((data.getShort(ip) & 0xffff) == ETH_TYPE_VLAN || (data.getShort(ip) & 0xffff) == ETH_TYPE_QINQ)) {
+                ip += 4;
+            }
+            ip += 2;
+        } else if (linkType != PcapngReader.LINKTYPE_RAW) {
+            return;
+        }
+        if (ip >= data.limit()) {
+            return;
+        }
+
+        int version = (data.get(ip) & 0xf0) >> 4;
+        int tcp, end, addressLength;
+        int src, dst;
+        if (version == 4 && ip + 20 <= data.limit()) {
+            if (data.get(ip + 9) != IP_PROTO_TCP) {
+                return;
+            }
+            tcp = ip + (data.get(ip) & 0x0f) * 4;
+            end = ip + (data.getShort(ip + 2) & 0xffff);
+            src = ip + 12;
+            dst = ip + 16;
+            addressLength = 4;
+        } else if (version == 6 && ip + 40 <= data.limit()) {
+            if (data.get(ip + 6) != IP_PROTO_TCP) {
+                return; /* extension headers are not followed */
+            }
+            tcp = ip + 40;
+            end = tcp + (data.getShort(ip + 4) & 0xffff);
+            src = ip + 8;
+            dst = ip + 24;
+            addressLength = 16;
+        } else {
+            return;
+        }
+        end = Math.min(end, data.limit());
+        if (tcp + 20 > end) {
+            return;
+        }
+
+        int srcPort = data.getShort(tcp) & 0xffff;
+        int dstPort = data.getShort(tcp + 2) & 0xffff;
+        if (!controllerPorts.contains(dstPort)) {
+            return; /* only messages from switches are replayed */
+        }
+        long seq = data.getInt(tcp + 4) & 0xffffffffL;
+        int payload = tcp + ((data.get(tcp + 12) & 0xf0) >> 4) * 4;
+        if (payload >= end) {
+            return;
+        }
+
+        String name = addressOf(data, src, addressLength) + ":" + srcPort;
+        String key = name + "-" + addressOf(data, dst, addressLength) + ":" + dstPort;
+        RecordedConnection c = connections.get(key);
+        if (c == null) {
+            c = new RecordedConnection(name);
+            connections.put(key, c);
+        }
+        ByteBuffer segment = data.duplicate();
+        segment.limit(end);
+        segment.position(payload);
+        c.addSegment(timestampNs, seq, segment);
+    }
+
+    private static String addressOf(ByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(offset + i);
+        }
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); /* cannot happen for 4 or 16 bytes */
+        }
+    }
+
+    private void addSegment(long timestampNs, long seq, ByteBuffer segment) {
+        if (nextSeq >= 0) {
+            long offset = (seq - nextSeq) << 32 >> 32; /* sequence numbers wrap */
+            if (offset < 0) {
+                if (-offset >= segment.remaining()) {
+                    return; /* retransmission */
+                }
+                segment.position(segment.position() + (int) -offset);
+                seq = nextSeq;
+            } else if (offset > 0) {
+                log.warn("Missing {} bytes from {}; resuming at the next segment", offset, name);
+                pending.clear();
+            }
+        }
+        nextSeq = (seq + segment.remaining()) & 0xffffffffL;
+        pending.writeBytes(segment);
+
+        while (pending.readableBytes() >= OF_HEADER_LENGTH) {
+            int length = pending.getUnsignedShort(pending.readerIndex() + 2);
+            if (length < OF_HEADER_LENGTH) {
+                log.warn("Invalid message length {} from {}; dropping {} bytes", new Object[] { length, name, pending.readableBytes() });
+                pending.clear();
+                break;
+            }
+            if (pending.readableBytes() < length) {
+                break;
+            }
+            byte[] frame = new byte[length];
+            pending.readBytes(frame);
+            frames.add(new RecordedFrame(timestampNs, frame));
+        }
+        pending.discardReadBytes();
+    }
+}
@@ -0,0 +1,172 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFGetConfigReply;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFMessageReader;
+import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
+import org.projectfloodlight.openflow.protocol.OFStatsType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.Unpooled;
+import net.floodlightcontroller.cpanalyzer.replay.RecordedConnection.RecordedFrame;
+
+/**
+ * What a replayed switch says: the replies it gives the controller during
+ * the handshake, and the events it sends on its own afterwards, at their
+ * recorded offsets from the first event.
+ */
+public class ReplayScript {
+    protected static final Logger log = LoggerFactory.getLogger(ReplayScript.class);
+
+    /**
+     * A message the switch sends unprompted.
+     */
+    public static class ReplayEvent {
+        private final long offsetNs;
+        private final OFMessage message;
+
+        public ReplayEvent(long offsetNs, OFMessage message) {
+            this.offsetNs = offsetNs;
+            this.message = message;
+        }
+
+        public long getOffsetNs() {
+            return offsetNs;
+        }
+
+        public OFMessage getMessage() {
+            return message;
+        }
+    }
+
+    private final String name;
+    private final OFFeaturesReply featuresReply;
+    private final OFGetConfigReply getConfigReply;
+    private final Map<OFStatsType, List<OFStatsReply>> statsReplies;
+    private final List<ReplayEvent> events;
+
+    private ReplayScript(String name, OFFeaturesReply featuresReply, OFGetConfigReply getConfigReply,
+            Map<OFStatsType, List<OFStatsReply>> statsReplies, List<ReplayEvent> events) {
+        this.name = name;
+        this.featuresReply = featuresReply;
+        this.getConfigReply = getConfigReply;
+        this.statsReplies = statsReplies;
+        this.events = events;
+    }
+
+    /**
+     * Parses the recorded messages of a switch.
+     * @return the script, or null if the recording has no features reply
+     * to identify the switch with
+     */
+    public static ReplayScript of(RecordedConnection connection) {
+        OFMessageReader<OFMessage> reader = OFFactories.getGenericReader();
+        OFFeaturesReply featuresReply = null;
+        OFGetConfigReply getConfigReply = null;
+        Map<OFStatsType, List<OFStatsReply>> statsReplies = new EnumMap<OFStatsType, List<OFStatsReply>>(OFStatsType.class);
+        /* Multipart replies still missing their last part */
+        Map<OFStatsType, Boolean> complete = new EnumMap<OFStatsType, Boolean>(OFStatsType.class);
+        List<ReplayEvent> events = new ArrayList<ReplayEvent>();
+        long firstEventNs = -1;
+
+        for (RecordedFrame f : connection.getFrames()) {
+            OFMessage m;
+            try {
+                m = reader.readFrom(Unpooled.wrappedBuffer(f.getData()));
+            } catch (OFParseError e) {
+                log.warn("Skipping a message from {} that cannot be parsed: {}", connection.getName(), e.getMessage());
+                continue;
+            }
+            if (m == null) {
+                continue;
+            }
+
+            switch (m.getType()) {
+            case FEATURES_REPLY:
+                if (featuresReply == null) {
+                    featuresReply = (OFFeaturesReply) m;
+                }
+                break;
+            case GET_CONFIG_REPLY:
+                if (getConfigReply == null) {
+                    getConfigReply = (OFGetConfigReply) m;
+                }
+                break;
+            case STATS_REPLY:
+                /* Keep the first complete reply of each type */
+                OFStatsReply reply = (OFStatsReply) m;
+                if (complete.get(reply.getStatsType()) == null) {
+                    List<OFStatsReply> parts = statsReplies.get(reply.getStatsType());
+                    if (parts == null) {
+                        parts = new ArrayList<OFStatsReply>();
+                        statsReplies.put(reply.getStatsType(), parts);
+                    }
+                    parts.add(reply);
+                    if (!reply.getFlags().contains(OFStatsReplyFlags.REPLY_MORE)) {
+                        complete.put(reply.getStatsType(), true);
+                    }
+                }
+                break;
+            case PACKET_IN:
+            case PORT_STATUS:
+            case FLOW_REMOVED:
+                if (firstEventNs < 0) {
+                    firstEventNs = f.getTimestampNs();
+                }
+                events.add(new ReplayEvent(Math.max(0, f.getTimestampNs() - firstEventNs), m));
+                break;
+            default:
+                break; /* replies to requests are made up when asked for */
+            }
+        }
+
+        if (featuresReply == null) {
+            log.warn("Skipping {}: no features reply was recorded", connection.getName());
+            return null;
+        }
+        return new ReplayScript(connection.getName(), featuresReply, getConfigReply, statsReplies, events);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public OFVersion getVersion() {
+        return featuresReply.getVersion();
+    }
+
+    public OFFeaturesReply getFeaturesReply() {
+        return featuresReply;
+    }
+
+    /**
+     * @return the recorded reply, or null if there was none
+     */
+    public OFGetConfigReply getGetConfigReply() {
+        return getConfigReply;
+    }
+
+    /**
+     * @return all parts of the recorded reply, or an empty list if there was none
+     */
+    public List<OFStatsReply> getStatsReply(OFStatsType type) {
+        List<OFStatsReply> parts = statsReplies.get(type);
+        return parts == null ? Collections.<OFStatsReply>emptyList() : parts;
+    }
+
+    public List<ReplayEvent> getEvents() {
+        return events;
+    }
+}
@@ -0,0 +1,109 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.perfmon.LatencyHistogram;
+
+/**
+ * Counts what a replay sent and received, across all replayed switches,
+ * and the latencies from each packet-in to the flow-mod and packet-out the
+ * controller answered it with.
+ */
+public class ReplayStats {
+    private final LatencyHistogram flowModLatency = new LatencyHistogram();
+    private final LatencyHistogram packetOutLatency = new LatencyHistogram();
+    private long packetInsSent;
+    private long otherEventsSent;
+    private long flowModsReceived;
+    private long packetOutsReceived;
+    private long unanswered;
+    private long firstSentNs;
+    private long lastSentNs;
+    private int switchesConnected;
+
+    public synchronized void switchConnected() {
+        switchesConnected++;
+    }
+
+    public synchronized void eventSent(boolean packetIn, long nowNs) {
+        if (packetIn) {
+            packetInsSent++;
+        } else {
+            otherEventsSent++;
+        }
+        if (firstSentNs == 0) {
+            firstSentNs = nowNs;
+        }
+        lastSentNs = nowNs;
+    }
+
+    /**
+     * @param latencyNs the time since the packet-in it answers, or a
+     * negative value if it does not answer one
+     */
+    public synchronized void flowModReceived(long latencyNs) {
+        flowModsReceived++;
+        if (latencyNs >= 0) {
+            flowModLatency.record(latencyNs);
+        }
+    }
+
+    /**
+     * @param latencyNs the time since the packet-in it answers, or a
+     * negative value if it does not answer one
+     */
+    public synchronized void packetOutReceived(long latencyNs) {
+        packetOutsReceived++;
+        if (latencyNs >= 0) {
+            packetOutLatency.record(latencyNs);
+        }
+    }
+
+    /**
+     * Counts a packet-in the controller answered with neither a flow-mod
+     * nor a packet-out in time.
+     */
+    public synchronized void packetInUnanswered() {
+        unanswered++;
+    }
+
+    public synchronized long getPacketInsSent() {
+        return packetInsSent;
+    }
+
+    public synchronized long getFlowModsReceived() {
+        return flowModsReceived;
+    }
+
+    /**
+     * @return the counts, the packet-in rate while sending and the latency
+     * percentiles, in ms
+     */
+    public synchronized Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("switches", switchesConnected);
+        report.put("packet-ins-sent", packetInsSent);
+        report.put("other-events-sent", otherEventsSent);
+        report.put("flow-mods-received", flowModsReceived);
+        report.put("packet-outs-received", packetOutsReceived);
+        report.put("packet-ins-unanswered", unanswered);
+        double seconds = (lastSentNs - firstSentNs) / 1e9;
+        report.put("send-seconds", seconds);
+        report.put("packet-ins-per-second", seconds > 0 ? packetInsSent / seconds : 0);
+        report.put("packet-in-to-flow-mod-ms", latencies(flowModLatency));
+        report.put("packet-in-to-packet-out-ms", latencies(packetOutLatency));
+        return report;
+    }
+
+    private static Map<String, Object> latencies(LatencyHistogram h) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("count", h.getTotalCount());
+        m.put("mean", h.getMeanNs() / 1e6);
+        m.put("p50", h.getValueAtPercentile(50) / 1e6);
+        m.put("p99", h.getValueAtPercentile(99) / 1e6);
+        m.put("p99.9", h.getValueAtPercentile(99.9) / 1e6);
+        m.put("max", h.getMaxNs() / 1e6);
+        return m;
+    }
+}
@@ -0,0 +1,514 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.projectfloodlight.openflow.protocol.OFBadRequestCode;
+import org.projectfloodlight.openflow.protocol.OFEchoRequest;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFGetConfigReply;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFNiciraControllerRoleRequest;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFRoleRequest;
+import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFValueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import net.floodlightcontroller.cpanalyzer.replay.ReplayScript.ReplayEvent;
+import net.floodlightcontroller.util.OFMessageUtils;
+
+/**
+ * Plays a recorded switch to a controller: answers the handshake with the
+ * recorded replies, then sends the recorded events at their recorded pace,
+ * scaled by a speed factor, and times the controller's answers.
+ *
+ * A flow-mod or packet-out answers the pending packet-in with the same
+ * buffer id; failing that, a packet-out answers the oldest one with the
+ * same data, and a flow-mod the oldest one whose in port and Ethernet
+ * addresses its match agrees with. This is a heuristic, as nothing in the
+ * protocol ties an answer to the packet-in it answers. A packet-in is no
+ * longer pending once a packet-out or a flow-mod releasing its buffer
+ * answers it, as nothing is sent for a packet after it has been released;
+ * a flow-mod that follows is counted as unmatched.
+ *
+ * All state is confined to the channel's event loop.
+ */
+public class ReplaySwitch extends SimpleChannelInboundHandler<Iterable<OFMessage>> {
+    protected static final Logger log = LoggerFactory.getLogger(ReplaySwitch.class);
+
+    /* Events sent at once when playing as fast as possible */
+    private static final int MAX_BATCH = 64;
+    private static final long EXPIRY_INTERVAL_MS = 100;
+
+    /* A packet-in waiting for the controller's answers */
+    private static class PendingPacketIn {
+        private final long xid;
+        private final long sentNs;
+        private final OFBufferId bufferId;
+        private final OFPort inPort;
+        private final MacAddress ethSrc;
+        private final MacAddress ethDst;
+        private final byte[] data;
+        private boolean flowModSeen;
+        private boolean packetOutSeen;
+
+        private PendingPacketIn(long sentNs, OFPacketIn pi) {
+            this.xid = pi.getXid();
+            this.sentNs = sentNs;
+            this.bufferId = pi.getBufferId();
+            this.inPort = OFMessageUtils.getInPort(pi);
+            this.data = pi.getData();
+            if (data.length >= 12) {
+                this.ethDst = MacAddress.of(Arrays.copyOfRange(data, 0, 6));
+                this.ethSrc = MacAddress.of(Arrays.copyOfRange(data, 6, 12));
+            } else {
+                this.ethDst = null;
+                this.ethSrc = null;
+            }
+        }
+
+        private boolean isBuffered() {
+            return !OFBufferId.NO_BUFFER.equals(bufferId);
+        }
+
+        private ByteBuffer dataKey() {
+            return ByteBuffer.wrap(data);
+        }
+
+        private boolean fits(Match match) {
+            return fits(match, MatchField.IN_PORT, inPort)
+                    && fits(match, MatchField.ETH_SRC, ethSrc)
+                    && fits(match, MatchField.ETH_DST, ethDst);
+        }
+
+        private static <T extends OFValueType<T>> boolean fits(Match match,
+                MatchField<T> field, T value) {
+            if (value == null || !match.supports(field) || !match.isExact(field)) {
+                return true;
+            }
+            return value.equals(match.get(field));
+        }
+    }
+
+    private final ReplayScript script;
+    private final ReplayStats stats;
+    private final OFFactory factory;
+    private final double speed;
+    private final long startDelayMs;
+    private final long responseTimeoutNs;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /* By xid, in order of sending; buffered ones also by buffer id, the others by data */
+    private final LinkedHashMap<Long, PendingPacketIn> pending = new LinkedHashMap<Long, PendingPacketIn>();
+    private final Map<OFBufferId, PendingPacketIn> pendingByBufferId = new HashMap<OFBufferId, PendingPacketIn>();
+    private final Map<ByteBuffer, ArrayDeque<PendingPacketIn>> pendingByData =
+            new HashMap<ByteBuffer, ArrayDeque<PendingPacketIn>>();
+    private ChannelHandlerContext ctx;
+    private ScheduledFuture<?> expiry;
+    private boolean scheduled;
+    private boolean playing;
+    private int nextEvent;
+    private long startNs;
+    private long nextXid = 1;
+    private int nextBufferId = 1;
+    private boolean finished;
+    private boolean failed;
+
+    /**
+     * @param speed how many times faster than recorded to send events, or
+     * 0 to send them as fast as the connection takes them
+     * @param startDelayMs how long to wait between the features reply and
+     * the first event, for the controller to finish the handshake
+     * @param responseTimeoutMs how long to wait for the answers to a
+     * packet-in
+     */
+    public ReplaySwitch(ReplayScript script, ReplayStats stats, double speed, long startDelayMs, long responseTimeoutMs) {
+        this.script = script;
+        this.stats = stats;
+        this.factory = OFFactories.getFactory(script.getVersion());
+        this.speed = speed;
+        this.startDelayMs = startDelayMs;
+        this.responseTimeoutNs = TimeUnit.MILLISECONDS.toNanos(responseTimeoutMs);
+    }
+
+    /**
+     * Waits for all events to be sent and answered or timed out, or for
+     * the connection to be lost.
+     * @return false if the connection was lost first or the wait timed out
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit) && !failed;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        stats.switchConnected();
+        ctx.writeAndFlush(Collections.singletonList(factory.buildHello().setXid(nextXid++).build()));
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!finished) {
+            log.warn("{}: disconnected by the controller after {} of {} events",
+                    new Object[] { script.getName(), nextEvent, script.getEvents().size() });
+            failed = true;
+            finish();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        log.error("{}: {}", script.getName(), cause.toString());
+        failed = true;
+        ctx.close();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && playing) {
+            play();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Iterable<OFMessage> msgs) throws Exception {
+        List<OFMessage> replies = new ArrayList<OFMessage>();
+        for (OFMessage m : msgs) {
+            answer(m, replies);
+        }
+        if (!replies.isEmpty()) {
+            ctx.writeAndFlush(replies);
+        }
+    }
+
+    private void answer(OFMessage m, List<OFMessage> replies) {
+        switch (m.getType()) {
+        case HELLO:
+        case SET_CONFIG:
+            break;
+        case ECHO_REQUEST:
+            replies.add(factory.buildEchoReply()
+                    .setXid(m.getXid())
+                    .setData(((OFEchoRequest) m).getData())
+                    .build());
+            break;
+        case FEATURES_REQUEST:
+            replies.add(script.getFeaturesReply().createBuilder().setXid(m.getXid()).build());
+            if (!scheduled) {
+                scheduled = true;
+                ctx.executor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        startPlayback();
+                    }
+                }, startDelayMs, TimeUnit.MILLISECONDS);
+            }
+            break;
+        case GET_CONFIG_REQUEST:
+            OFGetConfigReply config = script.getGetConfigReply();
+            replies.add(config != null
+                    ? config.createBuilder().setXid(m.getXid()).build()
+                    : factory.buildGetConfigReply().setXid(m.getXid()).setMissSendLen(0xffff).build());
+            break;
+        case BARRIER_REQUEST:
+            replies.add(factory.buildBarrierReply().setXid(m.getXid()).build());
+            break;
+        case STATS_REQUEST:
+            answerStats((OFStatsRequest<?>) m, replies);
+            break;
+        case ROLE_REQUEST:
+            OFRoleRequest role = (OFRoleRequest) m;
+            replies.add(factory.buildRoleReply()
+                    .setXid(m.getXid())
+                    .setRole(role.getRole())
+                    .setGenerationId(role.getGenerationId())
+                    .build());
+            break;
+        case EXPERIMENTER:
+            if (m instanceof OFNiciraControllerRoleRequest) {
+                replies.add(factory.buildNiciraControllerRoleReply()
+                        .setXid(m.getXid())
+                        .setRole(((OFNiciraControllerRoleRequest) m).getRole())
+                        .build());
+            }
+            break;
+        case FLOW_MOD:
+            flowModReceived((OFFlowMod) m);
+            break;
+        case PACKET_OUT:
+            packetOutReceived((OFPacketOut) m);
+            break;
+        default:
+            log.debug("{}: ignoring {}", script.getName(), m.getType());
+            break;
+        }
+    }
+
+    private void answerStats(OFStatsRequest<?> request, List<OFMessage> replies) {
+        List<OFStatsReply> recorded = script.getStatsReply(request.getStatsType());
+        if (!recorded.isEmpty()) {
+            for (OFStatsReply part : recorded) {
+                replies.add(part.createBuilder().setXid(request.getXid()).build());
+            }
+            return;
+        }
+        switch (request.getStatsType()) {
+        case DESC:
+            replies.add(factory.buildDescStatsReply()
+                    .setXid(request.getXid())
+                    .setMfrDesc("Floodlight")
+                    .setHwDesc("OFReplay")
+                    .setSwDesc(script.getName())
+                    .setSerialNum("None")
+                    .setDpDesc("None")
+                    .build());
+            break;
+        case PORT_DESC:
+            if (factory.getVersion().compareTo(OFVersion.OF_13) >= 0) {
+                replies.add(factory.buildPortDescStatsReply()
+                        .setXid(request.getXid())
+                        .setEntries(Collections.<OFPortDesc>emptyList())
+                        .build());
+            }
+            break;
+        default:
+            /* An error rather than silence, for the handshake not to wait for it */
+            log.debug("{}: no recorded {} reply", script.getName(), request.getStatsType());
+            replies.add(factory.errorMsgs().buildBadRequestErrorMsg()
+                    .setXid(request.getXid())
+                    .setCode(OFBadRequestCode.BAD_STAT)
+                    .build());
+            break;
+        }
+    }
+
+    private void startPlayback() {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        startNs = System.nanoTime();
+        playing = true;
+        expiry = ctx.executor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, EXPIRY_INTERVAL_MS, EXPIRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        play();
+    }
+
+    /* Sends the events that are due, and schedules itself for the next one */
+    private void play() {
+        List<ReplayEvent> events = script.getEvents();
+        List<OFMessage> batch = new ArrayList<OFMessage>();
+        long now = System.nanoTime();
+        while (nextEvent < events.size() && ctx.channel().isWritable()) {
+            ReplayEvent e = events.get(nextEvent);
+            long dueNs = speed > 0 ? startNs + (long) (e.getOffsetNs() / speed) : now;
+            if (dueNs > now) {
+                send(batch);
+                ctx.executor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        play();
+                    }
+                }, dueNs - now, TimeUnit.NANOSECONDS);
+                return;
+            }
+            batch.add(prepare(e.getMessage(), now));
+            nextEvent++;
+            if (batch.size() >= MAX_BATCH) {
+                send(batch);
+                batch = new ArrayList<OFMessage>();
+                if (speed <= 0) {
+                    /* Let the answers be read before sending more */
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            play();
+                        }
+                    });
+                    return;
+                }
+                now = System.nanoTime();
+            }
+        }
+        send(batch);
+        if (nextEvent >= events.size()) {
+            playing = false;
+        }
+        /* Otherwise resumed when the channel is writable again */
+    }
+
+    private void send(List<OFMessage> batch) {
+        if (!batch.isEmpty()) {
+            ctx.writeAndFlush(batch);
+        }
+    }
+
+    /* Gives a packet-in a fresh xid and, if buffered, a buffer id of its own */
+    private OFMessage prepare(OFMessage m, long now) {
+        if (m.getType() != OFType.PACKET_IN) {
+            stats.eventSent(false, now);
+            return m.createBuilder().setXid(nextXid++).build();
+        }
+        OFPacketIn pi = (OFPacketIn) m;
+        OFPacketIn.Builder b = pi.createBuilder().setXid(nextXid++);
+        if (!OFBufferId.NO_BUFFER.equals(pi.getBufferId())) {
+            b.setBufferId(OFBufferId.of(nextBufferId));
+            nextBufferId = (nextBufferId + 1) & 0x7fffffff;
+        }
+        pi = b.build();
+        add(new PendingPacketIn(now, pi));
+        stats.eventSent(true, now);
+        return pi;
+    }
+
+    private void flowModReceived(OFFlowMod fm) {
+        long now = System.nanoTime();
+        PendingPacketIn p = findByBufferId(fm.getBufferId());
+        if (p != null) {
+            /* The flow-mod releases the packet, nothing else follows for it */
+            p.flowModSeen = true;
+            stats.flowModReceived(now - p.sentNs);
+            remove(p);
+            return;
+        }
+        for (PendingPacketIn candidate : pending.values()) {
+            if (!candidate.flowModSeen && candidate.fits(fm.getMatch())) {
+                p = candidate;
+                break;
+            }
+        }
+        if (p == null) {
+            stats.flowModReceived(-1);
+            return;
+        }
+        p.flowModSeen = true;
+        stats.flowModReceived(now - p.sentNs);
+    }
+
+    private void packetOutReceived(OFPacketOut po) {
+        long now = System.nanoTime();
+        PendingPacketIn p = findByBufferId(po.getBufferId());
+        if (p == null && po.getData() != null && po.getData().length > 0) {
+            ArrayDeque<PendingPacketIn> sameData = pendingByData.get(ByteBuffer.wrap(po.getData()));
+            if (sameData != null) {
+                p = sameData.peekFirst();
+            }
+        }
+        if (p == null) {
+            stats.packetOutReceived(-1);
+            return;
+        }
+        p.packetOutSeen = true;
+        stats.packetOutReceived(now - p.sentNs);
+        remove(p);
+    }
+
+    private PendingPacketIn findByBufferId(OFBufferId bufferId) {
+        if (bufferId == null || OFBufferId.NO_BUFFER.equals(bufferId)) {
+            return null;
+        }
+        return pendingByBufferId.get(bufferId);
+    }
+
+    private void add(PendingPacketIn p) {
+        pending.put(p.xid, p);
+        if (p.isBuffered()) {
+            pendingByBufferId.put(p.bufferId, p);
+        } else {
+            ByteBuffer key = p.dataKey();
+            ArrayDeque<PendingPacketIn> sameData = pendingByData.get(key);
+            if (sameData == null) {
+                sameData = new ArrayDeque<PendingPacketIn>(1);
+                pendingByData.put(key, sameData);
+            }
+            sameData.addLast(p);
+        }
+    }
+
+    private void remove(PendingPacketIn p) {
+        pending.remove(p.xid);
+        unindex(p);
+    }
+
+    /* Removes a packet-in from the buffer id or data index only */
+    private void unindex(PendingPacketIn p) {
+        if (p.isBuffered()) {
+            pendingByBufferId.remove(p.bufferId);
+            return;
+        }
+        ByteBuffer key = p.dataKey();
+        ArrayDeque<PendingPacketIn> sameData = pendingByData.get(key);
+        if (sameData != null) {
+            sameData.remove(p);
+            if (sameData.isEmpty()) {
+                pendingByData.remove(key);
+            }
+        }
+    }
+
+    /* Gives up on packet-ins past the response timeout */
+    private void expire() {
+        long cutoff = System.nanoTime() - responseTimeoutNs;
+        for (Iterator<PendingPacketIn> it = pending.values().iterator(); it.hasNext();) {
+            PendingPacketIn p = it.next();
+            if (p.sentNs > cutoff) {
+                break; /* in order of sending */
+            }
+            if (!p.flowModSeen) {
+                stats.packetInUnanswered();
+            }
+            it.remove();
+            unindex(p);
+        }
+        if (nextEvent >= script.getEvents().size() && pending.isEmpty()) {
+            log.info("{}: replayed {} events", script.getName(), nextEvent);
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        playing = false;
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+        done.countDown();
+    }
+}
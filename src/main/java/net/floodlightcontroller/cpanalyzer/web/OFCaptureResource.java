@@ -0,0 +1,87 @@
+package net.floodlightcontroller.cpanalyzer.web;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.restlet.data.Status;
+import org.restlet.resource.Get;
+import org.restlet.resource.Post;
+import org.restlet.resource.Put;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.floodlightcontroller.cpanalyzer.IOFCaptureService;
+import net.floodlightcontroller.cpanalyzer.OFCaptureFilter;
+
+/**
+ * GET shows the capture status. POST to start/json starts a capture, with
+ * an optional filter, e.g. {"dpids": ["00:00:00:00:00:00:00:01"],
+ * "types": ["PACKET_IN", "FLOW_MOD"]}. POST to stop/json stops it.
+ */
+public class OFCaptureResource extends ServerResource {
+    protected static final Logger log = LoggerFactory.getLogger(OFCaptureResource.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Get("json")
+    public Map<String, Object> getStatus() {
+        IOFCaptureService captureService = (IOFCaptureService) getContext().getAttributes()
+                .get(IOFCaptureService.class.getCanonicalName());
+        return captureService.getCaptureStatus();
+    }
+
+    @Put
+    @Post
+    public Map<String, Object> configure(String json) {
+        IOFCaptureService captureService = (IOFCaptureService) getContext().getAttributes()
+                .get(IOFCaptureService.class.getCanonicalName());
+
+        String action = (String) getRequestAttributes().get(OFCaptureWebRoutable.STR_ACTION);
+        if (OFCaptureWebRoutable.STR_STOP.equalsIgnoreCase(action)) {
+            captureService.stopCapture();
+        } else if (OFCaptureWebRoutable.STR_START.equalsIgnoreCase(action)) {
+            OFCaptureFilter filter;
+            try {
+                filter = parseFilter(json);
+            } catch (IllegalArgumentException | IOException e) {
+                setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Invalid capture filter: " + e.getMessage());
+                return null;
+            }
+            try {
+                captureService.startCapture(filter);
+            } catch (IOException e) {
+                log.error("Could not start OpenFlow capture", e);
+                setStatus(Status.SERVER_ERROR_INTERNAL, "Could not start capture: " + e.getMessage());
+                return null;
+            }
+        } else {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Not a valid request.");
+            return null;
+        }
+        return captureService.getCaptureStatus();
+    }
+
+    protected static OFCaptureFilter parseFilter(String json) throws IOException {
+        if (json == null || json.trim().isEmpty()) {
+            return OFCaptureFilter.ALL;
+        }
+        JsonNode root = mapper.readTree(json);
+        Set<DatapathId> dpids = new HashSet<DatapathId>();
+        for (JsonNode n : root.path("dpids")) {
+            dpids.add(DatapathId.of(n.asText()));
+        }
+        Set<OFType> types = new HashSet<OFType>();
+        for (JsonNode n : root.path("types")) {
+            types.add(OFType.valueOf(n.asText().trim().toUpperCase()));
+        }
+        return new OFCaptureFilter(dpids, types);
+    }
+}
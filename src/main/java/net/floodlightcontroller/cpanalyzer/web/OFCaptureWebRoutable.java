@@ -0,0 +1,26 @@
+package net.floodlightcontroller.cpanalyzer.web;
+
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.routing.Router;
+
+import net.floodlightcontroller.restserver.RestletRoutable;
+
+public class OFCaptureWebRoutable implements RestletRoutable {
+    protected static final String STR_ACTION = "action";
+    protected static final String STR_START = "start";
+    protected static final String STR_STOP = "stop";
+
+    @Override
+    public Restlet getRestlet(Context context) {
+        Router router = new Router(context);
+        router.attach("/json", OFCaptureResource.class);
+        router.attach("/{" + STR_ACTION + "}/json", OFCaptureResource.class); // start or stop
+        return router;
+    }
+
+    @Override
+    public String basePath() {
+        return "/wm/capture";
+    }
+}
@@ -1,8 +1,7 @@
 package net.floodlightcontroller.debugcounter;
 
 import java.util.Collection;
-import java.util.Date;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nonnull;
 
@@ -18,9 +17,20 @@ class DebugCounterImpl implements IDebugCounter {
     private final String description;
     private final ImmutableSet<IDebugCounterService.MetaData> metaData;
 
-    private final AtomicLong value = new AtomicLong();
-
-    private final Date lastModified = new Date(); // should return long ms to ensure immutability
+    /*
+     * Striped across padded cells under contention, so hot counters
+     * incremented from many threads don't bounce a single cache line.
+     */
+    private final LongAdder value = new LongAdder();
+
+    /*
+     * The modification time is not stamped on every update, which would read
+     * the clock and write a shared field on the hot path. Instead, a reader
+     * of the value or of the time that sees a value different from the last
+     * one observed records the current time.
+     */
+    private volatile long lastModified;
+    private volatile long lastObservedValue;
 
     DebugCounterImpl(@Nonnull String moduleName,
                      @Nonnull String counterHierarchy,
@@ -30,7 +40,7 @@ class DebugCounterImpl implements IDebugCounter {
         this.counterHierarchy = counterHierarchy;
         this.description = description;
         this.metaData = Sets.immutableEnumSet(metaData);
-        this.lastModified.setTime(System.currentTimeMillis());
+        this.lastModified = System.currentTimeMillis();
     }
 
     @Nonnull
@@ -57,14 +67,16 @@ class DebugCounterImpl implements IDebugCounter {
 
     @Override
     public void reset() {
-        value.set(0);
-        lastModified.setTime(System.currentTimeMillis());
+        value.reset();
+        synchronized (this) {
+            lastObservedValue = 0;
+            lastModified = System.currentTimeMillis();
+        }
     }
 
     @Override
     public void increment() {
-        value.incrementAndGet();
-        lastModified.setTime(System.currentTimeMillis());
+        value.increment();
     }
 
     @Override
@@ -73,18 +85,37 @@ class DebugCounterImpl implements IDebugCounter {
             throw new IllegalArgumentException("increment must be > 0. Was "
                     + increment);
         }
-        value.addAndGet(increment);
-        lastModified.setTime(System.currentTimeMillis());
+        value.add(increment);
+    }
+
+    @Override
+    public synchronized void set(long newValue) {
+        value.add(newValue - value.sum());
+    }
+
+    /* Reads the value, stamping the time if it changed since the last read */
+    private long observe() {
+        long current = value.sum();
+        if (current != lastObservedValue) {
+            synchronized (this) {
+                if (current != lastObservedValue) {
+                    lastObservedValue = current;
+                    lastModified = System.currentTimeMillis();
+                }
+            }
+        }
+        return current;
     }
 
     @Override
     public long getCounterValue() {
-        return value.get();
+        return observe();
     }
     
 	@Override
 	public long getLastModified() {
-		return lastModified.getTime();
+		observe();
+		return lastModified;
 	}
 
     @Override
@@ -126,7 +157,7 @@ class DebugCounterImpl implements IDebugCounter {
         } else if (!moduleName.equals(other.moduleName)) return false;
         if (value == null) {
             if (other.value != null) return false;
-        } else if (value.get() != other.value.get()) return false;
+        } else if (value.sum() != other.value.sum()) return false;
         return true;
     }
 
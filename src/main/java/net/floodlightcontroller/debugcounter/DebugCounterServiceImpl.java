@@ -225,6 +225,26 @@ public class DebugCounterServiceImpl implements IFloodlightModule, IDebugCounter
         }
     }
 
+    @Override
+    public Map<String, Long> getModuleCounterSnapshot(String moduleName) {
+        verifyModuleNameSanity(moduleName);
+        List<String> hierarchyElements = Collections.singletonList(moduleName);
+        lock.readLock().lock();
+        try {
+            CounterNode node = root.lookup(hierarchyElements);
+            if (node == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (DebugCounterImpl counter: node.getCountersInHierarchy()) {
+                values.put(counter.getCounterHierarchy(), counter.getCounterValue());
+            }
+            return Collections.unmodifiableMap(values);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     private class ShutdownListenenerDelegate implements IShutdownListener {
         @Override
         public void floodlightIsShuttingDown() {
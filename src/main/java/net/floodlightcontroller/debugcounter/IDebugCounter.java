@@ -21,13 +21,22 @@ public interface IDebugCounter {
      */
     void add(long incr);
 
+    /**
+     * Set the counter to the given value in a single update, so readers
+     * see either the old or the new value. For counters used as gauges,
+     * which are only ever set.
+     * @param value
+     */
+    void set(long value);
+
     /**
      * Retrieve the value of the counter.
      */
     long getCounterValue();
     
     /**
-     * Retrieve the last-modified date of the counter.
+     * Retrieve the last-modified date of the counter. Implementations may
+     * track it lazily, as the time a change in value was first observed.
      */
     long getLastModified();
 
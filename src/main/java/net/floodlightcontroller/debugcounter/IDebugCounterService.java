@@ -1,6 +1,7 @@
 package net.floodlightcontroller.debugcounter;
 
 import java.util.List;
+import java.util.Map;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
 
@@ -130,4 +131,16 @@ public interface IDebugCounterService extends IFloodlightService {
      */
     public  List<DebugCounterResource> getModuleCounterValues(String moduleName);
 
+    /**
+     * Get the values of all counters associated with a module, in one pass
+     * and without building a DebugCounterResource per counter. The counter
+     * hierarchy cannot change while the snapshot is taken; each value is read
+     * once, so it is suitable for frequent polling.
+     * If the module is not registered, returns an empty map
+     *
+     * @param moduleName
+     * @return an immutable map of counter hierarchy to value, or an empty map
+     */
+    public Map<String, Long> getModuleCounterSnapshot(String moduleName);
+
 }
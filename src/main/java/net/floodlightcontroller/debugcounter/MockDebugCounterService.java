@@ -97,6 +97,11 @@ public class MockDebugCounterService implements IFloodlightModule, IDebugCounter
         return Collections.emptyList();
     }
 
+    @Override
+    public Map<String, Long> getModuleCounterSnapshot(String moduleName) {
+        return Collections.emptyMap();
+    }
+
     public static class MockCounterImpl implements IDebugCounter {
         @Override
         public void increment() {
@@ -106,6 +111,10 @@ public class MockDebugCounterService implements IFloodlightModule, IDebugCounter
         public void add(long incr) {
         }
 
+        @Override
+        public void set(long value) {
+        }
+
         @Override
         public long getCounterValue() {
             return -1;
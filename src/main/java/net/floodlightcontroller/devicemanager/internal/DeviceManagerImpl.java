@@ -99,6 +99,11 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 	protected IThreadPoolService threadPool;
 	protected IDebugCounterService debugCounters;
 	private ISyncService syncService;
+	/**
+	 * Whether to write the binary encoding to the device sync store
+	 * rather than Smile, which older nodes can read
+	 */
+	private boolean syncBinaryEncoding = false;
 	private IStoreClient<String, DeviceSyncRepresentation> storeClient;
 	private DeviceSyncManager deviceSyncManager;
 
@@ -131,6 +136,10 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 	public IDebugCounter cntDeviceReclassifyDelete;
 	public IDebugCounter cntDeviceStrored;
 	public IDebugCounter cntDeviceStoreThrottled;
+	public IDebugCounter cntDeviceStoreQueued;
+	public IDebugCounter cntDeviceStoreCoalesced;
+	public IDebugCounter cntDeviceStoreQueueDepth;
+	public IDebugCounter cntDeviceStoreQueueFull;
 	public IDebugCounter cntDeviceRemovedFromStore;
 	public IDebugCounter cntSyncException;
 	public IDebugCounter cntDevicesFromStore;
@@ -167,6 +176,26 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 	private final int syncStoreConsolidateIntervalMs =
 			DEFAULT_SYNC_STORE_CONSOLIDATE_INTERVAL_MS;
 
+	/**
+	 * Time between queuing a device update for the sync store and
+	 * writing it. Updates to the same device within this time are
+	 * coalesced into one write.
+	 */
+	static final int SYNC_STORE_FLUSH_DELAY_MS = 100;
+
+	/**
+	 * Maximum number of devices with updates waiting for the sync store.
+	 * Beyond this, changed devices are written synchronously and
+	 * last-seen refreshes are dropped.
+	 */
+	static final int MAX_PENDING_SYNC_STORE_WRITES = 10000;
+
+	/**
+	 * Number of queued updates written per batch before the queue lock is
+	 * taken again
+	 */
+	static final int SYNC_STORE_FLUSH_BATCH_SIZE = 1000;
+
 	/**
 	 * Time in milliseconds before entities will expire
 	 */
@@ -400,6 +429,11 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 	 */
 	private SingletonTask storeConsolidateTask;
 
+	/**
+	 * Task writing queued device updates to the sync store
+	 */
+	private SingletonTask storeFlushTask;
+
 	/**
 	 * Listens for HA notifications
 	 */
@@ -829,6 +863,13 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 		this.entityClassifier = fmc.getServiceImpl(IEntityClassifierService.class);
 		this.debugCounters = fmc.getServiceImpl(IDebugCounterService.class);
 		this.syncService = fmc.getServiceImpl(ISyncService.class);
+		Map<String, String> config = fmc.getConfigParams(this);
+		String binary = config.get("syncBinaryEncoding");
+		if (binary != null) {
+			syncBinaryEncoding = Boolean.parseBoolean(binary.trim());
+		}
+		logger.info("Device sync store values will be written as {}",
+				syncBinaryEncoding ? "binary" : "Smile");
 		this.deviceSyncManager = new DeviceSyncManager();
 		this.haListenerDelegate = new HAListenerDelegate();
 		registerDeviceManagerDebugCounters();
@@ -875,6 +916,14 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 			}
 		};
 		storeConsolidateTask = new SingletonTask(ses, consolidateStoreRunner);
+
+		Runnable flushStoreRunner = new Runnable() {
+			@Override
+			public void run() {
+				deviceSyncManager.flushPendingWrites();
+			}
+		};
+		storeFlushTask = new SingletonTask(ses, flushStoreRunner);
 		if (isMaster)
 			storeConsolidateTask.reschedule(syncStoreConsolidateIntervalMs,
 					TimeUnit.MILLISECONDS);
@@ -891,7 +940,8 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 			this.storeClient = this.syncService
 					.getStoreClient(DEVICE_SYNC_STORE_NAME,
 							String.class,
-							DeviceSyncRepresentation.class);
+							new DeviceSyncCodec(syncBinaryEncoding),
+							null);
 		} catch (SyncException e) {
 			throw new FloodlightModuleException("Error while setting up sync service", e);
 		}
@@ -981,6 +1031,22 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 				"Number of times a device update to the sync store was " +
 						"requested but not performed because the same device entities " +
 				"have recently been updated already");
+		cntDeviceStoreQueued = debugCounters.registerCounter(PACKAGE,
+				"device-store-queued",
+				"Number of device updates queued for writing to the sync store");
+		cntDeviceStoreCoalesced = debugCounters.registerCounter(PACKAGE,
+				"device-store-coalesced",
+				"Number of queued device updates that replaced an update of " +
+				"the same device still waiting to be written to the sync store");
+		cntDeviceStoreQueueDepth = debugCounters.registerCounter(PACKAGE,
+				"device-store-queue-depth",
+				"Number of devices with updates waiting to be written to the " +
+				"sync store");
+		cntDeviceStoreQueueFull = debugCounters.registerCounter(PACKAGE,
+				"device-store-queue-full",
+				"Number of device updates that could not be queued because " +
+				"too many devices were waiting to be written to the sync " +
+				"store", IDebugCounterService.MetaData.WARN);
 		cntDeviceRemovedFromStore = debugCounters.registerCounter(PACKAGE,
 				"device-removed-from-store",
 				"Number of devices that were removed from the sync store " +
@@ -1050,6 +1116,8 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 		@Override
 		public void transitionToStandby() {
 			DeviceManagerImpl.this.isMaster = false;
+			// Updates queued while we were MASTER still go to the store
+			DeviceManagerImpl.this.deviceSyncManager.flushPendingWrites();
 		}
 	}
 
@@ -2195,6 +2263,13 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 		 this.initialSyncStoreConsolidateMs = intervalMs;
 	 }
 
+	 /**
+	  * For testing: write all queued device updates to the store NOW
+	  */
+	 void flushSyncStore() {
+		 this.deviceSyncManager.flushPendingWrites();
+	 }
+
 	 /**
 	  * For testing: consolidate the store NOW
 	  */
@@ -2206,6 +2281,13 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 		 // maps (opaque) deviceKey to the time in System.nanoTime() when we
 		 // last wrote the device to the sync store
 		 private final ConcurrentMap<Long, Long> lastWriteTimes = new ConcurrentHashMap<Long, Long>();
+		 // device updates waiting to be written to the sync store, by
+		 // deviceKey, in the order of their latest update. A newer update
+		 // of a device replaces the queued one.
+		 private final LinkedHashMap<Long, PendingWrite> pendingWrites =
+				 new LinkedHashMap<Long, PendingWrite>();
+		 // serializes flushes so queued updates reach the store in order
+		 private final Object flushLock = new Object();
 
 		 /**
 		  * Write the given device to storage if we are MASTER.
@@ -2219,7 +2301,8 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 			 if (d == null)
 				 return;
 			 long now = System.nanoTime();
-			 writeUpdatedDeviceToStorage(d);
+			 if (!queueWrite(d.getDeviceKey(), new PendingWrite(d, null)))
+				 writeUpdatedDeviceToStorage(d);
 			 lastWriteTimes.put(d.getDeviceKey(), now);
 		 }
 
@@ -2239,8 +2322,10 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 			 long now = System.nanoTime();
 			 Long last = lastWriteTimes.get(d.getDeviceKey());
 			 if (last == null || (now - last) > intervalNs) {
-				 writeUpdatedDeviceToStorage(d);
-				 lastWriteTimes.put(d.getDeviceKey(), now);
+				 // Without room in the queue, skip the write and try again
+				 // with the next packet
+				 if (queueWrite(d.getDeviceKey(), new PendingWrite(d, null)))
+					 lastWriteTimes.put(d.getDeviceKey(), now);
 			 } else {
 				 cntDeviceStoreThrottled.increment();
 			 }
@@ -2259,17 +2344,95 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 			 // hashMap? I.e., we write a stale entry to the map after the
 			 // delete and now are left with an entry we'll never clean up
 			 lastWriteTimes.remove(d.getDeviceKey());
+			 String key = DeviceSyncRepresentation.computeKey(d);
+			 if (!queueWrite(d.getDeviceKey(), new PendingWrite(null, key)))
+				 removeDeviceFromStorage(key);
+		 }
+
+		 /**
+		  * Queue a write or removal for the sync store, replacing any
+		  * queued one for the same device, and schedule a flush if the
+		  * queue was empty.
+		  * @param deviceKey the key of the device
+		  * @param write the write
+		  * @return false if the write could not be queued and must be
+		  * done by the caller
+		  */
+		 private boolean queueWrite(Long deviceKey, PendingWrite write) {
+			 if (storeFlushTask == null)
+				 return false;
+			 boolean wasEmpty;
+			 synchronized (pendingWrites) {
+				 if (pendingWrites.remove(deviceKey) != null) {
+					 cntDeviceStoreCoalesced.increment();
+				 } else if (pendingWrites.size() >= MAX_PENDING_SYNC_STORE_WRITES) {
+					 cntDeviceStoreQueueFull.increment();
+					 return false;
+				 }
+				 wasEmpty = pendingWrites.isEmpty();
+				 pendingWrites.put(deviceKey, write);
+				 cntDeviceStoreQueued.increment();
+				 updateQueueDepth();
+			 }
+			 if (wasEmpty)
+				 storeFlushTask.reschedule(SYNC_STORE_FLUSH_DELAY_MS,
+						 TimeUnit.MILLISECONDS);
+			 return true;
+		 }
+
+		 /**
+		  * Write all queued updates to the sync store, in batches so
+		  * packet-in threads are not held up on the queue lock while we
+		  * write.
+		  */
+		 private void flushPendingWrites() {
+			 synchronized (flushLock) {
+				 List<PendingWrite> batch =
+						 new ArrayList<PendingWrite>(SYNC_STORE_FLUSH_BATCH_SIZE);
+				 while (true) {
+					 synchronized (pendingWrites) {
+						 Iterator<PendingWrite> iter = pendingWrites.values().iterator();
+						 while (iter.hasNext() &&
+								 batch.size() < SYNC_STORE_FLUSH_BATCH_SIZE) {
+							 batch.add(iter.next());
+							 iter.remove();
+						 }
+						 updateQueueDepth();
+					 }
+					 if (batch.isEmpty())
+						 return;
+					 for (PendingWrite write : batch) {
+						 if (write.device != null)
+							 writeUpdatedDeviceToStorage(write.device);
+						 else
+							 removeDeviceFromStorage(write.storeKey);
+					 }
+					 batch.clear();
+				 }
+			 }
+		 }
+
+		 // call with the pendingWrites lock held
+		 private void updateQueueDepth() {
+			 cntDeviceStoreQueueDepth.set(pendingWrites.size());
+		 }
+
+		 /**
+		  * Actually remove the device with the given key from the store
+		  * @param key the key of the device in the store
+		  */
+		 private void removeDeviceFromStorage(String key) {
 			 try {
 				 // TODO: should probably do versioned delete. OTOH, even
 				 // if we accidentally delete, we'll write it again after
 				 // the next entity ....
 				 cntDeviceRemovedFromStore.increment();
-				 storeClient.delete(DeviceSyncRepresentation.computeKey(d));
+				 storeClient.delete(key);
 			 } catch(ObsoleteVersionException e) {
 				 // FIXME
 			 } catch (SyncException e) {
 				 cntSyncException.increment();
-				 logger.error("Could not remove device " + d + " from store", e);
+				 logger.error("Could not remove device " + key + " from store", e);
 			 }
 		 }
 
@@ -2373,6 +2536,8 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 		 private void consolidateStore() {
 			 if (!isMaster)
 				 return;
+			 // make sure the store has our latest view of the devices
+			 flushPendingWrites();
 			 cntConsolidateStoreRuns.increment();
 			 if (logger.isDebugEnabled()) {
 				 logger.debug("Running consolidateStore.");
@@ -2431,6 +2596,20 @@ public class DeviceManagerImpl implements IDeviceService, IOFMessageListener, IT
 		 }
 	 }
 
+	 /**
+	  * A device update waiting to be written to the sync store: either the
+	  * device to write or, for a removal, the key of its store entry
+	  */
+	 private static class PendingWrite {
+		 final Device device;
+		 final String storeKey;
+
+		 PendingWrite(Device device, String storeKey) {
+			 this.device = device;
+			 this.storeKey = storeKey;
+		 }
+	 }
+
 
 	 /**
 	  * For testing. Sets the syncService. Only call after init but before
@@ -0,0 +1,145 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.sdnplatform.sync.IValueCodec;
+import org.sdnplatform.sync.error.SerializationException;
+import org.sdnplatform.sync.internal.util.BinaryEncoding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import net.floodlightcontroller.devicemanager.internal.DeviceSyncRepresentation.SyncEntity;
+
+/**
+ * Binary encoding of the {@link DeviceSyncRepresentation}s in the device
+ * sync store.
+ *
+ * Version 1 is a version byte, the key, the number of entities and for
+ * each entity its MAC, IPv4 address, VLAN, DPID and port as varints and
+ * its two timestamps as varints of the time plus one, zero meaning none.
+ * Values written as Smile by Jackson, as nodes running older versions
+ * do, are always read.
+ *
+ * Older nodes cannot read the binary encoding, so values are written as
+ * Smile unless binary writes are enabled.  Enable them only once every
+ * node in the cluster runs a version that reads them.
+ */
+public class DeviceSyncCodec implements IValueCodec<DeviceSyncRepresentation> {
+	static final int VERSION = 1;
+
+	/* The first byte of a Smile document: ':' */
+	private static final byte SMILE_HEADER = 0x3a;
+
+	private static final ObjectMapper smileMapper =
+			new ObjectMapper(new SmileFactory());
+	static {
+		smileMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS,
+				true);
+	}
+
+	private final boolean writeBinary;
+
+	/**
+	 * Create a codec that writes Smile
+	 */
+	public DeviceSyncCodec() {
+		this(false);
+	}
+
+	/**
+	 * @param writeBinary whether to write the binary encoding rather
+	 * than Smile
+	 */
+	public DeviceSyncCodec(boolean writeBinary) {
+		this.writeBinary = writeBinary;
+	}
+
+	@Override
+	public byte[] encode(DeviceSyncRepresentation value)
+			throws SerializationException {
+		if (!writeBinary) {
+			try {
+				return smileMapper.writeValueAsBytes(value);
+			} catch (Exception e) {
+				throw new SerializationException(e);
+			}
+		}
+
+		List<SyncEntity> entities = value.getEntities();
+		int count = entities == null ? 0 : entities.size();
+		BinaryEncoding.Writer out = new BinaryEncoding.Writer(32 + 40 * count);
+		out.writeByte(VERSION);
+		out.writeString(value.getKey());
+		if (entities == null) {
+			out.writeVarInt(0);
+			return out.toByteArray();
+		}
+		out.writeVarInt(count + 1);
+		for (SyncEntity e : entities) {
+			out.writeVarLong(e.macAddress);
+			out.writeVarInt(e.ipv4Address);
+			out.writeVarInt(e.vlan & 0xffff);
+			out.writeVarLong(e.switchDPID);
+			out.writeVarInt(e.switchPort);
+			writeDate(out, e.lastSeenTimestamp);
+			writeDate(out, e.activeSince);
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public DeviceSyncRepresentation decode(byte[] bytes)
+			throws SerializationException {
+		if (bytes.length > 0 && bytes[0] == SMILE_HEADER) {
+			try {
+				return smileMapper.readValue(bytes, DeviceSyncRepresentation.class);
+			} catch (Exception e) {
+				throw new SerializationException(e);
+			}
+		}
+
+		BinaryEncoding.Reader in = new BinaryEncoding.Reader(bytes);
+		int version = in.readByte();
+		if (version != VERSION)
+			throw new SerializationException("Unknown device encoding version " +
+					version);
+		DeviceSyncRepresentation dsr = new DeviceSyncRepresentation();
+		dsr.setKey(in.readString());
+		int count = in.readVarInt();
+		if (count > 0) {
+			count -= 1;
+			// every entity takes at least seven bytes
+			if (count > bytes.length / 7)
+				throw new SerializationException("Bad entity count " + count);
+			List<SyncEntity> entities = new ArrayList<SyncEntity>(count);
+			for (int i = 0; i < count; i++) {
+				SyncEntity e = new SyncEntity();
+				e.macAddress = in.readVarLong();
+				e.ipv4Address = in.readVarInt();
+				e.vlan = (short) in.readVarInt();
+				e.switchDPID = in.readVarLong();
+				e.switchPort = in.readVarInt();
+				e.lastSeenTimestamp = readDate(in);
+				e.activeSince = readDate(in);
+				entities.add(e);
+			}
+			dsr.setEntities(entities);
+		}
+		in.checkFullyRead();
+		return dsr;
+	}
+
+	private static void writeDate(BinaryEncoding.Writer out, Date d) {
+		out.writeVarLong(d == null ? 0 : d.getTime() + 1);
+	}
+
+	private static Date readDate(BinaryEncoding.Reader in)
+			throws SerializationException {
+		long v = in.readVarLong();
+		return v == 0 ? null : new Date(v - 1);
+	}
+}
@@ -17,25 +17,64 @@
 
 package net.floodlightcontroller.devicemanager.web;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.Map;
 
 import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.restserver.JsonCollectionRepresentation;
+import net.floodlightcontroller.restserver.PageRequest;
+import net.floodlightcontroller.restserver.PageRequest.KeyFunction;
+
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 
 /**
  * Resource for querying and displaying devices that exist in the system
  */
 public class DeviceResource extends AbstractDeviceResource {
+    /* Zero-padded, so that keys sort like the device keys themselves */
+    protected static final KeyFunction<IDevice> DEVICE_KEY = new KeyFunction<IDevice>() {
+        @Override
+        public String keyOf(IDevice device) {
+            return String.format("%016x", device.getDeviceKey());
+        }
+    };
+
     public Iterator<? extends IDevice> getDevices() {
         return super.getDevices();
     }
 
+    /**
+     * Writes the matching devices as {"devices": [...]}, paged by device key
+     * when a limit is given. The device query is run once, and its result is
+     * only iterated: without a limit the devices are streamed as they are
+     * read.
+     */
     @Get("json")
-    public Map<String, Iterator<? extends IDevice>> getNamedDeviceList() {
-        Map<String, Iterator<? extends IDevice>> result = new HashMap<String, Iterator<? extends IDevice>>();
-        result.put("devices", getDevices());
-        return result;
+    public Representation getNamedDeviceList() throws IOException {
+        PageRequest request;
+        try {
+            request = PageRequest.fromQuery(getQuery());
+        } catch (IllegalArgumentException e) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+        final Iterator<? extends IDevice> itr = getDevices();
+        if (itr == null) {
+            return null; /* bad query, status already set */
+        }
+
+        /* Iterated once, either to pick the page or to write the response */
+        Iterable<IDevice> devices = new Iterable<IDevice>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Iterator<IDevice> iterator() {
+                return (Iterator<IDevice>) itr;
+            }
+        };
+        return new JsonCollectionRepresentation<IDevice>(request.select(devices, DEVICE_KEY), request)
+                .setEnvelope("devices")
+                .respond(this);
     }
 }
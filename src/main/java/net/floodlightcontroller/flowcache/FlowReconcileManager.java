@@ -34,7 +34,6 @@ import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.ListenerDispatcher;
 import net.floodlightcontroller.core.util.SingletonTask;
-import net.floodlightcontroller.debugcounter.DebugCounterResource;
 import net.floodlightcontroller.debugcounter.IDebugCounter;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.flowcache.IFlowReconcileListener;
@@ -69,8 +68,9 @@ public class FlowReconcileManager implements IFloodlightModule, IFlowReconcileSe
 	/** Asynchronous task to feed the flowReconcile pipeline */
 	protected SingletonTask flowReconcileTask;
 
-	protected DebugCounterResource ctrControllerPktIn;
-	protected IDebugCounter lastPacketInCounter;
+	/** packet-in count and time of the previous capacity check, -1 before the first */
+	protected long lastPacketInValue = -1;
+	protected long lastPacketInTime;
 
 	protected final static int MAX_SYSTEM_LOAD_PER_SECOND = 10000;
 	/** a minimum flow reconcile rate so that it won't stave */
@@ -91,7 +91,6 @@ public class FlowReconcileManager implements IFloodlightModule, IFlowReconcileSe
 	private IDebugCounter ctrFlowReconcileRequest;
 	private IDebugCounter ctrReconciledFlows;
 	protected boolean flowReconcileEnabled;
-	private DebugCounterResource ctrPacketInRsrc = null;
 
 	public AtomicInteger flowReconcileThreadRunCount;
 
@@ -353,30 +352,28 @@ public class FlowReconcileManager implements IFloodlightModule, IFlowReconcileSe
 	protected int getCurrentCapacity() {
 		int minFlows = MIN_FLOW_RECONCILE_PER_SECOND * FLOW_RECONCILE_DELAY_MILLISEC / 1000;
 
-		List<DebugCounterResource> contCtrRsrcList = debugCounterService.getModuleCounterValues(Controller.class.getName());
-		for (DebugCounterResource dcr : contCtrRsrcList) {
-			if (dcr.getCounterHierarchy().equals("packet-in")) {
-				ctrPacketInRsrc = dcr;
-				break;
-			}
-		}
+		Long packetIn = debugCounterService.getModuleCounterSnapshot(Controller.class.getName()).get("packet-in");
 
 		// If no packetInCounter, then there shouldn't be any flow.
-		if (ctrPacketInRsrc == null || ctrPacketInRsrc.getCounterValue() == null || ctrPacketInRsrc.getCounterValue() == 0) {
-			logger.debug("counter {} doesn't exist", ctrPacketInRsrc);
+		if (packetIn == null || packetIn == 0) {
+			logger.debug("counter packet-in doesn't exist");
 			return minFlows;
 		}
 
+		long now = System.currentTimeMillis();
 		// We're the first packet_in
-		if (lastPacketInCounter.getCounterValue() == 0) {
-			logger.debug("First time get the count for {}", lastPacketInCounter);
+		if (lastPacketInValue < 0) {
+			logger.debug("First time get the count for packet-in");
+			lastPacketInValue = packetIn;
+			lastPacketInTime = now;
 			return minFlows;
 		}
 
-		int pktInRate = getPktInRate(ctrPacketInRsrc, new Date());
+		int pktInRate = getPktInRate(packetIn, now);
 
 		// Update the last packetInCounter
-		lastPacketInCounter.reset();
+		lastPacketInValue = packetIn;
+		lastPacketInTime = now;
 		int capacity = minFlows;
 		if ((pktInRate + MIN_FLOW_RECONCILE_PER_SECOND) <=
 				MAX_SYSTEM_LOAD_PER_SECOND) {
@@ -390,31 +387,23 @@ public class FlowReconcileManager implements IFloodlightModule, IFlowReconcileSe
 		return capacity;
 	}
 
-	protected int getPktInRate(DebugCounterResource newCnt, Date currentTime) {
-		if (newCnt == null ||
-				newCnt.getCounterLastModified() == null ||
-				newCnt.getCounterValue() == null) {
-			return 0;
-		}
-
+	protected int getPktInRate(long newValue, long currentTime) {
 		// Somehow the system time is messed up. return max packetIn rate
 		// to reduce the system load.
-		if (newCnt.getCounterLastModified() < lastPacketInCounter.getLastModified()) {
+		if (currentTime < lastPacketInTime) {
 			logger.debug("Time is going backward. new {}, old {}",
-					newCnt.getCounterLastModified(),
-					lastPacketInCounter.getLastModified());
+					currentTime, lastPacketInTime);
 			return MAX_SYSTEM_LOAD_PER_SECOND;
 		}
 
-		long elapsedTimeInSecond = (currentTime.getTime() - lastPacketInCounter.getLastModified()) / 1000;
+		long elapsedTimeInSecond = (currentTime - lastPacketInTime) / 1000;
 		if (elapsedTimeInSecond == 0) {
 			// This should never happen. Check to avoid division by zero.
 			return 0;
 		}
 
 		long diff = 0;
-		long newValue = newCnt.getCounterValue().longValue();
-		long oldValue = lastPacketInCounter.getCounterValue();
+		long oldValue = lastPacketInValue;
 		if (newValue < oldValue) {
 			// Roll over event
 			diff = Long.MAX_VALUE - oldValue + newValue;
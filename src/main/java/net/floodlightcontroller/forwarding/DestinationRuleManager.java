@@ -0,0 +1,347 @@
+package net.floodlightcontroller.forwarding;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.IDeviceListener;
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.routing.IRoutingService;
+import net.floodlightcontroller.routing.Path;
+import net.floodlightcontroller.topology.ITopologyListener;
+import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.util.FlowModUtils;
+import net.floodlightcontroller.util.OFDPAUtils;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Proactively installs destination-only (ETH_DST) rules for every known host,
+ * so that traffic to a learned device is forwarded without packet-ins.
+ *
+ * When a device is learned or moves, every switch in the archipelago of one of
+ * its edge attachment points gets a rule sending the device's MAC out of the
+ * first port of that switch's best path to the attachment point. When the
+ * topology changes, next hops are recomputed on every switch in the
+ * archipelagos of the updated links, as a changed link can move the shortest
+ * path of switches far from it, and only switches whose next hop changed are
+ * written to.
+ *
+ * Installed rules are remembered per MAC and per switch, which is what the
+ * recomputation is diffed against.
+ *
+ * The rules use their own priority, which must sit above the reactive rules
+ * installed by Forwarding (FLOWMOD_DEFAULT_PRIORITY) so the two never overlap
+ * at the same priority, and below the ACL rules (which count down from 30000)
+ * so ACL denies still apply. Firewall decisions are taken on packet-ins and do
+ * not apply to traffic these rules match.
+ */
+public class DestinationRuleManager implements IDeviceListener, ITopologyListener {
+    private static final Logger log = LoggerFactory.getLogger(DestinationRuleManager.class);
+
+    private final IOFSwitchService switchService;
+    private final IDeviceService deviceService;
+    private final ITopologyService topologyService;
+    private final IRoutingService routingService;
+    private final U64 cookie;
+    private final int priority;
+
+    /* MAC -> switch -> output port of the installed rule */
+    private final Map<MacAddress, Map<DatapathId, OFPort>> installed = new HashMap<MacAddress, Map<DatapathId, OFPort>>();
+
+    public DestinationRuleManager(IOFSwitchService switchService, IDeviceService deviceService,
+            ITopologyService topologyService, IRoutingService routingService, U64 cookie, int priority) {
+        this.switchService = switchService;
+        this.deviceService = deviceService;
+        this.topologyService = topologyService;
+        this.routingService = routingService;
+        this.cookie = cookie;
+        this.priority = priority;
+    }
+
+    /**
+     * Computes the output port towards the device on each of the given switches
+     * that can reach it.
+     * @param device the destination device
+     * @param switches the switches to compute next hops for
+     * @return switch to output port; empty if the device has no edge attachment point
+     */
+    protected Map<DatapathId, OFPort> computeNextHops(IDevice device, Set<DatapathId> switches) {
+        Map<DatapathId, OFPort> nextHops = new HashMap<DatapathId, OFPort>();
+        if (device.isVirtualInterface()) {
+            return nextHops; /* gateways are handled reactively, they need a MAC rewrite */
+        }
+
+        List<SwitchPort> aps = new ArrayList<SwitchPort>();
+        for (SwitchPort ap : device.getAttachmentPoints()) {
+            if (topologyService.isEdge(ap.getNodeId(), ap.getPortId())) {
+                aps.add(ap);
+            }
+        }
+        if (aps.isEmpty()) {
+            return nextHops;
+        }
+
+        for (DatapathId sw : switches) {
+            for (SwitchPort ap : aps) {
+                if (sw.equals(ap.getNodeId())) {
+                    nextHops.put(sw, ap.getPortId());
+                    break;
+                }
+                if (!topologyService.isInSameArchipelago(sw, ap.getNodeId())) {
+                    continue;
+                }
+                Path path = routingService.getPath(sw, ap.getNodeId());
+                if (path != null && !path.getPath().isEmpty()) {
+                    nextHops.put(sw, path.getPath().get(0).getPortId());
+                    break;
+                }
+            }
+        }
+        return nextHops;
+    }
+
+    /**
+     * Brings the rules for one destination MAC in line with the given next hops,
+     * adding the changed messages to the per-switch batches.
+     * @param scope the switches the next hops were computed for; null for all switches
+     */
+    private void diff(MacAddress mac, Map<DatapathId, OFPort> desired, Set<DatapathId> scope,
+            Map<DatapathId, List<OFMessage>> batches) {
+        Map<DatapathId, OFPort> current = installed.get(mac);
+        if (current == null) {
+            current = Collections.emptyMap();
+        }
+
+        for (Map.Entry<DatapathId, OFPort> e : desired.entrySet()) {
+            if (!e.getValue().equals(current.get(e.getKey()))) {
+                addMessage(batches, e.getKey(), mac, e.getValue());
+            }
+        }
+        Map<DatapathId, OFPort> updated = new HashMap<DatapathId, OFPort>(current);
+        for (DatapathId sw : current.keySet()) {
+            if ((scope == null || scope.contains(sw)) && !desired.containsKey(sw)) {
+                addMessage(batches, sw, mac, null);
+                updated.remove(sw);
+            }
+        }
+        updated.putAll(desired);
+
+        if (updated.isEmpty()) {
+            installed.remove(mac);
+        } else {
+            installed.put(mac, updated);
+        }
+    }
+
+    private void addMessage(Map<DatapathId, List<OFMessage>> batches, DatapathId swId, MacAddress mac, OFPort outPort) {
+        IOFSwitch sw = switchService.getActiveSwitch(swId);
+        if (sw == null || OFDPAUtils.isOFDPASwitch(sw)) {
+            return;
+        }
+        List<OFMessage> batch = batches.get(swId);
+        if (batch == null) {
+            batch = new ArrayList<OFMessage>();
+            batches.put(swId, batch);
+        }
+        batch.add(outPort == null ? buildDelete(sw, mac) : buildAdd(sw, mac, outPort));
+    }
+
+    private OFMessage buildAdd(IOFSwitch sw, MacAddress mac, OFPort outPort) {
+        /* An add with the same match and priority replaces an existing rule */
+        OFFlowMod.Builder fmb = sw.getOFFactory().buildFlowAdd();
+        List<OFAction> actions = Collections.<OFAction>singletonList(
+                sw.getOFFactory().actions().output(outPort, Integer.MAX_VALUE));
+        fmb.setMatch(buildMatch(sw, mac))
+                .setIdleTimeout(0)
+                .setHardTimeout(0)
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setCookie(cookie)
+                .setOutPort(outPort)
+                .setPriority(priority);
+        FlowModUtils.setActions(fmb, actions, sw);
+        if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) != 0) {
+            fmb.setTableId(Forwarding.FLOWMOD_DEFAULT_TABLE_ID);
+        }
+        return fmb.build();
+    }
+
+    private OFMessage buildDelete(IOFSwitch sw, MacAddress mac) {
+        OFFlowMod.Builder fmb = sw.getOFFactory().buildFlowDeleteStrict();
+        fmb.setMatch(buildMatch(sw, mac))
+                .setPriority(priority);
+        if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) != 0) {
+            fmb.setTableId(Forwarding.FLOWMOD_DEFAULT_TABLE_ID);
+        }
+        return fmb.build();
+    }
+
+    private Match buildMatch(IOFSwitch sw, MacAddress mac) {
+        return sw.getOFFactory().buildMatch()
+                .setExact(MatchField.ETH_DST, mac)
+                .build();
+    }
+
+    private void write(Map<DatapathId, List<OFMessage>> batches) {
+        for (Map.Entry<DatapathId, List<OFMessage>> e : batches.entrySet()) {
+            IOFSwitch sw = switchService.getActiveSwitch(e.getKey());
+            if (sw != null) {
+                log.debug("Writing {} destination rules to switch {}", e.getValue().size(), e.getKey());
+                sw.write(e.getValue());
+            }
+        }
+    }
+
+    private void update(IDevice device) {
+        Map<DatapathId, List<OFMessage>> batches = new HashMap<DatapathId, List<OFMessage>>();
+        synchronized (this) {
+            diff(device.getMACAddress(), computeNextHops(device, switchService.getAllSwitchDpids()), null, batches);
+        }
+        write(batches);
+    }
+
+    /**
+     * Forgets the rules of a switch, so they are pushed again on the next
+     * update. Used when the switch disconnects or reconnects with a clean
+     * flow table.
+     * @param swId the switch DPID
+     */
+    public synchronized void removeSwitch(DatapathId swId) {
+        Iterator<Map<DatapathId, OFPort>> itr = installed.values().iterator();
+        while (itr.hasNext()) {
+            Map<DatapathId, OFPort> rules = itr.next();
+            rules.remove(swId);
+            if (rules.isEmpty()) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * @param mac a destination MAC
+     * @return the installed switch to output port rules for the MAC
+     */
+    public synchronized Map<DatapathId, OFPort> getRules(MacAddress mac) {
+        Map<DatapathId, OFPort> rules = installed.get(mac);
+        return rules == null ? Collections.<DatapathId, OFPort>emptyMap() : new HashMap<DatapathId, OFPort>(rules);
+    }
+
+    // ITopologyListener
+
+    @Override
+    public void topologyChanged(List<LDUpdate> linkUpdates) {
+        /*
+         * A changed link can shift the best path of any switch that reached a
+         * destination through it, not just of the switches at either end, so
+         * every switch in the archipelagos of the updated switches is
+         * recomputed. If a link split an archipelago, each half holds one end.
+         * The lock is taken per device so device updates are not held up for
+         * the whole pass.
+         */
+        Set<DatapathId> touched = new HashSet<DatapathId>();
+        for (LDUpdate u : linkUpdates) {
+            if (u.getSrc() != null) {
+                touched.add(u.getSrc());
+            }
+            if (u.getDst() != null) {
+                touched.add(u.getDst());
+            }
+        }
+        if (touched.isEmpty()) {
+            return;
+        }
+        Set<DatapathId> archipelagos = new HashSet<DatapathId>();
+        for (DatapathId sw : touched) {
+            archipelagos.add(topologyService.getArchipelagoId(sw));
+        }
+        Set<DatapathId> scope = new HashSet<DatapathId>(touched);
+        for (DatapathId sw : switchService.getAllSwitchDpids()) {
+            if (archipelagos.contains(topologyService.getArchipelagoId(sw))) {
+                scope.add(sw);
+            }
+        }
+
+        Map<DatapathId, List<OFMessage>> batches = new HashMap<DatapathId, List<OFMessage>>();
+        Set<MacAddress> stale;
+        synchronized (this) {
+            stale = new HashSet<MacAddress>(installed.keySet());
+        }
+        for (IDevice device : deviceService.getAllDevices()) {
+            stale.remove(device.getMACAddress());
+            synchronized (this) {
+                diff(device.getMACAddress(), computeNextHops(device, scope), scope, batches);
+            }
+        }
+        synchronized (this) {
+            for (MacAddress mac : stale) {
+                diff(mac, Collections.<DatapathId, OFPort>emptyMap(), scope, batches);
+            }
+        }
+        write(batches);
+    }
+
+    // IDeviceListener
+
+    @Override
+    public String getName() {
+        return "forwarding-proactive";
+    }
+
+    @Override
+    public boolean isCallbackOrderingPrereq(String type, String name) {
+        return false;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPostreq(String type, String name) {
+        return false;
+    }
+
+    @Override
+    public void deviceAdded(IDevice device) {
+        update(device);
+    }
+
+    @Override
+    public void deviceRemoved(IDevice device) {
+        Map<DatapathId, List<OFMessage>> batches = new HashMap<DatapathId, List<OFMessage>>();
+        synchronized (this) {
+            diff(device.getMACAddress(), Collections.<DatapathId, OFPort>emptyMap(), null, batches);
+        }
+        write(batches);
+    }
+
+    @Override
+    public void deviceMoved(IDevice device) {
+        update(device);
+    }
+
+    @Override
+    public void deviceIPV4AddrChanged(IDevice device) {
+        /* rules only match on the MAC */
+    }
+
+    @Override
+    public void deviceIPV6AddrChanged(IDevice device) {
+        /* rules only match on the MAC */
+    }
+
+    @Override
+    public void deviceVlanChanged(IDevice device) {
+        /* rules only match on the MAC */
+    }
+}
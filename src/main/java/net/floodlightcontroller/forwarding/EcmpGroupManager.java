@@ -0,0 +1,230 @@
+package net.floodlightcontroller.forwarding;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.types.NodePortTuple;
+import org.projectfloodlight.openflow.protocol.OFBucket;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFGroupType;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFGroup;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of the SELECT groups Forwarding installs for equal-cost
+ * multipath. A switch has at most one group per destination attachment
+ * point, with one bucket per next-hop port. The group is reused by every
+ * flow towards that destination and is rewritten in place when the set of
+ * next hops changes.
+ *
+ * Group IDs are allocated per switch from [ECMP_GROUP_ID_MIN, ECMP_GROUP_ID_MAX]
+ * and recycled once a group is deleted. All state for a switch is dropped
+ * when it disconnects, reconnects or becomes master. The switch itself may
+ * still hold groups in that range, from before it reconnected or from
+ * another controller, since only the initial handshake of a master with
+ * clearTablesOnInitialHandshakeAsMaster set clears them. A group add for
+ * such an ID would fail, so the first time an ID is handed out after the
+ * state was dropped, the group is deleted on the switch before it is added.
+ */
+public class EcmpGroupManager {
+    private static final Logger log = LoggerFactory.getLogger(EcmpGroupManager.class);
+
+    protected static final int ECMP_GROUP_ID_MIN = 0x00001000;
+    protected static final int ECMP_GROUP_ID_MAX = 0x0FFFFFFF;
+
+    private final ConcurrentMap<DatapathId, SwitchGroups> switchGroups = new ConcurrentHashMap<DatapathId, SwitchGroups>();
+
+    private static class EcmpGroup {
+        private final OFGroup group;
+        private Set<OFPort> ports;
+
+        private EcmpGroup(OFGroup group, Set<OFPort> ports) {
+            this.group = group;
+            this.ports = ports;
+        }
+    }
+
+    private static class SwitchGroups {
+        private final Map<NodePortTuple, EcmpGroup> groupsByDst = new HashMap<NodePortTuple, EcmpGroup>();
+        private final Deque<Integer> freeIds = new ArrayDeque<Integer>();
+        private int nextId = ECMP_GROUP_ID_MIN;
+
+        private OFGroup allocate() {
+            if (!freeIds.isEmpty()) {
+                return OFGroup.of(freeIds.pop());
+            }
+            if (nextId > ECMP_GROUP_ID_MAX) {
+                return null;
+            }
+            return OFGroup.of(nextId++);
+        }
+
+        private void release(OFGroup group) {
+            freeIds.push(group.getGroupNumber());
+        }
+    }
+
+    /**
+     * Groups are only available from OpenFlow 1.1 on.
+     * @param sw the switch
+     * @return true if a SELECT group can be installed on the switch
+     */
+    public static boolean isSupported(IOFSwitch sw) {
+        return sw.getOFFactory().getVersion().compareTo(OFVersion.OF_11) >= 0;
+    }
+
+    /**
+     * Returns the SELECT group spreading traffic towards dst over the given
+     * next-hop ports, installing or updating it on the switch as needed.
+     *
+     * @param sw the divergence switch
+     * @param dst the destination attachment point the group forwards towards
+     * @param nextHopPorts output ports of the equal-cost paths on this switch
+     * @return the group to reference in flow actions, or null if no ID is available
+     */
+    public OFGroup getGroup(IOFSwitch sw, NodePortTuple dst, Set<OFPort> nextHopPorts) {
+        SwitchGroups groups = switchGroups.get(sw.getId());
+        if (groups == null) {
+            switchGroups.putIfAbsent(sw.getId(), new SwitchGroups());
+            groups = switchGroups.get(sw.getId());
+        }
+
+        synchronized (groups) {
+            EcmpGroup g = groups.groupsByDst.get(dst);
+            if (g != null && g.ports.equals(nextHopPorts)) {
+                return g.group;
+            }
+
+            OFMessage msg;
+            Set<OFPort> ports = new HashSet<OFPort>(nextHopPorts);
+            if (g == null) {
+                /* Recycled IDs were deleted when they were released */
+                boolean fresh = groups.freeIds.isEmpty();
+                OFGroup id = groups.allocate();
+                if (id == null) {
+                    log.warn("Switch {} has run out of ECMP group IDs", sw.getId());
+                    return null;
+                }
+                if (fresh) {
+                    /* Deleting a group the switch does not have is not an error */
+                    sw.write(sw.getOFFactory().buildGroupDelete()
+                            .setGroup(id)
+                            .setGroupType(OFGroupType.SELECT)
+                            .build());
+                    sw.write(sw.getOFFactory().buildBarrierRequest().build());
+                }
+                g = new EcmpGroup(id, ports);
+                groups.groupsByDst.put(dst, g);
+                msg = sw.getOFFactory().buildGroupAdd()
+                        .setGroup(id)
+                        .setGroupType(OFGroupType.SELECT)
+                        .setBuckets(buildBuckets(sw.getOFFactory(), ports))
+                        .build();
+            } else {
+                g.ports = ports;
+                msg = sw.getOFFactory().buildGroupModify()
+                        .setGroup(g.group)
+                        .setGroupType(OFGroupType.SELECT)
+                        .setBuckets(buildBuckets(sw.getOFFactory(), ports))
+                        .build();
+            }
+
+            /*
+             * Written before the lock is released, so another thread cannot
+             * reference the group in a flow-mod that reaches the switch first,
+             * and followed by a barrier, so the switch cannot reorder them.
+             */
+            log.debug("Writing ECMP group {} on switch {} towards {} over ports {}",
+                    new Object[] { g.group, sw.getId(), dst, nextHopPorts });
+            sw.write(msg);
+            sw.write(sw.getOFFactory().buildBarrierRequest().build());
+            return g.group;
+        }
+    }
+
+    /**
+     * Deletes every group on the switch that has a bucket on the given port.
+     * Flows pointing to a deleted group are removed along with it by the switch.
+     *
+     * @param sw the switch, or null if it is no longer connected
+     * @param switchId the switch DPID
+     * @param port the port that went down
+     */
+    public void removePort(IOFSwitch sw, DatapathId switchId, OFPort port) {
+        SwitchGroups groups = switchGroups.get(switchId);
+        if (groups == null) {
+            return;
+        }
+
+        /* The delete is written before the ID can be handed out again */
+        synchronized (groups) {
+            Iterator<EcmpGroup> itr = groups.groupsByDst.values().iterator();
+            while (itr.hasNext()) {
+                EcmpGroup g = itr.next();
+                if (g.ports.contains(port)) {
+                    itr.remove();
+                    groups.release(g.group);
+                    if (sw != null) {
+                        log.debug("Removing ECMP group {} on switch {} after port {} went down",
+                                new Object[] { g.group, switchId, port });
+                        sw.write(sw.getOFFactory().buildGroupDelete()
+                                .setGroup(g.group)
+                                .setGroupType(OFGroupType.SELECT)
+                                .build());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all groups of a switch, when it disconnects, reconnects or
+     * becomes master. Groups the switch keeps are deleted on it as their
+     * IDs are handed out again.
+     * @param switchId the switch DPID
+     */
+    public void removeSwitch(DatapathId switchId) {
+        switchGroups.remove(switchId);
+    }
+
+    /**
+     * @param switchId the switch DPID
+     * @return the number of ECMP groups currently installed on the switch
+     */
+    public int getGroupCount(DatapathId switchId) {
+        SwitchGroups groups = switchGroups.get(switchId);
+        if (groups == null) {
+            return 0;
+        }
+        synchronized (groups) {
+            return groups.groupsByDst.size();
+        }
+    }
+
+    private static List<OFBucket> buildBuckets(OFFactory factory, Set<OFPort> ports) {
+        /* Sort for a stable bucket order, so re-sent groups are identical */
+        List<OFPort> sorted = new ArrayList<OFPort>(ports);
+        Collections.sort(sorted);
+
+        List<OFBucket> buckets = new ArrayList<OFBucket>(sorted.size());
+        for (OFPort p : sorted) {
+            List<OFAction> actions = Collections.<OFAction>singletonList(
+                    factory.actions().output(p, Integer.MAX_VALUE));
+            buckets.add(factory.buildBucket()
+                    .setWeight(1)
+                    .setWatchPort(OFPort.ANY)
+                    .setWatchGroup(OFGroup.ANY)
+                    .setActions(actions)
+                    .build());
+        }
+        return buckets;
+    }
+}
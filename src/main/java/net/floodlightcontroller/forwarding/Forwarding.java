@@ -20,6 +20,10 @@ package net.floodlightcontroller.forwarding;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 import net.floodlightcontroller.core.*;
 import net.floodlightcontroller.core.internal.IOFSwitchService;
@@ -37,6 +41,8 @@ import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryListener;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.packet.*;
 import net.floodlightcontroller.routing.*;
+import net.floodlightcontroller.routing.IRoutingService.PATH_METRIC;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.ITopologyService;
 import net.floodlightcontroller.util.*;
 
@@ -52,6 +58,9 @@ import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 import org.python.google.common.collect.ImmutableList;
 import org.python.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -88,6 +97,8 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
     protected static final short FLOWSET_SHIFT = DECISION_BITS;
     private static final long FLOWSET_MASK = ((1L << FLOWSET_BITS) - 1) << FLOWSET_SHIFT;
     private static final long FLOWSET_MAX = (long) (Math.pow(2, FLOWSET_BITS) - 1);
+    /* Never handed out by the generator, which wraps before reaching FLOWSET_MAX */
+    protected static final U64 PROACTIVE_FLOWSET_ID = U64.of(FLOWSET_MAX << FLOWSET_SHIFT);
     protected static FlowSetIdRegistry flowSetIdRegistry;
 
     public static int FLOWMOD_DEFAULT_IDLE_TIMEOUT = 5; // in seconds
@@ -102,6 +113,16 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
 
     protected static boolean REMOVE_FLOWS_ON_LINK_OR_PORT_DOWN = true;
 
+    protected static boolean ECMP_ENABLED = false;
+
+    protected static boolean PROACTIVE_ENABLED = false;
+    /* Above the reactive rules at FLOWMOD_DEFAULT_PRIORITY, below the ACL rules */
+    protected static int PROACTIVE_PRIORITY = 2;
+
+    protected static boolean INSTALL_WHOLE_PATH = false;
+    protected static boolean PATH_INSTALL_BARRIER = false;
+    private static int PATH_INSTALL_BARRIER_TIMEOUT = 500; // ms
+
     protected IFloodlightProviderService floodlightProviderService;
     protected IOFSwitchService switchService;
     protected IDeviceService deviceManagerService;
@@ -109,6 +130,7 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
     protected ITopologyService topologyService;
     protected IDebugCounterService debugCounterService;
     protected ILinkDiscoveryService linkService;
+    protected IThreadPoolService threadPoolService;
     private GatewayStoreService gatewayStore;
 
     // flow-mod - for use in the cookie
@@ -124,6 +146,8 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
     private PacketMatcher packetMatcher;
     private MatchingConfig matchingConfig;
     private RouteStoreService routingRuleStore;
+    protected EcmpGroupManager ecmpGroupManager;
+    protected DestinationRuleManager destinationRuleManager;
 
     @Override
     public String getName() {
@@ -162,15 +186,80 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
     public boolean pushRoute(Path route, Match match, OFPacketIn pi,
                              DatapathId pinSwitch, U64 cookie, FloodlightContext cntx,
                              boolean requestFlowRemovedNotification, OFFlowModCommand flowModCommand, RoutingData routingData) {
+        return pushRoute(route, match, pi, pinSwitch, cookie, cntx, requestFlowRemovedNotification,
+                flowModCommand, routingData, null);
+    }
+
+    /**
+     * Push routes from back to front, sending the flow on pinSwitch to the given
+     * ECMP group instead of the route's output port.
+     *
+     * Unless whole-path installation is enabled, only pinSwitch is configured and
+     * the other hops are set up by their own packet-ins. With it enabled, every hop
+     * is configured with one batched write per switch, optionally confirmed by
+     * barriers before the packet-out on pinSwitch.
+     *
+     * @param ecmpGroup SELECT group to forward to on pinSwitch, or null to use the route's port
+     * @return true if a packet out was sent on the first-hop switch of this route
+     */
+    protected boolean pushRoute(Path route, Match match, OFPacketIn pi,
+                                DatapathId pinSwitch, U64 cookie, FloodlightContext cntx,
+                                boolean requestFlowRemovedNotification, OFFlowModCommand flowModCommand,
+                                RoutingData routingData, OFGroup ecmpGroup) {
+        return pushRoute(route, match, pi, pinSwitch, cookie, cntx, requestFlowRemovedNotification,
+                flowModCommand, routingData, ecmpGroup, true, new LinkedHashSet<IOFSwitch>());
+    }
+
+    /**
+     * Push routes from back to front, optionally leaving out pinSwitch. The
+     * hops after pinSwitch of the other paths an ECMP group may pick are set up
+     * this way before the route that sends the packet-out.
+     *
+     * @param programPinSwitch false to program only the hops after pinSwitch;
+     *        no packet-out is sent then
+     * @param programmed the switches programmed for this flow so far. The switches
+     *        this call writes to are added, and with path-install barriers the
+     *        packet-out waits for all of them.
+     * @return true if a packet out was sent on the first-hop switch of this route
+     */
+    private boolean pushRoute(Path route, Match match, OFPacketIn pi,
+                              DatapathId pinSwitch, U64 cookie, FloodlightContext cntx,
+                              boolean requestFlowRemovedNotification, OFFlowModCommand flowModCommand,
+                              RoutingData routingData, OFGroup ecmpGroup,
+                              boolean programPinSwitch, Set<IOFSwitch> programmed) {
 
         boolean packetOutSent = false;
+        boolean routed = routingData.isRoutedRequest();
+        boolean wholePath = INSTALL_WHOLE_PATH;
 
         List<NodePortTuple> switchPortList = route.getPath();
 
+        /* 
+         * A routed packet leaves pinSwitch on the gateway port. The rest of the
+         * route is only on its way if that is also the route's next hop.
+         */
+        if (wholePath && routed) {
+            for (int indx = switchPortList.size() - 1; indx > 0; indx -= 2) {
+                if (switchPortList.get(indx).getNodeId().equals(pinSwitch)) {
+                    wholePath = switchPortList.get(indx).getPortId().equals(routingData.getOutputPort());
+                    break;
+                }
+            }
+        }
+
+        /* Flow-mods per switch, in the order the switches are programmed */
+        Map<IOFSwitch, List<OFMessage>> batches = new LinkedHashMap<IOFSwitch, List<OFMessage>>();
+        IOFSwitch pinSw = null;
+        OFPort pinOutPort = null;
+
         for (int indx = switchPortList.size() - 1; indx > 0; indx -= 2) {
             // indx and indx-1 will always have the same switch DPID.
             DatapathId switchDPID = switchPortList.get(indx).getNodeId();
-            if (!switchDPID.equals(pinSwitch)) {
+            boolean isPinSwitch = switchDPID.equals(pinSwitch);
+            if (isPinSwitch && !programPinSwitch) {
+                continue;
+            }
+            if (!isPinSwitch && !wholePath) {
                 log.info("Request originated from " + pinSwitch + ". Skipping configuration for: " + switchDPID);
                 continue;
             }
@@ -215,17 +304,32 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
             if (matchingConfig.isMatchInPort()) {
                 mb.setExact(MatchField.IN_PORT, inPort);
             }
-            if (!routingData.isRoutedRequest()) {
-                aob.setPort(outPort);
-            } else {
+            boolean toGroup = isPinSwitch && ecmpGroup != null && !routed;
+            if (toGroup) {
+                actions.add(sw.getOFFactory().actions().group(ecmpGroup));
+            } else if (isPinSwitch && routed) {
+                /* The gateway lives on pinSwitch, so the routing rewrite happens there */
                 OFFactory factory = sw.getOFFactory();
                 actions.add(factory.actions().setField(factory.oxms().ethSrc(routingData.getOutputMac())));
                 actions.add(factory.actions().setField(factory.oxms().ethDst(routingData.getTargetMac())));
                 actions.add(factory.actions().decNwTtl());
                 aob.setPort(routingData.getOutputPort());
+            } else {
+                if (routed) {
+                    /* Past the gateway the packet carries the rewritten addresses */
+                    if (match.isExact(MatchField.ETH_SRC)) {
+                        mb.setExact(MatchField.ETH_SRC, routingData.getOutputMac());
+                    }
+                    if (match.isExact(MatchField.ETH_DST)) {
+                        mb.setExact(MatchField.ETH_DST, routingData.getTargetMac());
+                    }
+                }
+                aob.setPort(outPort);
+            }
+            if (!toGroup) {
+                aob.setMaxLen(Integer.MAX_VALUE);
+                actions.add(aob.build());
             }
-            aob.setMaxLen(Integer.MAX_VALUE);
-            actions.add(aob.build());
 
             if (FLOWMOD_DEFAULT_SET_SEND_FLOW_REM_FLAG || requestFlowRemovedNotification) {
                 Set<OFFlowModFlags> flags = new HashSet<>();
@@ -263,23 +367,79 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
                         fmb.getMatch(),
                         null, // TODO how to determine output VLAN for lookup of L2 interface group
                         outPort);
+            } else if (wholePath) {
+                List<OFMessage> batch = batches.get(sw);
+                if (batch == null) {
+                    batch = new ArrayList<OFMessage>();
+                    batches.put(sw, batch);
+                }
+                batch.add(fmb.build());
             } else {
                 messageDamper.write(sw, fmb.build());
             }
 
-            /* Push the packet out the first hop switch */
-            if (sw.getId().equals(pinSwitch) &&
+            if (isPinSwitch &&
                     !fmb.getCommand().equals(OFFlowModCommand.DELETE) &&
                     !fmb.getCommand().equals(OFFlowModCommand.DELETE_STRICT)) {
+                pinSw = sw;
+                pinOutPort = outPort;
+            }
+        }
+
+        for (Entry<IOFSwitch, List<OFMessage>> e : batches.entrySet()) {
+            messageDamper.write(e.getKey(), e.getValue());
+        }
+        programmed.addAll(batches.keySet());
+
+        /* Push the packet out the first hop switch */
+        if (pinSw != null) {
+            if (PATH_INSTALL_BARRIER && !programmed.isEmpty()) {
+                pushPacketAfterBarriers(programmed, pinSw, pi, pinOutPort, cntx);
+            } else {
                 /* Use the buffered packet at the switch, if there's one stored */
-                pushPacket(sw, pi, outPort, true, cntx);
-                packetOutSent = true;
+                pushPacket(pinSw, pi, pinOutPort, true, cntx);
             }
+            packetOutSent = true;
         }
 
         return packetOutSent;
     }
 
+    /**
+     * Sends a barrier to each switch and pushes the packet-out once all of them
+     * have been answered, or after PATH_INSTALL_BARRIER_TIMEOUT. A switch answers
+     * a barrier only once it has processed the flow-mods written before it.
+     *
+     * This must not block: the packet-in is handled on the I/O thread that also
+     * reads the ingress switch's barrier reply. The packet-out is sent from
+     * whichever thread completes the barriers or the timeout.
+     *
+     * @param switches the switches that were just programmed
+     */
+    private void pushPacketAfterBarriers(Collection<IOFSwitch> switches, final IOFSwitch pinSw,
+            final OFPacketIn pi, final OFPort outPort, final FloodlightContext cntx) {
+        List<ListenableFuture<OFBarrierReply>> futures = new ArrayList<ListenableFuture<OFBarrierReply>>(switches.size());
+        for (IOFSwitch sw : switches) {
+            futures.add(sw.writeRequest(sw.getOFFactory().buildBarrierRequest().build()));
+        }
+
+        ListenableFuture<List<OFBarrierReply>> all = Futures.withTimeout(Futures.allAsList(futures),
+                PATH_INSTALL_BARRIER_TIMEOUT, TimeUnit.MILLISECONDS, threadPoolService.getScheduledExecutor());
+        Futures.addCallback(all, new FutureCallback<List<OFBarrierReply>>() {
+            @Override
+            public void onSuccess(List<OFBarrierReply> replies) {
+                pushPacket(pinSw, pi, outPort, true, cntx);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                log.warn("Barriers for the path from switch {} not answered in time. Sending packet-out anyway",
+                        pinSw.getId());
+                pushPacket(pinSw, pi, outPort, true, cntx);
+            }
+        });
+    }
+
     /**
      * Pushes a packet-out to a switch. The assumption here is that
      * the packet-in was also generated from the same switch. Thus, if the input
@@ -347,22 +507,38 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
 
 
 
+    /**
+     * Tracks which switch ports each flowset was installed over, so that all
+     * flows of a flowset can be removed when one of its ports or links fails.
+     *
+     * Both directions are indexed: port to flowsets (as primitive long sets of
+     * the shifted IDs) and flowset to ports. Removing a port or a whole switch
+     * only visits the flowsets registered on it and the ports of those flowsets.
+     * The indices are weakly consistent: a registration racing with a removal
+     * may leave a stale entry, which is cleaned up by the next removal touching it.
+     */
     protected static class FlowSetIdRegistry {
-        private volatile Map<NodePortTuple, Set<U64>> nptToFlowSetIds;
-        private volatile Map<U64, Set<NodePortTuple>> flowSetIdToNpts;
-        
-        private volatile long flowSetGenerator = -1;
+        private final ConcurrentMap<NodePortTuple, LongHashSet> nptToFlowSetIds;
+        private final ConcurrentMap<Long, Set<NodePortTuple>> flowSetIdToNpts;
+        private final ConcurrentMap<DatapathId, Set<NodePortTuple>> switchToNpts;
+
+        private final AtomicLong flowSetGenerator = new AtomicLong(-1);
 
         private static volatile FlowSetIdRegistry instance;
 
         private FlowSetIdRegistry() {
-            nptToFlowSetIds = new ConcurrentHashMap<NodePortTuple, Set<U64>>();
-            flowSetIdToNpts = new ConcurrentHashMap<U64, Set<NodePortTuple>>();
+            nptToFlowSetIds = new ConcurrentHashMap<NodePortTuple, LongHashSet>();
+            flowSetIdToNpts = new ConcurrentHashMap<Long, Set<NodePortTuple>>();
+            switchToNpts = new ConcurrentHashMap<DatapathId, Set<NodePortTuple>>();
         }
 
         protected static FlowSetIdRegistry getInstance() {
             if (instance == null) {
-                instance = new FlowSetIdRegistry();
+                synchronized (FlowSetIdRegistry.class) {
+                    if (instance == null) {
+                        instance = new FlowSetIdRegistry();
+                    }
+                }
             }
             return instance;
         }
@@ -372,73 +548,142 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
          * @param seed
          */
         protected void seedFlowSetIdForUnitTest(int seed) {
-            flowSetGenerator = seed;
+            flowSetGenerator.set(seed);
         }
         
-        protected synchronized U64 generateFlowSetId() {
-            flowSetGenerator += 1;
-            if (flowSetGenerator == FLOWSET_MAX) {
-                flowSetGenerator = 0;
+        protected U64 generateFlowSetId() {
+            long prev;
+            long next;
+            do {
+                prev = flowSetGenerator.get();
+                next = prev + 1 >= FLOWSET_MAX ? 0 : prev + 1;
+            } while (!flowSetGenerator.compareAndSet(prev, next));
+            if (next == 0 && prev > 0) {
                 log.warn("Flowset IDs have exceeded capacity of {}. Flowset ID generator resetting back to 0", FLOWSET_MAX);
             }
-            U64 id = U64.of(flowSetGenerator << FLOWSET_SHIFT);
-            log.debug("Generating flowset ID {}, shifted {}", flowSetGenerator, id);
+            U64 id = U64.of(next << FLOWSET_SHIFT);
+            log.debug("Generating flowset ID {}, shifted {}", next, id);
             return id;
         }
 
-        private void registerFlowSetId(NodePortTuple npt, U64 flowSetId) {
-            if (nptToFlowSetIds.containsKey(npt)) {
-                Set<U64> ids = nptToFlowSetIds.get(npt);
-                ids.add(flowSetId);
-            } else {
-                Set<U64> ids = new HashSet<U64>();
-                ids.add(flowSetId);
-                nptToFlowSetIds.put(npt, ids);
-            }  
-
-            if (flowSetIdToNpts.containsKey(flowSetId)) {
-                Set<NodePortTuple> npts = flowSetIdToNpts.get(flowSetId);
-                npts.add(npt);
-            } else {
-                Set<NodePortTuple> npts = new HashSet<NodePortTuple>();
-                npts.add(npt);
-                flowSetIdToNpts.put(flowSetId, npts);
+        /*
+         * Sets are only changed inside compute() and computeIfPresent(), which
+         * lock their map entry, so an add can never land in a set that a
+         * concurrent removal has just emptied and dropped from the map.
+         */
+        private static <K> void addTo(ConcurrentMap<K, Set<NodePortTuple>> map, K key, final NodePortTuple npt) {
+            map.compute(key, new BiFunction<K, Set<NodePortTuple>, Set<NodePortTuple>>() {
+                @Override
+                public Set<NodePortTuple> apply(K k, Set<NodePortTuple> npts) {
+                    if (npts == null) {
+                        npts = ConcurrentHashMap.<NodePortTuple>newKeySet();
+                    }
+                    npts.add(npt);
+                    return npts;
+                }
+            });
+        }
+
+        protected void registerFlowSetId(NodePortTuple npt, U64 flowSetId) {
+            final long id = flowSetId.getValue();
+            nptToFlowSetIds.compute(npt, new BiFunction<NodePortTuple, LongHashSet, LongHashSet>() {
+                @Override
+                public LongHashSet apply(NodePortTuple k, LongHashSet ids) {
+                    if (ids == null) {
+                        ids = new LongHashSet();
+                    }
+                    synchronized (ids) { /* for readers taking a snapshot */
+                        ids.add(id);
+                    }
+                    return ids;
+                }
+            });
+            addTo(flowSetIdToNpts, id, npt);
+            addTo(switchToNpts, npt.getNodeId(), npt);
+        }
+
+        protected Set<U64> getFlowSetIds(NodePortTuple npt) {
+            LongHashSet ids = nptToFlowSetIds.get(npt);
+            if (ids == null) {
+                return null;
+            }
+            long[] values;
+            synchronized (ids) {
+                values = ids.toArray();
             }
+            Set<U64> result = new HashSet<U64>(values.length * 2);
+            for (long v : values) {
+                result.add(U64.of(v));
+            }
+            return result;
         }
 
-        private Set<U64> getFlowSetIds(NodePortTuple npt) {
-            return nptToFlowSetIds.get(npt);
+        protected Set<NodePortTuple> getNodePortTuples(U64 flowSetId) {
+            return flowSetIdToNpts.get(flowSetId.getValue());
         }
 
-        private Set<NodePortTuple> getNodePortTuples(U64 flowSetId) {
-            return flowSetIdToNpts.get(flowSetId);
+        /**
+         * Unregisters every flowset that was installed over the given port.
+         * @param npt the failed switch port
+         * @return the removed flowsets, each with all the ports it was registered on
+         */
+        protected Map<U64, Set<NodePortTuple>> removeFlowSetsOnPort(NodePortTuple npt) {
+            Map<U64, Set<NodePortTuple>> removed = new HashMap<U64, Set<NodePortTuple>>();
+            removeFlowSetsOnPort(npt, removed);
+            return removed;
         }
 
-        private void removeNodePortTuple(NodePortTuple npt) {
-            nptToFlowSetIds.remove(npt);
+        private void removeFlowSetsOnPort(final NodePortTuple npt, Map<U64, Set<NodePortTuple>> removed) {
+            switchToNpts.computeIfPresent(npt.getNodeId(), new BiFunction<DatapathId, Set<NodePortTuple>, Set<NodePortTuple>>() {
+                @Override
+                public Set<NodePortTuple> apply(DatapathId k, Set<NodePortTuple> swNpts) {
+                    swNpts.remove(npt);
+                    return swNpts.isEmpty() ? null : swNpts;
+                }
+            });
+            LongHashSet ids = nptToFlowSetIds.remove(npt);
+            if (ids == null) {
+                return;
+            }
 
-            Iterator<Set<NodePortTuple>> itr = flowSetIdToNpts.values().iterator();
-            while (itr.hasNext()) {
-                Set<NodePortTuple> npts = itr.next();
-                npts.remove(npt);
+            long[] values;
+            synchronized (ids) {
+                values = ids.toArray();
+            }
+            for (final long id : values) {
+                Set<NodePortTuple> npts = flowSetIdToNpts.remove(id);
+                if (npts == null) {
+                    continue; /* already removed through another port */
+                }
+                removed.put(U64.of(id), npts);
+                for (NodePortTuple other : npts) {
+                    nptToFlowSetIds.computeIfPresent(other, new BiFunction<NodePortTuple, LongHashSet, LongHashSet>() {
+                        @Override
+                        public LongHashSet apply(NodePortTuple k, LongHashSet otherIds) {
+                            synchronized (otherIds) {
+                                otherIds.remove(id);
+                                return otherIds.isEmpty() ? null : otherIds;
+                            }
+                        }
+                    });
+                }
             }
         }
 
-        private void removeExpiredFlowSetId(U64 flowSetId, NodePortTuple avoid, Iterator<U64> avoidItr) {
-            flowSetIdToNpts.remove(flowSetId);
-
-            Iterator<Entry<NodePortTuple, Set<U64>>> itr = nptToFlowSetIds.entrySet().iterator();
-            boolean removed = false;
-            while (itr.hasNext()) {
-                Entry<NodePortTuple, Set<U64>> e = itr.next();
-                if (e.getKey().equals(avoid) && ! removed) {
-                    avoidItr.remove();
-                    removed = true;
-                } else {
-                    Set<U64> ids = e.getValue();
-                    ids.remove(flowSetId);
+        /**
+         * Unregisters every flowset that was installed over any port of a switch.
+         * @param dpid the switch
+         * @return the removed flowsets, each with all the ports it was registered on
+         */
+        protected Map<U64, Set<NodePortTuple>> removeSwitch(DatapathId dpid) {
+            Map<U64, Set<NodePortTuple>> removed = new HashMap<U64, Set<NodePortTuple>>();
+            Set<NodePortTuple> npts = switchToNpts.remove(dpid);
+            if (npts != null) {
+                for (NodePortTuple npt : npts) {
+                    removeFlowSetsOnPort(npt, removed);
                 }
             }
+            return removed;
         }
     }
 
@@ -766,6 +1011,7 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
                 dstAp.getPortId());
 
         Match m = createMatchFromPacket(sw, srcPort, pi, cntx);
+        RoutingData routingData = builder.build();
 
         if (! path.getPath().isEmpty()) {
                 log.info("pushRoute inPort={} route={} " +
@@ -775,9 +1021,37 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
                                 dstAp.getPortId()});
                 log.info("Creating flow rules on the route, match rule: {}", m);
 
+            OFGroup ecmpGroup = null;
+            List<Path> ecmpPaths = Collections.emptyList();
+            if (ECMP_ENABLED && !routingData.isRoutedRequest()) {
+                ecmpPaths = getEqualCostPaths(srcSw, dstAp.getNodeId());
+                ecmpGroup = getEcmpGroup(sw, new NodePortTuple(dstAp.getNodeId(), dstAp.getPortId()), ecmpPaths);
+            }
+
+            /*
+             * The group may send the flow down any of the paths, so set up the
+             * hops after the ingress switch on the others first. The ingress
+             * switch and the packet-out are left to the route below, which then
+             * also waits for these switches' barriers.
+             */
+            Set<IOFSwitch> programmed = new LinkedHashSet<IOFSwitch>();
+            if (ecmpGroup != null && INSTALL_WHOLE_PATH) {
+                for (Path p : ecmpPaths) {
+                    List<NodePortTuple> npts = new ArrayList<NodePortTuple>(p.getPath().size() + 2);
+                    npts.add(new NodePortTuple(srcSw, srcPort));
+                    npts.addAll(p.getPath());
+                    npts.add(new NodePortTuple(dstAp.getNodeId(), dstAp.getPortId()));
+                    if (!npts.equals(path.getPath())) {
+                        pushRoute(new Path(p.getId(), npts), m, null, sw.getId(), cookie,
+                                cntx, requestFlowRemovedNotifn,
+                                OFFlowModCommand.ADD, routingData, ecmpGroup, false, programmed);
+                    }
+                }
+            }
+
             pushRoute(path, m, pi, sw.getId(), cookie,
                     cntx, requestFlowRemovedNotifn,
-                    OFFlowModCommand.ADD, builder.build());
+                    OFFlowModCommand.ADD, routingData, ecmpGroup, true, programmed);
 
             /* 
              * Register this flowset with ingress and egress ports for link down
@@ -786,9 +1060,78 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
             for (NodePortTuple npt : path.getPath()) {
                 flowSetIdRegistry.registerFlowSetId(npt, flowSetId);
             }
+            if (ecmpGroup != null) {
+                for (Path p : ecmpPaths) {
+                    for (NodePortTuple npt : p.getPath()) {
+                        flowSetIdRegistry.registerFlowSetId(npt, flowSetId);
+                    }
+                }
+            }
         } /* else no path was found */
     }
 
+    /**
+     * Returns the cached paths from src to dst that tie with the best one.
+     * Only hop count and latency are carried on a Path, so for the other
+     * metrics just the best path is returned.
+     *
+     * @param src source switch
+     * @param dst destination switch
+     * @return the equal-cost paths, best first; empty if there are none
+     */
+    protected List<Path> getEqualCostPaths(DatapathId src, DatapathId dst) {
+        List<Path> paths = routingEngineService.getPathsFast(src, dst);
+        if (paths == null || paths.size() < 2) {
+            return paths == null ? Collections.<Path>emptyList() : paths;
+        }
+
+        PATH_METRIC metric = routingEngineService.getPathMetric();
+        Path best = paths.get(0);
+        List<Path> equal = new ArrayList<Path>();
+        equal.add(best);
+        if (metric != PATH_METRIC.HOPCOUNT && metric != PATH_METRIC.HOPCOUNT_AVOID_TUNNELS
+                && metric != PATH_METRIC.LATENCY) {
+            return equal;
+        }
+
+        for (Path p : paths.subList(1, paths.size())) {
+            boolean tie = metric == PATH_METRIC.LATENCY
+                    ? p.getLatency().equals(best.getLatency())
+                    : p.getHopCount() == best.getHopCount();
+            if (!tie) {
+                break; /* paths are ordered by cost */
+            }
+            equal.add(p);
+        }
+        return equal;
+    }
+
+    /**
+     * Returns the SELECT group to use on sw for traffic towards dst, or null
+     * if sw is not a divergence point of the given paths or cannot hold groups.
+     *
+     * @param sw the switch the flow is being installed on
+     * @param dst the destination attachment point
+     * @param paths equal-cost paths starting at sw
+     * @return the group, or null to forward along the single best path
+     */
+    protected OFGroup getEcmpGroup(IOFSwitch sw, NodePortTuple dst, List<Path> paths) {
+        if (paths.size() < 2 || !EcmpGroupManager.isSupported(sw) || OFDPAUtils.isOFDPASwitch(sw)) {
+            return null;
+        }
+
+        Set<OFPort> nextHops = new HashSet<OFPort>();
+        for (Path p : paths) {
+            if (!p.getPath().isEmpty() && p.getPath().get(0).getNodeId().equals(sw.getId())) {
+                nextHops.add(p.getPath().get(0).getPortId());
+            }
+        }
+        if (nextHops.size() < 2) {
+            return null;
+        }
+        return ecmpGroupManager.getGroup(sw, dst, nextHops);
+    }
+
     private IPv4AddressWithMask maskIpAddress(IPv4Address destinationAddress) {
         return IPv4AddressWithMask.of(destinationAddress, IPv4Address.of("255.255.255.0"));
     }
@@ -879,7 +1222,8 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
                 IDebugCounterService.class,
                 ILinkDiscoveryService.class,
                 GatewayStoreService.class,
-                RouteStoreService.class
+                RouteStoreService.class,
+                IThreadPoolService.class
         );
     }
 
@@ -895,8 +1239,10 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
         this.debugCounterService = context.getServiceImpl(IDebugCounterService.class);
         this.switchService = context.getServiceImpl(IOFSwitchService.class);
         this.linkService = context.getServiceImpl(ILinkDiscoveryService.class);
+        this.threadPoolService = context.getServiceImpl(IThreadPoolService.class);
         this.gatewayStore = context.getServiceImpl(GatewayStoreService.class);
         this.routingRuleStore = context.getServiceImpl(RouteStoreService.class);
+        this.ecmpGroupManager = new EcmpGroupManager();
 
         MatchingConfig.ConfigBuilder configBuilder = MatchingConfig.builder();
         flowSetIdRegistry = FlowSetIdRegistry.getInstance();
@@ -994,6 +1340,53 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
         } else {
             log.info("Flows will not be removed on link/port down events");
         }
+
+        tmp = configParameters.get("enable-ecmp");
+        if (tmp != null) {
+            ECMP_ENABLED = Boolean.parseBoolean(tmp);
+        }
+        if (ECMP_ENABLED) {
+            log.info("Equal-cost paths will be load balanced with SELECT groups");
+        } else {
+            log.info("Flows will follow a single path");
+        }
+
+        tmp = configParameters.get("proactive");
+        if (tmp != null) {
+            PROACTIVE_ENABLED = Boolean.parseBoolean(tmp);
+        }
+        tmp = configParameters.get("proactive-priority");
+        if (tmp != null) {
+            PROACTIVE_PRIORITY = ParseUtils.parseHexOrDecInt(tmp);
+        }
+        if (PROACTIVE_ENABLED) {
+            if (PROACTIVE_PRIORITY <= FLOWMOD_DEFAULT_PRIORITY) {
+                log.warn("Proactive priority {} does not sit above the reactive priority {}",
+                        PROACTIVE_PRIORITY, FLOWMOD_DEFAULT_PRIORITY);
+            }
+            destinationRuleManager = new DestinationRuleManager(switchService, deviceManagerService,
+                    topologyService, routingEngineService, makeForwardingCookie(null, PROACTIVE_FLOWSET_ID),
+                    PROACTIVE_PRIORITY);
+            log.info("Destination rules will be installed proactively for learned devices at priority {}",
+                    PROACTIVE_PRIORITY);
+        } else {
+            log.info("Flows will be installed reactively only");
+        }
+
+        tmp = configParameters.get("install-whole-path");
+        if (tmp != null) {
+            INSTALL_WHOLE_PATH = Boolean.parseBoolean(tmp);
+        }
+        tmp = configParameters.get("path-install-barrier");
+        if (tmp != null) {
+            PATH_INSTALL_BARRIER = Boolean.parseBoolean(tmp);
+        }
+        if (INSTALL_WHOLE_PATH) {
+            log.info("Flows will be installed on every hop of the path{}",
+                    PATH_INSTALL_BARRIER ? ", confirmed by barriers before the packet-out" : "");
+        } else {
+            log.info("Flows will be installed one hop at a time");
+        }
     }
 
     @Override
@@ -1002,14 +1395,39 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
         switchService.addOFSwitchListener(this);
         routingEngineService.addRoutingDecisionChangedListener(this);
 
-        /* Register only if we want to remove stale flows */
-        if (REMOVE_FLOWS_ON_LINK_OR_PORT_DOWN) {
+        /* Register only if we want to remove stale flows or ECMP groups */
+        if (REMOVE_FLOWS_ON_LINK_OR_PORT_DOWN || ECMP_ENABLED) {
             linkService.addListener(this);
         }
+
+        if (destinationRuleManager != null) {
+            deviceManagerService.addListener(destinationRuleManager);
+            topologyService.addListener(destinationRuleManager);
+        }
+    }
+
+    @Override
+    public void switchRemoved(DatapathId switchId) {
+        ecmpGroupManager.removeSwitch(switchId);
+
+        /* The switch took its flows with it; clear the rest of its flowsets elsewhere */
+        Map<U64, Set<NodePortTuple>> flowSets = flowSetIdRegistry.removeSwitch(switchId);
+        if (REMOVE_FLOWS_ON_LINK_OR_PORT_DOWN) {
+            deleteFlowSets(flowSets);
+        }
+        if (destinationRuleManager != null) {
+            destinationRuleManager.removeSwitch(switchId);
+        }
     }
 
     @Override
     public void switchActivated(DatapathId switchId) {
+        /* Start over; groups the switch kept are deleted as their IDs are reused */
+        ecmpGroupManager.removeSwitch(switchId);
+        if (destinationRuleManager != null) {
+            destinationRuleManager.removeSwitch(switchId);
+        }
+
         IOFSwitch sw = switchService.getSwitch(switchId);
         if (sw == null) {
             log.warn("Switch {} was activated but had no switch object in the switch service. Perhaps it quickly disconnected", switchId);
@@ -1050,100 +1468,56 @@ public class Forwarding extends DefaultOFSwitchListener implements IFloodlightMo
             if (u.getOperation() == UpdateOperation.LINK_REMOVED ||
                     u.getOperation() == UpdateOperation.PORT_DOWN ||
                     u.getOperation() == UpdateOperation.TUNNEL_PORT_REMOVED) {
-                Set<OFMessage> msgs = new HashSet<OFMessage>();
-
+                if (ECMP_ENABLED) {
+                    removeEcmpGroups(u);
+                }
+                if (!REMOVE_FLOWS_ON_LINK_OR_PORT_DOWN) {
+                    continue;
+                }
+                /* Remove flows on either side of the link, or on the port */
                 if (u.getSrc() != null && !u.getSrc().equals(DatapathId.NONE)) {
-                    IOFSwitch srcSw = switchService.getSwitch(u.getSrc());
-                    /* src side of link */
-                    if (srcSw != null) {
-                        Set<U64> ids = flowSetIdRegistry.getFlowSetIds(
-                                new NodePortTuple(u.getSrc(), u.getSrcPort()));
-                        if (ids != null) {
-                            Iterator<U64> i = ids.iterator();
-                            while (i.hasNext()) {
-                                U64 id = i.next();
-                                U64 cookie = id.or(DEFAULT_FORWARDING_COOKIE);
-                                U64 cookieMask = U64.of(FLOWSET_MASK).or(AppCookie.getAppFieldMask());
-
-                                /* Delete flows matching on src port and outputting to src port */
-                                msgs = buildDeleteFlows(u.getSrcPort(), msgs, srcSw, cookie, cookieMask);
-                                messageDamper.write(srcSw, msgs);
-                                log.debug("src: Removing flows to/from DPID={}, port={}", u.getSrc(), u.getSrcPort());
-                                log.debug("src: Cookie/mask {}/{}", cookie, cookieMask);
-
-                                /* 
-                                 * Now, for each ID on this particular failed link, remove
-                                 * all other flows in the network using this ID.
-                                 */
-                                Set<NodePortTuple> npts = flowSetIdRegistry.getNodePortTuples(id);
-                                if (npts != null) {
-                                    for (NodePortTuple npt : npts) {
-                                        msgs.clear();
-                                        IOFSwitch sw = switchService.getSwitch(npt.getNodeId());
-                                        if (sw != null) {
-
-                                            /* Delete flows matching on npt port and outputting to npt port*/
-                                            msgs = buildDeleteFlows(npt.getPortId(), msgs, sw, cookie, cookieMask);
-                                            messageDamper.write(sw, msgs);
-                                            log.debug("src: Removing same-cookie flows to/from DPID={}, port={}", npt.getNodeId(), npt.getPortId());
-                                            log.debug("src: Cookie/mask {}/{}", cookie, cookieMask);
-                                        }
-                                    }
-                                }
-                                flowSetIdRegistry.removeExpiredFlowSetId(id, new NodePortTuple(u.getSrc(), u.getSrcPort()), i);
-                            }
-                        }
-                    }
-                    flowSetIdRegistry.removeNodePortTuple(new NodePortTuple(u.getSrc(), u.getSrcPort()));
+                    deleteFlowSets(flowSetIdRegistry.removeFlowSetsOnPort(new NodePortTuple(u.getSrc(), u.getSrcPort())));
                 }
-
                 /* must be a link, not just a port down, if we have a dst switch */
                 if (u.getDst() != null && !u.getDst().equals(DatapathId.NONE)) {
-                    /* dst side of link */
-                    IOFSwitch dstSw = switchService.getSwitch(u.getDst());
-                    if (dstSw != null) {
-                        Set<U64> ids = flowSetIdRegistry.getFlowSetIds(
-                                new NodePortTuple(u.getDst(), u.getDstPort()));
-                        if (ids != null) {
-                            Iterator<U64> i = ids.iterator();
-                            while (i.hasNext()) {
-                                U64 id = i.next();
-                                U64 cookie = id.or(DEFAULT_FORWARDING_COOKIE);
-                                U64 cookieMask = U64.of(FLOWSET_MASK).or(AppCookie.getAppFieldMask());
-                                /* Delete flows matching on dst port and outputting to dst port */
-                                msgs = buildDeleteFlows(u.getDstPort(), msgs, dstSw, cookie, cookieMask);
-                                messageDamper.write(dstSw, msgs);
-                                log.debug("dst: Removing flows to/from DPID={}, port={}", u.getDst(), u.getDstPort());
-                                log.debug("dst: Cookie/mask {}/{}", cookie, cookieMask);
-
-                                /* 
-                                 * Now, for each ID on this particular failed link, remove
-                                 * all other flows in the network using this ID.
-                                 */
-                                Set<NodePortTuple> npts = flowSetIdRegistry.getNodePortTuples(id);
-                                if (npts != null) {
-                                    for (NodePortTuple npt : npts) {
-                                        msgs.clear();
-                                        IOFSwitch sw = switchService.getSwitch(npt.getNodeId());
-                                        if (sw != null) {
-                                            /* Delete flows matching on npt port and outputting on npt port */
-                                            msgs = buildDeleteFlows(npt.getPortId(), msgs, sw, cookie, cookieMask);
-                                            messageDamper.write(sw, msgs);
-                                            log.debug("dst: Removing same-cookie flows to/from DPID={}, port={}", npt.getNodeId(), npt.getPortId());
-                                            log.debug("dst: Cookie/mask {}/{}", cookie, cookieMask);
-                                        }
-                                    }
-                                }
-                                flowSetIdRegistry.removeExpiredFlowSetId(id, new NodePortTuple(u.getDst(), u.getDstPort()), i);
-                            }
-                        }
-                    }
-                    flowSetIdRegistry.removeNodePortTuple(new NodePortTuple(u.getDst(), u.getDstPort()));
+                    deleteFlowSets(flowSetIdRegistry.removeFlowSetsOnPort(new NodePortTuple(u.getDst(), u.getDstPort())));
                 }
             }
         }
     }
 
+    /**
+     * For each flowset, deletes the flows with its cookie that match on or
+     * output to any of the ports it was installed over.
+     * @param flowSets flowset IDs and their ports, as returned by the registry
+     */
+    private void deleteFlowSets(Map<U64, Set<NodePortTuple>> flowSets) {
+        U64 cookieMask = U64.of(FLOWSET_MASK).or(AppCookie.getAppFieldMask());
+        for (Entry<U64, Set<NodePortTuple>> e : flowSets.entrySet()) {
+            U64 cookie = e.getKey().or(DEFAULT_FORWARDING_COOKIE);
+            for (NodePortTuple npt : e.getValue()) {
+                IOFSwitch sw = switchService.getSwitch(npt.getNodeId());
+                if (sw != null) {
+                    /* Delete flows matching on npt port and outputting to npt port */
+                    Set<OFMessage> msgs = buildDeleteFlows(npt.getPortId(), new HashSet<OFMessage>(), sw, cookie, cookieMask);
+                    messageDamper.write(sw, msgs);
+                    log.debug("Removing flows to/from DPID={}, port={}", npt.getNodeId(), npt.getPortId());
+                    log.debug("Cookie/mask {}/{}", cookie, cookieMask);
+                }
+            }
+        }
+    }
+
+    /* Drop the groups with a bucket on either end of a failed link or port */
+    private void removeEcmpGroups(LDUpdate u) {
+        if (u.getSrc() != null && !u.getSrc().equals(DatapathId.NONE)) {
+            ecmpGroupManager.removePort(switchService.getSwitch(u.getSrc()), u.getSrc(), u.getSrcPort());
+        }
+        if (u.getDst() != null && !u.getDst().equals(DatapathId.NONE)) {
+            ecmpGroupManager.removePort(switchService.getSwitch(u.getDst()), u.getDst(), u.getDstPort());
+        }
+    }
+
     private Set<OFMessage> buildDeleteFlows(OFPort port, Set<OFMessage> msgs, IOFSwitch sw, U64 cookie, U64 cookieMask) {
         if(sw.getOFFactory().getVersion().compareTo(OFVersion.OF_10) == 0) {
             msgs.add(sw.getOFFactory().buildFlowDelete()
@@ -520,7 +520,7 @@ IFloodlightModule, IInfoProvider {
 	}
 
 	@Override
-	public void addListener(ILinkDiscoveryListener listener) {
+	public synchronized void addListener(ILinkDiscoveryListener listener) {
 		linkDiscoveryAware.add(listener);
 	}
 
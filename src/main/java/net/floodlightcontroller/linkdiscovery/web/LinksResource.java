@@ -16,6 +16,7 @@
 
 package net.floodlightcontroller.linkdiscovery.web;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -26,17 +27,42 @@ import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LinkType;
 import net.floodlightcontroller.linkdiscovery.internal.LinkInfo;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.linkdiscovery.Link;
+import net.floodlightcontroller.restserver.JsonCollectionRepresentation;
+import net.floodlightcontroller.restserver.PageRequest;
+import net.floodlightcontroller.restserver.PageRequest.KeyFunction;
 
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.U64;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
 
 public class LinksResource extends ServerResource {
+    /* DPIDs print at a fixed width; ports are zero-padded to sort numerically */
+    protected static final KeyFunction<LinkWithType> LINK_KEY = new KeyFunction<LinkWithType>() {
+        @Override
+        public String keyOf(LinkWithType lwt) {
+            return String.format("%s-%08x-%s-%08x", lwt.srcSwDpid, lwt.srcPort.getPortNumber(),
+                    lwt.dstSwDpid, lwt.dstPort.getPortNumber());
+        }
+    };
 
     @Get("json")
-    public Set<LinkWithType> retrieve() {
+    public Representation retrieve() throws IOException {
+        PageRequest request;
+        try {
+            request = PageRequest.fromQuery(getQuery());
+        } catch (IllegalArgumentException e) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+        return new JsonCollectionRepresentation<LinkWithType>(request.select(getLinks(), LINK_KEY), request)
+                .respond(this);
+    }
+
+    protected Set<LinkWithType> getLinks() {
         ILinkDiscoveryService ld = (ILinkDiscoveryService)getContext().getAttributes().
                 get(ILinkDiscoveryService.class.getCanonicalName());
         Map<Link, LinkInfo> links = new HashMap<Link, LinkInfo>();
@@ -0,0 +1,115 @@
+package net.floodlightcontroller.packetstreamer;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.floodlightcontroller.packetstreamer.thrift.OFMessageType;
+import net.floodlightcontroller.packetstreamer.thrift.Packet;
+
+/**
+ * Selects the packets a session captures, by switch, OpenFlow message type
+ * and, for packet-ins, ethertype. A null criterion matches everything.
+ *
+ * The data of a packet is expected to hold the OpenFlow message as sent on
+ * the wire. Filters read it in place, so a packet that is filtered out is
+ * never copied.
+ */
+public class CaptureFilter {
+    public static final CaptureFilter ALL = new CaptureFilter(null, null, null);
+
+    private static final int OFPT_PACKET_IN = 10;
+    private static final int ETH_TYPE_VLAN = 0x8100;
+    private static final int ETH_TYPE_QINQ = 0x88a8;
+
+    private final Long dpid;
+    private final Set<OFMessageType> types;
+    private final Integer ethertype;
+
+    /**
+     * @param dpid the only switch to capture from, or null for all
+     * @param types the message types to capture, or null for all
+     * @param ethertype the only ethertype to capture, or null for all;
+     * when set, only packet-ins carrying a frame of that type match
+     */
+    public CaptureFilter(Long dpid, Set<OFMessageType> types, Integer ethertype) {
+        this.dpid = dpid;
+        this.types = types == null || types.isEmpty() ? null : EnumSet.copyOf(types);
+        this.ethertype = ethertype;
+    }
+
+    public boolean matches(Packet packet) {
+        if (dpid != null && (packet.getSwPortTuple() == null
+                || packet.getSwPortTuple().getDpid() != dpid.longValue())) {
+            return false;
+        }
+        if (types != null && !types.contains(packet.getMessageType())) {
+            return false;
+        }
+        if (ethertype != null && ethertypeOf(packet.bufferForData()) != ethertype.intValue()) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the ethertype of the frame carried by a packet-in, skipping VLAN
+     * tags, with absolute reads that leave the buffer untouched.
+     * @param data the OpenFlow message
+     * @return the ethertype, or -1 if data is not a well-formed packet-in
+     */
+    protected static int ethertypeOf(ByteBuffer data) {
+        if (data == null) {
+            return -1;
+        }
+        int base = data.position();
+        int end = data.limit();
+        if (end - base < 8 || (data.get(base + 1) & 0xff) != OFPT_PACKET_IN) {
+            return -1;
+        }
+
+        int frame;
+        switch (data.get(base)) {
+        case 0x01: /* OF1.0: header, buffer_id, total_len, in_port, reason, pad */
+            frame = base + 18;
+            break;
+        case 0x02: /* OF1.1: header, buffer_id, in_port, in_phy_port, total_len, reason, table_id */
+            frame = base + 24;
+            break;
+        case 0x03: /* OF1.2: header, buffer_id, total_len, reason, table_id, match, pad */
+            frame = afterMatch(data, base + 16);
+            break;
+        case 0x04:
+        case 0x05:
+        case 0x06: /* OF1.3+: as OF1.2, with a cookie before the match */
+            frame = afterMatch(data, base + 24);
+            break;
+        default:
+            return -1;
+        }
+
+        int typeOffset = frame + 12;
+        while (frame >= 0 && typeOffset + 2 <= end) {
+            int type = data.getShort(typeOffset) & 0xffff;
+            if (type != ETH_TYPE_VLAN && type != ETH_TYPE_QINQ) {
+                return type;
+            }
+            typeOffset += 4;
+        }
+        return -1;
+    }
+
+    /* The match is padded to 8 bytes and followed by 2 bytes of padding */
+    private static int afterMatch(ByteBuffer data, int match) {
+        if (match + 4 > data.limit()) {
+            return -1;
+        }
+        int length = data.getShort(match + 2) & 0xffff;
+        return match + ((length + 7) / 8) * 8 + 2;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureFilter [dpid=" + dpid + ", types=" + types + ", ethertype=" + ethertype + "]";
+    }
+}
@@ -20,11 +20,11 @@ import net.floodlightcontroller.packetstreamer.thrift.*;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,24 +34,147 @@ import org.slf4j.LoggerFactory;
  */
 public class PacketStreamerHandler implements PacketStreamer.Iface {
 
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    /**
+     * What a full session queue does with a new packet.
+     */
+    public enum OverflowPolicy {
+        /** Evict the oldest queued packet to make room */
+        DROP_OLDEST,
+        /** Discard the new packet */
+        DROP_NEWEST
+    }
+
 	/**
 	 * The queue wrapper class that contains the queue for the streamed packets.
+	 * It is a fixed-size ring, so that a slow or dead consumer costs at most
+	 * capacity packets of memory; packets that do not fit are dropped
+	 * according to the policy and counted.
 	 */
-    protected class SessionQueue {
-        protected BlockingQueue<ByteBuffer> pQueue;
+    protected static class SessionQueue {
+        private ByteBuffer[] ring;
+        private OverflowPolicy policy;
+        private volatile CaptureFilter filter;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private int head;
+        private int size;
+        private long dropped;
 
         /**
          * The queue wrapper constructor
          */
-        public SessionQueue() {
-            this.pQueue = new LinkedBlockingQueue<ByteBuffer>();
+        public SessionQueue(int capacity, OverflowPolicy policy, CaptureFilter filter) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Session queue capacity must be positive");
+            }
+            this.ring = new ByteBuffer[capacity];
+            this.policy = policy;
+            this.filter = filter;
+        }
+
+        public CaptureFilter getFilter() {
+            return filter;
+        }
+
+        /**
+         * Changes the settings of the queue in place, so that consumers
+         * waiting on it keep waiting on it. Queued packets are kept, as far
+         * as the new capacity allows; the policy decides which are dropped.
+         */
+        public void reconfigure(int capacity, OverflowPolicy policy, CaptureFilter filter) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Session queue capacity must be positive");
+            }
+            lock.lock();
+            try {
+                ByteBuffer[] old = ring;
+                int oldHead = head;
+                int oldSize = size;
+                this.ring = new ByteBuffer[capacity];
+                this.policy = policy;
+                this.filter = filter;
+                head = 0;
+                size = 0;
+                for (int i = 0; i < oldSize; i++) {
+                    offer(old[(oldHead + i) % old.length], false);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Queues a packet, dropping one if the queue is full.
+         * @param bb the packet
+         * @param force queue it even if the policy is DROP_NEWEST
+         * @return false if bb itself was dropped
+         */
+        public boolean offer(ByteBuffer bb, boolean force) {
+            lock.lock();
+            try {
+                if (size == ring.length) {
+                    dropped++;
+                    if (policy == OverflowPolicy.DROP_NEWEST && !force) {
+                        return false;
+                    }
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    size--;
+                }
+                ring[(head + size) % ring.length] = bb;
+                size++;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
         }
 
         /**
-         * The access method to get to the internal queue.
+         * Waits until the queue is not empty, then moves up to max packets,
+         * oldest first, to packets.
+         * @return the number of packets moved
          */
-        public BlockingQueue<ByteBuffer> getQueue() {
-            return this.pQueue;
+        public int take(List<ByteBuffer> packets, int max) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (size == 0) {
+                    notEmpty.await();
+                }
+                int n = Math.min(size, max);
+                for (int i = 0; i < n; i++) {
+                    packets.add(ring[head]);
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                }
+                size -= n;
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the number of packets dropped because the queue was full
+         */
+        public long getDroppedCount() {
+            lock.lock();
+            try {
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
         }
     }
     
@@ -64,13 +187,61 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
     /**
      * A sessionId-to-queue mapping
      */
-    protected Map<String, SessionQueue> msgQueues;
+    protected ConcurrentMap<String, SessionQueue> msgQueues;
+
+    /**
+     * Queue settings of sessions that are created implicitly by a push
+     */
+    protected int defaultCapacity;
+    protected OverflowPolicy defaultPolicy;
 
     /**
      * The handler's constructor
      */
     public PacketStreamerHandler() {
+        this(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    public PacketStreamerHandler(int defaultCapacity, OverflowPolicy defaultPolicy) {
         this.msgQueues = new ConcurrentHashMap<String, SessionQueue>();
+        this.defaultCapacity = defaultCapacity;
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    /**
+     * Sets up the queue and capture filter of a session, before or while
+     * packets are pushed to it. Packets already queued are kept, as far as
+     * the new capacity allows.
+     *
+     * @param sessionid
+     * @param capacity the maximum number of packets queued for the session
+     * @param policy what to drop when the queue is full
+     * @param filter the packets to capture, or null for all
+     */
+    public void configureSession(String sessionid, int capacity,
+                                 OverflowPolicy policy, CaptureFilter filter) {
+        if (filter == null) {
+            filter = CaptureFilter.ALL;
+        }
+        SessionQueue pQueue = msgQueues.get(sessionid);
+        if (pQueue == null) {
+            SessionQueue newQueue = new SessionQueue(capacity, policy, filter);
+            pQueue = msgQueues.putIfAbsent(sessionid, newQueue);
+            if (pQueue == null) {
+                return;
+            }
+        }
+        pQueue.reconfigure(capacity, policy, filter);
+    }
+
+    /**
+     * @param sessionid
+     * @return the number of packets dropped from the session because its
+     * queue was full, or 0 if there is no such session
+     */
+    public long getDroppedCount(String sessionid) {
+        SessionQueue pQueue = msgQueues.get(sessionid);
+        return pQueue == null ? 0 : pQueue.getDroppedCount();
     }
 
     /**
@@ -83,6 +254,19 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
     @Override
     public List<ByteBuffer> getPackets(String sessionid)
             throws org.apache.thrift.TException {
+        return getPackets(sessionid, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Blocks until the session has packets, then returns up to maxPackets
+     * of them, oldest first, in one call.
+     *
+     * @param sessionid
+     * @param maxPackets the maximum number of packets to return
+     * @return A list of packets associated with the session
+     */
+    public List<ByteBuffer> getPackets(String sessionid, int maxPackets)
+            throws org.apache.thrift.TException {
         List<ByteBuffer> packets = new ArrayList<ByteBuffer>();
         int count = 0;
         
@@ -97,11 +281,9 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
 
         if (count < 100) {
 	        SessionQueue pQueue = msgQueues.get(sessionid);
-	        BlockingQueue<ByteBuffer> queue = pQueue.getQueue();
 	        // Block if queue is empty
 	        try {
-	            packets.add(queue.take());
-	            queue.drainTo(packets);
+	            pQueue.take(packets, Math.max(1, maxPackets));
 	        } catch (InterruptedException e) {
 	            log.error("Interrupted while waiting for packets");
 	        }
@@ -121,35 +303,33 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
     public int pushMessageSync(Message msg)
             throws org.apache.thrift.TException {
 
-        if (msg == null) {
+        if (msg == null || msg.getPacket() == null) {
             log.error("Could not push empty message");
             return 0;
         }
 
+        // Sessions share the received bytes; each gets its own view of them
+        ByteBuffer data = msg.getPacket().bufferForData();
         List<String> sessionids = msg.getSessionIDs();
         for (String sid : sessionids) {
-            SessionQueue pQueue = null;
-
-            if (!msgQueues.containsKey(sid)) {
-                pQueue = new SessionQueue();
-                msgQueues.put(sid, pQueue);
-            } else {
-                pQueue = msgQueues.get(sid);
+            SessionQueue pQueue = msgQueues.get(sid);
+            if (pQueue == null) {
+                SessionQueue newQueue = new SessionQueue(defaultCapacity, defaultPolicy, CaptureFilter.ALL);
+                pQueue = msgQueues.putIfAbsent(sid, newQueue);
+                if (pQueue == null) {
+                    pQueue = newQueue;
+                }
             }
 
-            log.debug("pushMessageSync: SessionId: " + sid + 
-                      " Receive a message, " + msg.toString() + "\n");
-            ByteBuffer bb = ByteBuffer.wrap(msg.getPacket().getData());
-            //ByteBuffer dst = ByteBuffer.wrap(msg.getPacket().toString().getBytes());
-            BlockingQueue<ByteBuffer> queue = pQueue.getQueue();
-            if (queue != null) {
-                if (!queue.offer(bb)) {
-                    log.error("Failed to queue message for session: " + sid);
-                } else {
-                    log.debug("insert a message to session: " + sid);
-                }
-            } else {
-                log.error("queue for session {} is null", sid);
+            if (!pQueue.getFilter().matches(msg.getPacket())) {
+                continue;
+            }
+            if (log.isTraceEnabled()) {
+                log.trace("pushMessageSync: SessionId: {} Receive a message, {}", sid, msg);
+            }
+            ByteBuffer bb = data == null ? ByteBuffer.allocate(0) : data.duplicate();
+            if (!pQueue.offer(bb, false)) {
+                log.debug("Session {} is full, dropped a message", sid);
             }
         }
 
@@ -187,15 +367,9 @@ public class PacketStreamerHandler implements PacketStreamer.Iface {
         log.debug("terminateSession: SessionId: " + sessionid + "\n");
         String data = "FilterTimeout";
         ByteBuffer bb = ByteBuffer.wrap(data.getBytes());
-        BlockingQueue<ByteBuffer> queue = pQueue.getQueue();
-        if (queue != null) {
-            if (!queue.offer(bb)) {
-                log.error("Failed to queue message for session: " + sessionid);
-            }
-            msgQueues.remove(sessionid);
-        } else {
-            log.error("queue for session {} is null", sessionid);
-        }
+        // The end marker always makes it to the consumer, even if the queue is full
+        pQueue.offer(bb, true);
+        msgQueues.remove(sessionid);
     }
 }
 
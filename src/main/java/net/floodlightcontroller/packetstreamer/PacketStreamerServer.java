@@ -48,7 +48,12 @@ public class PacketStreamerServer {
         try {
             port = Integer.parseInt(System.getProperty("net.floodlightcontroller.packetstreamer.port", "9090"));
             
-            handler = new PacketStreamerHandler();
+            int capacity = Integer.parseInt(System.getProperty("net.floodlightcontroller.packetstreamer.queueCapacity",
+                    String.valueOf(PacketStreamerHandler.DEFAULT_QUEUE_CAPACITY)));
+            PacketStreamerHandler.OverflowPolicy policy = PacketStreamerHandler.OverflowPolicy.valueOf(
+                    System.getProperty("net.floodlightcontroller.packetstreamer.overflowPolicy", "DROP_OLDEST"));
+            
+            handler = new PacketStreamerHandler(capacity, policy);
             processor = new PacketStreamer.Processor<PacketStreamerHandler>(handler);
 
             Runnable simple = new Runnable() {
@@ -19,6 +19,7 @@ package net.floodlightcontroller.perfmon;
 import java.util.List;
 
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IOFMessageListener;
@@ -55,4 +56,27 @@ public interface IPktInProcessingTimeService extends IFloodlightService {
     public void setEnabled(boolean enabled);
     
     public CumulativeTimeBucket getCtb();
+
+    /**
+     * Records the time a listener took to process a message into the
+     * latency histograms. Unlike the time buckets above, these are always
+     * on, whether or not the service is enabled.
+     * @param listener the listener that processed the message
+     * @param type the message type
+     * @param procTimeNs the processing time in ns
+     */
+    public void recordListenerTime(IOFMessageListener listener, OFType type, long procTimeNs);
+
+    /**
+     * Records the time the whole listener chain took to process a message.
+     * @param type the message type
+     * @param procTimeNs the processing time in ns
+     */
+    public void recordMessageTime(OFType type, long procTimeNs);
+
+    /**
+     * @return the latency percentiles per listener and message type over
+     * the rolling window
+     */
+    public List<LatencySummary> getLatencySummaries();
 }
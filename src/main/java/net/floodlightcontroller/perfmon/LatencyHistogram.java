@@ -0,0 +1,131 @@
+package net.floodlightcontroller.perfmon;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of latencies in nanoseconds, in the style of
+ * HdrHistogram. Every power of two is split into SUB_BUCKET_COUNT linear
+ * sub-buckets, so a recorded value is known to within 1/SUB_BUCKET_COUNT
+ * (about 3%) of itself, whatever its magnitude. Recording is an index
+ * computation and an array increment.
+ *
+ * Values above MAX_TRACKABLE_NS (about 68s) are clamped to it.
+ *
+ * Not thread-safe; callers synchronize on the instance when it is shared.
+ */
+public class LatencyHistogram {
+    protected static final int SUB_BUCKET_BITS = 5;
+    protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    protected static final int MAX_TRACKABLE_BITS = 36;
+    protected static final long MAX_TRACKABLE_NS = (1L << MAX_TRACKABLE_BITS) - 1;
+    protected static final int BUCKET_COUNT =
+            (MAX_TRACKABLE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long sumNs;
+    private long maxNs;
+
+    /**
+     * Values below SUB_BUCKET_COUNT get a bucket each. Above that, the
+     * highest bit selects a row of SUB_BUCKET_COUNT buckets and the next
+     * SUB_BUCKET_BITS bits select the bucket in the row.
+     */
+    protected static int indexOf(long valueNs) {
+        if (valueNs < SUB_BUCKET_COUNT) {
+            return (int) valueNs;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(valueNs)) - SUB_BUCKET_BITS;
+        int sub = (int) (valueNs >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    /**
+     * @return the largest value that maps to the bucket at index
+     */
+    protected static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long sub = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + sub) << shift) + (1L << shift) - 1;
+    }
+
+    public void record(long valueNs) {
+        if (valueNs < 0) {
+            valueNs = 0; /* nanoTime is monotonic, but be safe */
+        } else if (valueNs > MAX_TRACKABLE_NS) {
+            valueNs = MAX_TRACKABLE_NS;
+        }
+        counts[indexOf(valueNs)]++;
+        totalCount++;
+        sumNs += valueNs;
+        if (valueNs > maxNs) {
+            maxNs = valueNs;
+        }
+    }
+
+    /**
+     * Adds all values recorded in another histogram to this one.
+     * @param other the histogram to merge in, left unchanged
+     */
+    public void add(LatencyHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sumNs += other.sumNs;
+        if (other.maxNs > maxNs) {
+            maxNs = other.maxNs;
+        }
+    }
+
+    public void clear() {
+        if (totalCount == 0) {
+            return;
+        }
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sumNs = 0;
+        maxNs = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    public long getMeanNs() {
+        return totalCount == 0 ? 0 : sumNs / totalCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound of the value at the percentile, within the
+     * precision of its bucket, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), maxNs);
+            }
+        }
+        return maxNs;
+    }
+}
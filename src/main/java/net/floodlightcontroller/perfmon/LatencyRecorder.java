@@ -0,0 +1,169 @@
+package net.floodlightcontroller.perfmon;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Records message processing latencies per listener and per message type
+ * into {@link LatencyHistogram}s, cheaply enough to stay always on.
+ *
+ * Each thread records into its own buffer of histograms, under a lock that
+ * is only ever contended by merge(). merge() drains the thread buffers into
+ * a rolling window of windowIntervals intervals of intervalNs each, dropping
+ * the oldest interval as time moves on. It must run at least once an
+ * interval for latencies to be attributed to the right interval.
+ */
+public class LatencyRecorder {
+    /** Listener name under which the time spent in the whole listener chain is recorded */
+    public static final String TOTAL = "total";
+
+    private final int windowIntervals;
+    private final long intervalNs;
+
+    private static class ThreadBuffer {
+        private final Map<String, EnumMap<OFType, LatencyHistogram>> histograms =
+                new HashMap<String, EnumMap<OFType, LatencyHistogram>>();
+    }
+
+    private final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<ThreadBuffer>();
+    private final ThreadLocal<ThreadBuffer> localBuffer = new ThreadLocal<ThreadBuffer>() {
+        @Override
+        protected ThreadBuffer initialValue() {
+            ThreadBuffer buffer = new ThreadBuffer();
+            buffers.add(buffer);
+            return buffer;
+        }
+    };
+
+    /* Listener -> type -> one histogram per interval of the window, guarded by this */
+    private final Map<String, EnumMap<OFType, LatencyHistogram[]>> window =
+            new TreeMap<String, EnumMap<OFType, LatencyHistogram[]>>();
+    private int currentInterval;
+    private long currentIntervalStartNs;
+
+    public LatencyRecorder(int windowIntervals, long intervalNs) {
+        if (windowIntervals < 1 || intervalNs <= 0) {
+            throw new IllegalArgumentException("Window must have at least one interval of positive length");
+        }
+        this.windowIntervals = windowIntervals;
+        this.intervalNs = intervalNs;
+        this.currentIntervalStartNs = System.nanoTime();
+    }
+
+    /**
+     * Records the time one listener took to process a message.
+     * @param listener the listener name, or TOTAL
+     * @param type the message type
+     * @param latencyNs the processing time
+     */
+    public void record(String listener, OFType type, long latencyNs) {
+        ThreadBuffer buffer = localBuffer.get();
+        synchronized (buffer) {
+            EnumMap<OFType, LatencyHistogram> byType = buffer.histograms.get(listener);
+            if (byType == null) {
+                byType = new EnumMap<OFType, LatencyHistogram>(OFType.class);
+                buffer.histograms.put(listener, byType);
+            }
+            LatencyHistogram h = byType.get(type);
+            if (h == null) {
+                h = new LatencyHistogram();
+                byType.put(type, h);
+            }
+            h.record(latencyNs);
+        }
+    }
+
+    /**
+     * Drains the thread buffers into the current interval and rolls the
+     * window forward if the interval is over.
+     * @return true if the window moved to a new interval
+     */
+    public boolean merge() {
+        return merge(System.nanoTime());
+    }
+
+    protected synchronized boolean merge(long nowNs) {
+        for (ThreadBuffer buffer : buffers) {
+            synchronized (buffer) {
+                for (Map.Entry<String, EnumMap<OFType, LatencyHistogram>> e : buffer.histograms.entrySet()) {
+                    for (Map.Entry<OFType, LatencyHistogram> te : e.getValue().entrySet()) {
+                        if (te.getValue().getTotalCount() > 0) {
+                            getIntervals(e.getKey(), te.getKey())[currentInterval].add(te.getValue());
+                            te.getValue().clear();
+                        }
+                    }
+                }
+            }
+        }
+        return advance(nowNs);
+    }
+
+    private LatencyHistogram[] getIntervals(String listener, OFType type) {
+        EnumMap<OFType, LatencyHistogram[]> byType = window.get(listener);
+        if (byType == null) {
+            byType = new EnumMap<OFType, LatencyHistogram[]>(OFType.class);
+            window.put(listener, byType);
+        }
+        LatencyHistogram[] intervals = byType.get(type);
+        if (intervals == null) {
+            intervals = new LatencyHistogram[windowIntervals];
+            for (int i = 0; i < windowIntervals; i++) {
+                intervals[i] = new LatencyHistogram();
+            }
+            byType.put(type, intervals);
+        }
+        return intervals;
+    }
+
+    private boolean advance(long nowNs) {
+        long elapsed = nowNs - currentIntervalStartNs;
+        if (elapsed < intervalNs) {
+            return false;
+        }
+        /* Skip at most a full window; anything older is gone anyway */
+        long steps = Math.min(elapsed / intervalNs, windowIntervals);
+        for (long s = 0; s < steps; s++) {
+            currentInterval = (currentInterval + 1) % windowIntervals;
+            for (EnumMap<OFType, LatencyHistogram[]> byType : window.values()) {
+                for (LatencyHistogram[] intervals : byType.values()) {
+                    intervals[currentInterval].clear();
+                }
+            }
+        }
+        currentIntervalStartNs = nowNs - (elapsed % intervalNs);
+        return true;
+    }
+
+    /**
+     * @return the latency percentiles over the window for every listener
+     * and message type seen, ordered by listener then type
+     */
+    public List<LatencySummary> getSummaries() {
+        return getSummaries(System.nanoTime());
+    }
+
+    protected synchronized List<LatencySummary> getSummaries(long nowNs) {
+        merge(nowNs);
+        List<LatencySummary> summaries = new ArrayList<LatencySummary>();
+        LatencyHistogram total = new LatencyHistogram();
+        for (Map.Entry<String, EnumMap<OFType, LatencyHistogram[]>> e : window.entrySet()) {
+            for (Map.Entry<OFType, LatencyHistogram[]> te : e.getValue().entrySet()) {
+                total.clear();
+                for (LatencyHistogram h : te.getValue()) {
+                    total.add(h);
+                }
+                if (total.getTotalCount() > 0) {
+                    summaries.add(new LatencySummary(e.getKey(), te.getKey().toString(), total));
+                }
+            }
+        }
+        return summaries;
+    }
+}
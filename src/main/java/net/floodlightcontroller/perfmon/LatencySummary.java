@@ -0,0 +1,70 @@
+package net.floodlightcontroller.perfmon;
+
+/**
+ * Latency percentiles of one listener for one message type over the
+ * rolling window of a {@link LatencyRecorder}. All times are in ns.
+ */
+public class LatencySummary {
+    private final String listener;
+    private final String type;
+    private final long count;
+    private final long meanNs;
+    private final long p50Ns;
+    private final long p99Ns;
+    private final long p999Ns;
+    private final long maxNs;
+
+    LatencySummary(String listener, String type, LatencyHistogram h) {
+        this.listener = listener;
+        this.type = type;
+        this.count = h.getTotalCount();
+        this.meanNs = h.getMeanNs();
+        this.p50Ns = h.getValueAtPercentile(50.0);
+        this.p99Ns = h.getValueAtPercentile(99.0);
+        this.p999Ns = h.getValueAtPercentile(99.9);
+        this.maxNs = h.getMaxNs();
+    }
+
+    /**
+     * @return the listener name, or LatencyRecorder.TOTAL for the whole
+     * listener chain
+     */
+    public String getListener() {
+        return listener;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNs() {
+        return meanNs;
+    }
+
+    public long getP50Ns() {
+        return p50Ns;
+    }
+
+    public long getP99Ns() {
+        return p99Ns;
+    }
+
+    public long getP999Ns() {
+        return p999Ns;
+    }
+
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySummary [listener=" + listener + ", type=" + type
+                + ", count=" + count + ", p50Ns=" + p50Ns + ", p99Ns=" + p99Ns
+                + ", p999Ns=" + p999Ns + ", maxNs=" + maxNs + "]";
+    }
+}
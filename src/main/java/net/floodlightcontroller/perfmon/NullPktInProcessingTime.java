@@ -18,11 +18,13 @@ package net.floodlightcontroller.perfmon;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IOFMessageListener;
@@ -127,4 +129,20 @@ public class NullPktInProcessingTime
     public CumulativeTimeBucket getCtb() {
         return ctb;
     }
+
+    @Override
+    public void recordListenerTime(IOFMessageListener listener, OFType type,
+                                   long procTimeNs) {
+
+    }
+
+    @Override
+    public void recordMessageTime(OFType type, long procTimeNs) {
+
+    }
+
+    @Override
+    public List<LatencySummary> getLatencySummaries() {
+        return Collections.emptyList();
+    }
 }
@@ -0,0 +1,22 @@
+package net.floodlightcontroller.perfmon;
+
+import java.util.List;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Return the latency percentiles per listener and message type over the
+ * rolling window. These are recorded whether or not the performance
+ * monitor is enabled.
+ */
+public class PerfMonLatencyResource extends ServerResource {
+
+    @Get("json")
+    public List<LatencySummary> retrieve() {
+        IPktInProcessingTimeService pktinProcTime =
+            (IPktInProcessingTimeService)getContext().getAttributes().
+                get(IPktInProcessingTimeService.class.getCanonicalName());
+        return pktinProcTime.getLatencySummaries();
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -33,7 +34,10 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
 
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFType;
@@ -63,6 +67,11 @@ import org.slf4j.LoggerFactory;
  * TOT_PROC_TIME_ALERT_THRESHOLD_US: same as above but an alert level
  *    syslog is generated instead
  * 
+ * Independently of the buckets, per-listener and per-message-type latency
+ * histograms are always recorded by a LatencyRecorder over a rolling window
+ * of LATENCY_WINDOW_INTERVALS buckets. Their percentiles are served over
+ * REST and published to the debug counter tree after every bucket.
+ * 
  */
 public class PktInProcessingTime
     implements IFloodlightModule, IPktInProcessingTimeService {
@@ -71,6 +80,8 @@ public class PktInProcessingTime
 	protected IFloodlightProviderService floodlightProvider;
     // Our dependencies
     private IRestApiService restApi;
+    private IDebugCounterService debugCounterService;
+    private IThreadPoolService threadPoolService;
     
     protected long ptWarningThresholdInNano;
 
@@ -79,6 +90,8 @@ public class PktInProcessingTime
     public static final String COLUMN_ID = "id";
     public static final String COLUMN_PERF_MON = "performance_monitor_feature";
     
+    private static final String PACKAGE = PktInProcessingTime.class.getPackage().getName();
+
     protected static  Logger  logger = 
         LoggerFactory.getLogger(PktInProcessingTime.class);
     
@@ -95,7 +108,21 @@ public class PktInProcessingTime
      */
     protected static final int ONE_BUCKET_DURATION_SECONDS = 10;// seconds
     protected static final long ONE_BUCKET_DURATION_NANOSECONDS  =
-                                ONE_BUCKET_DURATION_SECONDS * 1000000000;
+                                ONE_BUCKET_DURATION_SECONDS * 1000000000L;
+
+    /* The latency window covers LATENCY_WINDOW_INTERVALS * 10s = 1min */
+    protected static final int LATENCY_WINDOW_INTERVALS = 6;
+    protected static final int LATENCY_MERGE_INTERVAL_MS = 1000;
+    protected static final String LATENCY_COUNTER_ROOT = "latency";
+    private static final String[] LATENCY_COUNTER_NAMES = {
+        "count", "p50-ns", "p99-ns", "p999-ns", "max-ns"
+    };
+
+    protected final LatencyRecorder latencyRecorder =
+            new LatencyRecorder(LATENCY_WINDOW_INTERVALS, ONE_BUCKET_DURATION_NANOSECONDS);
+    /* listener/type -> counters in LATENCY_COUNTER_NAMES order, only used by the merge task */
+    private final Map<String, IDebugCounter[]> latencyCounters =
+            new HashMap<String, IDebugCounter[]>();
 
     @Override
     public void bootstrap() {
@@ -166,6 +193,70 @@ public class PktInProcessingTime
         }
     }
     
+    @Override
+    public void recordListenerTime(IOFMessageListener listener, OFType type,
+                                   long procTimeNs) {
+        latencyRecorder.record(listener.getName(), type, procTimeNs);
+    }
+
+    @Override
+    public void recordMessageTime(OFType type, long procTimeNs) {
+        latencyRecorder.record(LatencyRecorder.TOTAL, type, procTimeNs);
+    }
+
+    @Override
+    public List<LatencySummary> getLatencySummaries() {
+        return latencyRecorder.getSummaries();
+    }
+
+    /**
+     * Mirrors the latency percentiles of the window into the debug counter
+     * tree, under latency/listener/type. Counters of listeners and types
+     * with no messages in the window are zeroed.
+     */
+    protected void publishLatencyCounters() {
+        Map<String, IDebugCounter[]> stale = new HashMap<String, IDebugCounter[]>(latencyCounters);
+        for (LatencySummary summary : latencyRecorder.getSummaries()) {
+            String hierarchy = summary.getListener() + "/" + summary.getType();
+            stale.remove(hierarchy);
+            IDebugCounter[] counters = latencyCounters.get(hierarchy);
+            if (counters == null) {
+                counters = registerLatencyCounters(summary.getListener(), summary.getType());
+                latencyCounters.put(hierarchy, counters);
+            }
+            long[] values = { summary.getCount(), summary.getP50Ns(),
+                    summary.getP99Ns(), summary.getP999Ns(), summary.getMaxNs() };
+            for (int i = 0; i < counters.length; i++) {
+                counters[i].set(values[i]);
+            }
+        }
+        for (IDebugCounter[] counters : stale.values()) {
+            for (IDebugCounter counter : counters) {
+                counter.set(0);
+            }
+        }
+    }
+
+    private IDebugCounter[] registerLatencyCounters(String listener, String type) {
+        String listenerLevel = LATENCY_COUNTER_ROOT + "/" + listener;
+        String typeLevel = listenerLevel + "/" + type;
+        /* Registering an existing level again would reset the levels below it */
+        if (debugCounterService.getCounterHierarchy(PACKAGE, listenerLevel).isEmpty()) {
+            debugCounterService.registerCounter(PACKAGE, listenerLevel,
+                    "Processing latencies of listener " + listener);
+        }
+        debugCounterService.registerCounter(PACKAGE, typeLevel,
+                "Processing latencies of listener " + listener + " for " + type + " messages");
+        IDebugCounter[] counters = new IDebugCounter[LATENCY_COUNTER_NAMES.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = debugCounterService.registerCounter(PACKAGE,
+                    typeLevel + "/" + LATENCY_COUNTER_NAMES[i],
+                    "Latency " + LATENCY_COUNTER_NAMES[i] + " of listener " + listener
+                    + " for " + type + " messages over the last minute");
+        }
+        return counters;
+    }
+
     // IFloodlightModule methods
     
     @Override
@@ -194,6 +285,8 @@ public class PktInProcessingTime
                 new ArrayList<Class<? extends IFloodlightService>>();
         l.add(IRestApiService.class);
         l.add(IFloodlightProviderService.class);
+        l.add(IDebugCounterService.class);
+        l.add(IThreadPoolService.class);
         return l;
     }
     
@@ -203,6 +296,8 @@ public class PktInProcessingTime
     	floodlightProvider = context
                 .getServiceImpl(IFloodlightProviderService.class);
         restApi = context.getServiceImpl(IRestApiService.class);
+        debugCounterService = context.getServiceImpl(IDebugCounterService.class);
+        threadPoolService = context.getServiceImpl(IThreadPoolService.class);
     }
     
     @Override
@@ -217,5 +312,21 @@ public class PktInProcessingTime
             logger.info("Packet processing time threshold for warning" +
             		" set to {} ms.", ptWarningThresholdInNano/1000000);
         }
+
+        debugCounterService.registerModule(PACKAGE);
+        debugCounterService.registerCounter(PACKAGE, LATENCY_COUNTER_ROOT,
+                "Message processing latencies per listener and message type");
+        threadPoolService.getScheduledExecutor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (latencyRecorder.merge()) {
+                        publishLatencyCounters();
+                    }
+                } catch (Exception e) {
+                    logger.error("Exception merging latency histograms", e);
+                }
+            }
+        }, LATENCY_MERGE_INTERVAL_MS, LATENCY_MERGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,189 @@
+package net.floodlightcontroller.restserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import net.floodlightcontroller.restserver.PageRequest.KeyFunction;
+import net.floodlightcontroller.restserver.PageRequest.Page;
+
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Reference;
+import org.restlet.data.Tag;
+import org.restlet.representation.OutputRepresentation;
+import org.restlet.resource.ServerResource;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Writes a page of a collection as JSON, one item at a time through a
+ * JsonGenerator, instead of building an object tree of the whole document
+ * first.
+ *
+ * Items are written as a JSON array, or as an object from item key to item
+ * when keyed, optionally wrapped in an object under an envelope field. When
+ * the request asks for fields, object items are cut down to those fields.
+ *
+ * respond() must be called before the representation is returned from the
+ * resource. It adds a Link header to the next page, if any. A limited page
+ * is at most {@link PageRequest#MAX_LIMIT} items, so it is serialized once
+ * into a buffer and tagged with a hash of those bytes, so that Restlet
+ * answers a matching If-None-Match with 304 Not Modified and no body; the
+ * buffered bytes are what is sent, so the tag always matches the body.
+ * Without a limit the page can be the whole collection, so it is written
+ * straight to the response and is not tagged.
+ */
+public class JsonCollectionRepresentation<T> extends OutputRepresentation {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Page<T> page;
+    private final PageRequest request;
+    private String envelope;
+    private KeyFunction<? super T> keys;
+    private ItemWriter<? super T> writer = new ItemWriter<T>();
+    private byte[] content;
+
+    /**
+     * Writes one item. By default, the item is serialized by Jackson,
+     * honoring its JsonSerialize annotation.
+     */
+    public static class ItemWriter<T> {
+        /**
+         * Called once on the generator before any item is written.
+         */
+        public void configure(JsonGenerator jGen) {
+        }
+
+        public void write(JsonGenerator jGen, T item) throws IOException {
+            jGen.writeObject(item);
+        }
+    }
+
+    public JsonCollectionRepresentation(Page<T> page, PageRequest request) {
+        super(MediaType.APPLICATION_JSON);
+        this.page = page;
+        this.request = request;
+    }
+
+    /**
+     * Wraps the items in an object, under the given field.
+     */
+    public JsonCollectionRepresentation<T> setEnvelope(String field) {
+        this.envelope = field;
+        return this;
+    }
+
+    /**
+     * Writes the items as an object from key to item instead of an array.
+     */
+    public JsonCollectionRepresentation<T> setKeyedBy(KeyFunction<? super T> keys) {
+        this.keys = keys;
+        return this;
+    }
+
+    public JsonCollectionRepresentation<T> setItemWriter(ItemWriter<? super T> writer) {
+        this.writer = writer;
+        return this;
+    }
+
+    /**
+     * Links the next page on the response, and tags the representation
+     * when the page is limited. A limited page is serialized once, into
+     * the buffer that is later sent.
+     * @param resource the resource answering the request
+     * @return this
+     */
+    public JsonCollectionRepresentation<T> respond(ServerResource resource) throws IOException {
+        if (request.getLimit() > 0) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeItems(buffer);
+            content = buffer.toByteArray();
+            setSize(content.length);
+            StringBuilder tag = new StringBuilder();
+            for (byte b : digest.digest(content)) {
+                tag.append(String.format("%02x", b));
+            }
+            setTag(new Tag(tag.toString(), false));
+        }
+
+        if (page.getNextCursor() != null) {
+            Reference next = new Reference(resource.getReference());
+            Form query = next.getQueryAsForm();
+            query.removeAll(PageRequest.PARAM_CURSOR);
+            query.add(PageRequest.PARAM_CURSOR, page.getNextCursor());
+            next.setQuery(query.getQueryString());
+            resource.getResponse().getHeaders().add("Link", "<" + next + ">; rel=\"next\"");
+        }
+        return this;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        if (content != null) {
+            out.write(content);
+        } else {
+            writeItems(out);
+        }
+    }
+
+    private void writeItems(OutputStream out) throws IOException {
+        JsonGenerator jGen = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        writer.configure(jGen);
+        if (envelope != null) {
+            jGen.writeStartObject();
+            jGen.writeFieldName(envelope);
+        }
+        if (keys != null) {
+            jGen.writeStartObject();
+        } else {
+            jGen.writeStartArray();
+        }
+
+        for (T item : page.getItems()) {
+            if (keys != null) {
+                jGen.writeFieldName(keys.keyOf(item));
+            }
+            if (request.getFields().isEmpty()) {
+                writer.write(jGen, item);
+            } else {
+                writeProjected(jGen, item);
+            }
+        }
+
+        if (keys != null) {
+            jGen.writeEndObject();
+        } else {
+            jGen.writeEndArray();
+        }
+        if (envelope != null) {
+            jGen.writeEndObject();
+        }
+        jGen.flush();
+    }
+
+    /* Only this item is ever buffered, as a token stream rather than as text */
+    private void writeProjected(JsonGenerator jGen, T item) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(mapper, false);
+        writer.configure(buffer);
+        writer.write(buffer, item);
+        JsonNode node = mapper.readTree(buffer.asParser());
+        if (node instanceof ObjectNode) {
+            ((ObjectNode) node).retain(request.getFields());
+        }
+        jGen.writeTree(node);
+    }
+}
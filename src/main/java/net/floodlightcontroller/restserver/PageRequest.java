@@ -0,0 +1,237 @@
+package net.floodlightcontroller.restserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.restlet.data.Form;
+
+/**
+ * The paging and projection parameters of a GET on a collection resource:
+ * <ul>
+ * <li>limit: the maximum number of items to return, all if absent</li>
+ * <li>cursor: only return items whose key sorts after this one; the
+ *     cursor of the next page is given in the Link header of a response</li>
+ * <li>fields: a comma-separated list of the fields to keep in each item</li>
+ * </ul>
+ *
+ * Cursors are item keys rather than offsets, so that a page is stable while
+ * items are added or removed elsewhere in the collection. Keys must be
+ * unique and compare in the order pages should be served.
+ */
+public class PageRequest {
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_CURSOR = "cursor";
+    public static final String PARAM_FIELDS = "fields";
+    public static final int MAX_LIMIT = 10000;
+
+    private static final PageRequest ALL = new PageRequest(0, null, Collections.<String>emptySet());
+
+    private final int limit;
+    private final String cursor;
+    private final Set<String> fields;
+
+    /**
+     * Extracts the key an item is paged by.
+     */
+    public interface KeyFunction<T> {
+        public String keyOf(T item);
+    }
+
+    /**
+     * One page of a collection, and the cursor to the next one.
+     */
+    public static class Page<T> {
+        private final Iterable<T> items;
+        private final String nextCursor;
+
+        public Page(Iterable<T> items, String nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+
+        public Iterable<T> getItems() {
+            return items;
+        }
+
+        /**
+         * @return the cursor to request the next page with, or null on the last page
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    public PageRequest(int limit, String cursor, Set<String> fields) {
+        this.limit = limit;
+        this.cursor = cursor;
+        this.fields = fields;
+    }
+
+    /**
+     * @return a request for the whole collection, with all fields
+     */
+    public static PageRequest all() {
+        return ALL;
+    }
+
+    /**
+     * Parses the paging parameters of a request.
+     * @param query the query of the request
+     * @return the page request
+     * @throws IllegalArgumentException if a parameter is malformed
+     */
+    public static PageRequest fromQuery(Form query) {
+        int limit = 0;
+        String limitStr = query.getFirstValue(PARAM_LIMIT, true);
+        if (limitStr != null) {
+            try {
+                limit = Integer.parseInt(limitStr.trim());
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("Invalid limit: must be an integer in the range 1-" + MAX_LIMIT);
+            }
+        }
+
+        String cursor = query.getFirstValue(PARAM_CURSOR, true);
+        if (cursor != null && cursor.isEmpty()) {
+            cursor = null;
+        }
+
+        Set<String> fields = new HashSet<String>();
+        String fieldsStr = query.getFirstValue(PARAM_FIELDS, true);
+        if (fieldsStr != null) {
+            for (String f : fieldsStr.split(",")) {
+                if (!f.trim().isEmpty()) {
+                    fields.add(f.trim());
+                }
+            }
+        }
+        return new PageRequest(limit, cursor, fields);
+    }
+
+    /**
+     * @return the maximum number of items in a page, or 0 for no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the key after which the page starts, or null for the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the fields to keep in each item, empty for all of them
+     */
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    public boolean isAfterCursor(String key) {
+        return cursor == null || key.compareTo(cursor) > 0;
+    }
+
+    /**
+     * Selects the requested page from a collection in any order.
+     *
+     * With a limit, the collection is scanned once and only the limit
+     * smallest keys after the cursor are kept, which are returned sorted.
+     * Without one, the page is a live view of the items after the cursor,
+     * in the order of the source, and can be iterated more than once.
+     *
+     * @param source the whole collection
+     * @param keys the key of each item
+     * @return the page
+     */
+    public <T> Page<T> select(final Iterable<T> source, final KeyFunction<? super T> keys) {
+        if (limit == 0) {
+            if (cursor == null) {
+                return new Page<T>(source, null);
+            }
+            return new Page<T>(new Iterable<T>() {
+                @Override
+                public Iterator<T> iterator() {
+                    return new AfterCursorIterator<T>(source.iterator(), keys);
+                }
+            }, null);
+        }
+
+        /* A max-heap of the limit + 1 smallest keys; the extra one tells if there is a next page */
+        Comparator<T> byKey = new Comparator<T>() {
+            @Override
+            public int compare(T a, T b) {
+                return keys.keyOf(a).compareTo(keys.keyOf(b));
+            }
+        };
+        PriorityQueue<T> smallest = new PriorityQueue<T>(limit + 1, Collections.reverseOrder(byKey));
+        for (T item : source) {
+            if (!isAfterCursor(keys.keyOf(item))) {
+                continue;
+            }
+            if (smallest.size() <= limit) {
+                smallest.add(item);
+            } else if (byKey.compare(item, smallest.peek()) < 0) {
+                smallest.poll();
+                smallest.add(item);
+            }
+        }
+
+        boolean more = smallest.size() > limit;
+        if (more) {
+            smallest.poll();
+        }
+        List<T> items = new ArrayList<T>(smallest);
+        Collections.sort(items, byKey);
+        String next = more ? keys.keyOf(items.get(items.size() - 1)) : null;
+        return new Page<T>(items, next);
+    }
+
+    private class AfterCursorIterator<T> implements Iterator<T> {
+        private final Iterator<T> source;
+        private final KeyFunction<? super T> keys;
+        private T next;
+
+        private AfterCursorIterator(Iterator<T> source, KeyFunction<? super T> keys) {
+            this.source = source;
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && source.hasNext()) {
+                T item = source.next();
+                if (isAfterCursor(keys.keyOf(item))) {
+                    next = item;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = next;
+            next = null;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -243,7 +243,7 @@ public class RestApiServer implements IFloodlightModule, IRestApiService {
 	// ***************
 
 	@Override
-	public void addRestletRoutable(RestletRoutable routable) {
+	public synchronized void addRestletRoutable(RestletRoutable routable) {
 		restlets.add(routable);
 	}
 
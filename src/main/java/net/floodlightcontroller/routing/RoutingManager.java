@@ -135,7 +135,7 @@ public class RoutingManager implements IFloodlightModule, IRoutingService {
      * @return 
      */
     @Override
-    public void addRoutingDecisionChangedListener(IRoutingDecisionChangedListener listener) {
+    public synchronized void addRoutingDecisionChangedListener(IRoutingDecisionChangedListener listener) {
         decisionChangedListeners.add(listener);
     }
     
@@ -146,7 +146,7 @@ public class RoutingManager implements IFloodlightModule, IRoutingService {
      * @return
      */
     @Override
-    public void removeRoutingDecisionChangedListener(IRoutingDecisionChangedListener listener) {
+    public synchronized void removeRoutingDecisionChangedListener(IRoutingDecisionChangedListener listener) {
         decisionChangedListeners.remove(listener);
     }
 
@@ -16,25 +16,63 @@
 
 package net.floodlightcontroller.staticentry.web;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import net.floodlightcontroller.core.web.ControllerSwitchesResource;
+import net.floodlightcontroller.restserver.JsonCollectionRepresentation;
+import net.floodlightcontroller.restserver.JsonCollectionRepresentation.ItemWriter;
+import net.floodlightcontroller.restserver.PageRequest;
+import net.floodlightcontroller.restserver.PageRequest.KeyFunction;
 import net.floodlightcontroller.staticentry.IStaticEntryPusherService;
 
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonGenerator.Feature;
+
 public class ListStaticEntriesResource extends ServerResource {
     protected static Logger log = LoggerFactory.getLogger(ListStaticEntriesResource.class);
-    
+
+    protected static final KeyFunction<Map.Entry<String, Map<String, OFMessage>>> SWITCH_KEY =
+            new KeyFunction<Map.Entry<String, Map<String, OFMessage>>>() {
+        @Override
+        public String keyOf(Map.Entry<String, Map<String, OFMessage>> entries) {
+            return entries.getKey();
+        }
+    };
+
+    /* Same output as SFPEntryMapSerializer, one switch at a time */
+    protected static final ItemWriter<Map.Entry<String, Map<String, OFMessage>>> SWITCH_ENTRIES_WRITER =
+            new ItemWriter<Map.Entry<String, Map<String, OFMessage>>>() {
+        @Override
+        public void configure(JsonGenerator jGen) {
+            jGen.configure(Feature.WRITE_NUMBERS_AS_STRINGS, true);
+        }
+
+        @Override
+        public void write(JsonGenerator jGen, Map.Entry<String, Map<String, OFMessage>> entries)
+                throws IOException {
+            SFPEntryMapSerializer.serializeSwitchEntries(jGen, entries.getValue());
+        }
+    };
+
+    /**
+     * Writes the entries as an object from switch DPID to its entries,
+     * paged by switch when a limit is given.
+     */
     @Get("json")
-    public SFPEntryMap ListStaticFlowEntries() {
+    public Representation ListStaticFlowEntries() throws IOException {
         IStaticEntryPusherService sfpService =
                 (IStaticEntryPusherService)getContext().getAttributes().
                     get(IStaticEntryPusherService.class.getCanonicalName());
@@ -42,19 +80,41 @@ public class ListStaticEntriesResource extends ServerResource {
         String param = (String) getRequestAttributes().get("switch");
         if (log.isDebugEnabled())
             log.debug("Listing all static flow/group entires for switch: " + param);
-        
+
+        PageRequest request;
+        try {
+            request = PageRequest.fromQuery(getQuery());
+        } catch (IllegalArgumentException e) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+
+        Map<String, Map<String, OFMessage>> entries;
         if (param.toLowerCase().equals("all")) {
-            return new SFPEntryMap(sfpService.getEntries());
+            entries = sfpService.getEntries();
         } else {
             try {
-                Map<String, Map<String, OFMessage>> retMap = new HashMap<String, Map<String, OFMessage>>();
-                retMap.put(param, sfpService.getEntries(DatapathId.of(param)));
-                return new SFPEntryMap(retMap);
-                
+                entries = new HashMap<String, Map<String, OFMessage>>();
+                entries.put(param, sfpService.getEntries(DatapathId.of(param)));
             } catch (NumberFormatException e){
                 setStatus(Status.CLIENT_ERROR_BAD_REQUEST, ControllerSwitchesResource.DPID_ERROR);
+                return null;
             }
         }
-        return null;
+
+        /* Switches without entries are left out, as SFPEntryMapSerializer does */
+        List<Map.Entry<String, Map<String, OFMessage>>> switches =
+                new ArrayList<Map.Entry<String, Map<String, OFMessage>>>(entries.size());
+        for (Map.Entry<String, Map<String, OFMessage>> e : entries.entrySet()) {
+            if (e.getValue() != null) {
+                switches.add(e);
+            }
+        }
+
+        return new JsonCollectionRepresentation<Map.Entry<String, Map<String, OFMessage>>>(
+                request.select(switches, SWITCH_KEY), request)
+                .setKeyedBy(SWITCH_KEY)
+                .setItemWriter(SWITCH_ENTRIES_WRITER)
+                .respond(this);
     }
 }
@@ -49,21 +49,31 @@ public class SFPEntryMapSerializer extends JsonSerializer<SFPEntryMap> {
 		if (theMap.keySet() != null) {
 			for (String dpid : theMap.keySet()) {
 				if (theMap.get(dpid) != null) {
-					jGen.writeArrayFieldStart(dpid);
-					for (String name : theMap.get(dpid).keySet()) {
-						jGen.writeStartObject();
-						jGen.writeFieldName(name);
-						if (theMap.get(dpid).get(name) instanceof OFFlowMod) {
-							OFFlowModSerializer.serializeFlowMod(jGen, (OFFlowMod) theMap.get(dpid).get(name));
-						} else if (theMap.get(dpid).get(name) instanceof OFGroupMod) {
-							OFGroupModSerializer.serializeGroupMod(jGen, (OFGroupMod) theMap.get(dpid).get(name));
-						}
-						jGen.writeEndObject();
-					}    
-					jGen.writeEndArray();
+					jGen.writeFieldName(dpid);
+					serializeSwitchEntries(jGen, theMap.get(dpid));
 				}
 			}
 		}
 		jGen.writeEndObject();
 	}
+
+	/**
+	 * Writes the entries of one switch as an array of single-field objects,
+	 * from entry name to the entry.
+	 */
+	public static void serializeSwitchEntries(JsonGenerator jGen, Map<String, OFMessage> entries)
+			throws IOException, JsonProcessingException {
+		jGen.writeStartArray();
+		for (Map.Entry<String, OFMessage> entry : entries.entrySet()) {
+			jGen.writeStartObject();
+			jGen.writeFieldName(entry.getKey());
+			if (entry.getValue() instanceof OFFlowMod) {
+				OFFlowModSerializer.serializeFlowMod(jGen, (OFFlowMod) entry.getValue());
+			} else if (entry.getValue() instanceof OFGroupMod) {
+				OFGroupModSerializer.serializeGroupMod(jGen, (OFGroupMod) entry.getValue());
+			}
+			jGen.writeEndObject();
+		}
+		jGen.writeEndArray();
+	}
 }
@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,9 +56,10 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     
     protected static final String DEFAULT_PRIMARY_KEY_NAME = "id";
     
-    private Map<String,String> tablePrimaryKeyMap = new HashMap<String,String>();
+    private Map<String,String> tablePrimaryKeyMap =
+        new ConcurrentHashMap<String,String>();
     private Map<String, Map<String,ColumnIndexMode>> tableIndexedColumnMap =
-        new HashMap<String,Map<String,ColumnIndexMode>>();
+        new ConcurrentHashMap<String,Map<String,ColumnIndexMode>>();
     
     abstract static class NoSqlPredicate {
 
@@ -596,10 +598,10 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
         return columnIndexMode;
     }
     
-    public void setColumnIndexMode(String tableName, String columnName, ColumnIndexMode indexMode) {
+    public synchronized void setColumnIndexMode(String tableName, String columnName, ColumnIndexMode indexMode) {
         Map<String, ColumnIndexMode> indexedColumnMap = tableIndexedColumnMap.get(tableName);
         if (indexedColumnMap == null) {
-            indexedColumnMap = new HashMap<String,ColumnIndexMode>();
+            indexedColumnMap = new ConcurrentHashMap<String,ColumnIndexMode>();
             tableIndexedColumnMap.put(tableName, indexedColumnMap);
         }
         indexedColumnMap.put(columnName, indexMode);
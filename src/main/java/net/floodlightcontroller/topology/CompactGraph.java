@@ -0,0 +1,440 @@
+/**
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.topology;
+
+import net.floodlightcontroller.linkdiscovery.Link;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compressed sparse row (CSR) representation of the switch graph, used by
+ * {@link TopologyInstance} for path computation.
+ *
+ * Switches are mapped to dense int indices in ascending DPID order and links
+ * to dense int edge indices. Outgoing and incoming edges of each switch are
+ * stored contiguously in int arrays, and link costs are kept in a primitive
+ * array, so searches allocate no per-node or per-link objects. Paths are
+ * produced as arrays of edge indices; callers materialize the links only
+ * for the results they hand out.
+ *
+ * A graph is immutable once built and may be shared by concurrent searches.
+ * All mutable search state lives in {@link Search}, one per thread.
+ */
+class CompactGraph {
+    private final DatapathId[] nodes;
+    private final Map<DatapathId, Integer> nodeIndex;
+
+    private final Link[] edges;
+    private final int[] edgeSrc;
+    private final int[] edgeDst;
+    private final int[] edgeCost;
+
+    /* Edges leaving node n are outEdges[outOffsets[n] .. outOffsets[n + 1]) */
+    private final int[] outOffsets;
+    private final int[] outEdges;
+    /* Edges entering node n are inEdges[inOffsets[n] .. inOffsets[n + 1]) */
+    private final int[] inOffsets;
+    private final int[] inEdges;
+
+    private final int maxPathWeight;
+
+    /**
+     * @param switches the switches in the graph
+     * @param links the links to include; links with an endpoint outside of
+     * switches are ignored
+     * @param linkCost cost of each link; links not in the map cost 1
+     * @param maxPathWeight distance at or above which a node is unreachable
+     */
+    CompactGraph(Collection<DatapathId> switches, Collection<Link> links,
+            Map<Link, Integer> linkCost, int maxPathWeight) {
+        this.maxPathWeight = maxPathWeight;
+
+        nodes = switches.toArray(new DatapathId[switches.size()]);
+        Arrays.sort(nodes);
+        nodeIndex = new HashMap<DatapathId, Integer>(nodes.length * 2);
+        for (int i = 0; i < nodes.length; i++) {
+            nodeIndex.put(nodes[i], i);
+        }
+
+        List<Link> included = new ArrayList<Link>(links.size());
+        for (Link l : links) {
+            if (nodeIndex.containsKey(l.getSrc()) && nodeIndex.containsKey(l.getDst())) {
+                included.add(l);
+            }
+        }
+
+        int m = included.size();
+        edges = included.toArray(new Link[m]);
+        edgeSrc = new int[m];
+        edgeDst = new int[m];
+        edgeCost = new int[m];
+        outOffsets = new int[nodes.length + 1];
+        inOffsets = new int[nodes.length + 1];
+
+        for (int e = 0; e < m; e++) {
+            edgeSrc[e] = nodeIndex.get(edges[e].getSrc());
+            edgeDst[e] = nodeIndex.get(edges[e].getDst());
+            Integer cost = linkCost == null ? null : linkCost.get(edges[e]);
+            edgeCost[e] = cost == null ? 1 : cost;
+            outOffsets[edgeSrc[e] + 1]++;
+            inOffsets[edgeDst[e] + 1]++;
+        }
+        for (int n = 0; n < nodes.length; n++) {
+            outOffsets[n + 1] += outOffsets[n];
+            inOffsets[n + 1] += inOffsets[n];
+        }
+
+        outEdges = new int[m];
+        inEdges = new int[m];
+        int[] outFill = Arrays.copyOf(outOffsets, nodes.length);
+        int[] inFill = Arrays.copyOf(inOffsets, nodes.length);
+        for (int e = 0; e < m; e++) {
+            outEdges[outFill[edgeSrc[e]]++] = e;
+            inEdges[inFill[edgeDst[e]]++] = e;
+        }
+    }
+
+    int getNodeCount() {
+        return nodes.length;
+    }
+
+    int getEdgeCount() {
+        return edges.length;
+    }
+
+    /**
+     * @return the index of the switch, or -1 if it is not in the graph
+     */
+    int indexOf(DatapathId sw) {
+        Integer i = nodeIndex.get(sw);
+        return i == null ? -1 : i;
+    }
+
+    DatapathId getNode(int n) {
+        return nodes[n];
+    }
+
+    Link getEdge(int e) {
+        return edges[e];
+    }
+
+    int getEdgeCost(int e) {
+        return edgeCost[e];
+    }
+
+    int getEdgeSrc(int e) {
+        return edgeSrc[e];
+    }
+
+    int getEdgeDst(int e) {
+        return edgeDst[e];
+    }
+
+    int getMaxPathWeight() {
+        return maxPathWeight;
+    }
+
+    long getPathCost(int[] path) {
+        long cost = 0;
+        for (int e : path) {
+            cost += edgeCost[e];
+        }
+        return cost;
+    }
+
+    Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * Per-thread search state: distances, tree edges, node and edge masks,
+     * and the heap. Reused across searches to avoid reallocation.
+     */
+    final class Search {
+        private final int[] dist;
+        private final int[] treeEdge;
+        private final boolean[] settled;
+        private final boolean[] nodeMasked;
+        private final boolean[] edgeMasked;
+        private final IndexedMinHeap heap;
+
+        private Search() {
+            dist = new int[nodes.length];
+            treeEdge = new int[nodes.length];
+            settled = new boolean[nodes.length];
+            nodeMasked = new boolean[nodes.length];
+            edgeMasked = new boolean[edges.length];
+            heap = new IndexedMinHeap(nodes.length);
+        }
+
+        void maskNode(int n) {
+            nodeMasked[n] = true;
+        }
+
+        void maskEdge(int e) {
+            edgeMasked[e] = true;
+        }
+
+        void clearMasks() {
+            Arrays.fill(nodeMasked, false);
+            Arrays.fill(edgeMasked, false);
+        }
+
+        /**
+         * Runs dijkstra's algorithm over the unmasked part of the graph.
+         *
+         * @param root the root node index
+         * @param isDstRooted if true, computes the cost from every node to
+         * root and getTreeEdge(n) is the first edge on the way from n to root;
+         * otherwise computes the cost from root to every node and getTreeEdge(n)
+         * is the last edge on the way from root to n
+         */
+        void dijkstra(int root, boolean isDstRooted) {
+            Arrays.fill(dist, maxPathWeight);
+            Arrays.fill(treeEdge, -1);
+            Arrays.fill(settled, false);
+            heap.clear();
+
+            dist[root] = 0;
+            heap.insertOrDecrease(root, 0);
+
+            while (!heap.isEmpty()) {
+                int cnode = heap.pollMin();
+                int cdist = dist[cnode];
+                if (cdist >= maxPathWeight) break;
+                settled[cnode] = true;
+
+                int[] offsets = isDstRooted ? inOffsets : outOffsets;
+                int[] adjacent = isDstRooted ? inEdges : outEdges;
+                for (int i = offsets[cnode]; i < offsets[cnode + 1]; i++) {
+                    int e = adjacent[i];
+                    if (edgeMasked[e]) continue;
+                    int neighbor = isDstRooted ? edgeSrc[e] : edgeDst[e];
+                    if (neighbor == cnode || settled[neighbor] || nodeMasked[neighbor]) continue;
+
+                    int ndist = cdist + edgeCost[e];
+                    if (ndist < dist[neighbor]) {
+                        dist[neighbor] = ndist;
+                        treeEdge[neighbor] = e;
+                        heap.insertOrDecrease(neighbor, ndist);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return cost from the last dijkstra, or the maximum path weight if unreachable
+         */
+        int getDist(int n) {
+            return dist[n];
+        }
+
+        /**
+         * @return tree edge from the last dijkstra, or -1 for the root and unreachable nodes
+         */
+        int getTreeEdge(int n) {
+            return treeEdge[n];
+        }
+
+        /**
+         * Follows the tree edges of the last destination-rooted dijkstra
+         * from node n to the root.
+         *
+         * @return the edges on the path, or null if n cannot reach the root
+         */
+        int[] getPathToRoot(int n, int root) {
+            if (dist[n] >= maxPathWeight) return null;
+            int[] path = new int[nodes.length];
+            int len = 0;
+            while (n != root) {
+                int e = treeEdge[n];
+                path[len++] = e;
+                n = edgeDst[e];
+            }
+            return Arrays.copyOf(path, len);
+        }
+
+        /**
+         * Yen's algorithm for the k shortest loop-free paths from src to dst.
+         *
+         * @return up to k paths as arrays of edge indices, ordered best to worst
+         */
+        List<int[]> getKShortestPaths(int src, int dst, int k) {
+            List<int[]> a = new ArrayList<int[]>();
+            List<int[]> b = new ArrayList<int[]>();
+            if (k < 1 || src == dst) return a;
+
+            clearMasks();
+            dijkstra(dst, true);
+            int[] shortest = getPathToRoot(src, dst);
+            if (shortest == null) return a;
+            a.add(shortest);
+
+            for (int j = 1; j < k; j++) {
+                int[] previous = a.get(j - 1);
+
+                /* The spur node is the source of the i-th edge of the previous path */
+                for (int i = 0; i < previous.length; i++) {
+                    int spurNode = edgeSrc[previous[i]];
+                    clearMasks();
+
+                    /* Remove the edges that would lead into paths already found from this root */
+                    for (int[] p : a) {
+                        if (p.length > i && prefixEquals(p, previous, i)) {
+                            maskEdge(p[i]);
+                        }
+                    }
+                    /* Remove the root path so the spur path cannot loop back through it */
+                    for (int r = 0; r < i; r++) {
+                        maskNode(edgeSrc[previous[r]]);
+                    }
+
+                    dijkstra(dst, true);
+                    int[] spurPath = getPathToRoot(spurNode, dst);
+                    if (spurPath == null) continue;
+
+                    int[] total = new int[i + spurPath.length];
+                    System.arraycopy(previous, 0, total, 0, i);
+                    System.arraycopy(spurPath, 0, total, i, spurPath.length);
+                    if (!containsPath(a, total) && !containsPath(b, total)) {
+                        b.add(total);
+                    }
+                }
+
+                if (b.isEmpty()) break;
+
+                int best = 0;
+                long bestCost = getPathCost(b.get(0));
+                for (int i = 1; i < b.size(); i++) {
+                    long cost = getPathCost(b.get(i));
+                    if (cost < bestCost) {
+                        best = i;
+                        bestCost = cost;
+                    }
+                }
+                a.add(b.remove(best));
+            }
+            return a;
+        }
+    }
+
+    private static boolean prefixEquals(int[] p1, int[] p2, int len) {
+        for (int i = 0; i < len; i++) {
+            if (p1[i] != p2[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsPath(List<int[]> paths, int[] path) {
+        for (int[] p : paths) {
+            if (Arrays.equals(p, path)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Binary min-heap over node indices with decrease-key. Ties are broken
+     * by node index, i.e. by DPID, as in the former NodeDist ordering.
+     */
+    static final class IndexedMinHeap {
+        private final int[] heap; /* heap slot -> node */
+        private final int[] slot; /* node -> heap slot, -1 if not queued */
+        private final int[] key;
+        private int size;
+
+        IndexedMinHeap(int capacity) {
+            heap = new int[capacity];
+            slot = new int[capacity];
+            key = new int[capacity];
+            Arrays.fill(slot, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                slot[heap[i]] = -1;
+            }
+            size = 0;
+        }
+
+        /**
+         * Queues the node with the given key, or lowers its key if already
+         * queued with a higher one.
+         */
+        void insertOrDecrease(int node, int k) {
+            if (slot[node] < 0) {
+                key[node] = k;
+                heap[size] = node;
+                slot[node] = size;
+                siftUp(size++);
+            } else if (k < key[node]) {
+                key[node] = k;
+                siftUp(slot[node]);
+            }
+        }
+
+        int pollMin() {
+            int min = heap[0];
+            slot[min] = -1;
+            if (--size > 0) {
+                heap[0] = heap[size];
+                slot[heap[0]] = 0;
+                siftDown(0);
+            }
+            return min;
+        }
+
+        private boolean less(int n1, int n2) {
+            return key[n1] < key[n2] || (key[n1] == key[n2] && n1 < n2);
+        }
+
+        private void siftUp(int i) {
+            int node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(node, heap[parent])) break;
+                heap[i] = heap[parent];
+                slot[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = node;
+            slot[node] = i;
+        }
+
+        private void siftDown(int i) {
+            int node = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && less(heap[child + 1], heap[child])) child++;
+                if (!less(heap[child], node)) break;
+                heap[i] = heap[child];
+                slot[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = node;
+            slot[node] = i;
+        }
+    }
+}
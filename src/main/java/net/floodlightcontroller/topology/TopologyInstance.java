@@ -16,11 +16,13 @@
 
 package net.floodlightcontroller.topology;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.types.NodePortTuple;
 import net.floodlightcontroller.linkdiscovery.Link;
 import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.IRoutingService.PATH_METRIC;
 import net.floodlightcontroller.routing.Path;
 import net.floodlightcontroller.routing.PathId;
 import net.floodlightcontroller.statistics.SwitchPortBandwidth;
@@ -35,6 +37,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
@@ -80,6 +85,8 @@ public class TopologyInstance {
     private Map<Cluster, Archipelago>           archipelagoFromCluster;
     private Map<DatapathId, Set<NodePortTuple>> portsBroadcastPerArchipelago; /* broadcast ports in each archipelago ID */
     private Map<PathId, List<Path>>             pathcache; /* contains computed paths ordered best to worst */
+    private int                                 maxPathsComputed; /* K used to fill the pathcache */
+    private CompactGraph                        graph; /* int-indexed graph that paths are searched on */
 
     protected TopologyInstance(Map<DatapathId, Set<OFPort>> portsWithLinks,
             Set<NodePortTuple> portsBlocked,
@@ -135,6 +142,8 @@ public class TopologyInstance {
         this.portsBroadcastPerArchipelago = new HashMap<DatapathId, Set<NodePortTuple>>();
 
         this.archipelagoFromCluster = new HashMap<Cluster, Archipelago>();
+
+        this.maxPathsComputed = TopologyManager.getMaxPathsToComputeInternal();
     }
 
     protected void compute() {
@@ -161,9 +170,10 @@ public class TopologyInstance {
 
         /*
          * Step 4: Use Yens algorithm to permute through each node combination
-         * within each archipelago and compute multiple paths. The shortest
-         * path located (i.e. first run of dijkstra's algorithm) will be used 
-         * as the broadcast tree for the archipelago.
+         * within each archipelago and compute multiple paths. Each archipelago
+         * also gets a broadcast tree, computed by running dijkstra's algorithm
+         * rooted at the archipelago ID switch. Sources and archipelagos are
+         * independent, so both run on the path computation pool if available.
          */
         computeOrderedPaths();
 
@@ -181,6 +191,281 @@ public class TopologyInstance {
         printTopology();
     }
 
+    /**
+     * Computes this instance from a previously computed one, provided the
+     * only differences are links added, removed or re-weighted within
+     * existing clusters. Clusters are seeded from the previous instance
+     * instead of rerunning Tarjan's algorithm, and Yen's algorithm is only
+     * rerun for the switch pairs whose cached paths could have changed:
+     * 
+     * - A removed or re-weighted link invalidates every pair with a cached
+     *   path that traverses it. Pairs that do not use the link keep their
+     *   paths, since removing a link cannot create a shorter path.
+     * - An added or re-weighted link (u, v) is only relevant to a pair (s, d)
+     *   if cost(s, u) + cost(u, v) + cost(v, d) does not exceed the cost of
+     *   the k-th cached path, where cost(s, u) and cost(v, d) come from one
+     *   dijkstra rooted at u and one rooted at v in the new graph.
+     * 
+     * If the update changes the switch set, broadcast domain or tunnel ports,
+     * inter-cluster links, or splits a cluster, nothing is modified and
+     * false is returned so that the caller can fall back to {@link #compute()}.
+     * 
+     * @param previous the instance currently published by the {@link TopologyManager}
+     * @return true if the incremental computation was performed, false otherwise
+     */
+    protected boolean computeIncremental(TopologyInstance previous) {
+        if (previous == null || previous.maxPathsComputed != maxPathsComputed) {
+            return false;
+        }
+
+        /* Link speed and utilization costs drift between instances; only static costs can be compared */
+        PATH_METRIC metric = TopologyManager.getPathMetricInternal();
+        if (metric != PATH_METRIC.HOPCOUNT && metric != PATH_METRIC.HOPCOUNT_AVOID_TUNNELS
+                && metric != PATH_METRIC.LATENCY) {
+            return false;
+        }
+
+        if (!switches.equals(previous.switches)
+                || !portsWithMoreThanTwoLinks.equals(previous.portsWithMoreThanTwoLinks)
+                || !portsTunnel.equals(previous.portsTunnel)
+                || !portsBlocked.equals(previous.portsBlocked)
+                || !flattenLinks(linksExternal).equals(flattenLinks(previous.linksExternal))) {
+            log.debug("Switches or broadcast domains changed. Incremental update not possible");
+            return false;
+        }
+
+        Map<Link, Integer> linkCost = initLinkCostMap();
+        Map<Link, Integer> previousLinkCost = previous.initLinkCostMap();
+        Set<Link> previousLinks = flattenLinks(previous.links);
+        Set<Link> currentLinks = flattenLinks(links);
+
+        /* A re-weighted link is treated as removed with its old cost and added with its new one */
+        Set<Link> linksRemoved = new HashSet<Link>(previousLinks);
+        linksRemoved.removeAll(currentLinks);
+        Set<Link> linksAdded = new HashSet<Link>();
+        for (Link l : currentLinks) {
+            if (!previousLinks.contains(l)) {
+                linksAdded.add(l);
+            } else if (getLinkCost(l, linkCost) != getLinkCost(l, previousLinkCost)) {
+                linksAdded.add(l);
+                linksRemoved.add(l);
+            }
+        }
+
+        /* Every changed link must stay within a single, existing cluster */
+        Set<Cluster> clustersWithRemovals = new HashSet<Cluster>();
+        for (Link l : linksAdded) {
+            Cluster c = previous.clusterFromSwitch.get(l.getSrc());
+            if (c == null || c != previous.clusterFromSwitch.get(l.getDst())
+                    || !containsLink(linksNonBcastNonTunnel, l)) {
+                log.debug("Link {} added outside of a cluster. Incremental update not possible", l);
+                return false;
+            }
+        }
+        for (Link l : linksRemoved) {
+            Cluster c = previous.clusterFromSwitch.get(l.getSrc());
+            if (c == null || c != previous.clusterFromSwitch.get(l.getDst())
+                    || !containsLink(previous.linksNonBcastNonTunnel, l)) {
+                log.debug("Link {} removed outside of a cluster. Incremental update not possible", l);
+                return false;
+            }
+            clustersWithRemovals.add(c);
+        }
+
+        /* Removing a link can split a strongly connected component */
+        for (Cluster c : clustersWithRemovals) {
+            if (!isStronglyConnected(c.getNodes())) {
+                log.debug("Cluster {} no longer strongly connected. Incremental update not possible", c);
+                return false;
+            }
+        }
+
+        log.debug("Incremental topology update: {} link(s) added, {} link(s) removed", 
+                linksAdded.size(), linksRemoved.size());
+
+        /*
+         * Steps 1 and 2: Cluster membership is unchanged. Seed it from
+         * the previous instance and reassign the links to the clusters.
+         */
+        for (Cluster pc : previous.clusters) {
+            Cluster c = new Cluster();
+            for (DatapathId sw : pc.getNodes()) {
+                c.add(sw);
+                clusterFromSwitch.put(sw, c);
+            }
+            clusters.add(c);
+        }
+        identifyIntraClusterLinks();
+
+        /* Step 3: Archipelagos are cheap to derive from the clusters */
+        identifyArchipelagos();
+
+        /* Step 4: Rerun Yen's algorithm only for the affected pairs */
+        graph = buildGraph(linkCost);
+        CompactGraph.Search search = graph.newSearch();
+        Set<PathId> affected = new HashSet<PathId>();
+
+        for (Entry<PathId, List<Path>> e : previous.pathcache.entrySet()) {
+            for (Path p : e.getValue()) {
+                if (traversesAny(p, linksRemoved)) {
+                    affected.add(e.getKey());
+                    break;
+                }
+            }
+        }
+
+        int[] toLinkSrc = new int[graph.getNodeCount()];
+        int[] fromLinkDst = new int[graph.getNodeCount()];
+        for (Link l : linksAdded) {
+            search.dijkstra(graph.indexOf(l.getSrc()), true);
+            for (int n = 0; n < toLinkSrc.length; n++) {
+                toLinkSrc[n] = search.getDist(n);
+            }
+            search.dijkstra(graph.indexOf(l.getDst()), false);
+            for (int n = 0; n < fromLinkDst.length; n++) {
+                fromLinkDst[n] = search.getDist(n);
+            }
+            int w = getLinkCost(l, linkCost);
+            Archipelago a = getArchipelago(l.getSrc());
+            if (a == null) continue;
+            Set<DatapathId> members = a.getSwitches();
+
+            for (DatapathId src : members) {
+                int toSrc = toLinkSrc[graph.indexOf(src)];
+                if (toSrc >= MAX_PATH_WEIGHT) continue;
+                for (DatapathId dst : members) {
+                    int fromDst = fromLinkDst[graph.indexOf(dst)];
+                    if (src.equals(dst) || fromDst >= MAX_PATH_WEIGHT) continue;
+
+                    PathId id = new PathId(src, dst);
+                    if (affected.contains(id)) continue;
+
+                    long bound = (long) toSrc + w + fromDst;
+                    List<Path> cached = previous.pathcache.get(id);
+                    if (cached == null || cached.size() < maxPathsComputed
+                            || bound <= getPathCost(cached.get(cached.size() - 1), linkCost)) {
+                        affected.add(id);
+                    }
+                }
+            }
+        }
+
+        pathcache.clear();
+        Map<DatapathId, Set<DatapathId>> dstsPerSrc = new HashMap<DatapathId, Set<DatapathId>>();
+        for (Archipelago a : archipelagos) {
+            Set<DatapathId> srcSws = a.getSwitches();
+            Set<DatapathId> dstSws = a.getSwitches();
+
+            for (DatapathId src : srcSws) {
+                for (DatapathId dst : dstSws) {
+                    PathId pathId = new PathId(src, dst);
+                    List<Path> paths = previous.pathcache.get(pathId);
+                    if (paths == null || affected.contains(pathId)) {
+                        Set<DatapathId> dsts = dstsPerSrc.get(src);
+                        if (dsts == null) {
+                            dsts = new HashSet<DatapathId>();
+                            dstsPerSrc.put(src, dsts);
+                        }
+                        dsts.add(dst);
+                    } else {
+                        pathcache.put(pathId, paths);
+                    }
+                }
+            }
+        }
+        computePaths(dstsPerSrc);
+        computeBroadcastTrees();
+        log.debug("Recomputed paths for {} of {} switch pairs", affected.size(), pathcache.size());
+
+        /* Step 5: Broadcast ports are derived from the trees and edge ports */
+        computeBroadcastPortsPerArchipelago();
+
+        /* Step 6: Optionally, print topology to log for added verbosity or when debugging */
+        printTopology();
+
+        return true;
+    }
+
+    private static Set<Link> flattenLinks(Map<NodePortTuple, Set<Link>> linkMap) {
+        Set<Link> result = new HashSet<Link>();
+        for (Set<Link> linkSet : linkMap.values()) {
+            result.addAll(linkSet);
+        }
+        return result;
+    }
+
+    private static boolean containsLink(Map<NodePortTuple, Set<Link>> linkMap, Link l) {
+        Set<Link> linkSet = linkMap.get(new NodePortTuple(l.getSrc(), l.getSrcPort()));
+        return linkSet != null && linkSet.contains(l);
+    }
+
+    /* Same default as dijkstra: links without an explicit cost weigh 1 */
+    private static int getLinkCost(Link l, Map<Link, Integer> linkCost) {
+        Integer cost = linkCost.get(l);
+        return cost == null ? 1 : cost;
+    }
+
+    private long getPathCost(Path p, Map<Link, Integer> linkCost) {
+        long cost = 0;
+        List<NodePortTuple> npts = p.getPath();
+        for (int i = 0; i <= npts.size() - 2; i = i + 2) {
+            Link l = new Link(npts.get(i).getNodeId(), npts.get(i).getPortId(),
+                    npts.get(i + 1).getNodeId(), npts.get(i + 1).getPortId(), U64.ZERO);
+            cost += getLinkCost(l, linkCost);
+        }
+        return cost;
+    }
+
+    private static boolean traversesAny(Path p, Set<Link> linkSet) {
+        if (linkSet.isEmpty()) return false;
+        List<NodePortTuple> npts = p.getPath();
+        for (int i = 0; i <= npts.size() - 2; i = i + 2) {
+            Link l = new Link(npts.get(i).getNodeId(), npts.get(i).getPortId(),
+                    npts.get(i + 1).getNodeId(), npts.get(i + 1).getPortId(), U64.ZERO);
+            if (linkSet.contains(l)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Checks that every switch in the set can reach, and be reached by, every
+     * other over the links considered by identifyClusters().
+     */
+    private boolean isStronglyConnected(Set<DatapathId> nodes) {
+        if (nodes.size() <= 1) return true;
+        DatapathId start = nodes.iterator().next();
+        return reachableWithin(start, nodes, false).size() == nodes.size()
+                && reachableWithin(start, nodes, true).size() == nodes.size();
+    }
+
+    private Set<DatapathId> reachableWithin(DatapathId start, Set<DatapathId> nodes, boolean reverse) {
+        Set<DatapathId> seen = new HashSet<DatapathId>();
+        Deque<DatapathId> toVisit = new ArrayDeque<DatapathId>();
+        seen.add(start);
+        toVisit.add(start);
+
+        while (!toVisit.isEmpty()) {
+            DatapathId sw = toVisit.poll();
+            if (portsWithLinks.get(sw) == null) continue;
+            for (OFPort p : portsWithLinks.get(sw)) {
+                Set<Link> lset = linksNonBcastNonTunnel.get(new NodePortTuple(sw, p));
+                if (lset == null) continue;
+                for (Link l : lset) {
+                    if (isBlockedLink(l)) continue;
+                    DatapathId from = reverse ? l.getDst() : l.getSrc();
+                    DatapathId to = reverse ? l.getSrc() : l.getDst();
+                    if (!from.equals(sw) || !nodes.contains(to)) continue;
+                    if (seen.add(to)) {
+                        toVisit.add(to);
+                    }
+                }
+            }
+        }
+        return seen;
+    }
+
     /*
      * Checks if OF port is edge port
      */
@@ -441,60 +726,6 @@ public class TopologyInstance {
         return portsBroadcastAll.contains(npt);
     }
 
-    private class NodeDist implements Comparable<NodeDist> {
-        private final DatapathId node;
-        public DatapathId getNode() {
-            return node;
-        }
-
-        private final int dist;
-        public int getDist() {
-            return dist;
-        }
-
-        public NodeDist(DatapathId node, int dist) {
-            this.node = node;
-            this.dist = dist;
-        }
-
-        @Override
-        public int compareTo(NodeDist o) {
-            if (o.dist == this.dist) {
-                return (int)(this.node.getLong() - o.node.getLong());
-            }
-            return this.dist - o.dist;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            NodeDist other = (NodeDist) obj;
-            if (!getOuterType().equals(other.getOuterType()))
-                return false;
-            if (node == null) {
-                if (other.node != null)
-                    return false;
-            } else if (!node.equals(other.node))
-                return false;
-            return true;
-        }
-
-        @Override
-        public int hashCode() {
-            assert false : "hashCode not designed";
-        return 42;
-        }
-
-        private TopologyInstance getOuterType() {
-            return TopologyInstance.this;
-        }
-    }
-
     protected void identifyArchipelagos() {
         // Iterate through each external link and create/merge archipelagos based on the
         // islands that each link is connected to
@@ -562,85 +793,6 @@ public class TopologyInstance {
     }
     
 
-    /*
-     * Dijkstra that calculates destination rooted trees over the entire topology.
-     */
-    private BroadcastTree dijkstra(Map<DatapathId, Set<Link>> links, DatapathId root,
-            Map<Link, Integer> linkCost,
-            boolean isDstRooted) {
-        HashMap<DatapathId, Link> nexthoplinks = new HashMap<DatapathId, Link>();
-        HashMap<DatapathId, Integer> cost = new HashMap<DatapathId, Integer>();
-        int w;
-
-        for (DatapathId node : links.keySet()) {
-            nexthoplinks.put(node, null);
-            cost.put(node, MAX_PATH_WEIGHT);
-            //log.debug("Added max cost to {}", node);
-        }
-
-        HashMap<DatapathId, Boolean> seen = new HashMap<DatapathId, Boolean>();
-        PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
-        nodeq.add(new NodeDist(root, 0));
-        cost.put(root, 0);
-
-        //log.debug("{}", links);
-
-        while (nodeq.peek() != null) {
-            NodeDist n = nodeq.poll();
-            DatapathId cnode = n.getNode();
-            int cdist = n.getDist();
-
-            if (cdist >= MAX_PATH_WEIGHT) break;
-            if (seen.containsKey(cnode)) continue;
-            seen.put(cnode, true);
-
-            //log.debug("cnode {} and links {}", cnode, links.get(cnode));
-            if (links.get(cnode) == null) continue;
-            for (Link link : links.get(cnode)) {
-                DatapathId neighbor;
-
-                if (isDstRooted == true) {
-                    neighbor = link.getSrc();
-                } else {
-                    neighbor = link.getDst();
-                }
-
-                // links directed toward cnode will result in this condition
-                if (neighbor.equals(cnode)) continue;
-
-                if (seen.containsKey(neighbor)) continue;
-
-                if (linkCost == null || linkCost.get(link) == null) {
-                    w = 1;
-                } else {
-                    w = linkCost.get(link);
-                }
-
-                int ndist = cdist + w; // the weight of the link, always 1 in current version of floodlight.
-                log.debug("Neighbor: {}", neighbor);
-                log.debug("Cost: {}", cost);
-                log.debug("Neighbor cost: {}", cost.get(neighbor));
-
-                if (ndist < cost.get(neighbor)) {
-                    cost.put(neighbor, ndist);
-                    nexthoplinks.put(neighbor, link);
-
-                    NodeDist ndTemp = new NodeDist(neighbor, ndist);
-                    // Remove an object that's already in there.
-                    // Note that the comparison is based on only the node id,
-                    // and not node id and distance.
-                    nodeq.remove(ndTemp);
-                    // add the current object to the queue.
-                    nodeq.add(ndTemp);
-                }
-            }
-        }
-
-        BroadcastTree ret = new BroadcastTree(nexthoplinks, cost);
-
-        return ret;
-    }
-
     /*
      * Creates a map of links and the cost associated with each link
      */
@@ -774,10 +926,12 @@ public class TopologyInstance {
      * in the pathcache.
      */
     private void computeOrderedPaths() {
-        List<Path> paths;
-        PathId pathId;
         pathcache.clear();
 
+        /* The graph is built once and shared, read-only, by all sources */
+        graph = buildGraph(initLinkCostMap());
+
+        Map<DatapathId, Set<DatapathId>> dstsPerSrc = new HashMap<DatapathId, Set<DatapathId>>();
         for (Archipelago a : archipelagos) { /* for each archipelago */
             Set<DatapathId> srcSws = a.getSwitches();
             Set<DatapathId> dstSws = a.getSwitches();
@@ -785,57 +939,145 @@ public class TopologyInstance {
             log.debug("DST {}", dstSws);
 
             for (DatapathId src : srcSws) { /* permute all member switches */
-                for (DatapathId dst : dstSws) {
-                    log.debug("Calling Yens {} {}", src, dst);
-                    paths = yens(src, dst, TopologyManager.getMaxPathsToComputeInternal(),
-                            getArchipelago(src), getArchipelago(dst));
-                    pathId = new PathId(src, dst);
-                    pathcache.put(pathId, paths);
-                    log.debug("Adding paths {}", paths);
+                dstsPerSrc.put(src, dstSws);
+            }
+        }
+
+        computePaths(dstsPerSrc);
+        computeBroadcastTrees();
+    }
+
+    /*
+     * Builds the compact graph over all links between known switches.
+     * Every directed link is stored once, from its source port.
+     */
+    private CompactGraph buildGraph(Map<Link, Integer> linkCost) {
+        List<Link> graphLinks = new ArrayList<Link>();
+        for (DatapathId s : switches) {
+            if (portsWithLinks.get(s) == null) continue;
+            for (OFPort p : portsWithLinks.get(s)) {
+                Set<Link> lset = links.get(new NodePortTuple(s, p));
+                if (lset == null) continue;
+                for (Link l : lset) {
+                    if (l.getSrc().equals(s) && l.getSrcPort().equals(p)) {
+                        graphLinks.add(l);
+                    }
                 }
             }
         }
+        return new CompactGraph(switches, graphLinks, linkCost, MAX_PATH_WEIGHT);
     }
 
-    private Path buildPath(PathId id, BroadcastTree tree) {
-        NodePortTuple npt;
-        DatapathId srcId = id.getSrc();
-        DatapathId dstId = id.getDst();
-        //set of NodePortTuples on the route
-        LinkedList<NodePortTuple> sPorts = new LinkedList<NodePortTuple>();
-
-        if (tree == null) return new Path(id, ImmutableList.of()); /* empty route */
-
-        Map<DatapathId, Link> nexthoplinks = tree.getLinks();
-
-        if (!switches.contains(srcId) || !switches.contains(dstId)) {
-            // This is a switch that is not connected to any other switch
-            // hence there was no update for links (and hence it is not
-            // in the network)
-            log.debug("buildpath: Standalone switch: {}", srcId);
-
-            // The only possible non-null path for this case is
-            // if srcId equals dstId --- and that too is an 'empty' path []
-
-        } else if ((nexthoplinks != null) && (nexthoplinks.get(srcId) != null)) {
-            while (!srcId.equals(dstId)) {
-                Link l = nexthoplinks.get(srcId);
-                npt = new NodePortTuple(l.getSrc(), l.getSrcPort());
-                sPorts.addLast(npt);
-                npt = new NodePortTuple(l.getDst(), l.getDstPort());
-                sPorts.addLast(npt);
-                srcId = nexthoplinks.get(srcId).getDst();
+    /*
+     * Creates the Path handed to callers from the edge indices of a
+     * path found on the compact graph.
+     */
+    private Path toPath(PathId id, int[] edges) {
+        List<NodePortTuple> npts = new ArrayList<NodePortTuple>(edges.length * 2);
+        U64 latency = U64.ZERO;
+        for (int e : edges) {
+            Link l = graph.getEdge(e);
+            npts.add(new NodePortTuple(l.getSrc(), l.getSrcPort()));
+            npts.add(new NodePortTuple(l.getDst(), l.getDstPort()));
+            latency = latency.add(l.getLatency());
+        }
+        Path p = new Path(id, npts);
+        p.setHopCount(edges.length);
+        p.setLatency(latency);
+        return p;
+    }
+
+    /*
+     * Runs Yen's algorithm from each source to each of its destinations and
+     * adds the results to the pathcache. Every source is an independent task
+     * producing its own immutable map; the maps are merged once all are done.
+     */
+    private void computePaths(Map<DatapathId, Set<DatapathId>> dstsPerSrc) {
+        ForkJoinPool pool = TopologyManager.getPathComputePoolInternal();
+
+        if (pool == null || pool.getParallelism() <= 1 || dstsPerSrc.size() <= 1) {
+            for (Entry<DatapathId, Set<DatapathId>> e : dstsPerSrc.entrySet()) {
+                pathcache.putAll(computePathsFromSource(e.getKey(), e.getValue()));
             }
+            return;
         }
-        // else, no path exists, and path equals null
 
-        Path result = null;
-        if (sPorts != null && !sPorts.isEmpty()) {
-            result = new Path(id, sPorts);
+        List<ForkJoinTask<Map<PathId, List<Path>>>> tasks = 
+                new ArrayList<ForkJoinTask<Map<PathId, List<Path>>>>(dstsPerSrc.size());
+        for (final Entry<DatapathId, Set<DatapathId>> e : dstsPerSrc.entrySet()) {
+            tasks.add(pool.submit(new Callable<Map<PathId, List<Path>>>() {
+                @Override
+                public Map<PathId, List<Path>> call() {
+                    return computePathsFromSource(e.getKey(), e.getValue());
+                }
+            }));
+        }
+        for (ForkJoinTask<Map<PathId, List<Path>>> task : tasks) {
+            pathcache.putAll(task.join());
+        }
+    }
 
+    private Map<PathId, List<Path>> computePathsFromSource(DatapathId src, Set<DatapathId> dsts) {
+        ImmutableMap.Builder<PathId, List<Path>> paths = ImmutableMap.builder();
+        Archipelago aSrc = getArchipelago(src);
+        CompactGraph.Search search = graph.newSearch(); /* reused for every destination */
+
+        for (DatapathId dst : dsts) {
+            log.debug("Calling Yens {} {}", src, dst);
+            List<Path> p = yens(src, dst, maxPathsComputed, aSrc, getArchipelago(dst), search);
+            paths.put(new PathId(src, dst), p);
+            log.debug("Adding paths {}", p);
         }
-        log.trace("buildpath: {}", result);
-        return result == null ? new Path(id, ImmutableList.of()) : result;
+        return paths.build();
+    }
+
+    /*
+     * Computes the broadcast tree of each archipelago by running dijkstra's
+     * algorithm rooted at the archipelago ID switch. Trees are computed off
+     * to the side and only set once all of them are done.
+     */
+    private void computeBroadcastTrees() {
+        ForkJoinPool pool = TopologyManager.getPathComputePoolInternal();
+        Map<Archipelago, BroadcastTree> trees = new HashMap<Archipelago, BroadcastTree>();
+
+        if (pool == null || pool.getParallelism() <= 1 || archipelagos.size() <= 1) {
+            for (Archipelago a : archipelagos) {
+                trees.put(a, buildBroadcastTree(a.getId(), graph.newSearch()));
+            }
+        } else {
+            Map<Archipelago, ForkJoinTask<BroadcastTree>> tasks = new HashMap<Archipelago, ForkJoinTask<BroadcastTree>>();
+            for (final Archipelago a : archipelagos) {
+                tasks.put(a, pool.submit(new Callable<BroadcastTree>() {
+                    @Override
+                    public BroadcastTree call() {
+                        return buildBroadcastTree(a.getId(), graph.newSearch());
+                    }
+                }));
+            }
+            for (Entry<Archipelago, ForkJoinTask<BroadcastTree>> e : tasks.entrySet()) {
+                trees.put(e.getKey(), e.getValue().join());
+            }
+        }
+
+        for (Entry<Archipelago, BroadcastTree> e : trees.entrySet()) {
+            e.getKey().setBroadcastTree(e.getValue());
+        }
+    }
+
+    /*
+     * Destination rooted tree over the entire topology.
+     */
+    private BroadcastTree buildBroadcastTree(DatapathId root, CompactGraph.Search search) {
+        HashMap<DatapathId, Link> nexthoplinks = new HashMap<DatapathId, Link>();
+        HashMap<DatapathId, Integer> cost = new HashMap<DatapathId, Integer>();
+
+        search.dijkstra(graph.indexOf(root), true);
+        for (int n = 0; n < graph.getNodeCount(); n++) {
+            int e = search.getTreeEdge(n);
+            nexthoplinks.put(graph.getNode(n), e < 0 ? null : graph.getEdge(e));
+            cost.put(graph.getNode(n), search.getDist(n));
+        }
+        return new BroadcastTree(nexthoplinks, cost);
     }
 
     /*
@@ -861,30 +1103,6 @@ public class TopologyInstance {
         return true;
     }
 
-    private Map<DatapathId, Set<Link>> buildLinkDpidMap(Set<DatapathId> switches, Map<DatapathId,
-            Set<OFPort>> portsWithLinks, Map<NodePortTuple, Set<Link>> links) {
-
-        Map<DatapathId, Set<Link>> linkDpidMap = new HashMap<DatapathId, Set<Link>>();
-        for (DatapathId s : switches) {
-            if (portsWithLinks.get(s) == null) continue;
-            for (OFPort p : portsWithLinks.get(s)) {
-                NodePortTuple np = new NodePortTuple(s, p);
-                if (links.get(np) == null) continue;
-                for (Link l : links.get(np)) {
-                    if (switches.contains(l.getSrc()) && switches.contains(l.getDst())) {
-                        if (linkDpidMap.containsKey(s)) {
-                            linkDpidMap.get(s).add(l);
-                        } else {
-                            linkDpidMap.put(s, new HashSet<Link>(Arrays.asList(l)));
-                        }
-                    }
-                }
-            }
-        }
-
-        return linkDpidMap;
-    }
-
     /**
      *
      * This function returns K number of routes between a source and destination IF THEY EXIST IN THE ROUTECACHE.
@@ -974,22 +1192,23 @@ public class TopologyInstance {
     }
 
     private List<Path> yens(DatapathId src, DatapathId dst, Integer K, Archipelago aSrc, Archipelago aDst) {
+        if (graph == null) return new ArrayList<Path>();
+        return yens(src, dst, K, aSrc, aDst, graph.newSearch());
+    }
+
+    /*
+     * Runs Yen's algorithm on the compact graph. Only the resulting paths
+     * are materialized as Path objects. Does not modify this instance, so
+     * it is safe to call concurrently with distinct searches.
+     */
+    private List<Path> yens(DatapathId src, DatapathId dst, Integer K, Archipelago aSrc, Archipelago aDst,
+            CompactGraph.Search search) {
 
         log.debug("YENS ALGORITHM -----------------");
         log.debug("Asking for paths from {} to {}", src, dst);
         log.debug("Asking for {} paths", K);
 
-        // Find link costs
-        Map<Link, Integer> linkCost = initLinkCostMap();
-
-        Map<DatapathId, Set<Link>> linkDpidMap = buildLinkDpidMap(switches, portsWithLinks, links);
-
-        Map<DatapathId, Set<Link>> copyOfLinkDpidMap = new HashMap<DatapathId, Set<Link>>(linkDpidMap);
-
-        // A is the list of shortest paths. The number in the list at the end should be less than or equal to K
-        // B is the list of possible shortest paths found in this function.
         List<Path> A = new ArrayList<Path>();
-        List<Path> B = new ArrayList<Path>();
 
         // The number of paths requested should never be less than 1.
         if (K < 1) {
@@ -1007,177 +1226,23 @@ public class TopologyInstance {
             return A;
         }
 
-        /* Use Dijkstra's to find the shortest path, which will also be the first path in A */
-        BroadcastTree bt = dijkstra(copyOfLinkDpidMap, dst, linkCost, true);
-        /* add this initial tree as our archipelago's broadcast tree (aSrc == aDst) */
-        aSrc.setBroadcastTree(bt);
-        /* now add the shortest path */
-        log.debug("src {} dst {} tree {}", new Object[] {src, dst, bt});
-        Path newroute = buildPath(new PathId(src, dst), bt); /* guaranteed to be in same tree */
-
-        if (newroute != null && !newroute.getPath().isEmpty()) { /* should never be null, but might be empty */
-            setPathCosts(newroute);
-            A.add(newroute);
-            log.debug("Found shortest path in Yens {}", newroute);
-        }
-        else {
+        int srcIndex = graph.indexOf(src);
+        int dstIndex = graph.indexOf(dst);
+        if (srcIndex < 0 || dstIndex < 0) {
             log.debug("No paths found in Yen's!");
             return A;
         }
 
-        // Loop through K - 1 times to get other possible shortest paths
-        for (int k = 1; k < K; k++) {
-            log.trace("k: {}", k);
-            if (log.isTraceEnabled()){
-                log.trace("Path Length 'A.get(k-1).getPath().size()-2': {}", A.get(k - 1).getPath().size() - 2);
-            }
-            // Iterate through i, which is the number of links in the most recent path added to A
-            for (int i = 0; i <= A.get(k - 1).getPath().size() - 2; i = i + 2) {
-                log.trace("i: {}", i);
-                List<NodePortTuple> path = A.get(k - 1).getPath();
-                //log.debug("A(k-1): {}", A.get(k - 1).getPath());
-                // The spur node is the point in the topology where Dijkstra's is called again to find another path
-                DatapathId spurNode = path.get(i).getNodeId();
-                // rootPath is the path along the previous shortest path that is before the spur node
-                Path rootPath = new Path(new PathId(path.get(0).getNodeId(), path.get(i).getNodeId()),
-                        path.subList(0, i));
-
-
-                Map<NodePortTuple, Set<Link>> allLinksCopy = new HashMap<NodePortTuple, Set<Link>>(links);
-                // Remove the links after the spur node that are part of other paths in A so that new paths
-                // found are unique
-                for (Path r : A) {
-                    if (r.getPath().size() > (i + 1) && r.getPath().subList(0, i).equals(rootPath.getPath())) {
-                        allLinksCopy.remove(r.getPath().get(i));
-                        allLinksCopy.remove(r.getPath().get(i+1));
-                    }
-                }
-
-                // Removes the root path so Dijkstra's doesn't try to go through it to find a path
-                Set<DatapathId> switchesCopy = new HashSet<DatapathId>(switches);
-                for (NodePortTuple npt : rootPath.getPath()) {
-                    if (!npt.getNodeId().equals(spurNode)) {
-                        switchesCopy.remove(npt.getNodeId());
-                    }
-                }
-
-                // Builds the new topology without the parts we want removed
-                copyOfLinkDpidMap = buildLinkDpidMap(switchesCopy, portsWithLinks, allLinksCopy);
-
-                // Uses Dijkstra's to try to find a shortest path from the spur node to the destination
-                Path spurPath = buildPath(new PathId(spurNode, dst), dijkstra(copyOfLinkDpidMap, dst, linkCost, true));
-                if (spurPath == null || spurPath.getPath().isEmpty()) {
-                    log.debug("spurPath is null");
-                    continue;
-                }
-
-                // Adds the root path and spur path together to get a possible shortest path
-                List<NodePortTuple> totalNpt = new LinkedList<NodePortTuple>();
-                totalNpt.addAll(rootPath.getPath());
-                totalNpt.addAll(spurPath.getPath());
-                Path totalPath = new Path(new PathId(src, dst), totalNpt);
-                setPathCosts(totalPath);
-
-                log.trace("Spur Node: {}", spurNode);
-                log.trace("Root Path: {}", rootPath);
-                log.trace("Spur Path: {}", spurPath);
-                log.trace("Total Path: {}", totalPath);
-                // Adds the new path into B
-                int flag = 0;
-                for (Path r_B : B) {
-                    for (Path r_A : A) {
-                        if (r_B.getPath().equals(totalPath.getPath()) || r_A.getPath().equals(totalPath.getPath())) {
-                            flag = 1;
-                        }
-                    }
-                }
-                if (flag == 0) {
-                    B.add(totalPath);
-                }
-
-                // Restore edges and nodes to graph
-            }
-
-            // If we get out of the loop and there isn't a path in B to add to A, all possible paths have been
-            // found and return A
-            if (B.isEmpty()) {
-                //log.debug("B list is empty in Yen's");
-                break;
-            }
-
-            log.debug("Removing shortest path from {}", B);
-            // Find the shortest path in B, remove it, and put it in A
-            log.debug("--------------BEFORE------------------------");
-            for (Path r : B) {
-                log.debug(r.toString());
-            }
-            log.debug("--------------------------------------------");
-            Path shortestPath = removeShortestPath(B, linkCost);
-            log.debug("--------------AFTER------------------------");
-            for (Path r : B) {
-                log.debug(r.toString());
-            }
-            log.debug("--------------------------------------------");
-
-            if (shortestPath != null) {
-                log.debug("Adding new shortest path to {} in Yen's", shortestPath);
-                A.add(shortestPath);
-                log.debug("A: {}", A);
-            }
-            else {
-                log.debug("removeShortestPath returned {}", shortestPath);
-            }
-        }
-
-        // Set the route counts
-        for (Path path : A) {
-            path.setPathIndex(A.indexOf(path));
+        PathId pathId = new PathId(src, dst);
+        for (int[] edges : search.getKShortestPaths(srcIndex, dstIndex, K)) {
+            Path p = toPath(pathId, edges);
+            p.setPathIndex(A.size());
+            A.add(p);
         }
-        //log.debug("END OF YEN'S --------------------");
+        log.debug("Found paths in Yens {}", A);
         return A;
     }
 
-    private Path removeShortestPath(List<Path> routes, Map<Link, Integer> linkCost) {
-        log.debug("REMOVE SHORTEST PATH -------------");
-        // If there is nothing in B, return
-        if(routes == null){
-            log.debug("Routes == null");
-            return null;
-        }
-        Path shortestPath = null;
-        // Set the default shortest path to the max value
-        Integer shortestPathCost = Integer.MAX_VALUE;
-
-        // Iterate through B and find the shortest path
-        for (Path r : routes) {
-            Integer pathCost = 0;
-            // Add up the weights of each link in the path
-            // TODO Get the path cost from the route object
-            for (NodePortTuple npt : r.getPath()) {
-                if (links.get(npt) == null || linkCost.get(links.get(npt).iterator().next()) == null) {
-                    pathCost++;
-                }
-                else {
-                    pathCost += linkCost.get(links.get(npt).iterator().next());
-                }
-            }
-            log.debug("Path {} with cost {}", r, pathCost);
-            // If it is smaller than the current smallest, replace variables with the path just found
-            if (pathCost < shortestPathCost) {
-                log.debug("New shortest path {} with cost {}", r, pathCost);
-                shortestPathCost = pathCost;
-                shortestPath = r;
-            }
-        }
-
-        log.debug("Remove {} from {}", shortestPath, routes);
-        // Remove the route from B and return it
-        routes.remove(shortestPath);
-
-        log.debug("Shortest path: {}", shortestPath);
-        return shortestPath;
-    }
-
     /**
      * Computes end-to-end path including src/dst switch
      * ports in addition to the switches. This chains into
@@ -53,6 +53,7 @@ import com.google.common.collect.ImmutableSet;
 
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -74,6 +75,19 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
      */
     private static volatile int maxPathsToCompute = 3;
 
+    /**
+     * Whether link changes within clusters patch the current topology
+     * instance instead of rebuilding it from scratch.
+     */
+    protected boolean incrementalUpdates = true;
+
+    /**
+     * Pool on which path and broadcast tree computations for independent
+     * source switches and archipelagos run. Sized by pathComputeThreads,
+     * one thread per core when it is zero or unset.
+     */
+    private static volatile ForkJoinPool pathComputePool;
+
     /**
      * Role of the controller.
      */
@@ -117,8 +131,9 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
 
     protected BlockingQueue<LDUpdate> ldUpdates;
 
-    // These must be accessed using getCurrentInstance(), not directly
-    protected TopologyInstance currentInstance;
+    // These must be accessed using getCurrentInstance(), not directly.
+    // Instances are fully computed before being published here.
+    protected volatile TopologyInstance currentInstance;
 
     protected SingletonTask newInstanceTask;
     private Date lastUpdateTime;
@@ -147,6 +162,8 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
      */
     protected static final String PACKAGE = TopologyManager.class.getPackage().getName();
     protected IDebugCounter ctrIncoming;
+    protected IDebugCounter ctrFullComputes;
+    protected IDebugCounter ctrIncrementalComputes;
 
     //  Getter/Setter methods
     /**
@@ -272,12 +289,12 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
     }
 
     @Override
-    public void addListener(ITopologyListener listener) {
+    public synchronized void addListener(ITopologyListener listener) {
         topologyAware.add(listener);
     }
 
     @Override
-    public void removeListener(ITopologyListener listener) {
+    public synchronized void removeListener(ITopologyListener listener) {
         topologyAware.remove(listener);
     }
 
@@ -357,6 +374,10 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
         return maxPathsToCompute;
     }
 
+    protected static ForkJoinPool getPathComputePoolInternal() {
+        return pathComputePool;
+    }
+
     @Override
     public int getMaxPathsToCompute() {
         return maxPathsToCompute;
@@ -654,6 +675,40 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
                     }
                 }
                 log.info("Will compute a max of {} paths upon topology updates", maxPathsToCompute);
+
+                String incremental = configOptions.get("incrementalUpdates") != null
+                        ? configOptions.get("incrementalUpdates").trim() : null;
+                if (incremental != null) {
+                    incrementalUpdates = Boolean.parseBoolean(incremental);
+                }
+                log.info("Incremental topology updates {}", incrementalUpdates ? "enabled" : "disabled");
+
+                /* Zero or unset means one thread per core */
+                int cores = Runtime.getRuntime().availableProcessors();
+                int pathComputeThreads = 0;
+                String threads = configOptions.get("pathComputeThreads") != null
+                        ? configOptions.get("pathComputeThreads").trim() : "";
+                if (!threads.isEmpty()) {
+                    try {
+                        pathComputeThreads = Integer.parseInt(threads);
+                    } catch (NumberFormatException e) {
+                        log.error("Invalid 'pathComputeThreads' {}. Using one per core", threads);
+                    }
+                }
+                if (pathComputeThreads < 0) {
+                    log.error("Invalid 'pathComputeThreads' {}. Using one per core", pathComputeThreads);
+                    pathComputeThreads = 0;
+                }
+                if (pathComputeThreads == 0) {
+                    pathComputeThreads = cores;
+                }
+                if (pathComputePool == null || pathComputePool.getParallelism() != pathComputeThreads) {
+                    if (pathComputePool != null) {
+                        pathComputePool.shutdown();
+                    }
+                    pathComputePool = new ForkJoinPool(pathComputeThreads);
+                }
+                log.info("Computing paths on {} thread(s)", pathComputeThreads);
     }
 
     @Override
@@ -683,6 +738,12 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
         ctrIncoming = debugCounterService.registerCounter(
                 PACKAGE, "incoming",
                 "All incoming packets seen by this module");
+        ctrFullComputes = debugCounterService.registerCounter(
+                PACKAGE, "full-computes",
+                "Topology instances computed from scratch");
+        ctrIncrementalComputes = debugCounterService.registerCounter(
+                PACKAGE, "incremental-computes",
+                "Topology instances derived from the previous instance");
     }
 
     protected void addRestletRoutable() {
@@ -1014,7 +1075,13 @@ ITopologyManagerBackend, ILinkDiscoveryListener, IOFMessageListener {
                 allPorts,
                 interClusterLinks);
 
-        nt.compute();
+        /* Forced recomputation always rebuilds everything from scratch */
+        if (!forced && incrementalUpdates && nt.computeIncremental(currentInstance)) {
+            ctrIncrementalComputes.increment();
+        } else {
+            nt.compute();
+            ctrFullComputes.increment();
+        }
 
         currentInstance = nt;
 
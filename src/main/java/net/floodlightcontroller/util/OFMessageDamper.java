@@ -16,8 +16,10 @@
 
 package net.floodlightcontroller.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 import net.floodlightcontroller.core.IOFSwitch;
@@ -137,18 +139,25 @@ public class OFMessageDamper {
     }
     
     /**
-     * Wrapper around {@link OFMessageDamper#write(IOFSwitch, OFMessage)}. 
+     * Batched variant of {@link OFMessageDamper#write(IOFSwitch, OFMessage)}.
+     * Messages that are not dampened go to the switch in a single write.
      * @param sw
      * @param msgs
      * @return false if *any* message was dampened; true if no messages were dampened
      */
     public boolean write(IOFSwitch sw, Collection<OFMessage> msgs) {
-        boolean allWritten = true;
+        List<OFMessage> toWrite = new ArrayList<OFMessage>(msgs.size());
         for (OFMessage msg : msgs) {
-            if (!write(sw, msg)) {
-                allWritten = false;
+            if (!msgTypesToCache.contains(msg.getType())
+                    || !cache.update(new DamperEntry(msg, sw))) {
+                toWrite.add(msg);
+            } else {
+                log.debug("Dampening cached msg {}", msg);
             }
         }
-        return allWritten;
+        if (!toWrite.isEmpty()) {
+            sw.write(toWrite);
+        }
+        return toWrite.size() == msgs.size();
     }
 }
\ No newline at end of file
@@ -133,6 +133,26 @@ public interface ISyncService extends IFloodlightService {
                        IInconsistencyResolver<Versioned<V>> resolver)
                                throws UnknownStoreException;
 
+    /**
+     * Get a store client whose values are converted with the given codec
+     * rather than serialized with Jackson.  Keys are still serialized
+     * with Jackson.  All clients of a store must use the same codec.
+     * @param storeName the name of the store to retrieve
+     * @param keyClass the class for the underlying key needed for
+     * deserialization
+     * @param valueCodec the codec for the values
+     * @param resolver the inconsistency resolver to use on the store, or
+     * null for the default
+     * @return the store client
+     * @throws UnknownStoreException
+     */
+    public <K, V> IStoreClient<K, V>
+        getStoreClient(String storeName,
+                       Class<K> keyClass,
+                       IValueCodec<V> valueCodec,
+                       IInconsistencyResolver<Versioned<V>> resolver)
+                               throws UnknownStoreException;
+
 
     
     
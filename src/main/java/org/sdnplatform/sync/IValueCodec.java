@@ -0,0 +1,33 @@
+package org.sdnplatform.sync;
+
+import org.sdnplatform.sync.error.SerializationException;
+
+/**
+ * Converts the values of a store to and from the bytes that are stored
+ * and replicated.  Store clients created without a codec serialize values
+ * with Jackson; a codec written for a particular value class avoids the
+ * reflection and the self-describing encoding.
+ *
+ * Every node in the cluster must be able to decode what any other node
+ * writes, so the encoding should carry a version and a codec should
+ * keep decoding the older versions.
+ * @param <V> the value type
+ */
+public interface IValueCodec<V> {
+    /**
+     * Encode the given value
+     * @param value the value, never null
+     * @return the encoded value
+     * @throws SerializationException
+     */
+    public byte[] encode(V value) throws SerializationException;
+
+    /**
+     * Decode a value produced by {@link #encode(Object)}
+     * @param bytes the encoded value, never null
+     * @return the value
+     * @throws SerializationException if the bytes are not a valid
+     * encoding
+     */
+    public V decode(byte[] bytes) throws SerializationException;
+}
@@ -0,0 +1,233 @@
+package org.sdnplatform.sync.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+
+import org.sdnplatform.sync.IVersion.Occurred;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.StoreRegistry.Hint;
+import org.sdnplatform.sync.internal.StoreRegistry.HintKey;
+
+/**
+ * Hints waiting to be sent to a single remote node.  A hint for a key
+ * that is already queued is merged into the queued hint rather than
+ * queued again, so a key that changes repeatedly is sent once with only
+ * the versions that are not obsolete, and keeps its place in the queue.
+ * At most one sender drains the queue at a time; see
+ * {@link #claimSender()}.
+ */
+public class NodeHintQueue {
+    /**
+     * Smallest number of hints to take in a batch
+     */
+    public static final int MIN_BATCH_SIZE = 50;
+
+    /**
+     * Largest number of hints to take in a batch
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private final short nodeId;
+
+    /**
+     * Queued hints in the order their keys were first queued
+     */
+    private final LinkedHashMap<HintKey, QueuedHint> queue =
+            new LinkedHashMap<HintKey, QueuedHint>();
+
+    /**
+     * Whether a sender is currently draining the queue
+     */
+    private boolean sending = false;
+
+    private final IDebugCounter depthCounter;
+    private final IDebugCounter lagCounter;
+
+    /**
+     * Construct a new {@link NodeHintQueue}
+     * @param nodeId the node the hints are sent to
+     * @param depthCounter a counter set to the number of queued hints, or
+     * null
+     * @param lagCounter a counter set to the age in milliseconds of the
+     * oldest hint waiting to be sent, or null
+     */
+    public NodeHintQueue(short nodeId,
+                         IDebugCounter depthCounter,
+                         IDebugCounter lagCounter) {
+        super();
+        this.nodeId = nodeId;
+        this.depthCounter = depthCounter;
+        this.lagCounter = lagCounter;
+    }
+
+    /**
+     * Get the number of hints to take in the next batch from a queue of
+     * the given depth.  Shallow queues are sent in small batches to keep
+     * latency low; deep queues in larger ones so that fewer, larger
+     * messages are needed to catch up.
+     * @param depth the number of queued hints
+     * @return the batch size
+     */
+    public static int batchSize(int depth) {
+        return Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, depth / 2));
+    }
+
+    // **************
+    // public methods
+    // **************
+
+    public short getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Queue versions of a key to be sent to the node
+     * @param hintKey the key
+     * @param values the versions of the key
+     * @param now the current time in milliseconds
+     * @return true if the versions were merged into a hint already queued
+     * for the key
+     */
+    public synchronized boolean offer(HintKey hintKey,
+                                      List<Versioned<byte[]>> values,
+                                      long now) {
+        QueuedHint queued = queue.get(hintKey);
+        boolean coalesced = queued != null;
+        if (queued == null) {
+            queued = new QueuedHint(now);
+            queue.put(hintKey, queued);
+        }
+        for (Versioned<byte[]> value : values) {
+            queued.merge(value);
+        }
+        updateCounters(now);
+        return coalesced;
+    }
+
+    /**
+     * Claim the right to drain the queue.  The caller that gets true
+     * must keep calling {@link #drain(Collection, int, long)} until it
+     * returns 0.
+     * @return true if no sender was draining the queue
+     */
+    public synchronized boolean claimSender() {
+        if (sending) return false;
+        sending = true;
+        return true;
+    }
+
+    /**
+     * Remove up to the given number of the oldest hints from the queue.
+     * If the queue is empty, the sender's claim on the queue is released.
+     * @param c the collection to which the hints should be added
+     * @param maxElements the maximum number of hints to remove
+     * @param now the current time in milliseconds
+     * @return the number of hints removed
+     */
+    public synchronized int drain(Collection<Hint> c, int maxElements,
+                                  long now) {
+        if (queue.isEmpty()) {
+            sending = false;
+            return 0;
+        }
+        // The lag is that of the oldest hint in this batch
+        if (lagCounter != null) {
+            lagCounter.set(now - queue.values().iterator().next().queuedAt);
+        }
+        int count = 0;
+        Iterator<Map.Entry<HintKey, QueuedHint>> it =
+                queue.entrySet().iterator();
+        while (count < maxElements && it.hasNext()) {
+            Map.Entry<HintKey, QueuedHint> e = it.next();
+            it.remove();
+            c.add(new Hint(e.getKey(), e.getValue().values));
+            count += 1;
+        }
+        if (depthCounter != null) {
+            depthCounter.set(queue.size());
+        }
+        return count;
+    }
+
+    /**
+     * Discard all queued hints, for example because the node has
+     * disconnected and will be resynchronized when it reconnects
+     */
+    public synchronized void clear() {
+        queue.clear();
+        if (depthCounter != null)
+            depthCounter.reset();
+        if (lagCounter != null)
+            lagCounter.reset();
+    }
+
+    /**
+     * Get the number of queued hints
+     * @return the number of hints
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * Get the age of the oldest queued hint
+     * @param now the current time in milliseconds
+     * @return the age in milliseconds, or 0 if the queue is empty
+     */
+    public synchronized long getLag(long now) {
+        if (queue.isEmpty()) return 0;
+        return now - queue.values().iterator().next().queuedAt;
+    }
+
+    // ***************
+    // Local methods
+    // ***************
+
+    private void updateCounters(long now) {
+        if (depthCounter != null) {
+            depthCounter.set(queue.size());
+        }
+        if (lagCounter != null) {
+            lagCounter.set(getLag(now));
+        }
+    }
+
+    /**
+     * The versions queued for a key and when the key was first queued
+     */
+    private static class QueuedHint {
+        private final long queuedAt;
+        private final List<Versioned<byte[]>> values =
+                new ArrayList<Versioned<byte[]>>(1);
+
+        public QueuedHint(long queuedAt) {
+            super();
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Add a version, dropping any queued versions it supersedes.  The
+         * version is ignored if it is no newer than one already queued.
+         * @param value the version to add
+         */
+        public void merge(Versioned<byte[]> value) {
+            Iterator<Versioned<byte[]>> it = values.iterator();
+            while (it.hasNext()) {
+                Occurred occurred =
+                        value.getVersion().compare(it.next().getVersion());
+                if (occurred == Occurred.BEFORE) {
+                    return;
+                } else if (occurred == Occurred.AFTER) {
+                    it.remove();
+                }
+            }
+            values.add(value);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.sdnplatform.sync.internal;
 
+import java.io.File;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
@@ -17,6 +18,7 @@ import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.internal.store.IStorageEngine;
 import org.sdnplatform.sync.internal.store.InMemoryStorageEngine;
 import org.sdnplatform.sync.internal.store.JavaDBStorageEngine;
+import org.sdnplatform.sync.internal.store.LogStructuredStorageEngine;
 import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
 import org.sdnplatform.sync.internal.util.ByteArray;
 import org.slf4j.Logger;
@@ -31,6 +33,21 @@ public class StoreRegistry {
     protected static final Logger logger =
             LoggerFactory.getLogger(StoreRegistry.class);
 
+    /**
+     * The storage engines that can back a persistent store
+     */
+    public enum PersistentEngine {
+        /**
+         * An embedded JavaDB database shared by all stores
+         */
+        JAVADB,
+        /**
+         * An append-only log per store; see
+         * {@link LogStructuredStorageEngine}
+         */
+        LOG
+    }
+
     /**
      * The associated syncManager
      */
@@ -46,6 +63,17 @@ public class StoreRegistry {
      */
     private ConnectionPoolDataSource persistentDataSource; 
 
+    /**
+     * The engine used for persistent stores without an override
+     */
+    private PersistentEngine defaultEngine = PersistentEngine.JAVADB;
+
+    /**
+     * Per-store overrides of the persistent engine
+     */
+    private HashMap<String, PersistentEngine> storeEngines =
+            new HashMap<String, PersistentEngine>();
+
     /**
      * The storage engines that contain the locally-stored data
      */
@@ -89,6 +117,25 @@ public class StoreRegistry {
         return localStores.get(storeName);
     }
 
+    /**
+     * Set the engine used for persistent stores that have no override
+     * @param engine the engine
+     */
+    public synchronized void setDefaultEngine(PersistentEngine engine) {
+        this.defaultEngine = engine;
+    }
+
+    /**
+     * Set the engine used for the persistent store with the given name.
+     * This only has an effect on stores registered afterwards.
+     * @param storeName the name of the store
+     * @param engine the engine
+     */
+    public synchronized void setEngine(String storeName,
+                                       PersistentEngine engine) {
+        storeEngines.put(storeName, engine);
+    }
+
     /**
      * Register a new store with the given name, scope and persistence
      * @param storeName the name of the store
@@ -109,9 +156,18 @@ public class StoreRegistry {
                 
         IStorageEngine<ByteArray, byte[]> dstore;
         if (persistent) {
-            if (persistentDataSource == null)
-                persistentDataSource = JavaDBStorageEngine.getDataSource(dbPath, false);
-            dstore = new JavaDBStorageEngine(storeName, persistentDataSource);
+            PersistentEngine engine = storeEngines.get(storeName);
+            if (engine == null)
+                engine = defaultEngine;
+            if (engine == PersistentEngine.LOG) {
+                File dir = new File(dbPath == null ? "." : dbPath,
+                                    "SyncLog" + File.separator + storeName);
+                dstore = new LogStructuredStorageEngine(storeName, dir);
+            } else {
+                if (persistentDataSource == null)
+                    persistentDataSource = JavaDBStorageEngine.getDataSource(dbPath, false);
+                dstore = new JavaDBStorageEngine(storeName, persistentDataSource);
+            }
         } else {
             dstore = new InMemoryStorageEngine<ByteArray, byte[]>(storeName);
         }
@@ -189,9 +245,35 @@ public class StoreRegistry {
         }
     }
 
-    public void shutdown() {
+    /**
+     * Get the number of hints waiting to be taken
+     * @return the number of hints
+     */
+    public int getHintQueueSize() {
+        hintLock.lock();
+        try {
+            return hintQueue.size();
+        } finally {
+            hintLock.unlock();
+        }
+    }
+
+    /**
+     * Close all the registered stores and drop any pending hints.  This
+     * flushes and releases the files of stores kept in a
+     * {@link LogStructuredStorageEngine}.
+     */
+    public synchronized void shutdown() {
         hintQueue.clear();
         hints.close();
+        for (SynchronizingStorageEngine store : localStores.values()) {
+            try {
+                store.close();
+            } catch (SyncException e) {
+                logger.error("Failed to close store " + store.getName(), e);
+            }
+        }
+        localStores.clear();
     }
 
     /**
@@ -36,6 +36,8 @@ import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.error.SyncRuntimeException;
 import org.sdnplatform.sync.error.UnknownStoreException;
 import org.sdnplatform.sync.internal.StoreRegistry.Hint;
+import org.sdnplatform.sync.internal.StoreRegistry.HintKey;
+import org.sdnplatform.sync.internal.StoreRegistry.PersistentEngine;
 import org.sdnplatform.sync.internal.config.ClusterConfig;
 import org.sdnplatform.sync.internal.config.DelegatingCCProvider;
 import org.sdnplatform.sync.internal.config.FallbackCCProvider;
@@ -46,6 +48,7 @@ import org.sdnplatform.sync.internal.config.StorageCCProvider;
 import org.sdnplatform.sync.internal.config.SyncStoreCCProvider;
 import org.sdnplatform.sync.internal.rpc.IRPCListener;
 import org.sdnplatform.sync.internal.rpc.RPCService;
+import org.sdnplatform.sync.internal.rpc.SnapshotBootstrap;
 import org.sdnplatform.sync.internal.rpc.TProtocolUtil;
 import org.sdnplatform.sync.internal.store.IStorageEngine;
 import org.sdnplatform.sync.internal.store.IStore;
@@ -129,10 +132,22 @@ public class SyncManager extends AbstractSyncManager {
 	private static final int SYNC_WORKER_POOL = 2;
 
 	/**
-	 * A thread pool for the {@link HintWorker} threads.
+	 * A thread pool for the {@link HintWorker} and {@link NodeHintSender}
+	 * threads.
 	 */
 	private ExecutorService hintThreadPool;
 
+	/**
+	 * Hints waiting to be sent to each connected node
+	 */
+	private final ConcurrentHashMap<Short, NodeHintQueue> nodeHintQueues =
+			new ConcurrentHashMap<Short, NodeHintQueue>();
+
+	/**
+	 * Largest number of values sent in a single sync value message
+	 */
+	private static final int MAX_HINT_VALUES_PER_MESSAGE = 100;
+
 	/**
 	 * Random number generator
 	 */
@@ -150,6 +165,42 @@ public class SyncManager extends AbstractSyncManager {
 	 */
 	private boolean persistenceEnabled = true;
 
+	/**
+	 * Length of the smallest sync value or offer frame compressed when
+	 * sent to other nodes, or 0 for no compression
+	 */
+	private int compressionThreshold = 0;
+
+	/**
+	 * Whether a node that joins with empty stores pulls a snapshot of
+	 * them from another node, rather than relying on antientropy
+	 */
+	private boolean snapshotBootstrap = true;
+
+	/**
+	 * Time in milliseconds from the first connection after starting to
+	 * choosing the node to pull the snapshot from, for the other nodes
+	 * to connect meanwhile
+	 */
+	private static final int BOOTSTRAP_WAIT = 2000;
+
+	private enum BootstrapState {
+		/** No node has connected yet */
+		UNDECIDED,
+		/** Joining; waiting to choose the node to pull from */
+		WAITING,
+		/** Pulling the snapshot */
+		RUNNING,
+		/** Finished, or not joining */
+		DONE
+	}
+	private BootstrapState bootstrapState = BootstrapState.UNDECIDED;
+
+	/**
+	 * Task to choose the node to pull the snapshot from and start it
+	 */
+	private SingletonTask bootstrapTask;
+
 	private static final String PACKAGE =
 			ISyncService.class.getPackage().getName();
 
@@ -157,8 +208,10 @@ public class SyncManager extends AbstractSyncManager {
 	 * Debug Counters
 	 */
 	public static IDebugCounter counterHints;
+	public static IDebugCounter counterHintsCoalesced;
 	public static IDebugCounter counterSentValues;
 	public static IDebugCounter counterReceivedValues;
+	public static IDebugCounter counterSnapshotValues;
 	public static IDebugCounter counterPuts;
 	public static IDebugCounter counterGets;
 	public static IDebugCounter counterIterators;
@@ -219,15 +272,7 @@ public class SyncManager extends AbstractSyncManager {
 		logger.info("[{}->{}] Synchronizing local state to remote node",
 				getLocalNodeId(), node.getNodeId());
 
-		for (SynchronizingStorageEngine store : storeRegistry.values()) {
-			if (Scope.LOCAL.equals(store.getScope())) {
-				if (node.getDomainId() !=
-						getClusterConfig().getNode().getDomainId())
-					continue;
-			} else if (Scope.UNSYNCHRONIZED.equals(store.getScope())) {
-				continue;
-			}
-
+		for (SynchronizingStorageEngine store : getSynchronizedStores(node)) {
 			IClosableIterator<Entry<ByteArray,
 			List<Versioned<byte[]>>>> entries =
 			store.entries();
@@ -266,6 +311,125 @@ public class SyncManager extends AbstractSyncManager {
 		}
 	}
 
+	/**
+	 * Get the stores that are synchronized with the given node
+	 * @param node the node
+	 * @return the stores with a scope that includes the node
+	 */
+	public List<SynchronizingStorageEngine> getSynchronizedStores(Node node) {
+		ArrayList<SynchronizingStorageEngine> stores =
+				new ArrayList<SynchronizingStorageEngine>();
+		for (SynchronizingStorageEngine store : storeRegistry.values()) {
+			if (Scope.LOCAL.equals(store.getScope())) {
+				if (node.getDomainId() !=
+						getClusterConfig().getNode().getDomainId())
+					continue;
+			} else if (Scope.UNSYNCHRONIZED.equals(store.getScope())) {
+				continue;
+			}
+			stores.add(store);
+		}
+		return stores;
+	}
+
+	/**
+	 * Called when a node connects.  On the first connection after
+	 * starting, decide whether we are joining the cluster, which is the
+	 * case when our synchronized stores are empty.  If so, the node to
+	 * pull a snapshot from is chosen a moment later among the nodes
+	 * connected by then.  A node that already has data never pulls a
+	 * snapshot, and its full synchronizations are not deferred.
+	 * @return true if the full synchronization with a node that connects
+	 * should wait for the snapshot to finish
+	 * @see SnapshotBootstrap
+	 */
+	public synchronized boolean checkSnapshotBootstrap() {
+		if (bootstrapState == BootstrapState.UNDECIDED) {
+			if (snapshotBootstrap && bootstrapTask != null &&
+					hasEmptyStores()) {
+				bootstrapState = BootstrapState.WAITING;
+				bootstrapTask.reschedule(BOOTSTRAP_WAIT,
+						TimeUnit.MILLISECONDS);
+			} else {
+				bootstrapState = BootstrapState.DONE;
+			}
+		}
+		return bootstrapState == BootstrapState.WAITING ||
+				bootstrapState == BootstrapState.RUNNING;
+	}
+
+	/**
+	 * Record the end of the snapshot bootstrap and ask every connected
+	 * node for the full synchronization skipped while it ran.  After a
+	 * complete snapshot this finds little to transfer, but it picks up
+	 * stores we had not registered when the snapshot started.
+	 */
+	public void snapshotBootstrapFinished() {
+		synchronized (this) {
+			bootstrapState = BootstrapState.DONE;
+		}
+		if (rpcService == null) return;
+
+		for (Node n : clusterConfig.getNodes()) {
+			if (n.getNodeId() == getLocalNodeId() ||
+					!rpcService.isConnected(n.getNodeId()))
+				continue;
+			try {
+				rpcService.writeToNode(n.getNodeId(), TProtocolUtil.
+						getTFullSyncRequestMessage(rpcService.getTransactionId()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check whether none of the synchronized stores has any keys
+	 */
+	private boolean hasEmptyStores() {
+		for (SynchronizingStorageEngine store : storeRegistry.values()) {
+			if (Scope.UNSYNCHRONIZED.equals(store.getScope()))
+				continue;
+			IClosableIterator<ByteArray> keys = store.keys();
+			try {
+				if (keys.hasNext())
+					return false;
+			} finally {
+				keys.close();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Choose the node to pull the snapshot from among the connected
+	 * nodes.  Nodes in our own domain come first, since they are the only
+	 * ones that hold our stores of local scope, then the node with the
+	 * lowest ID, so that nodes joining together pull from the same one.
+	 * @return the node, or null if no node is connected
+	 */
+	private Node chooseSnapshotSource() {
+		short domainId = getClusterConfig().getNode().getDomainId();
+		Node source = null;
+		for (Node n : getClusterConfig().getNodes()) {
+			if (n.getNodeId() == getLocalNodeId() ||
+					!rpcService.isConnected(n.getNodeId()))
+				continue;
+			if (source == null) {
+				source = n;
+				continue;
+			}
+			boolean local = n.getDomainId() == domainId;
+			boolean sourceLocal = source.getDomainId() == domainId;
+			if ((local && !sourceLocal) ||
+					(local == sourceLocal &&
+					n.getNodeId() < source.getNodeId()))
+				source = n;
+		}
+		return source;
+	}
+
 	/**
 	 * Communicate with a random node and do a full synchronization of the
 	 * all the stores on each node that have the appropriate scope.
@@ -444,6 +608,10 @@ public class SyncManager extends AbstractSyncManager {
 		if (hintThreadPool != null) {
 			hintThreadPool.shutdown();
 		}
+		for (NodeHintQueue queue : nodeHintQueues.values()) {
+			queue.clear();
+		}
+		nodeHintQueues.clear();
 		if (storeRegistry != null) {
 			storeRegistry.shutdown();
 		}
@@ -476,6 +644,14 @@ public class SyncManager extends AbstractSyncManager {
 				persistenceEnabled =
 						Boolean.parseBoolean(config.get("persistenceEnabled"));
 			}
+			if (config.containsKey("snapshotBootstrap")) {
+				snapshotBootstrap =
+						Boolean.parseBoolean(config.get("snapshotBootstrap"));
+			}
+			if (config.containsKey("compressionThreshold")) {
+				compressionThreshold =
+						Integer.parseInt(config.get("compressionThreshold"));
+			}
 			if (config.containsKey("configProviders")) {
 				configProviders = config.get("configProviders").split(",");
 			}
@@ -493,6 +669,25 @@ public class SyncManager extends AbstractSyncManager {
 					"providers " + Arrays.toString(configProviders), e);
 		}
 
+		try {
+			if (config.containsKey("defaultPersistentEngine")) {
+				storeRegistry.setDefaultEngine(PersistentEngine.valueOf(
+						config.get("defaultPersistentEngine").trim().toUpperCase()));
+			}
+			String engineString = config.get("persistentEngines");
+			if (engineString != null) {
+				Map<String, PersistentEngine> engines =
+						(new ObjectMapper()).readValue(engineString,
+								new TypeReference<Map<String, PersistentEngine>>() {});
+				for (Entry<String, PersistentEngine> e : engines.entrySet()) {
+					storeRegistry.setEngine(e.getKey(), e.getValue());
+				}
+			}
+		} catch (Exception e) {
+			throw new FloodlightModuleException("Failed to parse sync " +
+					"manager persistent engines", e);
+		}
+
 		String manualStoreString = config.get("manualStores");
 		if (manualStoreString != null) {
 			List<String> manualStores = null;
@@ -517,10 +712,18 @@ public class SyncManager extends AbstractSyncManager {
 			debugCounter.registerModule(PACKAGE);
 			counterHints = debugCounter.registerCounter(PACKAGE, "hints",
 					"Queued sync events processed");
+			counterHintsCoalesced = debugCounter.registerCounter(PACKAGE,
+					"hints-coalesced",
+					"Queued sync events merged into an event for the same " +
+					"key still waiting to be sent to a node");
 			counterSentValues = debugCounter.registerCounter(PACKAGE, "sent-values",
 					"Values synced to remote node");
 			counterReceivedValues = debugCounter.registerCounter(PACKAGE, "received-values",
 					"Values received from remote node");
+			counterSnapshotValues = debugCounter.registerCounter(PACKAGE,
+					"snapshot-values",
+					"Keys received from remote node in a snapshot when " +
+					"starting up");
 			counterPuts = debugCounter.registerCounter(PACKAGE, "puts",
 					"Local puts to store");
 			counterGets = debugCounter.registerCounter(PACKAGE, "gets",
@@ -544,6 +747,7 @@ public class SyncManager extends AbstractSyncManager {
 
 		timer = new HashedWheelTimer();
 		rpcService = new RPCService(this, debugCounter, timer);
+		rpcService.setCompressionThreshold(compressionThreshold);
 
 		cleanupTask = new SingletonTask(threadPool.getScheduledExecutor(),
 				new CleanupTask());
@@ -555,6 +759,9 @@ public class SyncManager extends AbstractSyncManager {
 		antientropyTask.reschedule(ANTIENTROPY_INTERVAL +
 				random.nextInt(30), TimeUnit.SECONDS);
 
+		bootstrapTask = new SingletonTask(threadPool.getScheduledExecutor(),
+				new BootstrapTask());
+
 		final ThreadGroup tg = new ThreadGroup("Hint Workers");
 		tg.setMaxPriority(Thread.NORM_PRIORITY - 2);
 		ThreadFactory f = new ThreadFactory() {
@@ -632,6 +839,7 @@ public class SyncManager extends AbstractSyncManager {
 					logger.info("[{}->{}] Disconnecting deconfigured node",
 							getLocalNodeId(), n.getNodeId());
 					rpcService.disconnectNode(n.getNodeId());
+					removeNodeHintQueue(n.getNodeId());
 				}
 			}
 		} catch (Exception e) {
@@ -664,6 +872,62 @@ public class SyncManager extends AbstractSyncManager {
 		rpcService.writeToNode(nodeId, bsm);
 	}
 
+	private boolean sendSyncValue(short nodeId, SyncMessage bsm)
+			throws InterruptedException {
+		SyncValueMessage svm = bsm.getSyncValue();
+		svm.getHeader().setTransactionId(rpcService.getTransactionId());
+		counterSentValues.add(svm.getValuesSize());
+		return rpcService.writeToNode(nodeId, bsm);
+	}
+
+	/**
+	 * Get the hint queue for the given node, creating it and its debug
+	 * counters if needed
+	 * @param nodeId the node ID
+	 * @return the {@link NodeHintQueue}
+	 */
+	private NodeHintQueue getNodeHintQueue(short nodeId) {
+		Short n = Short.valueOf(nodeId);
+		NodeHintQueue queue = nodeHintQueues.get(n);
+		if (queue != null) return queue;
+		synchronized (nodeHintQueues) {
+			queue = nodeHintQueues.get(n);
+			if (queue == null) {
+				String node = "node-" + nodeId;
+				debugCounter.registerCounter(PACKAGE, node,
+						"Synchronization to remote node " + nodeId);
+				IDebugCounter depth =
+						debugCounter.registerCounter(PACKAGE,
+								node + "/hint-queue-depth",
+								"Number of keys waiting to be sent to the node");
+				IDebugCounter lag =
+						debugCounter.registerCounter(PACKAGE,
+								node + "/hint-lag-ms",
+								"Age in milliseconds of the oldest key " +
+								"waiting to be sent to the node, or of the " +
+								"oldest in the last batch sent");
+				queue = new NodeHintQueue(nodeId, depth, lag);
+				nodeHintQueues.put(n, queue);
+			}
+			return queue;
+		}
+	}
+
+	/**
+	 * Discard the hint queue and debug counters for a node that has been
+	 * removed from the configuration
+	 * @param nodeId the node ID
+	 */
+	private void removeNodeHintQueue(short nodeId) {
+		synchronized (nodeHintQueues) {
+			NodeHintQueue queue = nodeHintQueues.remove(Short.valueOf(nodeId));
+			if (queue != null) {
+				queue.clear();
+				debugCounter.removeCounterHierarchy(PACKAGE, "node-" + nodeId);
+			}
+		}
+	}
+
 	/**
 	 * Periodically perform cleanup
 	 * @author readams
@@ -707,6 +971,34 @@ public class SyncManager extends AbstractSyncManager {
 		}
 	}
 
+	/**
+	 * Choose the node to pull the snapshot from once the nodes have had
+	 * time to connect, and start pulling it
+	 */
+	protected class BootstrapTask implements Runnable {
+		@Override
+		public void run() {
+			if (rpcService == null) return;
+			Node source = null;
+			try {
+				source = chooseSnapshotSource();
+				synchronized (SyncManager.this) {
+					if (bootstrapState != BootstrapState.WAITING)
+						return;
+					if (source != null)
+						bootstrapState = BootstrapState.RUNNING;
+				}
+				if (source != null &&
+						rpcService.startSnapshotBootstrap(source.getNodeId()))
+					return;
+			} catch (Exception e) {
+				logger.error("Failed to start snapshot bootstrap", e);
+			}
+			// Nothing to pull from; fall back to full synchronization
+			snapshotBootstrapFinished();
+		}
+	}
+
 	/**
 	 * Worker task to periodically rescan the configuration
 	 * @author readams
@@ -728,34 +1020,23 @@ public class SyncManager extends AbstractSyncManager {
 	}
 
 	/**
-	 * Worker thread that will drain the sync item queue and write the
-	 * appropriate messages to the node I/O channels
+	 * Worker thread that will drain the sync item queue and add the items
+	 * to the queues of the nodes they should be sent to, starting a
+	 * {@link NodeHintSender} for each queue that has none
 	 * @author readams
 	 */
 	protected class HintWorker implements Runnable {
-		ArrayList<Hint> tasks = new ArrayList<Hint>(50);
-		protected Map<String, SyncMessage> messages =
-				new LinkedHashMap<String, SyncMessage>();
+		ArrayList<Hint> tasks = new ArrayList<Hint>(NodeHintQueue.MIN_BATCH_SIZE);
 
 		@Override
 		public void run() {
 			while (rpcService != null) {
 				try {
-					// Batch up sync tasks so we use fewer, larger messages
-					// XXX - todo - handle hints targeted to specific nodes
-					storeRegistry.takeHints(tasks, 50);
-					for (Hint task : tasks) {
-						counterHints.increment();
-						SynchronizingStorageEngine store =
-								storeRegistry.get(task.getHintKey().
-										getStoreName());
-						SyncMessage bsm = getMessage(store);
-						KeyedValues kv =
-								TProtocolUtil.
-								getTKeyedValues(task.getHintKey().getKey(),
-										task.getValues());
-						bsm.getSyncValue().addToValues(kv);
-					}
+					// Take more hints at a time as the queue backs up
+					storeRegistry.takeHints(tasks, NodeHintQueue.
+							batchSize(storeRegistry.getHintQueueSize()));
+					counterHints.add(tasks.size());
+					long now = System.currentTimeMillis();
 
 					Iterable<Node> nodes = getClusterConfig().getNodes();
 					short localDomainId =
@@ -765,53 +1046,117 @@ public class SyncManager extends AbstractSyncManager {
 					for (Node n : nodes) {
 						if (localNodeId == n.getNodeId())
 							continue;
-						for (SyncMessage bsm : messages.values()) {
-							SyncValueMessage svm = bsm.getSyncValue();
-							if (svm.getStore().getScope().
-									equals(org.sdnplatform.sync.thrift.
-											Scope.LOCAL) &&
-											n.getDomainId() != localDomainId) {
-								// This message is only for local domain
+						// Nodes that are not connected are synchronized
+						// by antientropy when they connect
+						if (!rpcService.isConnected(n.getNodeId()))
+							continue;
+						NodeHintQueue queue = null;
+						for (Hint task : tasks) {
+							HintKey hk = task.getHintKey();
+							if (hk.getNodeId() >= 0 &&
+									hk.getNodeId() != n.getNodeId()) {
+								// This hint is targeted to another node
 								continue;
 							}
-
-							svm.getHeader().setTransactionId(rpcService.getTransactionId());
-							counterSentValues.add(bsm.getSyncValue().getValuesSize());
-							rpcService.writeToNode(n.getNodeId(), bsm);
+							SynchronizingStorageEngine store =
+									storeRegistry.get(hk.getStoreName());
+							if (Scope.LOCAL.equals(store.getScope()) &&
+									n.getDomainId() != localDomainId) {
+								// This store is only for local domain
+								continue;
+							}
+							if (queue == null)
+								queue = getNodeHintQueue(n.getNodeId());
+							if (hk.getNodeId() >= 0)
+								hk = new HintKey(hk.getStoreName(), hk.getKey());
+							if (queue.offer(hk, task.getValues(), now))
+								counterHintsCoalesced.increment();
+						}
+						if (queue != null && queue.claimSender()) {
+							hintThreadPool.execute(new NodeHintSender(queue));
 						}
 					}
-					tasks.clear();
-					clearMessages();
-
 				} catch (Exception e) {
 					logger.error("Error occured in synchronization worker", e);
+				} finally {
+					tasks.clear();
 				}
 			}
 		}
+	}
 
-		/**
-		 * Clear the current list of pending messages
-		 */
-		private void clearMessages() {
-			messages.clear();
+	/**
+	 * Worker thread that drains the hint queue for one node and writes the
+	 * hints to the node's I/O channel, so that a slow node does not hold
+	 * up synchronization to the others
+	 */
+	protected class NodeHintSender implements Runnable {
+		private final NodeHintQueue queue;
+		private final ArrayList<Hint> batch = new ArrayList<Hint>();
+		private final Map<String, SyncMessage> messages =
+				new LinkedHashMap<String, SyncMessage>();
+
+		public NodeHintSender(NodeHintQueue queue) {
+			super();
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			while (rpcService != null) {
+				try {
+					if (queue.drain(batch, NodeHintQueue.batchSize(queue.size()),
+							System.currentTimeMillis()) == 0)
+						return;
+					if (!sendHints()) {
+						// The node has disconnected and will be
+						// resynchronized by antientropy when it reconnects
+						queue.clear();
+					}
+				} catch (Exception e) {
+					logger.error("Error occured sending sync values to node " +
+							queue.getNodeId(), e);
+				} finally {
+					batch.clear();
+					messages.clear();
+				}
+			}
 		}
 
 		/**
-		 * Allocate a partially-initialized {@link SyncMessage} object for
-		 * the given store
-		 * @param store the store
-		 * @return the {@link SyncMessage} object
+		 * Pack the current batch into sync value messages and write them
+		 * to the node
+		 * @return false if the node is not connected
+		 * @throws InterruptedException
 		 */
-		private SyncMessage getMessage(SynchronizingStorageEngine store) {
-			String storeName = store.getName();
-			SyncMessage bsm = messages.get(storeName);
-			if (bsm == null) {
-				bsm = TProtocolUtil.getTSyncValueMessage(storeName,
-						store.getScope(),
-						store.isPersistent());
-				messages.put(storeName, bsm);
-			}
-			return bsm;
+		private boolean sendHints() throws InterruptedException {
+			short nodeId = queue.getNodeId();
+			for (Hint task : batch) {
+				SynchronizingStorageEngine store =
+						storeRegistry.get(task.getHintKey().getStoreName());
+				SyncMessage bsm = messages.get(store.getName());
+				if (bsm != null && bsm.getSyncValue().getValuesSize() >=
+						MAX_HINT_VALUES_PER_MESSAGE) {
+					if (!sendSyncValue(nodeId, bsm))
+						return false;
+					bsm = null;
+				}
+				if (bsm == null) {
+					bsm = TProtocolUtil.getTSyncValueMessage(store.getName(),
+							store.getScope(),
+							store.isPersistent());
+					messages.put(store.getName(), bsm);
+				}
+				KeyedValues kv =
+						TProtocolUtil.getTKeyedValues(task.getHintKey().getKey(),
+								task.getValues());
+				bsm.getSyncValue().addToValues(kv);
+			}
+			for (SyncMessage bsm : messages.values()) {
+				if (!sendSyncValue(nodeId, bsm))
+					return false;
+			}
+			return true;
 		}
 	}
 
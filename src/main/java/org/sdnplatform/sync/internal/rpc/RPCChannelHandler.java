@@ -1,6 +1,7 @@
 package org.sdnplatform.sync.internal.rpc;
 
 import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -48,6 +49,16 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
     protected Node remoteNode;
     protected boolean isClientConnection = false;
 
+    /**
+     * The snapshot being pulled from the remote node, if any
+     */
+    protected SnapshotBootstrap bootstrap;
+
+    /**
+     * Cursors opened by the remote end that are not yet closed
+     */
+    protected HashSet<Integer> openCursors = new HashSet<Integer>();
+
     public RPCChannelHandler(SyncManager syncManager,
                              RPCService rpcService) {
         super();
@@ -70,9 +81,44 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         if (remoteNode != null) {
             rpcService.disconnectNode(remoteNode.getNodeId());
         }
+        if (bootstrap != null) {
+            bootstrap.abort();
+        }
+        for (Integer cursorId : openCursors) {
+            Cursor c = syncManager.getCursor(cursorId.intValue());
+            if (c != null)
+                syncManager.closeCursor(c);
+        }
+        openCursors.clear();
         super.channelInactive(ctx);
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx)
+            throws Exception {
+        // Acknowledgements and sync requests for everything read are
+        // only written by the handlers; send them together
+        ctx.flush();
+        super.channelReadComplete(ctx);
+    }
+
+    /**
+     * Pull a snapshot of the local node's stores from the remote node.
+     * Must be called from the channel's I/O thread.
+     * @param channel the channel to the remote node
+     */
+    protected void startSnapshotBootstrap(Channel channel) {
+        if (remoteNode == null || !channel.isActive()) {
+            // disconnected meanwhile
+            syncManager.snapshotBootstrapFinished();
+            return;
+        }
+        bootstrap = new SnapshotBootstrap(syncManager, rpcService,
+                                          remoteNode, channel,
+                                          syncManager.getSynchronizedStores(remoteNode));
+        bootstrap.start();
+    }
+
     // ******************************************
     // AbstractRPCChannelHandler message handlers
     // ******************************************
@@ -97,12 +143,12 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         }
         rpcService.nodeConnected(remoteNode.getNodeId(), channel);
 
-        FullSyncRequestMessage srm = new FullSyncRequestMessage();
-        AsyncMessageHeader header = new AsyncMessageHeader();
-        header.setTransactionId(getTransactionId());
-        srm.setHeader(header);
-        SyncMessage bsm = new SyncMessage(MessageType.FULL_SYNC_REQUEST);
-        channel.writeAndFlush(bsm);
+        // While we join from a snapshot, the full synchronization is
+        // requested once it finishes
+        if (!syncManager.checkSnapshotBootstrap()) {
+            channel.writeAndFlush(TProtocolUtil.
+                                  getTFullSyncRequestMessage(getTransactionId()));
+        }
 
         // XXX - TODO - if last connection was longer ago than the tombstone
         // timeout, then we need to do a complete flush and reload of our
@@ -261,7 +307,8 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
 
             updateCounter(SyncManager.counterReceivedValues,
                           request.getValuesSize());
-            channel.writeAndFlush(bsm);
+            // flushed with the other replies at the end of the read
+            channel.write(bsm);
         } catch (Exception e) {
             channel.writeAndFlush(getError(request.getHeader().getTransactionId(), e,
                                    MessageType.SYNC_VALUE));
@@ -306,7 +353,7 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
                                           getRemoteNodeIdString(),
                                           srm.getKeysSize()});
             }
-            channel.writeAndFlush(bsm);
+            channel.write(bsm);
 
         } catch (Exception e) {
             channel.writeAndFlush(getError(request.getHeader().getTransactionId(),
@@ -368,6 +415,7 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
                 c = syncManager.getCursor(request.getCursorId());
             } else {
                 c = syncManager.newCursor(request.getStoreName());
+                openCursors.add(Integer.valueOf(c.getCursorId()));
             }
             if (c == null) {
                 throw new SyncException("Unrecognized cursor");
@@ -381,6 +429,7 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
 
             if (request.isClose()) {
                 syncManager.closeCursor(c);
+                openCursors.remove(Integer.valueOf(c.getCursorId()));
             } else {
                 int i = 0;
                 while (i < 50 && c.hasNext()) {
@@ -402,6 +451,14 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         }
     }
 
+    @Override
+    protected void handleCursorResponse(CursorResponseMessage response,
+                                        Channel channel) {
+        if (bootstrap != null && bootstrap.handleResponse(response))
+            return;
+        super.handleCursorResponse(response, channel);
+    }
+
     @Override
     protected void handleRegisterRequest(RegisterRequestMessage request,
                                          Channel channel) {
@@ -513,6 +570,8 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
 
     @Override
     protected void handleError(ErrorMessage error, Channel channel) {
+        if (bootstrap != null && bootstrap.handleError(error))
+            return;
         rpcService.messageAcked(error.getType(), getRemoteNodeId());
         updateCounter(SyncManager.counterErrorRemote, 1);
         super.handleError(error, channel);
@@ -51,7 +51,7 @@ public class RPCChannelInitializer extends ChannelInitializer<Channel> {
         pipeline.addLast("syncMessageDecoder",
                          new SyncMessageDecoder(maxFrameSize));
         pipeline.addLast("syncMessageEncoder",
-                         new SyncMessageEncoder());
+                         new SyncMessageEncoder(rpcService.getCompressionThreshold()));
 
         pipeline.addLast("handler", channelHandler);
     }
@@ -17,6 +17,8 @@ import io.netty.util.concurrent.GlobalEventExecutor;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Set;
@@ -39,8 +41,11 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import org.sdnplatform.sync.internal.SyncManager;
 import org.sdnplatform.sync.internal.config.Node;
 import org.sdnplatform.sync.internal.util.Pair;
+import org.sdnplatform.sync.thrift.AsyncMessageHeader;
+import org.sdnplatform.sync.thrift.KeyedValues;
 import org.sdnplatform.sync.thrift.MessageType;
 import org.sdnplatform.sync.thrift.SyncMessage;
+import org.sdnplatform.sync.thrift.SyncValueMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -137,8 +142,9 @@ public class RPCService{
     /**
      * If we want to rate-limit certain types of messages, we can do
      * so by limiting the overall number of outstanding messages.  
-     * The number of such messages will be stored in the
-     * {@link MessageWindow}
+     * Each unacknowledged message uses one of the node's credits in its
+     * {@link MessageWindow}; messages without credit wait in the window's
+     * backlog and are written as acknowledgements return credits.
      */
     protected ConcurrentHashMap<Short, MessageWindow> messageWindows;
     protected static final EnumSet<MessageType> windowedTypes = 
@@ -173,6 +179,25 @@ public class RPCService{
      */
     protected static final int MAX_PENDING_MESSAGES = 500;
 
+    /**
+     * The maximum number of messages waiting for credit for a node.
+     * Writers block once the backlog is full.
+     */
+    protected static final int MAX_BACKLOG_MESSAGES = 1000;
+
+    /**
+     * Sync values waiting in the backlog for the same store are merged
+     * into one message while it holds fewer values than this
+     */
+    protected static final int MAX_COALESCED_VALUES = 100;
+
+    /**
+     * Frames of sync values and offers at least this long are compressed,
+     * or none if 0
+     * @see SyncMessageEncoder
+     */
+    protected int compressionThreshold = 0;
+
     public RPCService(SyncManager syncManager, 
                       IDebugCounterService debugCounter,
                       Timer timer) {
@@ -276,9 +301,11 @@ public class RPCService{
         if (nodeId == null) return false;
         NodeConnection nc = connections.get(nodeId);
         if (nc != null && nc.state == NodeConnectionState.CONNECTED) {
-            waitForMessageWindow(bsm.getType(), nodeId, 0);
-            nc.nodeChannel.writeAndFlush(bsm);
-            return true;
+            if (!windowedTypes.contains(bsm.getType())) {
+                nc.nodeChannel.writeAndFlush(bsm);
+                return true;
+            }
+            return queueWindowed(nodeId, bsm);
         }
         return false;
     }
@@ -296,6 +323,7 @@ public class RPCService{
                 mw.lock.lock();
                 mw.disconnected = true;
                 try {
+                    mw.backlog.clear();
                     mw.full.signalAll();
                     messageWindows.remove(n);
                 } finally {
@@ -350,6 +378,32 @@ public class RPCService{
         return (nc != null && nc.state == NodeConnectionState.CONNECTED);
     }
 
+    /**
+     * Start pulling a snapshot of the local node's stores from a
+     * connected node.  The snapshot runs on the I/O thread of the node's
+     * channel.
+     * @param nodeId the node to pull the snapshot from
+     * @return false if the node is not connected
+     * @see SnapshotBootstrap
+     */
+    public boolean startSnapshotBootstrap(short nodeId) {
+        NodeConnection nc = connections.get(nodeId);
+        if (nc == null || nc.state != NodeConnectionState.CONNECTED)
+            return false;
+        final Channel channel = nc.nodeChannel;
+        if (channel == null) return false;
+        final RPCChannelHandler handler =
+                channel.pipeline().get(RPCChannelHandler.class);
+        if (handler == null) return false;
+        channel.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                handler.startSnapshotBootstrap(channel);
+            }
+        });
+        return true;
+    }
+
     /**
      * Called when a message is acknowledged by a remote node
      * @param type the message type
@@ -362,15 +416,22 @@ public class RPCService{
         MessageWindow mw = messageWindows.get(nodeId);
         if (mw == null) return;
 
-        int pending = mw.pending.decrementAndGet();
-        if (pending < MAX_PENDING_MESSAGES) {
-            mw.lock.lock();
-            try {
-                mw.full.signalAll();
-            } finally {
-                mw.lock.unlock();
-            }
-        }
+        mw.pending.decrementAndGet();
+        drainWindow(nodeId, mw);
+    }
+
+    /**
+     * Set the length of the smallest sync value or offer frame to
+     * compress.  Takes effect for connections made afterwards.
+     * @param compressionThreshold the length in bytes, or 0 to disable
+     * compression
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
     }
 
     // *************
@@ -398,45 +459,123 @@ public class RPCService{
     }
     
     /**
-     * Wait for a message window slow to be available for the given node and 
-     * message type
-     * @param type the type of the message
+     * Add a windowed message to the node's backlog, waiting while the
+     * backlog is full, and write what the node's credit allows
      * @param nodeId the node Id
-     * @param maxWait the maximum time to wait in milliseconds
-     * @throws InterruptedException 
-     * @return <code>true</code> if the message can be safely written
+     * @param bsm the message
+     * @return <code>true</code> if the message was queued
+     * @throws InterruptedException
      */
-    private boolean waitForMessageWindow(MessageType type, short nodeId,
-                                         long maxWait) 
+    private boolean queueWindowed(short nodeId, SyncMessage bsm)
             throws InterruptedException {
-        if (!windowedTypes.contains(type)) return true;
-
-        long start = System.nanoTime();
-        
-        // note that this can allow slightly more than the maximum number
-        // of messages.  This is fine.
         MessageWindow mw = getMW(nodeId);
-        if (!mw.disconnected && 
-            mw.pending.get() >= MAX_PENDING_MESSAGES) {
-            mw.lock.lock();
-            try {
-                while (!mw.disconnected && 
-                       mw.pending.get() >= MAX_PENDING_MESSAGES) {
-                    long now = System.nanoTime();
-                    if (maxWait > 0 && 
-                        (now - start) > maxWait * 1000) return false;
-                    mw.full.awaitNanos(now - start);
-                }
-            } finally {
-                mw.lock.unlock();
+        if (mw == null) return false;
+
+        mw.lock.lock();
+        try {
+            while (!mw.disconnected &&
+                   mw.backlog.size() >= MAX_BACKLOG_MESSAGES) {
+                mw.full.await();
             }
+            if (mw.disconnected) return false;
+            mw.backlog.add(bsm);
+        } finally {
+            mw.lock.unlock();
         }
-        mw = getMW(nodeId);
-        if (mw != null)
-            mw.pending.getAndIncrement();
-        
+        drainWindow(nodeId, mw);
         return true;
     }
+
+    /**
+     * Write as many messages from the node's backlog as its credit
+     * allows, merging small sync values for the same store, and flush
+     * once at the end.  Writing happens under the window lock so the
+     * messages keep their order.
+     * @param nodeId the node Id
+     * @param mw the node's message window
+     */
+    private void drainWindow(short nodeId, MessageWindow mw) {
+        NodeConnection nc = connections.get(nodeId);
+        Channel channel = (nc == null) ? null : nc.nodeChannel;
+        if (channel == null) return;
+
+        mw.lock.lock();
+        try {
+            if (mw.disconnected) return;
+            int written = 0;
+            while (mw.pending.get() < MAX_PENDING_MESSAGES &&
+                   !mw.backlog.isEmpty()) {
+                SyncMessage bsm = coalesce(mw.backlog);
+                mw.pending.incrementAndGet();
+                channel.write(bsm);
+                written += 1;
+            }
+            if (written > 0) {
+                channel.flush();
+                mw.full.signalAll();
+            }
+        } finally {
+            mw.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next message from the backlog.  If it holds sync values
+     * that are not a response, merge the following such messages for
+     * the same store into it, up to {@link #MAX_COALESCED_VALUES}.  The
+     * queued messages may be shared with other nodes, so they are not
+     * modified.
+     * @param backlog the backlog
+     * @return the message to write
+     */
+    private SyncMessage coalesce(ArrayDeque<SyncMessage> backlog) {
+        SyncMessage first = backlog.poll();
+        if (!isCoalescable(first, null)) return first;
+
+        SyncValueMessage merged = null;
+        SyncMessage next;
+        while ((next = backlog.peek()) != null &&
+               isCoalescable(next, first.getSyncValue())) {
+            SyncValueMessage svm = next.getSyncValue();
+            int size = (merged == null)
+                    ? first.getSyncValue().getValuesSize()
+                    : merged.getValuesSize();
+            if (size + svm.getValuesSize() > MAX_COALESCED_VALUES)
+                break;
+            if (merged == null) {
+                merged = new SyncValueMessage();
+                AsyncMessageHeader header = new AsyncMessageHeader();
+                header.setTransactionId(getTransactionId());
+                merged.setHeader(header);
+                merged.setStore(first.getSyncValue().getStore());
+                merged.setValues(new ArrayList<KeyedValues>(
+                        first.getSyncValue().getValues()));
+            }
+            merged.getValues().addAll(svm.getValues());
+            backlog.poll();
+        }
+        if (merged == null) return first;
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_VALUE);
+        bsm.setSyncValue(merged);
+        return bsm;
+    }
+
+    /**
+     * Check whether the message holds sync values that can be merged
+     * with others
+     * @param bsm the message
+     * @param to if not null, the message must be for the same store as
+     * this one
+     */
+    private static boolean isCoalescable(SyncMessage bsm,
+                                         SyncValueMessage to) {
+        if (bsm.getType() != MessageType.SYNC_VALUE) return false;
+        SyncValueMessage svm = bsm.getSyncValue();
+        if (svm == null || svm.isSetResponseTo() || !svm.isSetValues())
+            return false;
+        if (svm.getValuesSize() >= MAX_COALESCED_VALUES) return false;
+        return to == null || svm.getStore().equals(to.getStore());
+    }
     
     /**
      * Start listening sockets
@@ -668,6 +807,7 @@ public class RPCService{
         volatile boolean disconnected = false;
         Lock lock = new ReentrantLock();
         Condition full = lock.newCondition();
+        ArrayDeque<SyncMessage> backlog = new ArrayDeque<SyncMessage>();
     }
     
     /**
@@ -686,8 +826,7 @@ public class RPCService{
      * A worker thread responsible for reading sync messages off the queue
      * and writing them to the appropriate node's channel.  Because calls 
      * {@link RPCService#writeToNode(Short, SyncMessage)} can block while
-     * waiting for available slots in the message window, we do this in a
-     * separate thread.
+     * the node's backlog is full, we do this in a separate thread.
      * @author readams
      */
     protected class SyncMessageWorker implements Runnable {
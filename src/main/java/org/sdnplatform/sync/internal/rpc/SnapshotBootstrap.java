@@ -0,0 +1,277 @@
+package org.sdnplatform.sync.internal.rpc;
+
+import io.netty.channel.Channel;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.sdnplatform.sync.error.SyncException;
+import org.sdnplatform.sync.internal.SyncManager;
+import org.sdnplatform.sync.internal.config.Node;
+import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
+import org.sdnplatform.sync.thrift.AsyncMessageHeader;
+import org.sdnplatform.sync.thrift.CursorRequestMessage;
+import org.sdnplatform.sync.thrift.CursorResponseMessage;
+import org.sdnplatform.sync.thrift.ErrorMessage;
+import org.sdnplatform.sync.thrift.KeyedValues;
+import org.sdnplatform.sync.thrift.MessageType;
+import org.sdnplatform.sync.thrift.SyncMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pull a snapshot of the local node's synchronized stores from a single
+ * remote node when the local node joins the cluster with empty stores,
+ * instead of waiting for the remote nodes to offer their keys through
+ * antientropy.  The remote node is chosen by the {@link SyncManager}
+ * among the nodes connected shortly after the first one.  Each store is
+ * read through a cursor on the remote node with a window of requests
+ * outstanding, so the remote node streams its entries in chunks without
+ * waiting for a round trip per chunk.  The values are written directly
+ * to the local storage engines, merging by version as for any
+ * synchronized value.
+ *
+ * The snapshot starts once the connection is established, when the
+ * remote node already sends the local node its new writes, so anything
+ * written on the remote node after the snapshot's cursor passes a key
+ * arrives as an ordinary sync value.  Antientropy is deferred until the
+ * snapshot finishes; it then only needs to fill in what the snapshot
+ * missed.
+ *
+ * All methods must be called from the channel's I/O thread.
+ */
+public class SnapshotBootstrap {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(SnapshotBootstrap.class);
+
+    /**
+     * Number of cursor requests kept outstanding for a store
+     */
+    protected static final int SNAPSHOT_WINDOW = 16;
+
+    private final SyncManager syncManager;
+    private final RPCService rpcService;
+    private final Node remoteNode;
+    private final Channel channel;
+
+    /**
+     * Stores still to be transferred
+     */
+    private final ArrayDeque<SynchronizingStorageEngine> stores;
+
+    /**
+     * Transaction IDs of the outstanding requests for entries in the
+     * current store
+     */
+    private final Set<Integer> requests = new HashSet<Integer>();
+
+    /**
+     * Transaction IDs of outstanding requests whose replies are ignored
+     */
+    private final Set<Integer> ignored = new HashSet<Integer>();
+
+    private SynchronizingStorageEngine store;
+    private Integer cursorId;
+    private boolean exhausted;
+    private boolean finished = false;
+    private boolean complete = true;
+    private int storeKeys;
+    private int totalKeys = 0;
+    private long startTime;
+
+    public SnapshotBootstrap(SyncManager syncManager,
+                             RPCService rpcService,
+                             Node remoteNode,
+                             Channel channel,
+                             Collection<SynchronizingStorageEngine> stores) {
+        super();
+        this.syncManager = syncManager;
+        this.rpcService = rpcService;
+        this.remoteNode = remoteNode;
+        this.channel = channel;
+        this.stores = new ArrayDeque<SynchronizingStorageEngine>(stores);
+    }
+
+    // **************
+    // public methods
+    // **************
+
+    /**
+     * Start transferring the stores
+     */
+    public void start() {
+        startTime = System.currentTimeMillis();
+        logger.info("[{}->{}] Bootstrapping {} stores from snapshot",
+                    new Object[]{syncManager.getLocalNodeId(),
+                                 remoteNode.getNodeId(),
+                                 stores.size()});
+        nextStore();
+    }
+
+    /**
+     * Handle a cursor response
+     * @param response the response
+     * @return true if the response was for a request made for the
+     * snapshot
+     */
+    public boolean handleResponse(CursorResponseMessage response) {
+        Integer xid = Integer.valueOf(response.getHeader().getTransactionId());
+        if (ignored.remove(xid)) return true;
+        if (!requests.remove(xid)) return false;
+        if (finished) return true;
+
+        try {
+            if (cursorId == null)
+                cursorId = Integer.valueOf(response.getCursorId());
+            if (response.getValuesSize() == 0) {
+                exhausted = true;
+            } else {
+                for (KeyedValues kv : response.getValues()) {
+                    syncManager.writeSyncValue(store.getName(),
+                                               store.getScope(),
+                                               store.isPersistent(),
+                                               kv.getKey(),
+                                               new TVersionedValueIterable(kv.getValues()));
+                }
+                storeKeys += response.getValuesSize();
+                SyncManager.counterSnapshotValues.add(response.getValuesSize());
+            }
+            sendRequests();
+        } catch (Exception e) {
+            logger.error("[{}->{}] Failed to apply snapshot of store " +
+                         store.getName(),
+                         new Object[]{syncManager.getLocalNodeId(),
+                                      remoteNode.getNodeId(), e});
+            complete = false;
+            finish();
+        }
+        return true;
+    }
+
+    /**
+     * Handle an error message
+     * @param error the error
+     * @return true if the error was for a request made for the snapshot
+     */
+    public boolean handleError(ErrorMessage error) {
+        Integer xid = Integer.valueOf(error.getHeader().getTransactionId());
+        if (ignored.remove(xid)) return true;
+        if (!requests.remove(xid)) return false;
+        if (finished) return true;
+
+        if (cursorId == null && error.isSetError() &&
+            error.getError().getErrorCode() ==
+                SyncException.ErrorType.UNKNOWN_STORE.getValue()) {
+            // The remote node has no data for this store
+            logger.debug("[{}->{}] Store {} not present for snapshot",
+                         new Object[]{syncManager.getLocalNodeId(),
+                                      remoteNode.getNodeId(),
+                                      store.getName()});
+        } else {
+            logger.warn("[{}->{}] Snapshot of store {} failed: {}",
+                        new Object[]{syncManager.getLocalNodeId(),
+                                     remoteNode.getNodeId(),
+                                     store.getName(),
+                                     error.isSetError() ?
+                                         error.getError().getMessage() : ""});
+            complete = false;
+        }
+        exhausted = true;
+        sendRequests();
+        return true;
+    }
+
+    /**
+     * Give up on the snapshot because the connection was lost
+     */
+    public void abort() {
+        if (finished) return;
+        logger.warn("[{}->{}] Connection lost during snapshot bootstrap",
+                    syncManager.getLocalNodeId(), remoteNode.getNodeId());
+        complete = false;
+        finish();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // ***************
+    // Local methods
+    // ***************
+
+    private void nextStore() {
+        store = stores.poll();
+        if (store == null) {
+            finish();
+            return;
+        }
+        cursorId = null;
+        exhausted = false;
+        storeKeys = 0;
+        sendRequests();
+    }
+
+    /**
+     * Keep the window of requests full until the cursor is exhausted,
+     * then close it and move on to the next store.  Until the first
+     * reply arrives there is no cursor, so only one request is sent.
+     */
+    private void sendRequests() {
+        if (!exhausted) {
+            while (requests.size() < SNAPSHOT_WINDOW &&
+                   (cursorId != null || requests.isEmpty())) {
+                requests.add(Integer.valueOf(sendRequest(false)));
+            }
+            return;
+        }
+        if (!requests.isEmpty()) return;
+
+        if (cursorId != null)
+            ignored.add(Integer.valueOf(sendRequest(true)));
+        logger.debug("[{}->{}] Received {} keys for store {}",
+                     new Object[]{syncManager.getLocalNodeId(),
+                                  remoteNode.getNodeId(),
+                                  storeKeys, store.getName()});
+        totalKeys += storeKeys;
+        nextStore();
+    }
+
+    private int sendRequest(boolean close) {
+        int xid = rpcService.getTransactionId();
+        CursorRequestMessage crm = new CursorRequestMessage();
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        header.setTransactionId(xid);
+        crm.setHeader(header);
+        if (cursorId == null) {
+            crm.setStoreName(store.getName());
+        } else {
+            crm.setCursorId(cursorId.intValue());
+        }
+        if (close)
+            crm.setClose(true);
+        SyncMessage bsm = new SyncMessage(MessageType.CURSOR_REQUEST);
+        bsm.setCursorRequest(crm);
+        channel.writeAndFlush(bsm);
+        return xid;
+    }
+
+    private void finish() {
+        finished = true;
+        ignored.addAll(requests);
+        requests.clear();
+        if (store != null && cursorId != null && channel.isActive()) {
+            // Release the remote cursor of the store we gave up on
+            ignored.add(Integer.valueOf(sendRequest(true)));
+        }
+        logger.info("[{}->{}] Snapshot bootstrap {} after {} keys in {}ms",
+                    new Object[]{syncManager.getLocalNodeId(),
+                                 remoteNode.getNodeId(),
+                                 complete ? "completed" : "failed",
+                                 totalKeys + (complete ? 0 : storeKeys),
+                                 System.currentTimeMillis() - startTime});
+        syncManager.snapshotBootstrapFinished();
+    }
+}
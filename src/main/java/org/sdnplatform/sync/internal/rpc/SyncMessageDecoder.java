@@ -1,13 +1,42 @@
 package org.sdnplatform.sync.internal.rpc;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
 import net.floodlightcontroller.core.util.ThriftFrameDecoder;
 
 import org.sdnplatform.sync.thrift.SyncMessage;
 
+/**
+ * Decode length-prefixed Thrift frames into sync messages.
+ *
+ * A frame written by a {@link SyncMessageEncoder} with compression
+ * enabled may instead hold a zero byte, the four-byte length of the
+ * serialized message and the message deflated.  A serialized
+ * {@link SyncMessage} never starts with a zero byte, since that would be
+ * an empty struct and the message type is required.
+ */
 public class SyncMessageDecoder extends ThriftFrameDecoder<SyncMessage> {
+    static final byte COMPRESSED_FRAME = 0;
+    static final int COMPRESSED_HEADER_LENGTH = 5;
+
+    /**
+     * How much larger than the frame limit a deflated message may be
+     */
+    private static final int MAX_COMPRESSION_RATIO = 16;
+
+    private final int maxSize;
+    private Inflater inflater;
 
     public SyncMessageDecoder(int maxSize) {
         super(maxSize);
+        this.maxSize = maxSize;
     }
 
     @Override
@@ -15,4 +44,47 @@ public class SyncMessageDecoder extends ThriftFrameDecoder<SyncMessage> {
         return new SyncMessage();
     }
 
+    @Override
+    protected InputStream openFrame(ByteBuf frame) throws Exception {
+        if (frame.readableBytes() < COMPRESSED_HEADER_LENGTH ||
+            frame.getByte(frame.readerIndex()) != COMPRESSED_FRAME)
+            return super.openFrame(frame);
+
+        frame.skipBytes(1);
+        int length = frame.readInt();
+        if (length < 0 || length / MAX_COMPRESSION_RATIO > maxSize)
+            throw new TooLongFrameException("Compressed frame of " +
+                    length + " bytes exceeds the limit");
+        byte[] compressed = new byte[frame.readableBytes()];
+        frame.readBytes(compressed);
+        byte[] raw = new byte[length];
+        if (inflater == null)
+            inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int r = inflater.inflate(raw, n, length - n);
+                if (r == 0 && (inflater.needsInput() ||
+                               inflater.needsDictionary()))
+                    break;
+                n += r;
+            }
+            if (n != length || !inflater.finished())
+                throw new CorruptedFrameException("Compressed frame " +
+                        "does not inflate to " + length + " bytes");
+        } catch (DataFormatException e) {
+            throw new CorruptedFrameException(e);
+        }
+        return new ByteArrayInputStream(raw);
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
 }
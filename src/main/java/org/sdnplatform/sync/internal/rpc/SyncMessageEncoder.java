@@ -1,9 +1,111 @@
 package org.sdnplatform.sync.internal.rpc;
 
+import java.util.EnumSet;
+import java.util.zip.Deflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+import org.sdnplatform.sync.thrift.MessageType;
 import org.sdnplatform.sync.thrift.SyncMessage;
 
 import net.floodlightcontroller.core.util.ThriftFrameEncoder;
 
+/**
+ * Encode sync messages into length-prefixed Thrift frames.  If a
+ * compression threshold is set, frames of sync value and sync offer
+ * messages at least that long are deflated; see
+ * {@link SyncMessageDecoder} for the format.  Only enable compression
+ * once every node runs a decoder that understands it.  The buffers
+ * used for compressing are kept between frames, but not beyond
+ * {@link #MAX_RETAINED_BUFFER} bytes, for one large snapshot not to
+ * hold on to its size for the life of the connection.
+ */
 public class SyncMessageEncoder extends ThriftFrameEncoder<SyncMessage> {
+    protected static final EnumSet<MessageType> compressedTypes =
+            EnumSet.of(MessageType.SYNC_VALUE,
+                       MessageType.SYNC_OFFER);
+
+    /**
+     * The largest compression buffers kept once a frame is written
+     */
+    protected static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final int compressionThreshold;
+    private Deflater deflater;
+    private byte[] rawBuffer = new byte[0];
+    private byte[] compressedBuffer = new byte[0];
+
+    public SyncMessageEncoder() {
+        this(0);
+    }
+
+    /**
+     * @param compressionThreshold the length of the smallest frame to
+     * compress, or 0 never to compress
+     */
+    public SyncMessageEncoder(int compressionThreshold) {
+        super();
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, SyncMessage msg,
+                          ByteBuf out) throws Exception {
+        int start = out.writerIndex();
+        super.encode(ctx, msg, out);
+
+        if (compressionThreshold <= 0 ||
+            !compressedTypes.contains(msg.getType()))
+            return;
+        int length = out.getInt(start);
+        if (length < compressionThreshold)
+            return;
+
+        if (rawBuffer.length < length) {
+            rawBuffer = new byte[length];
+            compressedBuffer = new byte[length];
+        }
+        try {
+            compress(out, start, length);
+        } finally {
+            if (rawBuffer.length > MAX_RETAINED_BUFFER) {
+                rawBuffer = new byte[0];
+                compressedBuffer = new byte[0];
+            }
+        }
+    }
+
+    /* Replaces the frame at start with its deflated form if that is shorter */
+    private void compress(ByteBuf out, int start, int length) {
+        out.getBytes(start + 4, rawBuffer, 0, length);
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.reset();
+        deflater.setInput(rawBuffer, 0, length);
+        deflater.finish();
+        int clen = 0;
+        while (!deflater.finished() && clen < length) {
+            clen += deflater.deflate(compressedBuffer, clen, length - clen);
+        }
+        // Keep the frame as it is unless compressing saves something
+        if (!deflater.finished() ||
+            clen + SyncMessageDecoder.COMPRESSED_HEADER_LENGTH >= length)
+            return;
+
+        out.writerIndex(start);
+        out.writeInt(clen + SyncMessageDecoder.COMPRESSED_HEADER_LENGTH);
+        out.writeByte(SyncMessageDecoder.COMPRESSED_FRAME);
+        out.writeInt(length);
+        out.writeBytes(compressedBuffer, 0, clen);
+    }
 
-}
\ No newline at end of file
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        super.handlerRemoved(ctx);
+    }
+}
@@ -9,6 +9,7 @@ import org.sdnplatform.sync.internal.util.ByteArray;
 import org.sdnplatform.sync.internal.version.ClockEntry;
 import org.sdnplatform.sync.internal.version.VectorClock;
 import org.sdnplatform.sync.thrift.AsyncMessageHeader;
+import org.sdnplatform.sync.thrift.FullSyncRequestMessage;
 import org.sdnplatform.sync.thrift.SyncMessage;
 import org.sdnplatform.sync.thrift.KeyedValues;
 import org.sdnplatform.sync.thrift.KeyedVersions;
@@ -248,6 +249,23 @@ public class TProtocolUtil {
         return bsm;
     }
 
+    /**
+     * Get a {@link FullSyncRequestMessage} wrapped with a
+     * {@link SyncMessage}.
+     * @param transactionId the transaction ID for the message
+     * @return the {@link SyncMessage}
+     */
+    public static SyncMessage getTFullSyncRequestMessage(int transactionId) {
+        SyncMessage bsm = new SyncMessage(MessageType.FULL_SYNC_REQUEST);
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        header.setTransactionId(transactionId);
+        FullSyncRequestMessage srm = new FullSyncRequestMessage();
+        srm.setHeader(header);
+
+        bsm.setFullSyncRequest(srm);
+        return bsm;
+    }
+
     /**
      * Convert a thrift {@link org.sdnplatform.sync.thrift.VectorClock} into
      * a {@link VectorClock}.
@@ -14,6 +14,7 @@ import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import org.sdnplatform.sync.IClosableIterator;
+import org.sdnplatform.sync.IValueCodec;
 import org.sdnplatform.sync.IVersion;
 import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.error.SerializationException;
@@ -26,7 +27,8 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * A store that will serialize and deserialize objects to JSON using Jackson
+ * A store that will serialize and deserialize objects to JSON using Jackson,
+ * or values with an {@link IValueCodec} if one is given
  */
 public class JacksonStore<K, V> implements IStore<K, V> {
     protected static Logger logger =
@@ -49,6 +51,8 @@ public class JacksonStore<K, V> implements IStore<K, V> {
     private final boolean keyAsTree;
     private final boolean valueAsTree;
 
+    private final IValueCodec<V> valueCodec;
+
     public JacksonStore(IStore<ByteArray, byte[]> delegate,
                         Class<K> keyClass,
                         Class<V> valueClass) {
@@ -72,6 +76,27 @@ public class JacksonStore<K, V> implements IStore<K, V> {
             this.valueWriter = mapper.writerWithType(valueClass);
             this.valueReader = mapper.reader(valueClass);
         }
+        this.valueCodec = null;
+    }
+
+    public JacksonStore(IStore<ByteArray, byte[]> delegate,
+                        Class<K> keyClass,
+                        IValueCodec<V> valueCodec) {
+        super();
+        this.delegate = delegate;
+        if (keyClass.isAssignableFrom(JsonNode.class)) {
+            keyAsTree = true;
+            this.keyWriter = null;
+            this.keyReader = null;
+        } else {
+            keyAsTree = false;
+            this.keyWriter = mapper.writerWithType(keyClass);
+            this.keyReader = mapper.reader(keyClass);
+        }
+        valueAsTree = false;
+        this.valueWriter = null;
+        this.valueReader = null;
+        this.valueCodec = valueCodec;
     }
     
     public JacksonStore(IStore<ByteArray, byte[]> delegate,
@@ -85,6 +110,7 @@ public class JacksonStore<K, V> implements IStore<K, V> {
         this.keyReader = mapper.reader(keyType);
         this.valueWriter = mapper.writerWithType(valueType);
         this.valueReader = mapper.reader(valueType);
+        this.valueCodec = null;
     }
 
     // ************
@@ -157,7 +183,9 @@ public class JacksonStore<K, V> implements IStore<K, V> {
     private byte[] getValueBytes(V value) throws SyncException {
         try {
             byte[] v = null;
-            if (valueAsTree)
+            if (valueCodec != null)
+                v = valueCodec.encode(value);
+            else if (valueAsTree)
                 v = mapper.writeValueAsBytes(value);
             else
                 v = valueWriter.writeValueAsBytes(value);
@@ -167,6 +195,8 @@ public class JacksonStore<K, V> implements IStore<K, V> {
                              value, Arrays.toString(v));
             }
             return v;
+        } catch (SerializationException e) {
+            throw e;
         } catch (Exception e) {
             throw new SerializationException(e);
         }
@@ -176,10 +206,14 @@ public class JacksonStore<K, V> implements IStore<K, V> {
     private V getValueObject(byte[] value) throws SyncException {
         try {
             if (value == null) return null;
+            if (valueCodec != null)
+                return valueCodec.decode(value);
             if (valueAsTree)
                 return (V)mapper.readTree(value);
             else
                 return valueReader.readValue(value);
+        } catch (SerializationException e) {
+            throw e;
         } catch (Exception e) {
             throw new SerializationException(e);
         }
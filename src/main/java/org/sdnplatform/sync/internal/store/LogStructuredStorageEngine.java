@@ -0,0 +1,871 @@
+package org.sdnplatform.sync.internal.store;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.sdnplatform.sync.IClosableIterator;
+import org.sdnplatform.sync.IVersion;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.IVersion.Occurred;
+import org.sdnplatform.sync.error.ObsoleteVersionException;
+import org.sdnplatform.sync.error.PersistException;
+import org.sdnplatform.sync.error.SyncException;
+import org.sdnplatform.sync.error.SyncRuntimeException;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Persistent storage engine that keeps its data in an append-only log of
+ * segment files, with an in-memory index from each key to its latest
+ * record.
+ *
+ * A record holds a key with its whole list of versions, so the latest
+ * record of a key is all there is to know about it; a record without
+ * versions deletes the key. Writers append under a lock and then wait for
+ * an fsync outside of it, and one fsync covers every record appended
+ * before it started, so concurrent writers share their fsyncs. On startup
+ * the segments are replayed in order to rebuild the index, and a torn
+ * record at the end of a segment is cut off.
+ *
+ * Segments whose records are mostly superseded are compacted by copying
+ * their live records to the end of the log and deleting them. A deletion
+ * stays live for as long as an older segment may still hold a record of
+ * its key, since replaying that record without it would bring the key
+ * back, and is dropped by the first compaction after that. This runs
+ * in the background whenever a segment fills up, and in
+ * {@link #cleanupTask()}, which also drops the keys whose tombstones are
+ * older than the tombstone interval.
+ */
+public class LogStructuredStorageEngine
+    implements IStorageEngine<ByteArray, byte[]> {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(LogStructuredStorageEngine.class.getName());
+
+    /**
+     * Size at which the segment being written is closed and a new one
+     * started
+     */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Fraction of a closed segment that must still be live for it not to
+     * be compacted
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    /* Record length and CRC32 of the rest of the record */
+    private static final int HEADER_LENGTH = 8;
+
+    private static final ObjectMapper mapper =
+            new ObjectMapper(new SmileFactory());
+
+    /**
+     * Compactions of all stores, one at a time
+     */
+    private static final ExecutorService compactor =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("SyncLogCompactor")
+                    .build());
+
+    private final String name;
+    private final File directory;
+    private final long segmentBytes;
+    private final double compactionThreshold;
+    private final boolean syncWrites;
+
+    /**
+     * Interval in milliseconds before tombstones will be cleared.
+     */
+    private volatile int tombstoneDeletion = 24 * 60 * 60 * 1000;
+
+    private final ConcurrentHashMap<ByteArray, Location> index =
+            new ConcurrentHashMap<ByteArray, Location>();
+    private final ConcurrentSkipListMap<Long, Segment> segments =
+            new ConcurrentSkipListMap<Long, Segment>();
+    /**
+     * The latest record of each deleted key whose deletion must be kept.
+     * Guarded by the write lock.
+     */
+    private final HashMap<ByteArray, Location> tombstones =
+            new HashMap<ByteArray, Location>();
+
+    /**
+     * Guards appends, the active segment and the index updates they make
+     */
+    private final Object writeLock = new Object();
+    private Segment active;
+    private long appended;
+    private boolean closed;
+
+    /**
+     * Guards the group commit state
+     */
+    private final Object syncLock = new Object();
+    private long synced;
+    private boolean syncing;
+
+    private final Object compactLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * One segment file of the log
+     */
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private volatile FileChannel channel;
+        /* Closed or deleted, and not to be reopened */
+        private volatile boolean retired;
+        /* Bytes written; only changes while the segment is active */
+        private volatile long size;
+        /* Bytes of records that are the latest for their key, including
+           deletions that are kept */
+        private final AtomicLong liveBytes = new AtomicLong();
+
+        private Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = open();
+            this.size = channel.size();
+        }
+
+        private FileChannel open() throws IOException {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        }
+
+        /* The channel, reopened if an interrupted reader closed it */
+        private FileChannel channel() throws IOException {
+            FileChannel c = channel;
+            if (!c.isOpen()) {
+                synchronized (this) {
+                    if (retired)
+                        throw new IOException("Segment " + file +
+                                              " is closed");
+                    if (!channel.isOpen())
+                        channel = open();
+                    c = channel;
+                }
+            }
+            return c;
+        }
+
+        private synchronized void close() throws IOException {
+            retired = true;
+            channel.close();
+        }
+
+        private synchronized void delete() {
+            retired = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Could not close {}", file, e);
+            }
+            if (!file.delete())
+                logger.warn("Could not delete {}", file);
+        }
+    }
+
+    /**
+     * Where the latest record of a key is
+     */
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        /* Id of the oldest segment that may hold a record of the key */
+        private final long first;
+
+        private Location(Segment segment, long offset, int length,
+                         long first) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.first = first;
+        }
+    }
+
+    /**
+     * A record read back from a segment
+     */
+    private static class Record {
+        private final ByteArray key;
+        private final ByteBuffer data;
+
+        private Record(ByteArray key, ByteBuffer data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        private int length() {
+            return data.limit();
+        }
+
+        private boolean isDeletion() {
+            return data.limit() == HEADER_LENGTH + 4 + key.length();
+        }
+    }
+
+    /**
+     * Construct a new storage engine with the default segment size and
+     * compaction threshold, that waits for its writes to reach the disk
+     * @param name the name of the store
+     * @param directory the directory for the segments of the store
+     * @throws PersistException
+     */
+    public LogStructuredStorageEngine(String name, File directory)
+            throws PersistException {
+        this(name, directory, DEFAULT_SEGMENT_BYTES,
+             DEFAULT_COMPACTION_THRESHOLD, true);
+    }
+
+    /**
+     * Construct a new storage engine, replaying the segments already in
+     * its directory
+     * @param name the name of the store
+     * @param directory the directory for the segments of the store
+     * @param segmentBytes the size at which a new segment is started
+     * @param compactionThreshold the live fraction of a segment under
+     * which it is compacted
+     * @param syncWrites whether writes wait for an fsync
+     * @throws PersistException
+     */
+    public LogStructuredStorageEngine(String name, File directory,
+                                      long segmentBytes,
+                                      double compactionThreshold,
+                                      boolean syncWrites)
+            throws PersistException {
+        super();
+        this.name = name;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.compactionThreshold = compactionThreshold;
+        this.syncWrites = syncWrites;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new PersistException("Could not create directory " +
+                                       directory);
+        }
+        try {
+            File[] files = directory.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String n) {
+                    return n.endsWith(SEGMENT_SUFFIX);
+                }
+            });
+            for (File f : files) {
+                String n = f.getName();
+                long id;
+                try {
+                    id = Long.parseLong(n.substring(0, n.length() -
+                                                    SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {}", f);
+                    continue;
+                }
+                segments.put(id, new Segment(id, f));
+            }
+            for (Segment s : segments.values()) {
+                replay(s);
+            }
+            if (segments.isEmpty()) {
+                active = newSegment(1);
+            } else {
+                active = segments.lastEntry().getValue();
+            }
+        } catch (IOException e) {
+            throw new PersistException("Could not open persistent storage " +
+                                       "in " + directory, e);
+        }
+        logger.debug("Opened store {} with {} keys in {} segments",
+                     new Object[] { name, index.size(), segments.size() });
+    }
+
+    // *******************************
+    // StorageEngine<ByteArray,byte[]>
+    // *******************************
+
+    @Override
+    public List<Versioned<byte[]>> get(ByteArray key) throws SyncException {
+        StoreUtils.assertValidKey(key);
+        while (true) {
+            Location loc = index.get(key);
+            if (loc == null)
+                return new ArrayList<Versioned<byte[]>>(0);
+            try {
+                return read(loc);
+            } catch (IOException e) {
+                // the segment may have been compacted since the lookup
+                if (loc.segment.retired && index.get(key) != loc)
+                    continue;
+                throw new PersistException("Could not retrieve key from " +
+                                           "store " + name, e);
+            }
+        }
+    }
+
+    @Override
+    public IClosableIterator<Entry<ByteArray, List<Versioned<byte[]>>>>
+            entries() {
+        return new LogIterator();
+    }
+
+    @Override
+    public void put(ByteArray key, Versioned<byte[]> value)
+            throws SyncException {
+        StoreUtils.assertValidKey(key);
+        long seq;
+        synchronized (writeLock) {
+            List<Versioned<byte[]>> values = get(key);
+            if (!merge(values, value)) {
+                throw new ObsoleteVersionException("Obsolete version for key '"
+                                                   + key + "': " +
+                                                   value.getVersion());
+            }
+            seq = append(key, values);
+        }
+        if (syncWrites)
+            awaitDurable(seq);
+    }
+
+    @Override
+    public IClosableIterator<ByteArray> keys() {
+        final Iterator<ByteArray> it = index.keySet().iterator();
+        return new IClosableIterator<ByteArray>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public ByteArray next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                // no-op
+            }
+        };
+    }
+
+    @Override
+    public void truncate() throws SyncException {
+        synchronized (writeLock) {
+            long next = active.id + 1;
+            for (Segment s : segments.values()) {
+                s.delete();
+            }
+            segments.clear();
+            index.clear();
+            tombstones.clear();
+            try {
+                active = newSegment(next);
+                if (closed)
+                    active.close();
+            } catch (IOException e) {
+                throw new PersistException("Failed to truncate store " +
+                                           name, e);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void close() throws SyncException {
+        synchronized (writeLock) {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                active.channel().force(false);
+                for (Segment s : segments.values()) {
+                    s.close();
+                }
+            } catch (IOException e) {
+                throw new PersistException("Could not close store " + name,
+                                           e);
+            }
+        }
+    }
+
+    @Override
+    public boolean writeSyncValue(ByteArray key,
+                                  Iterable<Versioned<byte[]>> values) {
+        boolean success = false;
+        long seq = -1;
+        try {
+            synchronized (writeLock) {
+                List<Versioned<byte[]>> current = get(key);
+                for (Versioned<byte[]> value : values) {
+                    // obsolete versions are ignored
+                    success |= merge(current, value);
+                }
+                if (success)
+                    seq = append(key, current);
+            }
+            if (seq >= 0 && syncWrites)
+                awaitDurable(seq);
+        } catch (SyncException e) {
+            logger.error("Failed to sync value because of " +
+                         "persistence exception", e);
+            return false;
+        }
+        return success;
+    }
+
+    @Override
+    public List<IVersion> getVersions(ByteArray key) throws SyncException {
+        return StoreUtils.getVersions(get(key));
+    }
+
+    @Override
+    public void cleanupTask() throws SyncException {
+        long seq = -1;
+        for (ByteArray key : index.keySet()) {
+            try {
+                if (!StoreUtils.canDelete(get(key), tombstoneDeletion))
+                    continue;
+                synchronized (writeLock) {
+                    if (StoreUtils.canDelete(get(key), tombstoneDeletion)) {
+                        seq = append(key,
+                                     new ArrayList<Versioned<byte[]>>(0));
+                    }
+                }
+            } catch (SyncException e) {
+                logger.error("Failed to delete key", e);
+            }
+        }
+        if (seq >= 0)
+            awaitDurable(seq);
+        compact();
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public void setTombstoneInterval(int interval) {
+        this.tombstoneDeletion = interval;
+    }
+
+    // **************************
+    // LogStructuredStorageEngine
+    // **************************
+
+    /**
+     * Get the number of segment files of the store
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Compact the closed segments whose live fraction is below the
+     * compaction threshold, oldest first
+     * @throws SyncException
+     */
+    public void compact() throws SyncException {
+        synchronized (compactLock) {
+            for (Segment s : segments.values()) {
+                if (s == active || s.retired)
+                    continue;
+                if (s.liveBytes.get() < s.size * compactionThreshold)
+                    compact(s);
+            }
+        }
+    }
+
+    // *************
+    // Local methods
+    // *************
+
+    private void checkOpen() throws PersistException {
+        if (closed)
+            throw new PersistException("Store " + name + " is closed");
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        File f = new File(directory, String.format("%020d", id) +
+                          SEGMENT_SUFFIX);
+        Segment s = new Segment(id, f);
+        segments.put(id, s);
+        return s;
+    }
+
+    /**
+     * Merge a version into the versions of a key
+     * @return false if the version is obsolete
+     */
+    private static boolean merge(List<Versioned<byte[]>> values,
+                                 Versioned<byte[]> value) {
+        List<Versioned<byte[]>> itemsToRemove =
+                new ArrayList<Versioned<byte[]>>(values.size());
+        for(Versioned<byte[]> versioned: values) {
+            Occurred occurred = value.getVersion().compare(versioned.getVersion());
+            if(occurred == Occurred.BEFORE) {
+                return false;
+            } else if(occurred == Occurred.AFTER) {
+                itemsToRemove.add(versioned);
+            }
+        }
+        values.removeAll(itemsToRemove);
+        values.add(value);
+        return true;
+    }
+
+    /**
+     * Append the versions of a key to the log, or a deletion if there are
+     * none. Must hold the write lock.
+     * @return the sequence number to wait on for the record to be durable
+     */
+    private long append(ByteArray key, List<Versioned<byte[]>> values)
+            throws PersistException {
+        byte[] encoded;
+        try {
+            encoded = values.isEmpty() ? new byte[0] :
+                mapper.writeValueAsBytes(values);
+        } catch (IOException e) {
+            throw new PersistException("Could not encode value", e);
+        }
+        int length = HEADER_LENGTH + 4 + key.length() + encoded.length;
+        ByteBuffer data = ByteBuffer.allocate(length);
+        data.position(HEADER_LENGTH);
+        data.putInt(key.length());
+        data.put(key.get());
+        data.put(encoded);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), HEADER_LENGTH, length - HEADER_LENGTH);
+        data.putInt(0, length - HEADER_LENGTH);
+        data.putInt(4, (int) crc.getValue());
+        data.flip();
+        return append(new Record(key, data));
+    }
+
+    /* Must hold the write lock */
+    private long append(Record r) throws PersistException {
+        checkOpen();
+        try {
+            if (active.size > 0 && active.size + r.length() > segmentBytes)
+                roll();
+            long offset = active.size;
+            writeFully(active.channel(), r.data.duplicate(), offset);
+            active.size = offset + r.length();
+            update(r, active, offset);
+            return ++appended;
+        } catch (IOException e) {
+            throw new PersistException("Could not write to store " + name, e);
+        }
+    }
+
+    /**
+     * Make a record that was just written or replayed the latest for its
+     * key. A deletion is kept as a tombstone only if an older segment may
+     * still hold a record of the key. Must hold the write lock.
+     */
+    private void update(Record r, Segment s, long offset) {
+        Location old = index.get(r.key);
+        if (old == null)
+            old = tombstones.remove(r.key);
+        Location loc = new Location(s, offset, r.length(),
+                                    old != null ? old.first : s.id);
+        if (r.isDeletion()) {
+            index.remove(r.key);
+            if (isNeeded(loc)) {
+                tombstones.put(r.key, loc);
+                s.liveBytes.addAndGet(r.length());
+            }
+        } else {
+            index.put(r.key, loc);
+            s.liveBytes.addAndGet(r.length());
+        }
+        if (old != null)
+            old.segment.liveBytes.addAndGet(-old.length);
+    }
+
+    /* Whether a segment older than a deletion may hold a record it deletes */
+    private boolean isNeeded(Location tombstone) {
+        return !segments.subMap(tombstone.first, true,
+                                tombstone.segment.id, false).isEmpty();
+    }
+
+    /* Drop the tombstones no longer needed. Must hold the write lock */
+    private void pruneTombstones() {
+        Iterator<Location> it = tombstones.values().iterator();
+        while (it.hasNext()) {
+            Location loc = it.next();
+            if (!isNeeded(loc)) {
+                it.remove();
+                loc.segment.liveBytes.addAndGet(-loc.length);
+            }
+        }
+    }
+
+    /* Close the active segment and start a new one. Must hold the write lock */
+    private void roll() throws IOException {
+        // records in closed segments are durable
+        active.channel().force(false);
+        active = newSegment(active.id + 1);
+        if (compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compactionScheduled.set(false);
+                    try {
+                        compact();
+                    } catch (Exception e) {
+                        logger.error("Failed to compact store " + name, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait until the record with the given sequence number is on disk.
+     * Whoever finds no fsync in progress does one for everyone waiting.
+     */
+    private void awaitDurable(long seq) throws PersistException {
+        while (true) {
+            synchronized (syncLock) {
+                while (synced < seq && syncing) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new PersistException("Interrupted waiting " +
+                                                   "for write to " + name);
+                    }
+                }
+                if (synced >= seq)
+                    return;
+                syncing = true;
+            }
+
+            long target;
+            Segment segment;
+            synchronized (writeLock) {
+                // anything before target is in this segment or in a
+                // closed one, which was forced when it was closed
+                target = appended;
+                segment = active;
+            }
+            IOException error = null;
+            try {
+                segment.channel().force(false);
+            } catch (IOException e) {
+                if (!segment.retired)
+                    error = e;
+            }
+            synchronized (syncLock) {
+                syncing = false;
+                if (error == null)
+                    synced = Math.max(synced, target);
+                syncLock.notifyAll();
+            }
+            if (error != null)
+                throw new PersistException("Could not sync store " + name,
+                                           error);
+        }
+    }
+
+    private List<Versioned<byte[]>> read(Location loc) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(loc.length);
+        readFully(loc.segment.channel(), data, loc.offset);
+        int keyLength = data.getInt(HEADER_LENGTH);
+        int start = HEADER_LENGTH + 4 + keyLength;
+        return mapper.readValue(data.array(), start, loc.length - start,
+                                new TypeReference<List<VCVersioned<byte[]>>>() {});
+    }
+
+    /**
+     * Read the record at an offset of a segment
+     * @return the record, or null if it is torn or corrupt
+     */
+    private static Record readRecord(Segment s, long offset, long limit)
+            throws IOException {
+        if (offset + HEADER_LENGTH + 4 > limit)
+            return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(s.channel(), header, offset);
+        int bodyLength = header.getInt(0);
+        if (bodyLength < 4 || offset + HEADER_LENGTH + bodyLength > limit)
+            return null;
+
+        ByteBuffer data = ByteBuffer.allocate(HEADER_LENGTH + bodyLength);
+        readFully(s.channel(), data, offset);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), HEADER_LENGTH, bodyLength);
+        if ((int) crc.getValue() != data.getInt(4))
+            return null;
+        int keyLength = data.getInt(HEADER_LENGTH);
+        if (keyLength < 0 || keyLength > bodyLength - 4)
+            return null;
+        int keyStart = HEADER_LENGTH + 4;
+        ByteArray key = new ByteArray(Arrays.copyOfRange(data.array(),
+                                                         keyStart,
+                                                         keyStart + keyLength));
+        data.clear();
+        return new Record(key, data);
+    }
+
+    /* Rebuild the index from a segment, cutting off a torn tail */
+    private void replay(Segment s) throws IOException {
+        long offset = 0;
+        long size = s.channel().size();
+        Record r;
+        while ((r = readRecord(s, offset, size)) != null) {
+            update(r, s, offset);
+            offset += r.length();
+        }
+        if (offset < size) {
+            logger.warn("Dropping {} bytes of a torn or corrupt record at " +
+                        "the end of {}", size - offset, s.file);
+            s.channel().truncate(offset);
+        }
+        s.size = offset;
+    }
+
+    /* Copy the live records of a closed segment to the log, then delete it */
+    private void compact(Segment s) throws SyncException {
+        long seq = -1;
+        long offset = 0;
+        int copied = 0;
+        try {
+            Record r;
+            while ((r = readRecord(s, offset, s.size)) != null) {
+                synchronized (writeLock) {
+                    boolean deletion = r.isDeletion();
+                    Location cur = deletion ?
+                            tombstones.get(r.key) : index.get(r.key);
+                    if (cur != null && cur.segment == s &&
+                        cur.offset == offset &&
+                        (!deletion || isNeeded(cur))) {
+                        seq = append(r);
+                        copied++;
+                    }
+                }
+                offset += r.length();
+            }
+        } catch (IOException e) {
+            if (s.retired)
+                return; // truncated meanwhile
+            throw new PersistException("Could not compact " + s.file, e);
+        }
+        if (offset < s.size) {
+            throw new PersistException("Could not compact " + s.file +
+                                       ": corrupt record at " + offset);
+        }
+        if (seq >= 0)
+            awaitDurable(seq);
+        synchronized (writeLock) {
+            segments.remove(s.id);
+            // deletions of records that were only in this segment
+            pruneTombstones();
+        }
+        s.delete();
+        logger.debug("Compacted {}: {} records kept", s.file, copied);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer,
+                                  long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0)
+                throw new IOException("Unexpected end of segment");
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer,
+                                   long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private class LogIterator implements
+        IClosableIterator<Entry<ByteArray,List<Versioned<byte[]>>>> {
+
+        private final Iterator<ByteArray> keys = index.keySet().iterator();
+        private Pair<ByteArray, List<Versioned<byte[]>>> next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && keys.hasNext()) {
+                ByteArray key = keys.next();
+                try {
+                    List<Versioned<byte[]>> values = get(key);
+                    // skip keys deleted since the iterator got them
+                    if (!values.isEmpty())
+                        next = new Pair<ByteArray,
+                                        List<Versioned<byte[]>>>(key, values);
+                } catch (SyncException e) {
+                    throw new SyncRuntimeException("Error in log iterator", e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Pair<ByteArray, List<Versioned<byte[]>>> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Pair<ByteArray, List<Versioned<byte[]>>> result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // no-op
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.sdnplatform.sync.internal.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.sdnplatform.sync.error.SerializationException;
+
+/**
+ * Helpers for hand-written {@link org.sdnplatform.sync.IValueCodec}
+ * implementations.  Integers are written as unsigned LEB128 varints, so
+ * small values take a single byte.
+ */
+public class BinaryEncoding {
+
+    /**
+     * Appends values to a growing byte array
+     */
+    public static class Writer {
+        private byte[] buf;
+        private int pos;
+
+        public Writer() {
+            this(64);
+        }
+
+        public Writer(int initialSize) {
+            buf = new byte[Math.max(initialSize, 16)];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        public Writer writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+            return this;
+        }
+
+        /**
+         * Write the given value as an unsigned varint of 1 to 10 bytes
+         */
+        public Writer writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+            return this;
+        }
+
+        /**
+         * Write the given value as an unsigned 32-bit varint of 1 to 5
+         * bytes
+         */
+        public Writer writeVarInt(int v) {
+            return writeVarLong(v & 0xffffffffL);
+        }
+
+        /**
+         * Write a string, which may be null, as its length plus one
+         * followed by its UTF-8 bytes
+         */
+        public Writer writeString(String s) {
+            if (s == null)
+                return writeVarInt(0);
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(b.length + 1);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+            return this;
+        }
+
+        public int size() {
+            return pos;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * Reads values written by a {@link Writer}
+     */
+    public static class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        public Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        public int readByte() throws SerializationException {
+            if (pos >= buf.length)
+                throw new SerializationException("Unexpected end of " +
+                        "value after " + pos + " bytes");
+            return buf[pos++] & 0xff;
+        }
+
+        public long readVarLong() throws SerializationException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new SerializationException("Malformed varint at " + pos);
+        }
+
+        public int readVarInt() throws SerializationException {
+            long v = readVarLong();
+            if ((v >>> 32) != 0)
+                throw new SerializationException("Varint at " + pos +
+                                                 " overflows an int");
+            return (int) v;
+        }
+
+        public String readString() throws SerializationException {
+            int len = readVarInt();
+            if (len == 0)
+                return null;
+            len -= 1;
+            if (len < 0 || len > buf.length - pos)
+                throw new SerializationException("String of " + len +
+                        " bytes at " + pos + " overruns the value");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        /**
+         * Check that the whole value has been read
+         * @throws SerializationException if bytes are left
+         */
+        public void checkFullyRead() throws SerializationException {
+            if (pos != buf.length)
+                throw new SerializationException((buf.length - pos) +
+                        " unexpected bytes at the end of the value");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFAuxId;
+
+public class EventLoopAffinityTest {
+
+    @Test
+    public void testAuxConnectionsUseDifferentLoops() {
+        DatapathId dpid = DatapathId.of(42L);
+        int main = EventLoopAffinity.getIndex(dpid, OFAuxId.MAIN, 8);
+        assertEquals(main, EventLoopAffinity.getIndex(dpid, OFAuxId.MAIN, 8));
+        assertEquals((main + 1) % 8, EventLoopAffinity.getIndex(dpid, OFAuxId.of(1), 8));
+        assertEquals((main + 2) % 8, EventLoopAffinity.getIndex(dpid, OFAuxId.of(2), 8));
+    }
+
+    @Test
+    public void testSequentialDpidsAreSpread() {
+        Set<Integer> used = new HashSet<Integer>();
+        for (long i = 1; i <= 64; i++) {
+            int index = EventLoopAffinity.getIndex(DatapathId.of(i), OFAuxId.MAIN, 8);
+            assertTrue(index >= 0 && index < 8);
+            used.add(index);
+        }
+        assertEquals(8, used.size());
+    }
+}
@@ -0,0 +1,179 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+public class HandshakeAdmissionControllerTest {
+    private final List<OFSwitchHandshakeHandler> started =
+            new ArrayList<OFSwitchHandshakeHandler>();
+    /* Tasks handed to the connections' threads, when not run at once */
+    private final List<Runnable> handedOff = new ArrayList<Runnable>();
+    private boolean deferHandOff = false;
+
+    private void expectHandOff(OFSwitchHandshakeHandler handler) {
+        handler.executeOnConnection(anyObject(Runnable.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                Runnable task = (Runnable) getCurrentArguments()[0];
+                if (deferHandOff) {
+                    handedOff.add(task);
+                } else {
+                    task.run();
+                }
+                return null;
+            }
+        }).anyTimes();
+    }
+
+    private OFSwitchHandshakeHandler createHandler(long dpid) {
+        final OFSwitchHandshakeHandler handler =
+                createMock(OFSwitchHandshakeHandler.class);
+        expect(handler.getDpid()).andReturn(DatapathId.of(dpid)).anyTimes();
+        expectHandOff(handler);
+        handler.beginHandshake();
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                started.add(handler);
+                return null;
+            }
+        }).anyTimes();
+        replay(handler);
+        return handler;
+    }
+
+    @Test
+    public void testQueuedHandshakesStartInOrder() {
+        HandshakeAdmissionController admission =
+                new HandshakeAdmissionController(1, null);
+        OFSwitchHandshakeHandler h1 = createHandler(1);
+        OFSwitchHandshakeHandler h2 = createHandler(2);
+        OFSwitchHandshakeHandler h3 = createHandler(3);
+
+        admission.admit(h1);
+        admission.admit(h2);
+        admission.admit(h3);
+        assertEquals(1, started.size());
+        assertTrue(admission.isQueued(h2));
+        assertTrue(admission.isQueued(h3));
+
+        admission.release(h1);
+        assertEquals(h2, started.get(1));
+        assertFalse(admission.isQueued(h2));
+        assertTrue(admission.isQueued(h3));
+
+        admission.release(h2);
+        assertEquals(h3, started.get(2));
+        assertEquals(1, admission.getActiveCount());
+        assertEquals(0, admission.getQueuedCount());
+    }
+
+    @Test
+    public void testReleaseDoesNotLeakSlots() {
+        HandshakeAdmissionController admission =
+                new HandshakeAdmissionController(1, null);
+        OFSwitchHandshakeHandler h1 = createHandler(1);
+        OFSwitchHandshakeHandler h2 = createHandler(2);
+        OFSwitchHandshakeHandler h3 = createHandler(3);
+
+        admission.admit(h1);
+        admission.admit(h2);
+        admission.admit(h3);
+
+        // a queued handshake that closes gives up its place, not a slot
+        admission.release(h2);
+        assertEquals(1, started.size());
+        assertEquals(1, admission.getActiveCount());
+        assertEquals(1, admission.getQueuedCount());
+
+        // releasing twice frees the slot once
+        admission.release(h1);
+        admission.release(h1);
+        assertEquals(2, started.size());
+        assertEquals(h3, started.get(1));
+        assertEquals(1, admission.getActiveCount());
+
+        admission.release(h3);
+        assertEquals(0, admission.getActiveCount());
+        assertEquals(0, admission.getQueuedCount());
+    }
+
+    @Test
+    public void testFailedStartFreesSlot() {
+        HandshakeAdmissionController admission =
+                new HandshakeAdmissionController(1, null);
+        OFSwitchHandshakeHandler h1 = createHandler(1);
+        OFSwitchHandshakeHandler h3 = createHandler(3);
+
+        // cleanup does not release the slot, so the controller must
+        OFSwitchHandshakeHandler h2 = createMock(OFSwitchHandshakeHandler.class);
+        expect(h2.getDpid()).andReturn(DatapathId.of(2)).anyTimes();
+        expectHandOff(h2);
+        h2.beginHandshake();
+        expectLastCall().andThrow(new IllegalStateException("must be in InitState"));
+        h2.cleanup();
+        expectLastCall().once();
+        replay(h2);
+
+        admission.admit(h1);
+        admission.admit(h2);
+        admission.admit(h3);
+
+        admission.release(h1);
+        verify(h2);
+        assertEquals(2, started.size());
+        assertEquals(h3, started.get(1));
+        assertEquals(1, admission.getActiveCount());
+        assertEquals(0, admission.getQueuedCount());
+    }
+
+    @Test
+    public void testQueuedHandshakeStartsOnItsConnection() {
+        HandshakeAdmissionController admission =
+                new HandshakeAdmissionController(1, null);
+        OFSwitchHandshakeHandler h1 = createHandler(1);
+        OFSwitchHandshakeHandler h2 = createHandler(2);
+        OFSwitchHandshakeHandler h3 = createHandler(3);
+        deferHandOff = true;
+
+        admission.admit(h1);
+        admission.admit(h2);
+        admission.admit(h3);
+
+        // the thread that frees the slot does not start the handshake
+        admission.release(h1);
+        assertEquals(1, started.size());
+        assertEquals(1, handedOff.size());
+        handedOff.remove(0).run();
+        assertEquals(h2, started.get(1));
+
+        // a connection that closes before its thread runs the hand-off
+        // gives up the slot, and its handshake is not started
+        admission.release(h2);
+        assertEquals(1, handedOff.size());
+        admission.release(h3);
+        handedOff.remove(0).run();
+        assertEquals(2, started.size());
+        assertEquals(0, admission.getActiveCount());
+        assertEquals(0, admission.getQueuedCount());
+    }
+
+    @Test
+    public void testUnlimited() {
+        HandshakeAdmissionController admission =
+                new HandshakeAdmissionController(0, null);
+        for (int i = 1; i <= 10; i++) {
+            admission.admit(createHandler(i));
+        }
+        assertEquals(10, started.size());
+        assertEquals(0, admission.getQueuedCount());
+    }
+}
@@ -194,6 +194,11 @@ public class MockOFConnection implements IOFConnectionBackend {
         this.listener = listener;
     }
 
+    @Override
+    public void executeOnEventLoop(Runnable task) {
+        task.run();
+    }
+
     // for interacting with the action
     public List<OFMessage> getMessages() {
         return messages;
@@ -0,0 +1,202 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import net.floodlightcontroller.core.IOFConnectionBackend;
+import net.floodlightcontroller.core.internal.OFChannelInitializer.PipelineHandler;
+import net.floodlightcontroller.debugcounter.DebugCounterServiceImpl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFCapabilities;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
+import org.projectfloodlight.openflow.protocol.OFHelloElem;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFAuxId;
+import org.projectfloodlight.openflow.types.U32;
+
+/**
+ * Runs the channel handshake over a real connection with worker affinity
+ * on, so the accepted channel is moved to another worker event loop
+ */
+public class OFChannelHandlerEventLoopTest {
+	private static final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+	private static final List<U32> bitmaps =
+			Collections.singletonList(U32.of(1 << OFVersion.OF_13.getWireVersion()));
+
+	private NioEventLoopGroup bossGroup;
+	private NioEventLoopGroup workerGroup;
+	private NioEventLoopGroup switchGroup;
+	private HashedWheelTimer timer;
+	private Channel serverChannel;
+	private Channel switchChannel;
+
+	@Before
+	public void setUp() {
+		bossGroup = new NioEventLoopGroup(1);
+		workerGroup = new NioEventLoopGroup(2);
+		switchGroup = new NioEventLoopGroup(1);
+		timer = new HashedWheelTimer();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (switchChannel != null) {
+			switchChannel.close().sync();
+		}
+		if (serverChannel != null) {
+			serverChannel.close().sync();
+		}
+		switchGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+		workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+		bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+		timer.stop();
+	}
+
+	private static OFMessage take(BlockingQueue<OFMessage> received, OFType type)
+			throws InterruptedException {
+		while (true) {
+			OFMessage m = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull("Timed out waiting for " + type, m);
+			if (m.getType() == type) {
+				return m;
+			}
+		}
+	}
+
+	@Test
+	public void testConnectionMovedToItsEventLoop() throws Exception {
+		DebugCounterServiceImpl debugCounters = new DebugCounterServiceImpl();
+		debugCounters.registerModule(OFConnectionCounters.COUNTER_MODULE);
+		IOFSwitchManager switchManager = createMock(IOFSwitchManager.class);
+		expect(switchManager.getCounters())
+				.andReturn(new SwitchManagerCounters(debugCounters)).anyTimes();
+		replay(switchManager);
+
+		final AtomicReference<Channel> accepted = new AtomicReference<Channel>();
+		final BlockingQueue<Boolean> opened = new LinkedBlockingQueue<Boolean>();
+		INewOFConnectionListener listener = new INewOFConnectionListener() {
+			@Override
+			public void connectionOpened(IOFConnectionBackend connection,
+					OFFeaturesReply featuresReply) {
+				opened.add(accepted.get().eventLoop().inEventLoop());
+			}
+		};
+
+		EventLoopAffinity affinity = new EventLoopAffinity(workerGroup);
+		final OFChannelInitializer initializer = new OFChannelInitializer(
+				switchManager, listener, debugCounters, timer, bitmaps, factory,
+				null, null, null, affinity, null);
+		serverChannel = new ServerBootstrap()
+				.group(bossGroup, workerGroup)
+				.channel(NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) {
+						accepted.set(ch);
+						ch.pipeline().addLast(initializer);
+					}
+				})
+				.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+				.sync().channel();
+
+		final BlockingQueue<OFMessage> received = new LinkedBlockingQueue<OFMessage>();
+		switchChannel = new Bootstrap()
+				.group(switchGroup)
+				.channel(NioSocketChannel.class)
+				.handler(new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel ch) {
+						ch.pipeline().addLast(new OFMessageDecoder(OFVersion.OF_13),
+								new OFMessageEncoder(),
+								new SimpleChannelInboundHandler<Iterable<OFMessage>>() {
+							@Override
+							protected void channelRead0(ChannelHandlerContext ctx,
+									Iterable<OFMessage> msgs) {
+								for (OFMessage m : msgs) {
+									received.add(m);
+								}
+							}
+						});
+					}
+				})
+				.connect(serverChannel.localAddress())
+				.sync().channel();
+
+		take(received, OFType.HELLO);
+		switchChannel.writeAndFlush(Collections.singletonList(factory.buildHello()
+				.setElements(Collections.<OFHelloElem>singletonList(
+						factory.buildHelloElemVersionbitmap().setBitmaps(bitmaps).build()))
+				.build()));
+		OFMessage featuresRequest = take(received, OFType.FEATURES_REQUEST);
+
+		/* Pick a switch whose connection belongs on another loop */
+		Channel ch = accepted.get();
+		EventLoop acceptedOn = ch.eventLoop();
+		DatapathId dpid = DatapathId.of(1);
+		while (affinity.getEventLoop(dpid, OFAuxId.MAIN) == acceptedOn) {
+			dpid = DatapathId.of(dpid.getLong() + 1);
+		}
+		EventLoop target = affinity.getEventLoop(dpid, OFAuxId.MAIN);
+		ChannelHandler idle = ch.pipeline().get(PipelineHandler.MAIN_IDLE);
+		ChannelHandler readTimeout = ch.pipeline().get(PipelineHandler.READ_TIMEOUT);
+
+		switchChannel.writeAndFlush(Collections.singletonList(factory.buildFeaturesReply()
+				.setXid(featuresRequest.getXid())
+				.setDatapathId(dpid)
+				.setNBuffers(1)
+				.setNTables((short) 1)
+				.setCapabilities(EnumSet.<OFCapabilities>of(OFCapabilities.FLOW_STATS))
+				.setAuxiliaryId(OFAuxId.MAIN)
+				.build()));
+
+		/* The handshake completes on the new loop */
+		Boolean openedOnTarget = opened.poll(5, TimeUnit.SECONDS);
+		assertNotNull("Connection was not opened", openedOnTarget);
+		assertTrue(openedOnTarget);
+		assertSame(target, ch.eventLoop());
+		assertTrue(ch.isActive());
+
+		/* The timeout handlers were added again after the move */
+		assertNotNull(ch.pipeline().get(PipelineHandler.MAIN_IDLE));
+		assertNotSame(idle, ch.pipeline().get(PipelineHandler.MAIN_IDLE));
+		assertNotNull(ch.pipeline().get(PipelineHandler.READ_TIMEOUT));
+		assertNotSame(readTimeout, ch.pipeline().get(PipelineHandler.READ_TIMEOUT));
+
+		/* Reads resume on the new loop */
+		switchChannel.writeAndFlush(Collections.singletonList(
+				factory.buildEchoRequest().setXid(42).build()));
+		assertEquals(42, take(received, OFType.ECHO_REPLY).getXid());
+	}
+}
@@ -37,6 +37,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
@@ -62,6 +63,7 @@ import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFFlowAdd;
 import org.projectfloodlight.openflow.protocol.OFFlowStatsRequest;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
 import org.projectfloodlight.openflow.protocol.OFPortConfig;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFPortFeatures;
@@ -69,6 +71,7 @@ import org.projectfloodlight.openflow.protocol.OFPortReason;
 import org.projectfloodlight.openflow.protocol.OFPortState;
 import org.projectfloodlight.openflow.protocol.OFPortStatus;
 import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFAuxId;
 import org.projectfloodlight.openflow.types.OFPort;
@@ -1445,4 +1448,119 @@ public class OFSwitchBaseTest {
 		assertTrue(sw.write(fsr)); /* stats request makes it (read op) */
 		assertEquals(Collections.<OFMessage>singletonList(fa), sw.write(msgList)); /* return bad flow-add */
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testPacketOutsUseAuxConnection() {
+		OFFlowAdd fa = factory.buildFlowAdd().build();
+		OFPacketOut po = factory.buildPacketOut().build();
+
+		IOFConnectionBackend main = EasyMock.createMock(IOFConnectionBackend.class);
+		Capture<Iterable<OFMessage>> mainWrites = EasyMock.newCapture();
+		expect(main.getAuxId()).andReturn(OFAuxId.MAIN).anyTimes();
+		expect(main.write(EasyMock.capture(mainWrites))).andReturn(Collections.<OFMessage>emptyList()).once();
+		IOFConnectionBackend aux = EasyMock.createMock(IOFConnectionBackend.class);
+		Capture<Iterable<OFMessage>> auxWrites = EasyMock.newCapture();
+		expect(aux.getAuxId()).andReturn(OFAuxId.of(1)).anyTimes();
+		expect(aux.isConnected()).andReturn(true).anyTimes();
+		expect(aux.write(EasyMock.capture(auxWrites))).andReturn(Collections.<OFMessage>emptyList()).once();
+		replay(main, aux);
+
+		reset(switchManager);
+		expect(switchManager.isCategoryRegistered(LogicalOFMessageCategory.MAIN)).andReturn(true).anyTimes();
+		expect(switchManager.isCategoryRegistered(LogicalOFMessageCategory.PACKET_IN)).andReturn(true).anyTimes();
+		switchManager.handleOutgoingMessage(EasyMock.anyObject(IOFSwitchBackend.class), EasyMock.anyObject(OFMessage.class));
+		expectLastCall().times(2);
+		replay(switchManager);
+
+		OFSwitchTest s = new OFSwitchTest(main, switchManager);
+		s.registerConnection(aux);
+		s.setControllerRole(OFControllerRole.ROLE_MASTER);
+		List<OFMessage> msgList = new ArrayList<OFMessage>();
+		msgList.add(po);
+		msgList.add(fa);
+		assertEquals(Collections.<OFMessage>emptyList(), s.write(msgList));
+
+		/* flow-mods stay on main, packet-outs go over the aux connection */
+		assertEquals(Collections.<OFMessage>singletonList(fa), mainWrites.getValue());
+		assertEquals(Collections.<OFMessage>singletonList(po), auxWrites.getValue());
+		verify(main, aux, switchManager);
+	}
+
+	@Test
+	public void testPacketOutsKeepOrderOnMain() {
+		OFFlowAdd fa = factory.buildFlowAdd().build();
+		OFPacketOut po = factory.buildPacketOut()
+				.setActions(Collections.<OFAction>singletonList(factory.actions().output(OFPort.of(1), 0xffFFffFF)))
+				.build();
+		OFPacketOut poTable = factory.buildPacketOut()
+				.setActions(Collections.<OFAction>singletonList(factory.actions().output(OFPort.TABLE, 0xffFFffFF)))
+				.build();
+
+		IOFConnectionBackend main = EasyMock.createMock(IOFConnectionBackend.class);
+		Capture<Iterable<OFMessage>> mainWrites = EasyMock.newCapture(CaptureType.ALL);
+		expect(main.getAuxId()).andReturn(OFAuxId.MAIN).anyTimes();
+		expect(main.write(EasyMock.capture(mainWrites))).andReturn(Collections.<OFMessage>emptyList()).times(2);
+		IOFConnectionBackend aux = EasyMock.createMock(IOFConnectionBackend.class);
+		expect(aux.getAuxId()).andReturn(OFAuxId.of(1)).anyTimes();
+		expect(aux.isConnected()).andReturn(true).anyTimes();
+		replay(main, aux);
+
+		reset(switchManager);
+		expect(switchManager.isCategoryRegistered(LogicalOFMessageCategory.MAIN)).andReturn(true).anyTimes();
+		expect(switchManager.isCategoryRegistered(LogicalOFMessageCategory.PACKET_IN)).andReturn(true).anyTimes();
+		switchManager.handleOutgoingMessage(EasyMock.anyObject(IOFSwitchBackend.class), EasyMock.anyObject(OFMessage.class));
+		expectLastCall().times(3);
+		replay(switchManager);
+
+		OFSwitchTest s = new OFSwitchTest(main, switchManager);
+		s.registerConnection(aux);
+		s.setControllerRole(OFControllerRole.ROLE_MASTER);
+
+		/* a packet-out after a flow-mod in the same batch follows it on main */
+		List<OFMessage> msgList = new ArrayList<OFMessage>();
+		msgList.add(fa);
+		msgList.add(po);
+		assertEquals(Collections.<OFMessage>emptyList(), s.write(msgList));
+		assertEquals(msgList, mainWrites.getValues().get(0));
+
+		/* a packet-out sent through the flow table stays on main */
+		assertTrue(s.write(poTable));
+		assertEquals(Collections.<OFMessage>singletonList(poTable), mainWrites.getValues().get(1));
+		verify(main, aux, switchManager);
+	}
+
+	@Test
+	public void testPacketOutsFallBackToMain() {
+		OFPacketOut po = factory.buildPacketOut().build();
+
+		IOFConnectionBackend main = EasyMock.createMock(IOFConnectionBackend.class);
+		Capture<Iterable<OFMessage>> mainWrites = EasyMock.newCapture(CaptureType.ALL);
+		expect(main.getAuxId()).andReturn(OFAuxId.MAIN).anyTimes();
+		expect(main.write(EasyMock.capture(mainWrites))).andReturn(Collections.<OFMessage>emptyList()).times(2);
+		IOFConnectionBackend aux = EasyMock.createMock(IOFConnectionBackend.class);
+		expect(aux.getAuxId()).andReturn(OFAuxId.of(1)).anyTimes();
+		expect(aux.isConnected()).andReturn(false).anyTimes();
+		replay(main, aux);
+
+		reset(switchManager);
+		expect(switchManager.isCategoryRegistered(LogicalOFMessageCategory.MAIN)).andReturn(true).anyTimes();
+		expect(switchManager.isCategoryRegistered(LogicalOFMessageCategory.PACKET_IN)).andReturn(true).anyTimes();
+		switchManager.handleOutgoingMessage(EasyMock.anyObject(IOFSwitchBackend.class), EasyMock.anyObject(OFMessage.class));
+		expectLastCall().times(2);
+		replay(switchManager);
+
+		OFSwitchTest s = new OFSwitchTest(main, switchManager);
+		s.registerConnection(aux);
+		s.setControllerRole(OFControllerRole.ROLE_MASTER);
+
+		/* the aux connection is down, so both the default and the explicit category use main */
+		assertTrue(s.write(po));
+		assertTrue(s.write(po, LogicalOFMessageCategory.PACKET_IN));
+		assertEquals(2, mainWrites.getValues().size());
+
+		/* once the aux connection is removed the category still falls back */
+		s.removeConnection(aux);
+		assertEquals(main, s.getConnection(LogicalOFMessageCategory.PACKET_IN));
+		verify(main, aux, switchManager);
+	}
+}
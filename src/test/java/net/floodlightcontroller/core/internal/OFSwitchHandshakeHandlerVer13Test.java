@@ -17,6 +17,7 @@ import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
+import net.floodlightcontroller.core.IOFConnectionBackend;
 import net.floodlightcontroller.core.IOFSwitchBackend;
 import net.floodlightcontroller.core.SwitchDescription;
 import net.floodlightcontroller.core.internal.OFSwitchHandshakeHandler.WaitAppHandshakeState;
@@ -96,7 +97,7 @@ public class OFSwitchHandshakeHandlerVer13Test extends OFSwitchHandlerTestBase {
         switchHandler.processOFMessage(getPortDescStatsReply());
     }
 
-    public void handleDescStatsAndCreateSwitch() throws Exception {
+    public void handleDescStatsAndCreateSwitch(IOFConnectionBackend... auxConnections) throws Exception {
         // build the stats reply
         OFDescStatsReply sr = createDescriptionStatsReply();
 
@@ -105,6 +106,11 @@ public class OFSwitchHandshakeHandlerVer13Test extends OFSwitchHandlerTestBase {
         setupSwitchForInstantiationWithReset();
         sw.setPortDescStats(anyObject(OFPortDescStatsReply.class));
         expectLastCall().once();
+        // aux connections opened during the handshake are handed to the new switch
+        for (IOFConnectionBackend aux : auxConnections) {
+            sw.registerConnection(aux);
+            expectLastCall().once();
+        }
        
         expect(sw.getOFFactory()).andReturn(factory).anyTimes();
         replay(sw);
@@ -226,4 +232,73 @@ public class OFSwitchHandshakeHandlerVer13Test extends OFSwitchHandlerTestBase {
         verify(sw);
     }
 
-}
\ No newline at end of file
+
+    private MockOFConnection createAuxConnection(OFFactory f) {
+        MockOFConnection aux = new MockOFConnection(dpid, OFAuxId.of(1));
+        aux.setOFFactory(f);
+        aux.setConnected(true);
+        return aux;
+    }
+
+    /** An aux connection that opens during the handshake is kept and handed to the switch */
+    @Test
+    public void testAuxConnectionOpenedDuringHandshake() throws Exception {
+        moveToWaitDescriptionStatReply();
+
+        MockOFConnection aux = createAuxConnection(factory);
+        switchHandler.auxConnectionOpened(aux);
+        assertThat(aux.getListener(), CoreMatchers.<Object>sameInstance(switchHandler));
+        assertThat(switchHandler.hasConnection(aux), equalTo(true));
+
+        // an aux connection of another version is refused
+        MockOFConnection other = createAuxConnection(OFFactories.getFactory(OFVersion.OF_10));
+        switchHandler.auxConnectionOpened(other);
+        assertThat(other.isConnected(), equalTo(false));
+        assertThat(switchHandler.hasConnection(aux), equalTo(true));
+
+        handleDescStatsAndCreateSwitch(aux);
+        assertThat(switchHandler.getStateForTesting(),
+                   CoreMatchers.instanceOf(WaitTableFeaturesReplyState.class));
+    }
+
+    /** Messages on an aux connection are dropped until the handshake completes */
+    @Test
+    public void testAuxMessagesDroppedBeforeHandshakeComplete() throws Exception {
+        moveToWaitDescriptionStatReply();
+
+        MockOFConnection aux = createAuxConnection(factory);
+        switchHandler.auxConnectionOpened(aux);
+
+        // would create the switch if it were processed
+        aux.getListener().messageReceived(aux, createDescriptionStatsReply());
+        assertThat(switchHandler.getStateForTesting(),
+                   CoreMatchers.instanceOf(OFSwitchHandshakeHandler.WaitDescriptionStatReplyState.class));
+        verify(switchManager);
+    }
+
+    /** Closing an aux connection leaves the switch connected */
+    @Test
+    public void testAuxConnectionClosedKeepsSwitch() throws Exception {
+        testInitialMoveToMasterWithRole();
+
+        MockOFConnection aux = createAuxConnection(factory);
+        reset(sw);
+        sw.registerConnection(aux);
+        expectLastCall().once();
+        sw.removeConnection(aux);
+        expectLastCall().once();
+        replay(sw);
+
+        // neither handshakeDisconnected nor switchDisconnected may be called
+        reset(switchManager);
+        replay(switchManager);
+
+        switchHandler.auxConnectionOpened(aux);
+        switchHandler.connectionClosed(aux);
+
+        assertThat(switchHandler.hasConnection(aux), equalTo(false));
+        assertThat(switchHandler.getStateForTesting(),
+                   CoreMatchers.instanceOf(OFSwitchHandshakeHandler.MasterState.class));
+        verify(sw, switchManager);
+    }
+}
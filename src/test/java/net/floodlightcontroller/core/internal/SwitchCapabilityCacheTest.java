@@ -0,0 +1,75 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.SwitchDescription;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFTableFeaturesStatsReply;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+public class SwitchCapabilityCacheTest {
+    private static final DatapathId DPID1 = DatapathId.of(1L);
+    private static final DatapathId DPID2 = DatapathId.of(2L);
+    private static final SwitchDescription DESC =
+            new SwitchDescription("mfr", "hw", "sw 1.0", "serial", "dp");
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+
+    private List<OFTableFeaturesStatsReply> replies() {
+        return Collections.singletonList(
+                factory.buildTableFeaturesStatsReply().build());
+    }
+
+    @Test
+    public void testKeyedBySwitchVersionTablesAndDescription() {
+        SwitchCapabilityCache cache = new SwitchCapabilityCache(10);
+        List<OFTableFeaturesStatsReply> replies = replies();
+        cache.putTableFeatures(DPID1, OFVersion.OF_13, (short) 4, DESC, replies);
+
+        assertEquals(replies, cache.getTableFeatures(DPID1, OFVersion.OF_13,
+                (short) 4, new SwitchDescription("mfr", "hw", "sw 1.0", "serial", "dp")));
+        assertNull(cache.getTableFeatures(DPID2, OFVersion.OF_13, (short) 4, DESC));
+        assertNull(cache.getTableFeatures(DPID1, OFVersion.OF_14, (short) 4, DESC));
+        assertNull(cache.getTableFeatures(DPID1, OFVersion.OF_13, (short) 8, DESC));
+        // an upgraded switch reports a different description and is asked again
+        assertNull(cache.getTableFeatures(DPID1, OFVersion.OF_13, (short) 4,
+                new SwitchDescription("mfr", "hw", "sw 2.0", "serial", "dp")));
+    }
+
+    @Test
+    public void testUnsupportedIsRemembered() {
+        SwitchCapabilityCache cache = new SwitchCapabilityCache(10);
+        cache.putTableFeatures(DPID1, OFVersion.OF_13, (short) 1, DESC,
+                Collections.<OFTableFeaturesStatsReply>emptyList());
+        List<OFTableFeaturesStatsReply> cached =
+                cache.getTableFeatures(DPID1, OFVersion.OF_13, (short) 1, DESC);
+        assertNotNull(cached);
+        assertTrue(cached.isEmpty());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        SwitchCapabilityCache cache = new SwitchCapabilityCache(2);
+        DatapathId dpid3 = DatapathId.of(3L);
+        cache.putTableFeatures(DPID1, OFVersion.OF_13, (short) 4, DESC, replies());
+        cache.putTableFeatures(DPID2, OFVersion.OF_13, (short) 4, DESC, replies());
+        // touching switch 1 makes switch 2 the eldest
+        assertNotNull(cache.getTableFeatures(DPID1, OFVersion.OF_13, (short) 4, DESC));
+        cache.putTableFeatures(dpid3, OFVersion.OF_13, (short) 4, DESC, replies());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.getTableFeatures(DPID1, OFVersion.OF_13, (short) 4, DESC));
+        assertNull(cache.getTableFeatures(DPID2, OFVersion.OF_13, (short) 4, DESC));
+        assertNotNull(cache.getTableFeatures(dpid3, OFVersion.OF_13, (short) 4, DESC));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,107 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.internal.Controller.IUpdate;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class SwitchUpdateThrottleTest {
+    private IFloodlightProviderService provider;
+    private Timer timer;
+    private Capture<TimerTask> task;
+    private final List<IUpdate> dispatched = new ArrayList<IUpdate>();
+    private long nanos = 0;
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos;
+        }
+    };
+
+    private static class TestUpdate implements IUpdate {
+        @Override
+        public void dispatch() { }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        provider = createMock(IFloodlightProviderService.class);
+        provider.addUpdateToQueue(anyObject(IUpdate.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                dispatched.add((IUpdate) getCurrentArguments()[0]);
+                return null;
+            }
+        }).anyTimes();
+        replay(provider);
+
+        task = newCapture(CaptureType.ALL);
+        timer = createMock(Timer.class);
+        expect(timer.newTimeout(capture(task), anyLong(),
+                                anyObject(TimeUnit.class)))
+                .andReturn(createNiceMock(Timeout.class)).anyTimes();
+        replay(timer);
+    }
+
+    @Test
+    public void testBurstThenDefer() throws Exception {
+        SwitchUpdateThrottle throttle =
+                new SwitchUpdateThrottle(provider, timer, 2, null, ticker);
+        IUpdate a1 = new TestUpdate();
+        IUpdate a2 = new TestUpdate();
+        IUpdate a3 = new TestUpdate();
+        IUpdate other = new TestUpdate();
+
+        // a burst of one second's worth passes straight through
+        throttle.submit(a1, true);
+        throttle.submit(a2, true);
+        assertEquals(2, dispatched.size());
+
+        // then activations wait, and so does everything behind them
+        throttle.submit(a3, true);
+        throttle.submit(other, false);
+        assertEquals(2, dispatched.size());
+        assertEquals(2, throttle.getPendingCount());
+        assertEquals(1, task.getValues().size());
+
+        // too early: no token yet, so the drain is rescheduled
+        nanos = TimeUnit.MILLISECONDS.toNanos(100);
+        task.getValue().run(null);
+        assertEquals(2, dispatched.size());
+        assertEquals(2, task.getValues().size());
+
+        nanos = TimeUnit.MILLISECONDS.toNanos(600);
+        task.getValue().run(null);
+        assertEquals(0, throttle.getPendingCount());
+        assertEquals(a3, dispatched.get(2));
+        assertEquals(other, dispatched.get(3));
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        SwitchUpdateThrottle throttle =
+                new SwitchUpdateThrottle(provider, timer, 0, null, ticker);
+        for (int i = 0; i < 100; i++) {
+            throttle.submit(new TestUpdate(), true);
+        }
+        assertEquals(100, dispatched.size());
+        assertEquals(0, task.getValues().size());
+    }
+}
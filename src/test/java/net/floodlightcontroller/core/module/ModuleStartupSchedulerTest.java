@@ -0,0 +1,155 @@
+package net.floodlightcontroller.core.module;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.module.ModuleStartupScheduler.ModulePhase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleStartupSchedulerTest {
+    interface IAService extends IFloodlightService {}
+    interface IBService extends IFloodlightService {}
+
+    static class TestModule implements IFloodlightModule {
+        private final Class<? extends IFloodlightService> service;
+        private final List<Class<? extends IFloodlightService>> deps;
+
+        @SafeVarargs
+        TestModule(Class<? extends IFloodlightService> service,
+                   Class<? extends IFloodlightService>... deps) {
+            this.service = service;
+            this.deps = Arrays.asList(deps);
+        }
+
+        @Override
+        public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+            if (service == null) return null;
+            return Collections.<Class<? extends IFloodlightService>>singletonList(service);
+        }
+
+        @Override
+        public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
+            return null;
+        }
+
+        @Override
+        public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
+            return deps;
+        }
+
+        @Override
+        public void init(FloodlightModuleContext context)
+                throws FloodlightModuleException {
+        }
+
+        @Override
+        public void startUp(FloodlightModuleContext context)
+                throws FloodlightModuleException {
+        }
+    }
+
+    TestModule a, b, c, d;
+    List<IFloodlightModule> modules;
+    Map<IFloodlightModule, Collection<Class<? extends IFloodlightService>>> services;
+
+    @Before
+    public void setUp() throws Exception {
+        // b and c both depend on a, and d depends on b
+        a = new TestModule(IAService.class);
+        b = new TestModule(IBService.class, IAService.class);
+        c = new TestModule(null, IAService.class);
+        d = new TestModule(null, IBService.class, IAService.class);
+        modules = Arrays.<IFloodlightModule>asList(a, b, c, d);
+        services = new HashMap<IFloodlightModule,
+                Collection<Class<? extends IFloodlightService>>>();
+        for (IFloodlightModule m : modules) {
+            services.put(m, m.getModuleServices());
+        }
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(modules, services, 2);
+        assertEquals(0, scheduler.getDependencies(a).size());
+        assertEquals(Arrays.asList(a), scheduler.getDependencies(b));
+        assertEquals(Arrays.asList(a), scheduler.getDependencies(c));
+        assertEquals(Arrays.asList(b, a), scheduler.getDependencies(d));
+
+        // a provider loaded after the module is not waited for
+        d = new TestModule(null, IBService.class);
+        List<IFloodlightModule> cycle = Arrays.<IFloodlightModule>asList(d, b);
+        scheduler = new ModuleStartupScheduler(cycle, services, 2);
+        assertEquals(0, scheduler.getDependencies(d).size());
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        final List<IFloodlightModule> order =
+                Collections.synchronizedList(new ArrayList<IFloodlightModule>());
+        final CountDownLatch cStarted = new CountDownLatch(1);
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(modules, services, 2);
+        scheduler.run("test", new ModulePhase() {
+            @Override
+            public void run(IFloodlightModule module)
+                    throws FloodlightModuleException {
+                try {
+                    if (module == c) {
+                        cStarted.countDown();
+                    } else if (module == b) {
+                        // b and c are independent so they run concurrently
+                        assertTrue(cStarted.await(5, TimeUnit.SECONDS));
+                        Thread.sleep(50);
+                    }
+                } catch (InterruptedException e) {
+                    throw new FloodlightModuleException(e);
+                }
+                order.add(module);
+            }
+        });
+
+        assertEquals(4, order.size());
+        assertEquals(a, order.get(0));
+        assertTrue(order.indexOf(b) < order.indexOf(d));
+        for (IFloodlightModule m : modules) {
+            assertNotNull(scheduler.getDuration(m));
+        }
+        assertEquals(Arrays.asList(a, b, d), scheduler.getCriticalPath());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final List<IFloodlightModule> order =
+                Collections.synchronizedList(new ArrayList<IFloodlightModule>());
+        ModuleStartupScheduler scheduler =
+                new ModuleStartupScheduler(modules, services, 2);
+        try {
+            scheduler.run("test", new ModulePhase() {
+                @Override
+                public void run(IFloodlightModule module)
+                        throws FloodlightModuleException {
+                    order.add(module);
+                    if (module == b)
+                        throw new FloodlightModuleException("failed");
+                }
+            });
+            fail("Expected exception");
+        } catch (FloodlightModuleException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        // d depends on the failed module so it never runs
+        assertFalse(order.contains(d));
+    }
+}
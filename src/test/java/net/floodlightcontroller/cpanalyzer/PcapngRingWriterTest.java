@@ -0,0 +1,149 @@
+package net.floodlightcontroller.cpanalyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class PcapngRingWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final InetSocketAddress SWITCH = new InetSocketAddress("10.0.0.1", 40000);
+    private static final InetSocketAddress CONTROLLER = new InetSocketAddress("10.0.0.2", 6653);
+
+    /* An OF1.3 echo request with a payload */
+    private static ByteBuf message(int length) {
+        ByteBuf buf = Unpooled.buffer(length);
+        buf.writeByte(0x04).writeByte(2).writeShort(length).writeInt(7);
+        buf.writeZero(length - 8);
+        return buf;
+    }
+
+    @Test
+    public void testSegmentLayout() throws Exception {
+        PcapngRingWriter writer = new PcapngRingWriter(folder.getRoot(), 1 << 20, TimeUnit.MINUTES.toNanos(1), 4);
+        SyntheticTcpStream stream = new SyntheticTcpStream(writer, SWITCH, CONTROLLER);
+        ByteBuf m = message(10);
+        writer.write(stream, true, m);
+        writer.write(stream, false, m);
+        assertEquals(0, m.readerIndex());
+        writer.close();
+
+        List<String> segments = writer.getSegments();
+        assertEquals(1, segments.size());
+        ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(new File(segments.get(0)).toPath()));
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        /* 40 bytes of headers and 10 of message, padded to 52 */
+        assertEquals(PcapngSegment.SHB_LENGTH + PcapngSegment.IDB_LENGTH + 2 * (PcapngSegment.EPB_OVERHEAD + 52),
+                bb.remaining());
+        assertEquals(0x0a0d0d0a, bb.getInt(0));
+        assertEquals(0x1a2b3c4d, bb.getInt(8));
+
+        /* First packet: IPv4 from the switch, then TCP, then the message */
+        int epb = PcapngSegment.SHB_LENGTH + PcapngSegment.IDB_LENGTH;
+        assertEquals(6, bb.getInt(epb));
+        assertEquals(PcapngSegment.EPB_OVERHEAD + 52, bb.getInt(epb + 4));
+        assertEquals(50, bb.getInt(epb + 20));
+        bb.order(ByteOrder.BIG_ENDIAN);
+        int ip = epb + 28;
+        assertEquals(0x45, bb.get(ip) & 0xff);
+        assertEquals(50, bb.getShort(ip + 2));
+        assertEquals(0x0a000001, bb.getInt(ip + 12));
+        int tcp = ip + 20;
+        assertEquals(40000, bb.getShort(tcp) & 0xffff);
+        assertEquals(6653, bb.getShort(tcp + 2) & 0xffff);
+        assertEquals(1, bb.getInt(tcp + 4));
+        assertEquals(0x04, bb.get(tcp + 20));
+
+        /* Second packet: the other direction, acking the first */
+        ip += PcapngSegment.EPB_OVERHEAD + 52;
+        tcp = ip + 20;
+        assertEquals(0x0a000002, bb.getInt(ip + 12));
+        assertEquals(1, bb.getInt(tcp + 4));
+        assertEquals(11, bb.getInt(tcp + 8));
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        int segmentSize = 1024;
+        PcapngRingWriter writer = new PcapngRingWriter(folder.getRoot(), segmentSize, TimeUnit.MINUTES.toNanos(1), 3);
+        SyntheticTcpStream stream = new SyntheticTcpStream(writer, SWITCH, CONTROLLER);
+        for (int i = 0; i < 50; i++) {
+            writer.write(stream, true, message(100));
+        }
+        assertEquals(50, writer.getPacketCount());
+
+        List<String> segments = writer.getSegments();
+        assertEquals(3, segments.size());
+        writer.close();
+        /* Old segments are deleted in the background, done by the time close returns */
+        assertEquals(3, folder.getRoot().listFiles().length);
+        for (String s : segments) {
+            long length = new File(s).length();
+            assertTrue(length <= segmentSize);
+            assertTrue(length > PcapngSegment.SHB_LENGTH + PcapngSegment.IDB_LENGTH);
+        }
+
+        /* Writes after close are ignored */
+        writer.write(stream, true, message(100));
+        assertEquals(50, writer.getPacketCount());
+    }
+
+    @Test
+    public void testCloseAsync() throws Exception {
+        PcapngRingWriter writer = new PcapngRingWriter(folder.getRoot(), 1 << 20, TimeUnit.MINUTES.toNanos(1), 4);
+        SyntheticTcpStream stream = new SyntheticTcpStream(writer, SWITCH, CONTROLLER);
+        writer.write(stream, true, message(10));
+        writer.closeAsync();
+
+        /* Writes stop at once */
+        writer.write(stream, true, message(10));
+        assertEquals(1, writer.getPacketCount());
+
+        /* The segment is truncated to its packets once the background thread closes it */
+        List<String> segments = writer.getSegments();
+        assertEquals(1, segments.size());
+        File segment = new File(segments.get(0));
+        long expected = PcapngSegment.SHB_LENGTH + PcapngSegment.IDB_LENGTH + PcapngSegment.EPB_OVERHEAD + 52;
+        for (int i = 0; i < 100 && segment.length() != expected; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, segment.length());
+        for (int i = 0; i < 100 && folder.getRoot().listFiles().length != 1; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testLargeMessageIsSplit() throws Exception {
+        PcapngRingWriter writer = new PcapngRingWriter(folder.getRoot(), 1 << 20, TimeUnit.MINUTES.toNanos(1), 1);
+        SyntheticTcpStream stream = new SyntheticTcpStream(writer, SWITCH, CONTROLLER);
+        writer.write(stream, true, message(SyntheticTcpStream.MAX_PAYLOAD + 100));
+        assertEquals(2, writer.getPacketCount());
+
+        /* A segment too small for a packet fails rather than loops */
+        PcapngRingWriter tiny = new PcapngRingWriter(folder.newFolder(), 128, TimeUnit.MINUTES.toNanos(1), 1);
+        try {
+            tiny.write(stream, true, message(200));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.floodlightcontroller.cpanalyzer.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import net.floodlightcontroller.cpanalyzer.bench.FrameGenerator.Frame;
+import net.floodlightcontroller.cpanalyzer.bench.HostPicker.Distribution;
+
+public class FrameGeneratorTest {
+    @Test
+    public void testSequentialPicks() {
+        HostPicker picker = new HostPicker(3, Distribution.SEQUENTIAL, 1);
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i % 3, picker.next());
+        }
+    }
+
+    @Test
+    public void testPicksAreReproducible() {
+        for (Distribution d : Distribution.values()) {
+            HostPicker a = new HostPicker(1000, d, 42);
+            HostPicker b = new HostPicker(1000, d, 42);
+            for (int i = 0; i < 1000; i++) {
+                int h = a.next();
+                assertEquals(h, b.next());
+                assertTrue(h >= 0 && h < 1000);
+            }
+        }
+    }
+
+    @Test
+    public void testZipfFavorsFirstHosts() {
+        HostPicker picker = new HostPicker(1000, Distribution.ZIPF, 1);
+        int first = 0, last = 0;
+        for (int i = 0; i < 100000; i++) {
+            int h = picker.next();
+            if (h == 0) {
+                first++;
+            } else if (h == 999) {
+                last++;
+            }
+        }
+        /* 1/H(1000), about 13%, against a thousandth of that */
+        assertTrue(first > 10000);
+        assertTrue(last < 100);
+    }
+
+    @Test
+    public void testFrameLayout() {
+        FrameGenerator generator = new FrameGenerator(2, 4, new HostPicker(10, Distribution.SEQUENTIAL, 1), 64);
+        Frame frame = generator.next();
+        ByteBuffer bb = ByteBuffer.wrap(frame.getData());
+        assertEquals(64, bb.remaining());
+
+        /* From host 0, behind port 1, to host 1 */
+        assertEquals(1, frame.getInPort());
+        assertEquals(FrameGenerator.macOf(2, 1), bb.getLong(0) >>> 16);
+        assertEquals(FrameGenerator.macOf(2, 0), bb.getLong(4) & 0xffffffffffffL);
+        assertEquals(0x020003000001L, FrameGenerator.macOf(2, 1));
+        assertEquals(0x0800, bb.getShort(12));
+        assertEquals(0x45, bb.get(14));
+        assertEquals(50, bb.getShort(16));
+        assertEquals(17, bb.get(23));
+        assertEquals(FrameGenerator.ipOf(2, 0), bb.getInt(26));
+        assertEquals(FrameGenerator.ipOf(2, 1), bb.getInt(30));
+        assertEquals(0x0a030001, FrameGenerator.ipOf(2, 1));
+        assertEquals(30, bb.getShort(38));
+
+        /* The header checksums to zero */
+        int sum = 0;
+        for (int i = 14; i < 34; i += 2) {
+            sum += bb.getShort(i) & 0xffff;
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+        assertEquals(0xffff, sum);
+
+        /* Never from a host to itself */
+        FrameGenerator single = new FrameGenerator(0, 1, new HostPicker(2, Distribution.UNIFORM, 1), 64);
+        for (int i = 0; i < 100; i++) {
+            byte[] data = single.next().getData();
+            ByteBuffer b = ByteBuffer.wrap(data);
+            assertNotEquals(b.getLong(0) >>> 16, b.getLong(4) & 0xffffffffffffL);
+        }
+    }
+}
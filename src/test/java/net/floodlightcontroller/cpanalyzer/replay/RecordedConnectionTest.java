@@ -0,0 +1,103 @@
+package net.floodlightcontroller.cpanalyzer.replay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.floodlightcontroller.cpanalyzer.PcapngRingWriter;
+import net.floodlightcontroller.cpanalyzer.SyntheticTcpStream;
+import net.floodlightcontroller.cpanalyzer.replay.RecordedConnection.RecordedFrame;
+
+public class RecordedConnectionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final InetSocketAddress CONTROLLER = new InetSocketAddress("10.0.0.2", 6653);
+
+    /* An OF1.3 message of a type, xid and length */
+    private static byte[] message(int type, int xid, int length) {
+        ByteBuf buf = Unpooled.buffer(length);
+        buf.writeByte(0x04).writeByte(type).writeShort(length).writeInt(xid);
+        for (int i = 8; i < length; i++) {
+            buf.writeByte(i);
+        }
+        return buf.array();
+    }
+
+    private static List<File> segments(PcapngRingWriter writer) {
+        List<File> files = new ArrayList<File>();
+        for (String s : writer.getSegments()) {
+            files.add(new File(s));
+        }
+        return files;
+    }
+
+    @Test
+    public void testCaptureRoundTrip() throws Exception {
+        PcapngRingWriter writer = new PcapngRingWriter(folder.getRoot(), 1 << 20, TimeUnit.MINUTES.toNanos(1), 4);
+        SyntheticTcpStream s1 = new SyntheticTcpStream(writer, new InetSocketAddress("10.0.0.1", 40000), CONTROLLER);
+        SyntheticTcpStream s2 = new SyntheticTcpStream(writer,
+                new InetSocketAddress("2001:db8::1", 40001), new InetSocketAddress("2001:db8::2", 6653));
+
+        byte[] hello = message(0, 1, 8);
+        byte[] features = message(6, 2, 32);
+        byte[] packetIn = message(10, 3, 100);
+        byte[] flowMod = message(14, 4, 80);
+        byte[] large = message(10, 5, 65000);
+
+        writer.write(s1, true, Unpooled.wrappedBuffer(hello));
+        writer.write(s1, false, Unpooled.wrappedBuffer(hello));
+        writer.write(s2, true, Unpooled.wrappedBuffer(features));
+        writer.write(s1, true, Unpooled.wrappedBuffer(features));
+        writer.write(s1, false, Unpooled.wrappedBuffer(flowMod));
+        /* Two messages in one segment, and one split over two */
+        writer.write(s1, true, Unpooled.wrappedBuffer(packetIn, packetIn));
+        writer.write(s1, true, Unpooled.wrappedBuffer(large));
+        writer.close();
+
+        Collection<RecordedConnection> connections =
+                RecordedConnection.load(segments(writer), Collections.singleton(6653));
+        assertEquals(2, connections.size());
+
+        List<RecordedConnection> list = new ArrayList<RecordedConnection>(connections);
+        assertEquals("10.0.0.1:40000", list.get(0).getName());
+        List<RecordedFrame> frames = list.get(0).getFrames();
+        assertEquals(5, frames.size());
+        assertArrayEquals(hello, frames.get(0).getData());
+        assertArrayEquals(features, frames.get(1).getData());
+        assertArrayEquals(packetIn, frames.get(2).getData());
+        assertArrayEquals(packetIn, frames.get(3).getData());
+        assertArrayEquals(large, frames.get(4).getData());
+        for (int i = 1; i < frames.size(); i++) {
+            assertTrue(frames.get(i).getTimestampNs() >= frames.get(i - 1).getTimestampNs());
+        }
+
+        frames = list.get(1).getFrames();
+        assertEquals(1, frames.size());
+        assertArrayEquals(features, frames.get(0).getData());
+    }
+
+    @Test
+    public void testOtherPortsIgnored() throws Exception {
+        PcapngRingWriter writer = new PcapngRingWriter(folder.getRoot(), 1 << 20, TimeUnit.MINUTES.toNanos(1), 1);
+        SyntheticTcpStream s = new SyntheticTcpStream(writer, new InetSocketAddress("10.0.0.1", 40000), CONTROLLER);
+        writer.write(s, true, Unpooled.wrappedBuffer(message(0, 1, 8)));
+        writer.close();
+
+        assertTrue(RecordedConnection.load(segments(writer), Collections.singleton(6633)).isEmpty());
+    }
+}
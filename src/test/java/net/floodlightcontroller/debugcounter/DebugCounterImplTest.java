@@ -61,6 +61,13 @@ public class DebugCounterImplTest {
         c1.reset();
         assertEquals(0L, c1.getCounterValue());
 
+        c1.set(17);
+        assertEquals(17L, c1.getCounterValue());
+        c1.set(5);
+        assertEquals(5L, c1.getCounterValue());
+        c1.set(0);
+        assertEquals(0L, c1.getCounterValue());
+
 
         DebugCounterImpl c2 =
                 new DebugCounterImpl("foo", "bar", "The foo bar counter",
@@ -78,4 +85,28 @@ public class DebugCounterImplTest {
         assertEquals(ImmutableSet.of(MetaData.WARN, MetaData.DROP),
                      c2.getMetaData());
     }
+
+    @Test
+    public void testLastModified() throws InterruptedException {
+        DebugCounterImpl c1 =
+                new DebugCounterImpl("foo", "bar", "The foo bar counter",
+                                     Collections.<MetaData>emptyList());
+        long created = c1.getLastModified();
+        Thread.sleep(5);
+        // unchanged value, the timestamp stays put
+        assertEquals(created, c1.getLastModified());
+
+        // stamped by the first read that sees the new value, which may be
+        // a read of the value itself
+        long before = System.currentTimeMillis();
+        c1.increment();
+        assertEquals(1, c1.getCounterValue());
+        long after = System.currentTimeMillis();
+        Thread.sleep(5);
+        long modified = c1.getLastModified();
+        assertTrue(modified > created);
+        assertTrue(modified >= before && modified <= after);
+        Thread.sleep(5);
+        assertEquals(modified, c1.getLastModified());
+    }
 }
@@ -532,4 +532,30 @@ public class DebugCounterServiceTest {
         verifyCounters(expectedCounters, counterService.getAllCounterValues());
     }
 
+    @Test
+    public void testModuleCounterSnapshot() {
+        assertTrue(counterService.getModuleCounterSnapshot("moduleA").isEmpty());
+        counterService.registerModule("moduleA");
+        counterService.registerModule("moduleB");
+        IDebugCounter cAaaa = counterService.registerCounter("moduleA", "aaa",
+                                                             "the aaa counter");
+        IDebugCounter cAaaaFoo = counterService.registerCounter("moduleA", "aaa/foo",
+                                                                "the aaa/foo counter");
+        counterService.registerCounter("moduleB", "bbb", "the bbb counter")
+                .add(7);
+        cAaaa.add(3);
+        cAaaaFoo.increment();
+
+        Map<String, Long> snapshot = counterService.getModuleCounterSnapshot("moduleA");
+        assertEquals(Lists.newArrayList("aaa", "aaa/foo"),
+                     Lists.newArrayList(snapshot.keySet()));
+        assertEquals(3L, snapshot.get("aaa").longValue());
+        assertEquals(1L, snapshot.get("aaa/foo").longValue());
+
+        // the snapshot does not follow later updates
+        cAaaa.increment();
+        assertEquals(3L, snapshot.get("aaa").longValue());
+        assertEquals(4L, counterService.getModuleCounterSnapshot("moduleA")
+                .get("aaa").longValue());
+    }
 }
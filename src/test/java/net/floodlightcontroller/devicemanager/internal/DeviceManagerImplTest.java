@@ -210,7 +210,7 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
 
 		this.storeClient =
 				this.syncService.getStoreClient(DeviceManagerImpl.DEVICE_SYNC_STORE_NAME,
-						String.class, DeviceSyncRepresentation.class);
+						String.class, new DeviceSyncCodec(), null);
 
 		reset(topology);
 		topology.addListener(deviceManager);
@@ -3008,6 +3008,8 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
 	 */
 	private List<DeviceSyncRepresentation> getEntriesFromStore()
 			throws Exception {
+		// updates are written behind, so write out the queued ones first
+		deviceManager.flushSyncStore();
 		List<DeviceSyncRepresentation> entries =
 				new ArrayList<DeviceSyncRepresentation>();
 		IClosableIterator<Entry<String, Versioned<DeviceSyncRepresentation>>> iter =
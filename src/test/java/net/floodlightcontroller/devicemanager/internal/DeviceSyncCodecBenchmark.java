@@ -0,0 +1,130 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.sdnplatform.sync.IValueCodec;
+import org.sdnplatform.sync.error.SerializationException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import net.floodlightcontroller.devicemanager.internal.DeviceSyncRepresentation.SyncEntity;
+
+/**
+ * Compares the cost of encoding and decoding device sync values with
+ * {@link DeviceSyncCodec} and with Jackson, configured as the sync store
+ * does. Not run as part of the tests; run the main method with the test
+ * classpath, optionally passing the number of entities per device.
+ */
+public class DeviceSyncCodecBenchmark {
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+	private static final int OPS_PER_ROUND = 200000;
+
+	/* Keeps the JIT from dropping the work */
+	private static long sink;
+
+	private static class JacksonCodec implements IValueCodec<DeviceSyncRepresentation> {
+		private final ObjectWriter writer;
+		private final ObjectReader reader;
+
+		JacksonCodec() {
+			ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+			mapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+			writer = mapper.writerWithType(DeviceSyncRepresentation.class);
+			reader = mapper.reader(DeviceSyncRepresentation.class);
+		}
+
+		@Override
+		public byte[] encode(DeviceSyncRepresentation value)
+				throws SerializationException {
+			try {
+				return writer.writeValueAsBytes(value);
+			} catch (Exception e) {
+				throw new SerializationException(e);
+			}
+		}
+
+		@Override
+		public DeviceSyncRepresentation decode(byte[] bytes)
+				throws SerializationException {
+			try {
+				return reader.readValue(bytes);
+			} catch (Exception e) {
+				throw new SerializationException(e);
+			}
+		}
+	}
+
+	private static DeviceSyncRepresentation device(int entityCount) {
+		DeviceSyncRepresentation dsr = new DeviceSyncRepresentation();
+		dsr.setKey("DefaultEntityClass::00:00:00:00:12:34::[0]::");
+		List<SyncEntity> entities = new ArrayList<SyncEntity>();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < entityCount; i++) {
+			SyncEntity e = new SyncEntity();
+			e.macAddress = 0x1234L;
+			e.ipv4Address = 0x0a000000 + i;
+			e.vlan = 0;
+			e.switchDPID = 0x00000001000000aaL + i;
+			e.switchPort = 1 + i;
+			e.lastSeenTimestamp = new Date(now + i);
+			e.activeSince = new Date(now - 3600000);
+			entities.add(e);
+		}
+		dsr.setEntities(entities);
+		return dsr;
+	}
+
+	/* Returns nanoseconds per operation */
+	private static double encodeRound(IValueCodec<DeviceSyncRepresentation> codec,
+			DeviceSyncRepresentation dsr) throws SerializationException {
+		long start = System.nanoTime();
+		for (int i = 0; i < OPS_PER_ROUND; i++) {
+			sink += codec.encode(dsr).length;
+		}
+		return (double) (System.nanoTime() - start) / OPS_PER_ROUND;
+	}
+
+	private static double decodeRound(IValueCodec<DeviceSyncRepresentation> codec,
+			byte[] bytes) throws SerializationException {
+		long start = System.nanoTime();
+		for (int i = 0; i < OPS_PER_ROUND; i++) {
+			sink += codec.decode(bytes).getEntities().size();
+		}
+		return (double) (System.nanoTime() - start) / OPS_PER_ROUND;
+	}
+
+	private static void run(String name, IValueCodec<DeviceSyncRepresentation> codec,
+			DeviceSyncRepresentation dsr) throws SerializationException {
+		byte[] bytes = codec.encode(dsr);
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			encodeRound(codec, dsr);
+			decodeRound(codec, bytes);
+		}
+		double encodeNs = Double.MAX_VALUE, decodeNs = Double.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			encodeNs = Math.min(encodeNs, encodeRound(codec, dsr));
+			decodeNs = Math.min(decodeNs, decodeRound(codec, bytes));
+		}
+		System.out.println(String.format("%-8s %6d bytes  encode %8.1f ns/op  decode %8.1f ns/op",
+				name, bytes.length, encodeNs, decodeNs));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int entityCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		DeviceSyncRepresentation dsr = device(entityCount);
+		System.out.println("Device with " + entityCount + " entities, best of "
+				+ ROUNDS + " rounds of " + OPS_PER_ROUND + " operations");
+		run("jackson", new JacksonCodec(), dsr);
+		run("binary", new DeviceSyncCodec(true), dsr);
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+}
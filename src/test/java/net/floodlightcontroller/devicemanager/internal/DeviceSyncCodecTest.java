@@ -0,0 +1,122 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.sdnplatform.sync.error.SerializationException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import net.floodlightcontroller.devicemanager.internal.DeviceSyncRepresentation.SyncEntity;
+
+public class DeviceSyncCodecTest {
+	private final DeviceSyncCodec codec = new DeviceSyncCodec(true);
+
+	private static SyncEntity entity(long mac, int ip, short vlan, long dpid,
+			int port, Date lastSeen, Date activeSince) {
+		SyncEntity e = new SyncEntity();
+		e.macAddress = mac;
+		e.ipv4Address = ip;
+		e.vlan = vlan;
+		e.switchDPID = dpid;
+		e.switchPort = port;
+		e.lastSeenTimestamp = lastSeen;
+		e.activeSince = activeSince;
+		return e;
+	}
+
+	private static DeviceSyncRepresentation device() {
+		DeviceSyncRepresentation dsr = new DeviceSyncRepresentation();
+		dsr.setKey("DefaultEntityClass::00:00:00:00:00:01::[0]::");
+		List<SyncEntity> entities = new ArrayList<SyncEntity>();
+		entities.add(entity(1L, 0x0a000001, (short) -1, 0x00000000deadbeefL,
+				5, new Date(1000), new Date(1)));
+		/* Largest values: the top bit of the MAC, LOCAL port */
+		entities.add(entity(0xffffffffffffL, -1, (short) 4095, -1L,
+				0xfffffffe, new Date(2000), null));
+		dsr.setEntities(entities);
+		return dsr;
+	}
+
+	private static void assertDeviceEquals(DeviceSyncRepresentation expected,
+			DeviceSyncRepresentation actual) {
+		assertEquals(expected.getKey(), actual.getKey());
+		assertEquals(expected.getEntities().size(), actual.getEntities().size());
+		for (int i = 0; i < expected.getEntities().size(); i++) {
+			SyncEntity e = expected.getEntities().get(i);
+			SyncEntity a = actual.getEntities().get(i);
+			assertEquals(e.macAddress, a.macAddress);
+			assertEquals(e.ipv4Address, a.ipv4Address);
+			assertEquals(e.vlan, a.vlan);
+			assertEquals(e.switchDPID, a.switchDPID);
+			assertEquals(e.switchPort, a.switchPort);
+			assertEquals(e.lastSeenTimestamp, a.lastSeenTimestamp);
+			assertEquals(e.activeSince, a.activeSince);
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		DeviceSyncRepresentation dsr = device();
+		byte[] bytes = codec.encode(dsr);
+		assertEquals(DeviceSyncCodec.VERSION, bytes[0]);
+		assertDeviceEquals(dsr, codec.decode(bytes));
+
+		byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(dsr);
+		assertTrue(bytes.length < smile.length);
+	}
+
+	@Test
+	public void testEmptyDevice() throws Exception {
+		DeviceSyncRepresentation dsr = new DeviceSyncRepresentation();
+		DeviceSyncRepresentation decoded = codec.decode(codec.encode(dsr));
+		assertNull(decoded.getKey());
+		assertNull(decoded.getEntities());
+
+		dsr.setKey("");
+		dsr.setEntities(new ArrayList<SyncEntity>());
+		decoded = codec.decode(codec.encode(dsr));
+		assertEquals("", decoded.getKey());
+		assertEquals(0, decoded.getEntities().size());
+	}
+
+	@Test
+	public void testReadsSmile() throws Exception {
+		DeviceSyncRepresentation dsr = device();
+		byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(dsr);
+		assertDeviceEquals(dsr, codec.decode(smile));
+	}
+
+	@Test
+	public void testWritesSmileByDefault() throws Exception {
+		DeviceSyncRepresentation dsr = device();
+		byte[] bytes = new DeviceSyncCodec().encode(dsr);
+		assertDeviceEquals(dsr, new ObjectMapper(new SmileFactory())
+				.readValue(bytes, DeviceSyncRepresentation.class));
+		assertDeviceEquals(dsr, codec.decode(bytes));
+	}
+
+	@Test
+	public void testRejectsBadValues() throws Exception {
+		byte[] bytes = codec.encode(device());
+
+		byte[] future = bytes.clone();
+		future[0] = DeviceSyncCodec.VERSION + 1;
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+		byte[] trailing = Arrays.copyOf(bytes, bytes.length + 1);
+		for (byte[] bad : new byte[][] { future, truncated, trailing, new byte[0] }) {
+			try {
+				codec.decode(bad);
+				fail("Expected SerializationException for " + Arrays.toString(bad));
+			} catch (SerializationException e) {
+				// expected
+			}
+		}
+	}
+}
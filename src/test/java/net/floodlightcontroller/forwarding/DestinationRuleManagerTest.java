@@ -0,0 +1,203 @@
+package net.floodlightcontroller.forwarding;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.SwitchDescription;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+import net.floodlightcontroller.core.types.NodePortTuple;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LinkType;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.SwitchType;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.UpdateOperation;
+import net.floodlightcontroller.routing.IRoutingService;
+import net.floodlightcontroller.routing.Path;
+import net.floodlightcontroller.topology.ITopologyService;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFFlowDeleteStrict;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+public class DestinationRuleManagerTest {
+	private static final DatapathId DPID1 = DatapathId.of(1L);
+	private static final DatapathId DPID2 = DatapathId.of(2L);
+	private static final DatapathId DPID3 = DatapathId.of(3L);
+	private static final MacAddress MAC = MacAddress.of("00:11:22:33:44:55");
+
+	private OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+	private IOFSwitchService switchService;
+	private IDeviceService deviceService;
+	private ITopologyService topology;
+	private IRoutingService routing;
+	private IDevice device;
+	private IOFSwitch sw1, sw2, sw3;
+	private Capture<List<OFMessage>> wc1, wc2, wc3;
+	private DestinationRuleManager manager;
+
+	private IOFSwitch createSwitch(DatapathId id, Capture<List<OFMessage>> capture) {
+		IOFSwitch sw = createMock(IOFSwitch.class);
+		expect(sw.getId()).andReturn(id).anyTimes();
+		expect(sw.getOFFactory()).andReturn(factory).anyTimes();
+		expect(sw.getSwitchDescription()).andReturn(new SwitchDescription()).anyTimes();
+		expect(sw.write(capture(capture))).andReturn(Collections.<OFMessage>emptyList()).anyTimes();
+		return sw;
+	}
+
+	private Path path(DatapathId src, DatapathId dst, NodePortTuple... npts) {
+		Path p = new Path(src, dst);
+		p.setPath(new ArrayList<NodePortTuple>(Arrays.asList(npts)));
+		return p;
+	}
+
+	@Before
+	public void setUp() {
+		wc1 = EasyMock.newCapture(CaptureType.ALL);
+		wc2 = EasyMock.newCapture(CaptureType.ALL);
+		wc3 = EasyMock.newCapture(CaptureType.ALL);
+		sw1 = createSwitch(DPID1, wc1);
+		sw2 = createSwitch(DPID2, wc2);
+		sw3 = createSwitch(DPID3, wc3);
+
+		switchService = createMock(IOFSwitchService.class);
+		expect(switchService.getAllSwitchDpids()).andReturn(new HashSet<DatapathId>(Arrays.asList(DPID1, DPID2, DPID3))).anyTimes();
+		expect(switchService.getActiveSwitch(DPID1)).andReturn(sw1).anyTimes();
+		expect(switchService.getActiveSwitch(DPID2)).andReturn(sw2).anyTimes();
+		expect(switchService.getActiveSwitch(DPID3)).andReturn(sw3).anyTimes();
+
+		/* The device hangs off port 5 of switch 3 */
+		device = createMock(IDevice.class);
+		expect(device.getMACAddress()).andReturn(MAC).anyTimes();
+		expect(device.isVirtualInterface()).andReturn(false).anyTimes();
+		expect(device.getAttachmentPoints()).andReturn(new SwitchPort[] { new SwitchPort(DPID3, OFPort.of(5)) }).anyTimes();
+
+		deviceService = createMock(IDeviceService.class);
+		EasyMock.<Collection<? extends IDevice>>expect(deviceService.getAllDevices())
+				.andReturn(Collections.singletonList(device)).anyTimes();
+
+		topology = createMock(ITopologyService.class);
+		expect(topology.isEdge(DPID3, OFPort.of(5))).andReturn(true).anyTimes();
+		expect(topology.isInSameArchipelago(anyObject(DatapathId.class), anyObject(DatapathId.class))).andReturn(true).anyTimes();
+		expect(topology.getArchipelagoId(anyObject(DatapathId.class))).andReturn(DPID1).anyTimes();
+
+		routing = createMock(IRoutingService.class);
+
+		manager = new DestinationRuleManager(switchService, deviceService, topology, routing, U64.of(0x1234), 2);
+	}
+
+	@Test
+	public void testRulesFollowTopology() {
+		/* 1 -> 2 -> 3 */
+		expect(routing.getPath(DPID1, DPID3)).andReturn(path(DPID1, DPID3,
+				new NodePortTuple(DPID1, OFPort.of(2)), new NodePortTuple(DPID2, OFPort.of(1)),
+				new NodePortTuple(DPID2, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(1)))).once();
+		expect(routing.getPath(DPID2, DPID3)).andReturn(path(DPID2, DPID3,
+				new NodePortTuple(DPID2, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(1)))).anyTimes();
+		replay(sw1, sw2, sw3, switchService, device, deviceService, topology, routing);
+
+		manager.deviceAdded(device);
+		assertEquals(OFPort.of(2), manager.getRules(MAC).get(DPID1));
+		assertEquals(OFPort.of(2), manager.getRules(MAC).get(DPID2));
+		assertEquals(OFPort.of(5), manager.getRules(MAC).get(DPID3));
+		OFFlowAdd fa = (OFFlowAdd) wc3.getValue().get(0);
+		assertEquals(MAC, fa.getMatch().get(MatchField.ETH_DST));
+		assertEquals(U64.of(0x1234), fa.getCookie());
+		assertEquals(2, fa.getPriority());
+
+		/* Switch 1 now reaches 3 directly; switch 2 keeps its next hop, so only switch 1 is rewritten */
+		reset(routing);
+		expect(routing.getPath(DPID1, DPID3)).andReturn(path(DPID1, DPID3,
+				new NodePortTuple(DPID1, OFPort.of(4)), new NodePortTuple(DPID3, OFPort.of(4)))).anyTimes();
+		expect(routing.getPath(DPID2, DPID3)).andReturn(path(DPID2, DPID3,
+				new NodePortTuple(DPID2, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(1)))).anyTimes();
+		replay(routing);
+
+		manager.topologyChanged(Collections.singletonList(new LDUpdate(DPID1, OFPort.of(4), DPID3, OFPort.of(4),
+				U64.ZERO, LinkType.DIRECT_LINK, UpdateOperation.LINK_UPDATED)));
+		assertEquals(2, wc1.getValues().size());
+		assertEquals(1, wc2.getValues().size());
+		assertEquals(1, wc3.getValues().size());
+		assertEquals(OFPort.of(4), manager.getRules(MAC).get(DPID1));
+
+		/* Removing the device deletes its rules everywhere */
+		manager.deviceRemoved(device);
+		assertTrue(manager.getRules(MAC).isEmpty());
+		assertTrue(wc1.getValue().get(0) instanceof OFFlowDeleteStrict);
+		assertTrue(wc2.getValue().get(0) instanceof OFFlowDeleteStrict);
+		assertTrue(wc3.getValue().get(0) instanceof OFFlowDeleteStrict);
+	}
+
+	@Test
+	public void testUpstreamSwitchIsRecomputed() {
+		/* 1 -> 2 -> 3 */
+		expect(routing.getPath(DPID1, DPID3)).andReturn(path(DPID1, DPID3,
+				new NodePortTuple(DPID1, OFPort.of(2)), new NodePortTuple(DPID2, OFPort.of(1)),
+				new NodePortTuple(DPID2, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(1)))).once();
+		expect(routing.getPath(DPID2, DPID3)).andReturn(path(DPID2, DPID3,
+				new NodePortTuple(DPID2, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(1)))).once();
+		replay(sw1, sw2, sw3, switchService, device, deviceService, topology, routing);
+
+		manager.deviceAdded(device);
+		assertEquals(OFPort.of(2), manager.getRules(MAC).get(DPID1));
+
+		/* Link 2-3 goes down: 2 -> 1 -> 3, and switch 1, at neither end, must stop sending to 2 */
+		reset(routing);
+		expect(routing.getPath(DPID1, DPID3)).andReturn(path(DPID1, DPID3,
+				new NodePortTuple(DPID1, OFPort.of(4)), new NodePortTuple(DPID3, OFPort.of(4)))).anyTimes();
+		expect(routing.getPath(DPID2, DPID3)).andReturn(path(DPID2, DPID3,
+				new NodePortTuple(DPID2, OFPort.of(1)), new NodePortTuple(DPID1, OFPort.of(2)),
+				new NodePortTuple(DPID1, OFPort.of(4)), new NodePortTuple(DPID3, OFPort.of(4)))).anyTimes();
+		replay(routing);
+
+		manager.topologyChanged(Collections.singletonList(new LDUpdate(DPID2, OFPort.of(2), DPID3, OFPort.of(1),
+				U64.ZERO, LinkType.DIRECT_LINK, UpdateOperation.LINK_REMOVED)));
+		assertEquals(OFPort.of(4), manager.getRules(MAC).get(DPID1));
+		assertEquals(OFPort.of(1), manager.getRules(MAC).get(DPID2));
+		assertEquals(OFPort.of(5), manager.getRules(MAC).get(DPID3));
+		assertEquals(2, wc1.getValues().size());
+		assertEquals(2, wc2.getValues().size());
+		assertEquals(1, wc3.getValues().size());
+	}
+
+	@Test
+	public void testRemovedSwitchIsReprogrammed() {
+		expect(routing.getPath(DPID1, DPID3)).andReturn(path(DPID1, DPID3,
+				new NodePortTuple(DPID1, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(1)))).anyTimes();
+		expect(routing.getPath(DPID2, DPID3)).andReturn(path(DPID2, DPID3,
+				new NodePortTuple(DPID2, OFPort.of(2)), new NodePortTuple(DPID3, OFPort.of(2)))).anyTimes();
+		replay(sw1, sw2, sw3, switchService, device, deviceService, topology, routing);
+
+		manager.deviceAdded(device);
+		manager.removeSwitch(DPID2);
+		assertNull(manager.getRules(MAC).get(DPID2));
+
+		manager.topologyChanged(Collections.singletonList(new LDUpdate(DPID2, SwitchType.BASIC_SWITCH,
+				UpdateOperation.SWITCH_UPDATED)));
+		assertEquals(1, wc1.getValues().size());
+		assertEquals(2, wc2.getValues().size());
+		assertEquals(OFPort.of(2), manager.getRules(MAC).get(DPID2));
+	}
+}
@@ -21,6 +21,8 @@ import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -70,6 +72,10 @@ import org.easymock.EasyMock;
 import org.junit.Test;
 import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
 import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFGroupAdd;
+import org.projectfloodlight.openflow.protocol.OFGroupDelete;
+import org.projectfloodlight.openflow.protocol.OFGroupType;
+import org.projectfloodlight.openflow.protocol.instruction.OFInstructionApplyActions;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.protocol.OFDescStatsReply;
@@ -78,6 +84,8 @@ import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPacketIn;
 import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFBarrierReply;
+import org.projectfloodlight.openflow.protocol.OFBarrierRequest;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.EthType;
@@ -98,6 +106,7 @@ import org.sdnplatform.sync.ISyncService;
 import org.sdnplatform.sync.test.MockSyncService;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
 
 public class ForwardingTest extends FloodlightTestCase {
 	protected FloodlightContext cntx;
@@ -541,6 +550,254 @@ public class ForwardingTest extends FloodlightTestCase {
 		removeDeviceFromContext();
 	}
 	
+	@Test
+	public void testForwardWholePath() throws Exception {
+		learnDevices(DestDeviceToLearn.DEVICE1);
+
+		Capture<OFMessage> wc1 = EasyMock.newCapture(CaptureType.ALL);
+		Capture<List<OFMessage>> bc1 = EasyMock.newCapture(CaptureType.ALL);
+		Capture<List<OFMessage>> bc2 = EasyMock.newCapture(CaptureType.ALL);
+
+		Path path = new Path(DatapathId.of(1L), DatapathId.of(2L));
+		List<NodePortTuple> nptList = new ArrayList<NodePortTuple>();
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(3)));
+		path.setPath(nptList);
+		reset(routingEngine);
+		expect(routingEngine.getPath(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(path).atLeastOnce();
+
+		expect(sw1.write(capture(wc1))).andReturn(true).anyTimes();
+		expect(sw1.write(capture(bc1))).andReturn(Collections.<OFMessage>emptyList()).once();
+		expect(sw2.write(capture(bc2))).andReturn(Collections.<OFMessage>emptyList()).once();
+
+		reset(topology);
+		expect(topology.isEdge(DatapathId.of(1L), OFPort.of(1))).andReturn(true).anyTimes();
+		expect(topology.isEdge(DatapathId.of(2L), OFPort.of(3))).andReturn(true).anyTimes();
+
+		replay(sw1, sw2, routingEngine, topology);
+		Forwarding.INSTALL_WHOLE_PATH = true;
+		try {
+			forwarding.receive(sw1, this.packetIn, cntx);
+		} finally {
+			Forwarding.INSTALL_WHOLE_PATH = false;
+		}
+		verify(sw1, sw2, routingEngine);
+
+		/* One batch per switch, each with the flow-mod for its hop */
+		assertEquals(1, bc2.getValue().size());
+		OFFlowMod fm2 = (OFFlowMod) bc2.getValue().get(0);
+		assertEquals(OFPort.of(1), fm2.getMatch().get(MatchField.IN_PORT));
+		assertEquals(OFPort.of(3), fm2.getOutPort());
+		assertEquals(1, bc1.getValue().size());
+		assertEquals(OFPort.of(3), ((OFFlowMod) bc1.getValue().get(0)).getOutPort());
+
+		/* The packet-out is written separately, after the flow-mods */
+		assertEquals(1, wc1.getValues().size());
+		assertTrue(wc1.getValue() instanceof OFPacketOut);
+
+		removeDeviceFromContext();
+	}
+
+	@Test
+	public void testForwardWholePathBarriers() throws Exception {
+		learnDevices(DestDeviceToLearn.DEVICE1);
+
+		Capture<OFMessage> wc1 = EasyMock.newCapture(CaptureType.ALL);
+
+		Path path = new Path(DatapathId.of(1L), DatapathId.of(2L));
+		List<NodePortTuple> nptList = new ArrayList<NodePortTuple>();
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(3)));
+		path.setPath(nptList);
+		reset(routingEngine);
+		expect(routingEngine.getPath(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(path).atLeastOnce();
+
+		SettableFuture<OFBarrierReply> barrier1 = SettableFuture.create();
+		SettableFuture<OFBarrierReply> barrier2 = SettableFuture.create();
+		expect(sw1.write(capture(wc1))).andReturn(true).anyTimes();
+		expect(sw1.write(EasyMock.<List<OFMessage>>anyObject())).andReturn(Collections.<OFMessage>emptyList()).once();
+		expect(sw2.write(EasyMock.<List<OFMessage>>anyObject())).andReturn(Collections.<OFMessage>emptyList()).once();
+		expect(sw1.writeRequest(EasyMock.<OFBarrierRequest>anyObject())).andReturn(barrier1).once();
+		expect(sw2.writeRequest(EasyMock.<OFBarrierRequest>anyObject())).andReturn(barrier2).once();
+
+		reset(topology);
+		expect(topology.isEdge(DatapathId.of(1L), OFPort.of(1))).andReturn(true).anyTimes();
+		expect(topology.isEdge(DatapathId.of(2L), OFPort.of(3))).andReturn(true).anyTimes();
+
+		replay(sw1, sw2, routingEngine, topology);
+		Forwarding.INSTALL_WHOLE_PATH = true;
+		Forwarding.PATH_INSTALL_BARRIER = true;
+		try {
+			forwarding.receive(sw1, this.packetIn, cntx);
+		} finally {
+			Forwarding.INSTALL_WHOLE_PATH = false;
+			Forwarding.PATH_INSTALL_BARRIER = false;
+		}
+
+		/* The packet-in returns without waiting; the packet-out follows the last barrier reply */
+		assertFalse(wc1.hasCaptured());
+		barrier2.set(factory.buildBarrierReply().build());
+		assertFalse(wc1.hasCaptured());
+		barrier1.set(factory.buildBarrierReply().build());
+		assertEquals(1, wc1.getValues().size());
+		assertTrue(wc1.getValue() instanceof OFPacketOut);
+		verify(sw1, sw2, routingEngine);
+
+		removeDeviceFromContext();
+	}
+
+	@Test
+	public void testForwardEcmpGroup() throws Exception {
+		learnDevices(DestDeviceToLearn.DEVICE1);
+
+		Capture<OFMessage> wc1 = EasyMock.newCapture(CaptureType.ALL);
+
+		Path path = new Path(DatapathId.of(1L), DatapathId.of(2L));
+		List<NodePortTuple> nptList = new ArrayList<NodePortTuple>();
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(3)));
+		path.setPath(nptList);
+
+		/* Two parallel links between sw1 and sw2 */
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = 0; i < 2; i++) {
+			Path p = new Path(DatapathId.of(1L), DatapathId.of(2L));
+			List<NodePortTuple> npts = new ArrayList<NodePortTuple>();
+			npts.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3 + i)));
+			npts.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1 + i)));
+			p.setPath(npts);
+			p.setHopCount(1);
+			paths.add(p);
+		}
+
+		reset(routingEngine);
+		expect(routingEngine.getPath(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(path).atLeastOnce();
+		expect(routingEngine.getPathsFast(DatapathId.of(1L), DatapathId.of(2L))).andReturn(paths).atLeastOnce();
+		expect(routingEngine.getPathMetric()).andReturn(IRoutingService.PATH_METRIC.HOPCOUNT).anyTimes();
+		expect(sw1.write(capture(wc1))).andReturn(true).anyTimes();
+
+		reset(topology);
+		expect(topology.isEdge(DatapathId.of(1L), OFPort.of(1))).andReturn(true).anyTimes();
+		expect(topology.isEdge(DatapathId.of(2L), OFPort.of(3))).andReturn(true).anyTimes();
+
+		replay(sw1, sw2, routingEngine, topology);
+		Forwarding.ECMP_ENABLED = true;
+		try {
+			forwarding.receive(sw1, this.packetIn, cntx);
+		} finally {
+			Forwarding.ECMP_ENABLED = false;
+		}
+		verify(sw1, sw2, routingEngine);
+
+		OFGroupDelete groupDelete = null;
+		OFGroupAdd groupAdd = null;
+		OFFlowMod flowMod = null;
+		List<OFMessage> written = wc1.getValues();
+		for (int i = 0; i < written.size(); i++) {
+			OFMessage m = written.get(i);
+			if (m instanceof OFGroupDelete) {
+				/* A group the switch kept from before is deleted before the add */
+				groupDelete = (OFGroupDelete) m;
+				assertTrue(written.get(i + 1) instanceof OFBarrierRequest);
+			} else if (m instanceof OFGroupAdd) {
+				assertNotNull(groupDelete);
+				assertEquals(groupDelete.getGroup(), ((OFGroupAdd) m).getGroup());
+				groupAdd = (OFGroupAdd) m;
+				/* A barrier keeps the switch from applying a flow-mod using the group first */
+				assertTrue(written.get(i + 1) instanceof OFBarrierRequest);
+			} else if (m instanceof OFFlowMod) {
+				assertNotNull(groupAdd);
+				flowMod = (OFFlowMod) m;
+			}
+		}
+		assertNotNull(groupAdd);
+		assertEquals(OFGroupType.SELECT, groupAdd.getGroupType());
+		assertEquals(2, groupAdd.getBuckets().size());
+		assertNotNull(flowMod);
+		assertEquals(Collections.singletonList(factory.actions().group(groupAdd.getGroup())),
+				((OFInstructionApplyActions) flowMod.getInstructions().get(0)).getActions());
+		assertEquals(1, forwarding.ecmpGroupManager.getGroupCount(DatapathId.of(1L)));
+
+		/* Losing one of the next hops removes the group */
+		forwarding.ecmpGroupManager.removePort(null, DatapathId.of(1L), OFPort.of(4));
+		assertEquals(0, forwarding.ecmpGroupManager.getGroupCount(DatapathId.of(1L)));
+
+		removeDeviceFromContext();
+	}
+
+	@Test
+	public void testForwardEcmpGroupWholePath() throws Exception {
+		learnDevices(DestDeviceToLearn.DEVICE1);
+
+		Capture<OFMessage> wc1 = EasyMock.newCapture(CaptureType.ALL);
+		Capture<List<OFMessage>> bc1 = EasyMock.newCapture(CaptureType.ALL);
+		Capture<List<OFMessage>> bc2 = EasyMock.newCapture(CaptureType.ALL);
+
+		Path path = new Path(DatapathId.of(1L), DatapathId.of(2L));
+		List<NodePortTuple> nptList = new ArrayList<NodePortTuple>();
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1)));
+		nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(3)));
+		path.setPath(nptList);
+
+		/* Two parallel links between sw1 and sw2 */
+		List<Path> paths = new ArrayList<Path>();
+		for (int i = 0; i < 2; i++) {
+			Path p = new Path(DatapathId.of(1L), DatapathId.of(2L));
+			List<NodePortTuple> npts = new ArrayList<NodePortTuple>();
+			npts.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3 + i)));
+			npts.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1 + i)));
+			p.setPath(npts);
+			p.setHopCount(1);
+			paths.add(p);
+		}
+
+		reset(routingEngine);
+		expect(routingEngine.getPath(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(path).atLeastOnce();
+		expect(routingEngine.getPathsFast(DatapathId.of(1L), DatapathId.of(2L))).andReturn(paths).atLeastOnce();
+		expect(routingEngine.getPathMetric()).andReturn(IRoutingService.PATH_METRIC.HOPCOUNT).anyTimes();
+		expect(sw1.write(capture(wc1))).andReturn(true).anyTimes();
+		expect(sw1.write(capture(bc1))).andReturn(Collections.<OFMessage>emptyList()).anyTimes();
+		expect(sw2.write(capture(bc2))).andReturn(Collections.<OFMessage>emptyList()).anyTimes();
+
+		reset(topology);
+		expect(topology.isEdge(DatapathId.of(1L), OFPort.of(1))).andReturn(true).anyTimes();
+		expect(topology.isEdge(DatapathId.of(2L), OFPort.of(3))).andReturn(true).anyTimes();
+
+		replay(sw1, sw2, routingEngine, topology);
+		Forwarding.ECMP_ENABLED = true;
+		Forwarding.INSTALL_WHOLE_PATH = true;
+		try {
+			forwarding.receive(sw1, this.packetIn, cntx);
+		} finally {
+			Forwarding.ECMP_ENABLED = false;
+			Forwarding.INSTALL_WHOLE_PATH = false;
+		}
+		verify(sw1, sw2, routingEngine);
+
+		/* The ingress switch is programmed once and sends exactly one packet-out */
+		assertEquals(1, bc1.getValues().size());
+		int packetOuts = 0;
+		for (OFMessage m : wc1.getValues()) {
+			if (m instanceof OFPacketOut) {
+				packetOuts++;
+			}
+		}
+		assertEquals(1, packetOuts);
+
+		/* sw2 gets the last hop of both paths */
+		assertEquals(2, bc2.getValues().size());
+
+		removeDeviceFromContext();
+	}
+
 	@Test
 	public void testForwardMultiSwitchPathIPv6() throws Exception {
 		learnDevicesIPv6(DestDeviceToLearn.DEVICE1);
@@ -1074,4 +1331,39 @@ public class ForwardingTest extends FloodlightTestCase {
 		forwarding.deleteFlowsByDescriptor(descriptors);
 		verify(routingEngine);
 	}
+
+	@Test
+	public void testFlowSetIdRegistryRemovals() throws Exception {
+		Forwarding.FlowSetIdRegistry registry = Forwarding.flowSetIdRegistry;
+		NodePortTuple a1 = new NodePortTuple(DatapathId.of(101L), OFPort.of(1));
+		NodePortTuple a2 = new NodePortTuple(DatapathId.of(101L), OFPort.of(2));
+		NodePortTuple b1 = new NodePortTuple(DatapathId.of(102L), OFPort.of(1));
+		NodePortTuple c1 = new NodePortTuple(DatapathId.of(103L), OFPort.of(1));
+
+		/* x: a1 -> b1, y: a2 -> c1, z: b1 -> c1 */
+		U64 x = registry.generateFlowSetId();
+		U64 y = registry.generateFlowSetId();
+		U64 z = registry.generateFlowSetId();
+		registry.registerFlowSetId(a1, x);
+		registry.registerFlowSetId(b1, x);
+		registry.registerFlowSetId(a2, y);
+		registry.registerFlowSetId(c1, y);
+		registry.registerFlowSetId(b1, z);
+		registry.registerFlowSetId(c1, z);
+
+		/* Losing b1 takes x and z with all their ports, and leaves y alone */
+		Map<U64, Set<NodePortTuple>> removed = registry.removeFlowSetsOnPort(b1);
+		assertEquals(2, removed.size());
+		assertEquals(new HashSet<NodePortTuple>(Arrays.asList(a1, b1)), removed.get(x));
+		assertEquals(new HashSet<NodePortTuple>(Arrays.asList(b1, c1)), removed.get(z));
+		assertNull(registry.getFlowSetIds(a1));
+		assertEquals(Collections.singleton(y), registry.getFlowSetIds(c1));
+		assertNull(registry.getNodePortTuples(x));
+
+		/* Bulk removal of switch 101 finds y through a2 */
+		removed = registry.removeSwitch(DatapathId.of(101L));
+		assertEquals(Collections.singleton(y), removed.keySet());
+		assertNull(registry.getFlowSetIds(c1));
+		assertTrue(registry.removeSwitch(DatapathId.of(101L)).isEmpty());
+	}
 }
\ No newline at end of file
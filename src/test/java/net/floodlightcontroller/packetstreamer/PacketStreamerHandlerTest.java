@@ -0,0 +1,148 @@
+package net.floodlightcontroller.packetstreamer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import net.floodlightcontroller.packetstreamer.PacketStreamerHandler.OverflowPolicy;
+import net.floodlightcontroller.packetstreamer.thrift.Message;
+import net.floodlightcontroller.packetstreamer.thrift.OFMessageType;
+import net.floodlightcontroller.packetstreamer.thrift.Packet;
+import net.floodlightcontroller.packetstreamer.thrift.SwitchPortTuple;
+
+import org.apache.thrift.TException;
+import org.junit.Test;
+
+public class PacketStreamerHandlerTest {
+
+    private static Message message(String sid, long dpid, OFMessageType type, byte[] data) {
+        Packet packet = new Packet(type, new SwitchPortTuple(dpid, (short) 1), ByteBuffer.wrap(data));
+        return new Message(Collections.singletonList(sid), packet);
+    }
+
+    /* An OF1.0 packet-in carrying a VLAN tagged frame of the given ethertype */
+    private static byte[] packetIn10(int ethertype) {
+        ByteBuffer bb = ByteBuffer.allocate(18 + 18);
+        bb.put((byte) 0x01).put((byte) 10).putShort((short) bb.capacity()).putInt(0);
+        bb.position(18 + 12);
+        bb.putShort((short) 0x8100).putShort((short) 5).putShort((short) ethertype);
+        return bb.array();
+    }
+
+    @Test
+    public void testBoundedQueuePolicies() throws Exception {
+        PacketStreamerHandler handler = new PacketStreamerHandler(3, OverflowPolicy.DROP_OLDEST);
+        for (byte i = 0; i < 5; i++) {
+            handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, new byte[] { i }));
+        }
+        assertEquals(2, handler.getDroppedCount("s1"));
+        List<ByteBuffer> packets = handler.getPackets("s1", 10);
+        assertEquals(3, packets.size());
+        assertEquals(2, packets.get(0).get(0));
+        assertEquals(4, packets.get(2).get(0));
+
+        handler.configureSession("s2", 3, OverflowPolicy.DROP_NEWEST, null);
+        for (byte i = 0; i < 5; i++) {
+            handler.pushMessageSync(message("s2", 1, OFMessageType.PACKET_IN, new byte[] { i }));
+        }
+        assertEquals(2, handler.getDroppedCount("s2"));
+
+        /* batches are bounded, oldest first */
+        packets = handler.getPackets("s2", 2);
+        assertEquals(2, packets.size());
+        assertEquals(0, packets.get(0).get(0));
+        packets = handler.getPackets("s2", 2);
+        assertEquals(1, packets.size());
+        assertEquals(2, packets.get(0).get(0));
+    }
+
+    @Test
+    public void testCaptureFilter() throws Exception {
+        PacketStreamerHandler handler = new PacketStreamerHandler();
+        handler.configureSession("s1", 10, OverflowPolicy.DROP_OLDEST,
+                new CaptureFilter(1L, EnumSet.of(OFMessageType.PACKET_IN), 0x0800));
+
+        handler.pushMessageSync(message("s1", 2, OFMessageType.PACKET_IN, packetIn10(0x0800)));
+        handler.pushMessageSync(message("s1", 1, OFMessageType.FLOW_MOD, packetIn10(0x0800)));
+        handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, packetIn10(0x0806)));
+        handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, new byte[] { 1, 10 }));
+        byte[] match = packetIn10(0x0800);
+        handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, match));
+
+        List<ByteBuffer> packets = handler.getPackets("s1", 10);
+        assertEquals(1, packets.size());
+        /* the queued packet is a view of the pushed bytes, not a copy */
+        assertTrue(packets.get(0).hasArray());
+        assertTrue(packets.get(0).array() == match);
+        assertEquals(0, handler.getDroppedCount("s1"));
+    }
+
+    @Test
+    public void testEthertypeOf() {
+        assertEquals(0x86dd, CaptureFilter.ethertypeOf(ByteBuffer.wrap(packetIn10(0x86dd))));
+        assertEquals(-1, CaptureFilter.ethertypeOf(ByteBuffer.wrap("New data, sequence 1".getBytes())));
+        assertEquals(-1, CaptureFilter.ethertypeOf(null));
+
+        /* OF1.3: a 4 byte match padded to 8, then 2 bytes of padding */
+        ByteBuffer bb = ByteBuffer.allocate(24 + 8 + 2 + 14);
+        bb.put((byte) 0x04).put((byte) 10).putShort((short) bb.capacity());
+        bb.position(24);
+        bb.putShort((short) 1).putShort((short) 4);
+        bb.position(24 + 8 + 2 + 12);
+        bb.putShort((short) 0x88cc);
+        bb.clear();
+        assertEquals(0x88cc, CaptureFilter.ethertypeOf(bb));
+        assertEquals(0, bb.position());
+    }
+
+    @Test
+    public void testReconfigureSession() throws Exception {
+        final PacketStreamerHandler handler = new PacketStreamerHandler();
+        handler.configureSession("s1", 10, OverflowPolicy.DROP_OLDEST, null);
+
+        /* a consumer waiting on the session keeps waiting on it */
+        final List<ByteBuffer> received = new ArrayList<ByteBuffer>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    received.addAll(handler.getPackets("s1", 10));
+                } catch (TException e) {
+                }
+            }
+        };
+        consumer.start();
+        while (consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        handler.configureSession("s1", 2, OverflowPolicy.DROP_OLDEST, null);
+        handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, new byte[] { 7 }));
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(1, received.size());
+        assertEquals(7, received.get(0).get(0));
+
+        /* shrinking keeps what the policy keeps */
+        for (byte i = 0; i < 3; i++) {
+            handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, new byte[] { i }));
+        }
+        handler.configureSession("s1", 1, OverflowPolicy.DROP_OLDEST, null);
+        List<ByteBuffer> packets = handler.getPackets("s1", 10);
+        assertEquals(1, packets.size());
+        assertEquals(2, packets.get(0).get(0));
+    }
+
+    @Test
+    public void testTerminateSession() throws Exception {
+        PacketStreamerHandler handler = new PacketStreamerHandler(1, OverflowPolicy.DROP_NEWEST);
+        handler.pushMessageSync(message("s1", 1, OFMessageType.PACKET_IN, new byte[] { 1 }));
+        handler.terminateSession("s1");
+        assertFalse(handler.msgQueues.containsKey("s1"));
+    }
+}
@@ -0,0 +1,90 @@
+package net.floodlightcontroller.perfmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void testHistogramPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(100000, h.getTotalCount());
+        assertEquals(100000000L, h.getMaxNs());
+        assertEquals(50000500L, h.getMeanNs());
+
+        double[] percentiles = { 50, 99, 99.9 };
+        long[] expected = { 50000000L, 99000000L, 99900000L };
+        for (int i = 0; i < percentiles.length; i++) {
+            long value = h.getValueAtPercentile(percentiles[i]);
+            /* within the precision of a bucket, and never below the true value */
+            assertTrue(value >= expected[i]);
+            assertTrue(value <= expected[i] + expected[i] / LatencyHistogram.SUB_BUCKET_COUNT);
+        }
+        assertEquals(h.getMaxNs(), h.getValueAtPercentile(100));
+
+        /* out of range values are clamped rather than dropped */
+        h.clear();
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+        assertEquals(2, h.getTotalCount());
+        assertEquals(0, h.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NS, h.getMaxNs());
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long low = LatencyHistogram.highestValueAt(i - 1) + 1;
+            assertEquals(i, LatencyHistogram.indexOf(low));
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.highestValueAt(i)));
+        }
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NS,
+                LatencyHistogram.highestValueAt(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void testRollingWindow() throws InterruptedException {
+        final long second = 1000000000L;
+        final LatencyRecorder recorder = new LatencyRecorder(3, second);
+        long now = System.nanoTime();
+        recorder.record("forwarding", OFType.PACKET_IN, 100);
+        recorder.record(LatencyRecorder.TOTAL, OFType.PACKET_IN, 150);
+
+        /* values recorded on other threads are merged in too */
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.record("forwarding", OFType.PACKET_IN, 300);
+                recorder.record("linkdiscovery", OFType.PORT_STATUS, 50);
+            }
+        });
+        t.start();
+        t.join();
+
+        List<LatencySummary> summaries = recorder.getSummaries(now);
+        assertEquals(3, summaries.size());
+        LatencySummary fwd = summaries.get(0);
+        assertEquals("forwarding", fwd.getListener());
+        assertEquals("PACKET_IN", fwd.getType());
+        assertEquals(2, fwd.getCount());
+        assertEquals(300, fwd.getMaxNs());
+        assertEquals("linkdiscovery", summaries.get(1).getListener());
+        assertEquals(LatencyRecorder.TOTAL, summaries.get(2).getListener());
+
+        /* still in the window two intervals later, gone after the third */
+        assertTrue(recorder.merge(now + 2 * second));
+        assertEquals(3, recorder.getSummaries(now + 2 * second).size());
+        assertFalse(recorder.merge(now + 5 * second / 2));
+        assertTrue(recorder.merge(now + 3 * second));
+        assertTrue(recorder.getSummaries(now + 3 * second).isEmpty());
+    }
+}
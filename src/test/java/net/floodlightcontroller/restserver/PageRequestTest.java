@@ -0,0 +1,104 @@
+package net.floodlightcontroller.restserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.restserver.PageRequest.KeyFunction;
+import net.floodlightcontroller.restserver.PageRequest.Page;
+
+import org.junit.Test;
+import org.restlet.data.Form;
+
+public class PageRequestTest {
+    private static final KeyFunction<String> IDENTITY = new KeyFunction<String>() {
+        @Override
+        public String keyOf(String item) {
+            return item;
+        }
+    };
+
+    private static List<String> toList(Iterable<String> items) {
+        List<String> result = new ArrayList<String>();
+        for (String item : items) {
+            result.add(item);
+        }
+        return result;
+    }
+
+    @Test
+    public void testFromQuery() {
+        PageRequest request = PageRequest.fromQuery(new Form("limit=10&cursor=abc&fields=mac,%20ipv4,"));
+        assertEquals(10, request.getLimit());
+        assertEquals("abc", request.getCursor());
+        assertEquals(new HashSet<String>(Arrays.asList("mac", "ipv4")), request.getFields());
+
+        request = PageRequest.fromQuery(new Form(""));
+        assertEquals(0, request.getLimit());
+        assertNull(request.getCursor());
+        assertEquals(Collections.<String>emptySet(), request.getFields());
+
+        for (String bad : new String[] { "limit=0", "limit=-3", "limit=x", "limit=" + (PageRequest.MAX_LIMIT + 1) }) {
+            try {
+                PageRequest.fromQuery(new Form(bad));
+                fail("Expected IllegalArgumentException for " + bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSelect() {
+        List<String> source = Arrays.asList("d", "a", "e", "c", "b");
+
+        /* Pages come out sorted, and walking the cursors visits everything once */
+        Page<String> page = new PageRequest(2, null, Collections.<String>emptySet()).select(source, IDENTITY);
+        assertEquals(Arrays.asList("a", "b"), toList(page.getItems()));
+        assertEquals("b", page.getNextCursor());
+        page = new PageRequest(2, "b", Collections.<String>emptySet()).select(source, IDENTITY);
+        assertEquals(Arrays.asList("c", "d"), toList(page.getItems()));
+        page = new PageRequest(2, "d", Collections.<String>emptySet()).select(source, IDENTITY);
+        assertEquals(Arrays.asList("e"), toList(page.getItems()));
+        assertNull(page.getNextCursor());
+
+        /* Without a limit, the page keeps the source order */
+        page = new PageRequest(0, "b", Collections.<String>emptySet()).select(source, IDENTITY);
+        assertEquals(Arrays.asList("d", "e", "c"), toList(page.getItems()));
+        assertEquals(Arrays.asList("d", "e", "c"), toList(page.getItems()));
+        assertNull(page.getNextCursor());
+        assertEquals(source, toList(PageRequest.all().select(source, IDENTITY).getItems()));
+    }
+
+    @Test
+    public void testWriteProjected() throws IOException {
+        Map<String, Object> device = new HashMap<String, Object>();
+        device.put("mac", "00:00:00:00:00:01");
+        device.put("ipv4", Collections.singletonList("10.0.0.1"));
+        device.put("lastSeen", 1);
+        List<Map<String, Object>> devices = Collections.singletonList(device);
+
+        PageRequest request = PageRequest.fromQuery(new Form("fields=mac"));
+        JsonCollectionRepresentation<Map<String, Object>> rep =
+                new JsonCollectionRepresentation<Map<String, Object>>(
+                        request.select(devices, new KeyFunction<Map<String, Object>>() {
+                            @Override
+                            public String keyOf(Map<String, Object> item) {
+                                return (String) item.get("mac");
+                            }
+                        }), request).setEnvelope("devices");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rep.write(out);
+        assertEquals("{\"devices\":[{\"mac\":\"00:00:00:00:00:01\"}]}", out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,122 @@
+package net.floodlightcontroller.topology;
+
+import net.floodlightcontroller.linkdiscovery.Link;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactGraphTest {
+
+    private static Link link(int src, int srcPort, int dst, int dstPort) {
+        return new Link(DatapathId.of(src), OFPort.of(srcPort), DatapathId.of(dst), OFPort.of(dstPort), U64.ZERO);
+    }
+
+    /*
+     * 1 -> 2 -> 4 costs 2, 1 -> 3 -> 4 costs 3 and the direct 1 -> 4 costs 5.
+     */
+    private CompactGraph buildDiamond() {
+        List<Link> links = new ArrayList<Link>();
+        Map<Link, Integer> costs = new HashMap<Link, Integer>();
+        links.add(link(1, 1, 2, 1));
+        links.add(link(2, 2, 4, 1));
+        links.add(link(1, 2, 3, 1));
+        links.add(link(3, 2, 4, 2));
+        links.add(link(1, 3, 4, 3));
+        costs.put(link(1, 2, 3, 1), 2);
+        costs.put(link(1, 3, 4, 3), 5);
+        return new CompactGraph(Arrays.asList(DatapathId.of(4), DatapathId.of(3), DatapathId.of(2), DatapathId.of(1)),
+                links, costs, TopologyInstance.MAX_PATH_WEIGHT);
+    }
+
+    private List<Link> toLinks(CompactGraph g, int[] path) {
+        List<Link> result = new ArrayList<Link>();
+        for (int e : path) {
+            result.add(g.getEdge(e));
+        }
+        return result;
+    }
+
+    @Test
+    public void testNodesIndexedInDpidOrder() {
+        CompactGraph g = buildDiamond();
+        assertEquals(4, g.getNodeCount());
+        assertEquals(5, g.getEdgeCount());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(DatapathId.of(i + 1), g.getNode(i));
+        }
+        assertEquals(-1, g.indexOf(DatapathId.of(5)));
+    }
+
+    @Test
+    public void testDijkstra() {
+        CompactGraph g = buildDiamond();
+        CompactGraph.Search search = g.newSearch();
+        int one = g.indexOf(DatapathId.of(1));
+        int four = g.indexOf(DatapathId.of(4));
+
+        search.dijkstra(four, true);
+        assertEquals(2, search.getDist(one));
+        assertEquals(0, search.getDist(four));
+        assertEquals(-1, search.getTreeEdge(four));
+        assertEquals(Arrays.asList(link(1, 1, 2, 1), link(2, 2, 4, 1)), toLinks(g, search.getPathToRoot(one, four)));
+
+        /* Links are directed, so 4 cannot reach 1 */
+        search.dijkstra(one, true);
+        assertNull(search.getPathToRoot(four, one));
+        assertEquals(TopologyInstance.MAX_PATH_WEIGHT, search.getDist(four));
+
+        /* Masking switch 2 forces the path through 3 */
+        search.maskNode(g.indexOf(DatapathId.of(2)));
+        search.dijkstra(four, true);
+        assertEquals(3, search.getDist(one));
+        search.clearMasks();
+    }
+
+    @Test
+    public void testKShortestPaths() {
+        CompactGraph g = buildDiamond();
+        CompactGraph.Search search = g.newSearch();
+        int one = g.indexOf(DatapathId.of(1));
+        int four = g.indexOf(DatapathId.of(4));
+
+        List<int[]> paths = search.getKShortestPaths(one, four, 5);
+        assertEquals(3, paths.size());
+        assertEquals(2, g.getPathCost(paths.get(0)));
+        assertEquals(3, g.getPathCost(paths.get(1)));
+        assertEquals(5, g.getPathCost(paths.get(2)));
+        assertEquals(Arrays.asList(link(1, 3, 4, 3)), toLinks(g, paths.get(2)));
+
+        assertEquals(1, search.getKShortestPaths(one, four, 1).size());
+        assertEquals(0, search.getKShortestPaths(four, one, 3).size());
+        assertEquals(0, search.getKShortestPaths(one, one, 3).size());
+    }
+
+    @Test
+    public void testIndexedMinHeap() {
+        CompactGraph.IndexedMinHeap heap = new CompactGraph.IndexedMinHeap(5);
+        heap.insertOrDecrease(0, 10);
+        heap.insertOrDecrease(1, 5);
+        heap.insertOrDecrease(2, 7);
+        heap.insertOrDecrease(3, 7);
+        heap.insertOrDecrease(0, 1);
+        heap.insertOrDecrease(1, 9); /* not a decrease, ignored */
+
+        int[] order = new int[4];
+        for (int i = 0; i < 4; i++) {
+            order[i] = heap.pollMin();
+        }
+        assertArrayEquals(new int[] {0, 1, 2, 3}, order);
+        assertEquals(true, heap.isEmpty());
+    }
+}
@@ -48,6 +48,8 @@ import java.util.Set;
 import static net.floodlightcontroller.routing.IRoutingService.PATH_METRIC.HOPCOUNT;
 import static net.floodlightcontroller.routing.IRoutingService.PATH_METRIC.LATENCY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TopologyInstanceTest {
@@ -933,4 +935,77 @@ public class TopologyInstanceTest {
         verifyRoute(r10, r10.size());
     }
     
+
+    private void assertSamePathCosts(TopologyInstance expected, TopologyInstance actual, int k) {
+        assertEquals(expected.getSwitches(), actual.getSwitches());
+        for (DatapathId src : expected.getSwitches()) {
+            for (DatapathId dst : expected.getSwitches()) {
+                List<Path> e = expected.getPathsFast(src, dst, k);
+                List<Path> a = actual.getPathsFast(src, dst, k);
+                assertEquals(e.size(), a.size());
+                for (int i = 0; i < e.size(); i++) {
+                    assertEquals(e.get(i).getHopCount(), a.get(i).getHopCount());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalLinkUpdates() throws Exception {
+        int maxPaths = topologyManager.getMaxPathsToCompute();
+        IRoutingService.PATH_METRIC metric = topologyManager.getPathMetric();
+        DatapathId one = DatapathId.of(1);
+        DatapathId two = DatapathId.of(2);
+        DatapathId three = DatapathId.of(3);
+        DatapathId four = DatapathId.of(4);
+
+        try {
+            topologyManager.setMaxPathsToCompute(1);
+            topologyManager.setPathMetric(HOPCOUNT);
+
+            /* A bidirectional ring 1-2-3-4 forms a single cluster */
+            int [][] ring = {
+                    {1, 1, 2, 1, DIRECT_LINK}, {2, 1, 1, 1, DIRECT_LINK},
+                    {2, 2, 3, 1, DIRECT_LINK}, {3, 1, 2, 2, DIRECT_LINK},
+                    {3, 2, 4, 1, DIRECT_LINK}, {4, 1, 3, 2, DIRECT_LINK},
+                    {4, 2, 1, 2, DIRECT_LINK}, {1, 2, 4, 2, DIRECT_LINK},
+            };
+            createTopologyFromLinks(ring);
+            TopologyInstance before = topologyManager.getCurrentInstance();
+            assertEquals(2, before.getPath(one, three).getHopCount());
+
+            /* Adding a chord within the cluster only touches the pairs it can shorten */
+            int [][] chord = {
+                    {1, 3, 3, 3, DIRECT_LINK}, {3, 3, 1, 3, DIRECT_LINK},
+            };
+            createTopologyFromLinks(chord);
+            TopologyInstance incremental = topologyManager.getCurrentInstance();
+            assertNotSame(before, incremental);
+            verifyClusters(new int[][] {{1, 2, 3, 4}});
+            assertEquals(1, incremental.getPath(one, three).getHopCount());
+            assertSame(before.getPathsFast(two, four, 1), incremental.getPathsFast(two, four, 1));
+
+            topologyManager.forceRecompute();
+            assertSamePathCosts(topologyManager.getCurrentInstance(), incremental, 1);
+
+            /* Removing 2<->3 keeps the cluster strongly connected through the chord */
+            topologyManager.removeLink(two, OFPort.of(2), three, OFPort.of(1));
+            topologyManager.removeLink(three, OFPort.of(1), two, OFPort.of(2));
+            topologyManager.createNewInstance();
+            incremental = topologyManager.getCurrentInstance();
+            verifyClusters(new int[][] {{1, 2, 3, 4}});
+            assertEquals(2, incremental.getPath(two, three).getHopCount());
+
+            topologyManager.forceRecompute();
+            assertSamePathCosts(topologyManager.getCurrentInstance(), incremental, 1);
+
+            /* Removing 1<->2 splits the cluster and falls back to a full rebuild */
+            topologyManager.removeLink(one, OFPort.of(1), two, OFPort.of(1));
+            topologyManager.createNewInstance();
+            verifyClusters(new int[][] {{1, 3, 4}, {2}});
+        } finally {
+            topologyManager.setMaxPathsToCompute(maxPaths);
+            topologyManager.setPathMetric(metric);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+    @Test
+    public void testAddRemoveContains() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(0L)); /* the free-slot marker is a valid element too */
+        assertTrue(set.add(42L));
+        assertTrue(set.add(-7L));
+        assertFalse(set.add(42L));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0L));
+        assertTrue(set.contains(-7L));
+        assertFalse(set.contains(43L));
+
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertArrayEquals(new long[] { -7L, 0L, 42L }, values);
+
+        assertTrue(set.remove(0L));
+        assertFalse(set.remove(0L));
+        assertTrue(set.remove(42L));
+        assertFalse(set.contains(42L));
+        assertEquals(1, set.size());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(-7L));
+    }
+
+    @Test
+    public void testMatchesHashSet() {
+        /* Random operations over a small key range exercise growth and backward-shift deletes */
+        Random r = new Random(1);
+        LongHashSet set = new LongHashSet();
+        Set<Long> reference = new HashSet<Long>();
+        for (int i = 0; i < 200000; i++) {
+            long v = (r.nextInt(2000) - 10) << 24;
+            switch (r.nextInt(3)) {
+            case 0:
+                assertEquals(reference.add(v), set.add(v));
+                break;
+            case 1:
+                assertEquals(reference.remove(v), set.remove(v));
+                break;
+            default:
+                assertEquals(reference.contains(v), set.contains(v));
+            }
+            assertEquals(reference.size(), set.size());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.sdnplatform.sync.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.StoreRegistry.Hint;
+import org.sdnplatform.sync.internal.StoreRegistry.HintKey;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+public class NodeHintQueueTest {
+    private static HintKey key(String key) {
+        return new HintKey("store", new ByteArray(key.getBytes()));
+    }
+
+    private static Versioned<byte[]> value(String value, int... nodes) {
+        VectorClock vc = new VectorClock();
+        for (int node : nodes) {
+            vc = vc.incremented(node, 0);
+        }
+        return new Versioned<byte[]>(value.getBytes(), vc);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Versioned<byte[]>> values(Versioned<byte[]>... values) {
+        return Arrays.asList(values);
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        NodeHintQueue queue = new NodeHintQueue((short)2, null, null);
+        assertFalse(queue.offer(key("a"), values(value("a1", 1)), 10));
+        assertFalse(queue.offer(key("b"), values(value("b1", 1)), 20));
+        // a newer version replaces the queued one and keeps its place
+        assertTrue(queue.offer(key("a"), values(value("a2", 1, 1)), 30));
+        // an older version is dropped
+        assertTrue(queue.offer(key("b"), values(value("b0")), 40));
+        // a concurrent version is kept alongside the queued one
+        assertTrue(queue.offer(key("b"), values(value("b2", 3)), 50));
+        assertEquals(2, queue.size());
+        assertEquals(90, queue.getLag(100));
+
+        List<Hint> hints = new ArrayList<Hint>();
+        assertEquals(2, queue.drain(hints, 10, 100));
+        assertEquals(key("a"), hints.get(0).getHintKey());
+        assertEquals(1, hints.get(0).getValues().size());
+        assertArrayEquals("a2".getBytes(),
+                          hints.get(0).getValues().get(0).getValue());
+        assertEquals(key("b"), hints.get(1).getHintKey());
+        assertEquals(2, hints.get(1).getValues().size());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getLag(100));
+    }
+
+    @Test
+    public void testSenderClaim() throws Exception {
+        NodeHintQueue queue = new NodeHintQueue((short)2, null, null);
+        queue.offer(key("a"), values(value("a1", 1)), 0);
+        queue.offer(key("b"), values(value("b1", 1)), 0);
+        assertTrue(queue.claimSender());
+        assertFalse(queue.claimSender());
+
+        List<Hint> hints = new ArrayList<Hint>();
+        assertEquals(1, queue.drain(hints, 1, 0));
+        assertFalse(queue.claimSender());
+        assertEquals(1, queue.drain(hints, 1, 0));
+        // draining an empty queue releases the claim
+        assertEquals(0, queue.drain(hints, 1, 0));
+        assertTrue(queue.claimSender());
+    }
+
+    @Test
+    public void testBatchSize() throws Exception {
+        assertEquals(NodeHintQueue.MIN_BATCH_SIZE, NodeHintQueue.batchSize(0));
+        assertEquals(NodeHintQueue.MIN_BATCH_SIZE, NodeHintQueue.batchSize(60));
+        assertEquals(200, NodeHintQueue.batchSize(400));
+        assertEquals(NodeHintQueue.MAX_BATCH_SIZE,
+                     NodeHintQueue.batchSize(100000));
+    }
+}
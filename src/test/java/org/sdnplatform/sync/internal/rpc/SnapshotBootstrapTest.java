@@ -0,0 +1,206 @@
+package org.sdnplatform.sync.internal.rpc;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.debugcounter.MockDebugCounterService;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.sync.ISyncService.Scope;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.error.SyncException;
+import org.sdnplatform.sync.internal.SyncManager;
+import org.sdnplatform.sync.internal.config.Node;
+import org.sdnplatform.sync.internal.store.InMemoryStorageEngine;
+import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+import org.sdnplatform.sync.thrift.AsyncMessageHeader;
+import org.sdnplatform.sync.thrift.CursorRequestMessage;
+import org.sdnplatform.sync.thrift.CursorResponseMessage;
+import org.sdnplatform.sync.thrift.ErrorMessage;
+import org.sdnplatform.sync.thrift.KeyedValues;
+import org.sdnplatform.sync.thrift.MessageType;
+import org.sdnplatform.sync.thrift.SyncError;
+import org.sdnplatform.sync.thrift.SyncMessage;
+
+public class SnapshotBootstrapTest {
+    SyncManager syncManager;
+    RPCService rpcService;
+    EmbeddedChannel channel;
+    Node remoteNode = new Node("localhost", 40102, (short)2, (short)1);
+    AtomicInteger transactionId = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        SyncManager.counterSnapshotValues =
+                new MockDebugCounterService().registerCounter("test",
+                                                              "snapshot", "");
+        syncManager = createMock(SyncManager.class);
+        expect(syncManager.getLocalNodeId()).andReturn((short)1).anyTimes();
+        rpcService = createMock(RPCService.class);
+        expect(rpcService.getTransactionId()).andAnswer(new IAnswer<Integer>() {
+            @Override
+            public Integer answer() throws Throwable {
+                return transactionId.incrementAndGet();
+            }
+        }).anyTimes();
+        replay(rpcService);
+        channel = new EmbeddedChannel();
+    }
+
+    private SynchronizingStorageEngine store(String name) {
+        return new SynchronizingStorageEngine(
+                new InMemoryStorageEngine<ByteArray, byte[]>(name),
+                syncManager, new MockDebugCounterService(), Scope.GLOBAL);
+    }
+
+    private List<CursorRequestMessage> requests() {
+        List<CursorRequestMessage> result =
+                new ArrayList<CursorRequestMessage>();
+        Object o;
+        while ((o = channel.readOutbound()) != null) {
+            SyncMessage bsm = (SyncMessage) o;
+            assertEquals(MessageType.CURSOR_REQUEST, bsm.getType());
+            result.add(bsm.getCursorRequest());
+        }
+        return result;
+    }
+
+    private static CursorResponseMessage response(CursorRequestMessage request,
+                                                  int cursorId,
+                                                  String... keys) {
+        CursorResponseMessage m = new CursorResponseMessage();
+        m.setHeader(new AsyncMessageHeader().
+                    setTransactionId(request.getHeader().getTransactionId()));
+        m.setCursorId(cursorId);
+        m.setValues(new ArrayList<KeyedValues>());
+        for (String key : keys) {
+            Versioned<byte[]> v =
+                    new Versioned<byte[]>(key.getBytes(), new VectorClock());
+            m.addToValues(TProtocolUtil.getTKeyedValues(new ByteArray(key.getBytes()),
+                                                        Arrays.asList(v)));
+        }
+        return m;
+    }
+
+    private static ErrorMessage error(CursorRequestMessage request,
+                                      SyncException.ErrorType type) {
+        ErrorMessage em = new ErrorMessage();
+        em.setHeader(new AsyncMessageHeader().
+                     setTransactionId(request.getHeader().getTransactionId()));
+        em.setType(MessageType.CURSOR_REQUEST);
+        em.setError(new SyncError(type.getValue(), "error"));
+        return em;
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        syncManager.writeSyncValue(eq("a"), eq(Scope.GLOBAL), eq(false),
+                                   aryEq("k1".getBytes()),
+                                   anyObject(TVersionedValueIterable.class));
+        syncManager.writeSyncValue(eq("a"), eq(Scope.GLOBAL), eq(false),
+                                   aryEq("k2".getBytes()),
+                                   anyObject(TVersionedValueIterable.class));
+        syncManager.snapshotBootstrapFinished();
+        expectLastCall().once();
+        replay(syncManager);
+
+        SnapshotBootstrap bootstrap =
+                new SnapshotBootstrap(syncManager, rpcService, remoteNode,
+                                      channel, Arrays.asList(store("a"),
+                                                             store("b")));
+        bootstrap.start();
+
+        // Only the request opening the cursor is sent until it is answered
+        List<CursorRequestMessage> sent = requests();
+        assertEquals(1, sent.size());
+        assertEquals("a", sent.get(0).getStoreName());
+        assertTrue(bootstrap.handleResponse(response(sent.get(0), 7, "k1")));
+
+        // Then the window is filled
+        sent = requests();
+        assertEquals(SnapshotBootstrap.SNAPSHOT_WINDOW, sent.size());
+        for (CursorRequestMessage crm : sent) {
+            assertEquals(7, crm.getCursorId());
+            assertFalse(crm.isClose());
+        }
+        assertTrue(bootstrap.handleResponse(response(sent.get(0), 7, "k2")));
+        // each reply with values is replaced by a new request
+        List<CursorRequestMessage> pending =
+                new ArrayList<CursorRequestMessage>(sent.subList(1, sent.size()));
+        sent = requests();
+        assertEquals(1, sent.size());
+        pending.addAll(sent);
+        // the exhausted store is closed only when all replies are in
+        for (CursorRequestMessage crm : pending) {
+            assertEquals(0, requests().size());
+            assertTrue(bootstrap.handleResponse(response(crm, 7)));
+        }
+        sent = requests();
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(0).isClose());
+        assertEquals("b", sent.get(1).getStoreName());
+
+        // A store the remote node doesn't have is skipped
+        assertTrue(bootstrap.handleResponse(response(sent.get(0), 7)));
+        assertFalse(bootstrap.isFinished());
+        assertTrue(bootstrap.handleError(error(sent.get(1),
+                               SyncException.ErrorType.UNKNOWN_STORE)));
+        assertTrue(bootstrap.isFinished());
+        assertEquals(0, requests().size());
+
+        // Replies to requests made by others are not consumed
+        CursorRequestMessage other = new CursorRequestMessage();
+        other.setHeader(new AsyncMessageHeader().setTransactionId(1000));
+        assertFalse(bootstrap.handleResponse(response(other, 8)));
+
+        verify(syncManager);
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        syncManager.snapshotBootstrapFinished();
+        expectLastCall().once();
+        replay(syncManager);
+
+        SnapshotBootstrap bootstrap =
+                new SnapshotBootstrap(syncManager, rpcService, remoteNode,
+                                      channel, Arrays.asList(store("a")));
+        bootstrap.start();
+        List<CursorRequestMessage> sent = requests();
+        assertEquals(1, sent.size());
+
+        bootstrap.abort();
+        assertTrue(bootstrap.isFinished());
+        // a late reply is still recognized and ignored
+        assertTrue(bootstrap.handleResponse(response(sent.get(0), 7,
+                                                     "k1")));
+        bootstrap.abort();
+        verify(syncManager);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        syncManager.snapshotBootstrapFinished();
+        expectLastCall().once();
+        replay(syncManager);
+
+        SnapshotBootstrap bootstrap =
+                new SnapshotBootstrap(syncManager, rpcService, remoteNode,
+                                      channel, new ArrayList<SynchronizingStorageEngine>());
+        bootstrap.start();
+        assertTrue(bootstrap.isFinished());
+        assertEquals(0, requests().size());
+        verify(syncManager);
+    }
+}
@@ -0,0 +1,111 @@
+package org.sdnplatform.sync.internal.rpc;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import org.sdnplatform.sync.thrift.AsyncMessageHeader;
+import org.sdnplatform.sync.thrift.ClockEntry;
+import org.sdnplatform.sync.thrift.EchoRequestMessage;
+import org.sdnplatform.sync.thrift.KeyedValues;
+import org.sdnplatform.sync.thrift.MessageType;
+import org.sdnplatform.sync.thrift.Store;
+import org.sdnplatform.sync.thrift.SyncMessage;
+import org.sdnplatform.sync.thrift.SyncValueMessage;
+import org.sdnplatform.sync.thrift.VectorClock;
+import org.sdnplatform.sync.thrift.VersionedValue;
+
+public class SyncMessageCodecTest {
+    private static SyncMessage syncValue(int values) {
+        SyncValueMessage svm = new SyncValueMessage();
+        svm.setHeader(new AsyncMessageHeader().setTransactionId(7));
+        svm.setStore(new Store("test"));
+        for (int i = 0; i < values; i++) {
+            VectorClock clock = new VectorClock();
+            clock.addToVersions(new ClockEntry((short) 1, i));
+            clock.setTimestamp(1000 + i);
+            VersionedValue vv = new VersionedValue(clock);
+            vv.setValue(("value of key " + i).getBytes());
+            KeyedValues kv = new KeyedValues(ByteBuffer.wrap(("key" + i).getBytes()),
+                                             Arrays.asList(vv));
+            svm.addToValues(kv);
+        }
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_VALUE);
+        bsm.setSyncValue(svm);
+        return bsm;
+    }
+
+    private static List<SyncMessage> roundTrip(int compressionThreshold,
+                                               List<Integer> frameLengths,
+                                               SyncMessage... messages) {
+        EmbeddedChannel out =
+                new EmbeddedChannel(new SyncMessageEncoder(compressionThreshold));
+        EmbeddedChannel in = new EmbeddedChannel(new SyncMessageDecoder(512 * 1024));
+        for (SyncMessage m : messages) {
+            assertTrue(out.writeOutbound(m));
+            ByteBuf frame = (ByteBuf) out.readOutbound();
+            frameLengths.add(frame.readableBytes());
+            in.writeInbound(frame);
+        }
+        List<SyncMessage> result = new ArrayList<SyncMessage>();
+        Object o;
+        while ((o = in.readInbound()) != null) {
+            for (Object m : (List<?>) o) {
+                result.add((SyncMessage) m);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testUncompressed() throws Exception {
+        SyncMessage big = syncValue(200);
+        List<Integer> lengths = new ArrayList<Integer>();
+        List<SyncMessage> result = roundTrip(0, lengths, big);
+        assertEquals(Arrays.asList(big), result);
+    }
+
+    @Test
+    public void testCompressed() throws Exception {
+        SyncMessage small = syncValue(1);
+        SyncMessage big = syncValue(200);
+        SyncMessage echo = new SyncMessage(MessageType.ECHO_REQUEST);
+        echo.setEchoRequest(new EchoRequestMessage(new AsyncMessageHeader()));
+
+        List<Integer> plain = new ArrayList<Integer>();
+        roundTrip(0, plain, small, big, echo);
+        List<Integer> compressed = new ArrayList<Integer>();
+        List<SyncMessage> result = roundTrip(256, compressed, small, big, echo);
+
+        assertEquals(Arrays.asList(small, big, echo), result);
+        // only the large sync value reaches the threshold
+        assertEquals(plain.get(0), compressed.get(0));
+        assertTrue(compressed.get(1) < plain.get(1) / 2);
+        assertEquals(plain.get(2), compressed.get(2));
+    }
+
+    @Test
+    public void testCompressedAfterOversizedFrame() throws Exception {
+        SyncMessage huge = syncValue(5000);
+        SyncMessage big = syncValue(200);
+
+        List<Integer> plain = new ArrayList<Integer>();
+        roundTrip(0, plain, huge);
+        assertTrue(plain.get(0) > SyncMessageEncoder.MAX_RETAINED_BUFFER);
+
+        List<Integer> lengths = new ArrayList<Integer>();
+        List<SyncMessage> result = roundTrip(256, lengths, big, huge, big);
+
+        assertEquals(Arrays.asList(big, huge, big), result);
+        // the buffers dropped after the oversized frame are allocated again
+        assertTrue(lengths.get(1) < plain.get(0) / 2);
+        assertEquals(lengths.get(0), lengths.get(2));
+    }
+}
@@ -0,0 +1,192 @@
+package org.sdnplatform.sync.internal.store;
+
+import static org.junit.Assert.*;
+import static org.sdnplatform.sync.internal.TUtils.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.TUtils;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+public class LogStructuredStorageEngineTest extends AbstractStorageEngineT {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStructuredStorageEngine store;
+
+    @Before
+    public void setUp() throws Exception {
+        this.store = new LogStructuredStorageEngine("test", folder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.store.truncate();
+        this.store.close();
+        this.store = null;
+    }
+
+    @Override
+    public IStorageEngine<ByteArray, byte[]> getStorageEngine() {
+        return store;
+    }
+
+    @Override
+    public List<ByteArray> getKeys(int numKeys) {
+        List<ByteArray> keys = new ArrayList<ByteArray>(numKeys);
+        for(int i = 0; i < numKeys; i++)
+            keys.add(new ByteArray(TUtils.randomBytes(10)));
+        return keys;
+    }
+
+    private LogStructuredStorageEngine reopen(long segmentBytes)
+            throws Exception {
+        store.close();
+        store = new LogStructuredStorageEngine("test", folder.getRoot(),
+                                               segmentBytes, 0.5, true);
+        return store;
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        ByteArray k1 = new ByteArray((byte) 1);
+        ByteArray k2 = new ByteArray((byte) 2);
+        store.put(k1, new Versioned<byte[]>(new byte[] { 1 }, getClock(1)));
+        VectorClock clock = getClock(1, 1);
+        store.put(k1, new Versioned<byte[]>(new byte[] { 2 }, clock));
+        store.put(k2, new Versioned<byte[]>(new byte[] { 3 }, getClock(2)));
+
+        reopen(LogStructuredStorageEngine.DEFAULT_SEGMENT_BYTES);
+        List<Versioned<byte[]>> found = store.get(k1);
+        assertEquals(1, found.size());
+        assertArrayEquals(new byte[] { 2 }, found.get(0).getValue());
+        assertEquals(clock, found.get(0).getVersion());
+        assertEquals(1, store.get(k2).size());
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        ByteArray k1 = new ByteArray((byte) 1);
+        ByteArray k2 = new ByteArray((byte) 2);
+        store.put(k1, new Versioned<byte[]>(new byte[] { 1 }, getClock(1)));
+        store.put(k2, new Versioned<byte[]>(new byte[] { 2 }, getClock(1)));
+        store.close();
+
+        File[] segments = folder.getRoot().listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+        long fullLength = raf.length();
+        raf.setLength(fullLength - 3);
+        raf.close();
+
+        reopen(LogStructuredStorageEngine.DEFAULT_SEGMENT_BYTES);
+        assertEquals(1, store.get(k1).size());
+        assertEquals(0, store.get(k2).size());
+
+        // appends go where the torn record was
+        store.put(k2, new Versioned<byte[]>(new byte[] { 3 }, getClock(1)));
+        reopen(LogStructuredStorageEngine.DEFAULT_SEGMENT_BYTES);
+        assertArrayEquals(new byte[] { 3 }, store.get(k2).get(0).getValue());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        reopen(1024);
+        ByteArray live = new ByteArray((byte) 0);
+        store.put(live, new Versioned<byte[]>(new byte[] { 42 }, getClock(1)));
+        ByteArray key = new ByteArray((byte) 1);
+        VectorClock clock = getClock(1);
+        for (int i = 0; i < 200; i++) {
+            clock = clock.incremented(1, System.currentTimeMillis());
+            store.put(key, new Versioned<byte[]>(new byte[100], clock));
+        }
+        // about 30 segments were written, and few are left
+        store.compact();
+        assertTrue(store.getSegmentCount() <= 3);
+        assertEquals(store.getSegmentCount(),
+                     folder.getRoot().listFiles().length);
+        assertArrayEquals(new byte[] { 42 }, store.get(live).get(0).getValue());
+        assertEquals(clock, store.get(key).get(0).getVersion());
+
+        reopen(1024);
+        assertArrayEquals(new byte[] { 42 }, store.get(live).get(0).getValue());
+        assertEquals(clock, store.get(key).get(0).getVersion());
+    }
+
+    @Test
+    public void testTombstoneDeletion() throws Exception {
+        store.setTombstoneInterval(1000);
+        ByteArray key = new ByteArray((byte) 1);
+        long now = System.currentTimeMillis();
+        store.put(key, new Versioned<byte[]>(new byte[] { 1 },
+                                             getClockT(now - 5000, 1)));
+        store.put(key, new Versioned<byte[]>(null,
+                                             getClockT(now - 2000, 1, 1)));
+        store.cleanupTask();
+        assertEquals(0, store.get(key).size());
+        assertFalse(store.keys().hasNext());
+
+        // the deletion survives a restart and compaction of the older
+        // records
+        reopen(LogStructuredStorageEngine.DEFAULT_SEGMENT_BYTES);
+        store.compact();
+        assertEquals(0, store.get(key).size());
+    }
+
+    @Test
+    public void testDeletionsAreCompactedAway() throws Exception {
+        reopen(1024);
+        store.setTombstoneInterval(1000);
+        // keeps the first segment from being compacted
+        ByteArray live = new ByteArray((byte) 0);
+        store.put(live, new Versioned<byte[]>(new byte[900], getClock(1)));
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 500; i++) {
+            ByteArray key = new ByteArray((byte) 1, (byte) (i >> 8),
+                                          (byte) i);
+            store.put(key, new Versioned<byte[]>(new byte[10],
+                                                 getClockT(now - 5000, 1)));
+            store.put(key, new Versioned<byte[]>(null,
+                                                 getClockT(now - 2000, 1, 1)));
+            store.cleanupTask();
+            assertEquals(0, store.get(key).size());
+        }
+        // deletions are dropped with the records they delete instead of
+        // being copied from segment to segment
+        long bytes = 0;
+        for (File f : folder.getRoot().listFiles()) {
+            bytes += f.length();
+        }
+        assertTrue(bytes < 4 * 1024);
+
+        reopen(1024);
+        assertEquals(1, store.get(live).size());
+        for (int i = 0; i < 500; i++) {
+            ByteArray key = new ByteArray((byte) 1, (byte) (i >> 8),
+                                          (byte) i);
+            assertEquals(0, store.get(key).size());
+        }
+    }
+
+    @Test
+    public void testWriteSyncValue() throws Exception {
+        ByteArray key = new ByteArray((byte) 1);
+        Versioned<byte[]> v1 = new Versioned<byte[]>(new byte[] { 1 }, getClock(1));
+        Versioned<byte[]> v2 = new Versioned<byte[]>(new byte[] { 2 }, getClock(2));
+        assertTrue(store.writeSyncValue(key, Arrays.asList(v1, v2)));
+        assertEquals(2, store.get(key).size());
+        assertFalse(store.writeSyncValue(key, Arrays.asList(v1)));
+    }
+}